@@ -0,0 +1,359 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb;
+
+import com.sleepycat.bind.RecordNumberBinding;
+import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.db.Cursor;
+import com.sleepycat.db.Database;
+import com.sleepycat.db.DatabaseEntry;
+import com.sleepycat.db.DatabaseException;
+import com.sleepycat.db.OperationStatus;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeData;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeKey;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbExternalSorter;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbPackedSegmentKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The batched removal of vertices together with all their edges. Instead of
+ * removing the edges one at a time, each with its own cursors and lookups,
+ * the adjacency lists of the vertices are read and deleted with one range
+ * scan per vertex in the out and in databases, the other halves of the edges
+ * are deleted in the key order with one cursor per database, and the
+ * properties of the out-edges are deleted by the ranges of their keys.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+class BdbBatchRemover {
+
+	/**
+	 * The order of the keys of the B-trees with the default comparator
+	 */
+	private static final Comparator<byte[]> KEY_ORDER = new Comparator<byte[]>() {
+		public int compare(byte[] a, byte[] b) {
+			return BdbExternalSorter.compare(a, 0, a.length, b, 0, b.length);
+		}
+	};
+
+
+	/**
+	 * One half of an edge, which is stored with the given vertex in the out or
+	 * in database
+	 */
+	private static class Half implements Comparable<Half> {
+
+		public long vertex;
+		public String label;
+		public long neighbor;
+		public BdbExternalSorter.Record record;
+
+
+		/**
+		 * Create an instance of class Half
+		 *
+		 * @param vertex the ID of the vertex that stores the half
+		 * @param label the edge label
+		 * @param neighbor the ID of the other vertex
+		 */
+		public Half(long vertex, String label, long neighbor) {
+			this.vertex = vertex;
+			this.label = label;
+			this.neighbor = neighbor;
+		}
+
+
+		/**
+		 * Encode the record of the half, which determines its position in the database
+		 *
+		 * @param graph the graph
+		 */
+		public void encode(BdbGraph graph) {
+			DatabaseEntry key = new DatabaseEntry();
+			DatabaseEntry data = new DatabaseEntry();
+			if (graph.getLayout() == BdbGraph.Layout.PACKED) {
+				graph.segmentKeyBinding.objectToEntry(new BdbPackedSegmentKey(vertex, label, neighbor), key);
+				record = new BdbExternalSorter.Record(BdbExternalSorter.bytes(key), new byte[0]);
+			}
+			else {
+				RecordNumberBinding.recordNumberToEntry(vertex, key);
+				graph.edgeDataBinding.objectToEntry(new BdbEdgeData(label, neighbor), data);
+				record = new BdbExternalSorter.Record(BdbExternalSorter.bytes(key), BdbExternalSorter.bytes(data));
+			}
+		}
+
+
+		@Override
+		public int compareTo(Half other) {
+			return record.compareTo(other.record);
+		}
+	}
+
+
+	/**
+	 * Remove vertices together with all their edges
+	 *
+	 * @param graph the graph
+	 * @param vertices the vertex IDs
+	 * @throws DatabaseException on error
+	 */
+	public static void removeVertices(BdbGraph graph, long[] vertices) throws DatabaseException {
+
+		Set<Long> removed = new HashSet<Long>();
+		for (long v : vertices) removed.add(v);
+		if (removed.isEmpty()) return;
+
+
+		// Read and delete the adjacency lists of the vertices
+
+		List<Half> outHalves = removeAdjacencyLists(graph, graph.outDb, removed);
+		List<Half> inHalves = removeAdjacencyLists(graph, graph.inDb, removed);
+
+
+		// Delete the other halves of the edges, unless they belong to one of the
+		// removed vertices, in which case they are already gone
+
+		List<Half> reverse = new ArrayList<Half>();
+		for (Half h : outHalves) {
+			if (!removed.contains(h.neighbor)) reverse.add(new Half(h.neighbor, h.label, h.vertex));
+		}
+		removeHalves(graph, graph.inDb, reverse);
+
+		reverse = new ArrayList<Half>();
+		for (Half h : inHalves) {
+			if (!removed.contains(h.neighbor)) reverse.add(new Half(h.neighbor, h.label, h.vertex));
+		}
+		List<Half> reverseOut = removeHalves(graph, graph.outDb, reverse);
+
+
+		// Remove the properties, the index records, the sampling records, and the
+		// counts of the edges, all of which are keyed by the out half
+
+		removeEdgeRecords(graph, removed, outHalves, reverseOut);
+
+
+		// Remove the properties and the records of the vertices
+
+		long[] ids = new long[removed.size()];
+		int i = 0;
+		for (Long v : removed) ids[i++] = v;
+		Arrays.sort(ids);
+
+		List<DatabaseEntry> entries = new ArrayList<DatabaseEntry>(ids.length);
+		for (long v : ids) {
+			DatabaseEntry e = new DatabaseEntry();
+			RecordNumberBinding.recordNumberToEntry(v, e);
+			entries.add(e);
+		}
+
+		graph.vertexKeyIndex.removeElements(entries);
+
+		long count = 0;
+		for (DatabaseEntry e : entries) {
+			graph.vertexPropertyDb.delete(graph.getTransaction(), e);
+			if (graph.vertexDb.delete(graph.getTransaction(), e) == OperationStatus.SUCCESS)
+				count++;
+			if (graph.vertexSampleIndex != null)
+				graph.vertexSampleIndex.remove(e);
+		}
+		if (count > 0) graph.counters.addVertices(-count);
+	}
+
+
+	/**
+	 * Read and delete the adjacency lists of the given vertices, visiting them
+	 * in the key order with a single write cursor
+	 *
+	 * @param graph the graph
+	 * @param db the out or in database
+	 * @param vertices the vertex IDs
+	 * @return the halves of the edges that were deleted
+	 * @throws DatabaseException on error
+	 */
+	private static List<Half> removeAdjacencyLists(BdbGraph graph, Database db, Set<Long> vertices)
+			throws DatabaseException {
+
+		boolean packed = graph.getLayout() == BdbGraph.Layout.PACKED;
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+
+		List<byte[]> prefixes = new ArrayList<byte[]>(vertices.size());
+		for (Long v : vertices) {
+			if (packed)
+				graph.segmentKeyBinding.prefixToEntry(v, null, key);
+			else
+				RecordNumberBinding.recordNumberToEntry(v, key);
+			prefixes.add(BdbExternalSorter.bytes(key));
+		}
+		Collections.sort(prefixes, KEY_ORDER);
+
+		List<Half> halves = new ArrayList<Half>();
+		Cursor cursor = db.openCursor(graph.getTransaction(), graph.writeCursorConfig);
+		try {
+			for (byte[] prefix : prefixes) {
+				key = new DatabaseEntry(prefix);
+				OperationStatus status = cursor.getSearchKeyRange(key, data, null);
+				while (status == OperationStatus.SUCCESS && startsWith(key, prefix)) {
+					if (packed) {
+						BdbPackedSegmentKey k = graph.segmentKeyBinding.entryToObject(key);
+						for (long n : BdbPackedAdjacency.segmentDataBinding.entryToObject(data))
+							halves.add(new Half(k.vertex, k.label, n));
+					}
+					else {
+						BdbEdgeData d = graph.edgeDataBinding.entryToObject(data);
+						halves.add(new Half(RecordNumberBinding.entryToRecordNumber(key), d.label, d.id));
+					}
+					cursor.delete();
+					status = cursor.getNext(key, data, null);
+				}
+			}
+		}
+		finally {
+			cursor.close();
+		}
+
+		return halves;
+	}
+
+
+	/**
+	 * Delete the given edge halves in the key order with a single write cursor
+	 *
+	 * @param graph the graph
+	 * @param db the out or in database
+	 * @param halves the halves to delete, which will be sorted
+	 * @return the halves that were deleted
+	 * @throws DatabaseException on error
+	 */
+	private static List<Half> removeHalves(BdbGraph graph, Database db, List<Half> halves)
+			throws DatabaseException {
+
+		boolean packed = graph.getLayout() == BdbGraph.Layout.PACKED;
+		for (Half h : halves) h.encode(graph);
+		Collections.sort(halves);
+
+		List<Half> result = new ArrayList<Half>(halves.size());
+		Cursor cursor = db.openCursor(graph.getTransaction(), graph.writeCursorConfig);
+		try {
+			for (Half h : halves) {
+				boolean found;
+				if (packed) {
+					found = BdbPackedAdjacency.remove(graph, cursor, h.vertex, h.label, h.neighbor);
+				}
+				else {
+					found = cursor.getSearchBoth(new DatabaseEntry(h.record.key), new DatabaseEntry(h.record.data),
+							null) == OperationStatus.SUCCESS;
+					if (found) cursor.delete();
+				}
+				if (found) result.add(h);
+			}
+		}
+		finally {
+			cursor.close();
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Remove the properties, the index records, the sampling records, and the
+	 * counts of the removed edges. The properties of the out-edges of the
+	 * removed vertices are deleted by the ranges of the out vertex, and the
+	 * properties of the other edges by their keys.
+	 *
+	 * @param graph the graph
+	 * @param vertices the IDs of the removed vertices
+	 * @param outHalves the out halves of the edges of the removed vertices
+	 * @param otherHalves the out halves of the edges of the other vertices
+	 * @throws DatabaseException on error
+	 */
+	private static void removeEdgeRecords(BdbGraph graph, Set<Long> vertices, List<Half> outHalves,
+			List<Half> otherHalves) throws DatabaseException {
+
+		DatabaseEntry entry = new DatabaseEntry();
+		HashMap<String, Long> counts = new HashMap<String, Long>();
+		List<byte[]> keys = new ArrayList<byte[]>(outHalves.size() + otherHalves.size());
+		List<byte[]> ranges = new ArrayList<byte[]>(vertices.size() + otherHalves.size());
+
+		for (int pass = 0; pass < 2; pass++) {
+			for (Half h : pass == 0 ? outHalves : otherHalves) {
+				graph.edgeKeyBinding.objectToEntry(new BdbEdgeKey(h.vertex, h.label, h.neighbor), entry);
+				byte[] k = BdbExternalSorter.bytes(entry);
+				keys.add(k);
+				if (pass == 1) ranges.add(k);
+
+				Long c = counts.get(h.label);
+				counts.put(h.label, c == null ? -1L : c - 1);
+			}
+		}
+
+		// The edge keys start with the out vertex
+
+		for (Long v : vertices) {
+			TupleOutput to = new TupleOutput();
+			to.writeLong(v);
+			ranges.add(to.toByteArray());
+		}
+
+		Collections.sort(keys, KEY_ORDER);
+		Collections.sort(ranges, KEY_ORDER);
+
+		List<DatabaseEntry> entries = new ArrayList<DatabaseEntry>(keys.size());
+		for (byte[] k : keys) entries.add(new DatabaseEntry(k));
+
+
+		// The index records must be removed before the properties
+
+		graph.edgeKeyIndex.removeElements(entries);
+
+
+		// Delete the properties with a single write cursor
+
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+		data.setPartial(0, 0, true);
+
+		Cursor cursor = graph.edgePropertyDb.openCursor(graph.getTransaction(), graph.writeCursorConfig);
+		try {
+			for (byte[] prefix : ranges) {
+				key = new DatabaseEntry(prefix);
+				OperationStatus status = cursor.getSearchKeyRange(key, data, null);
+				while (status == OperationStatus.SUCCESS && startsWith(key, prefix)) {
+					cursor.delete();
+					status = cursor.getNext(key, data, null);
+				}
+			}
+		}
+		finally {
+			cursor.close();
+		}
+
+
+		// Update the sampling index and the counters
+
+		if (graph.edgeSampleIndex != null) {
+			for (DatabaseEntry e : entries) graph.edgeSampleIndex.remove(e);
+		}
+		if (!counts.isEmpty()) graph.counters.addEdges(counts);
+	}
+
+
+	/**
+	 * Determine whether a key starts with the given prefix
+	 *
+	 * @param key the key
+	 * @param prefix the prefix
+	 * @return true if it does
+	 */
+	private static boolean startsWith(DatabaseEntry key, byte[] prefix) {
+		if (key.getSize() < prefix.length) return false;
+		return BdbExternalSorter.compare(key.getData(), key.getOffset(), prefix.length, prefix, 0, prefix.length) == 0;
+	}
+}
@@ -0,0 +1,23 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb;
+
+/**
+ * The current transaction of a transactional graph was chosen as the victim of
+ * a deadlock. The transaction was already rolled back, so all of its changes
+ * are lost, and the caller should retry the whole transaction.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbDeadlockException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+
+	/**
+	 * Create an instance of class BdbDeadlockException
+	 *
+	 * @param cause the deadlock exception of the database
+	 */
+	public BdbDeadlockException(Throwable cause) {
+		super("BdbGraph: The transaction was rolled back because of a deadlock; retry it.", cause);
+	}
+}
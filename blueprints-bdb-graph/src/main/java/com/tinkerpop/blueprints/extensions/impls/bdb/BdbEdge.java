@@ -8,16 +8,21 @@ import com.sleepycat.db.DatabaseException;
 import com.sleepycat.db.OperationStatus;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.TransactionalGraph;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbBulkCursor;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeData;
-import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeDataBinding;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeKey;
-import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeKeyBinding;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbPropertyData;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbRecordNumberComparator;
 import com.tinkerpop.blueprints.util.StringFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -26,8 +31,6 @@ import java.util.Set;
  */
 public class BdbEdge extends BdbElement implements Edge {
 	
-    final public static BdbEdgeDataBinding edgeDataBinding = new BdbEdgeDataBinding();
-    final protected static BdbEdgeKeyBinding edgeKeyBinding = new BdbEdgeKeyBinding();
 	//final private static String DEFAULT_LABEL = "";
 	
 	private BdbGraph graph;
@@ -41,17 +44,15 @@ public class BdbEdge extends BdbElement implements Edge {
 		final BdbVertex inVertex,
 		final String label) throws DatabaseException
     {
-    	DatabaseEntry data = graph.data;
-
     	this.out = RecordNumberBinding.entryToRecordNumber(outVertex.dataId);
     	this.in = RecordNumberBinding.entryToRecordNumber(inVertex.dataId);
 
     	if (!graph.bulkLoadMode) {
 	    	// First, verify in and out vertex existence.
 	    	OperationStatus status;
-	    	status = graph.vertexDb.exists(null, outVertex.dataId);
+	    	status = graph.vertexDb.exists(graph.getTransaction(), outVertex.dataId);
 	    	if (status == OperationStatus.SUCCESS)
-	    		status = graph.vertexDb.exists(null, inVertex.dataId);
+	    		status = graph.vertexDb.exists(graph.getTransaction(), inVertex.dataId);
 	        
 	        if (status != OperationStatus.SUCCESS)
 	        	throw new RuntimeException("BdbEdge: Vertex " + this.out + " or " + this.in + " does not exist.");
@@ -59,17 +60,11 @@ public class BdbEdge extends BdbElement implements Edge {
         
         if (out < 0 || in < 0)
         	throw new InternalError("Record numbers are not supposed to be negative");
-       
-        // Then, add out and in edge records.
-        BdbEdgeData edata = new BdbEdgeData(label, this.in);
-        edgeDataBinding.objectToEntry(edata, data);
         
-    	if (graph.outDb.putNoDupData(null, outVertex.dataId, data) == OperationStatus.SUCCESS) {
-    		edata.id = this.out;
-    		edgeDataBinding.objectToEntry(edata, data);
-    		graph.inDb.putNoDupData(null, inVertex.dataId, data);
-    		//XXX dmargo: This needs to be a transaction to be safe.
-    	}
+        // Then, add out and in edge records, or buffer them in the bulk-load mode.
+        // Note: The two records are written atomically only if the graph is transactional.
+        if (addHalf(graph, Direction.OUT, this.out, label, this.in))
+        	addHalf(graph, Direction.IN, this.in, label, this.out);
         
         this.graph = graph;
         this.label = label;
@@ -93,17 +88,23 @@ public class BdbEdge extends BdbElement implements Edge {
     	BdbEdgeKey ekey = (BdbEdgeKey) id;
     	if (ekey.out < 0)
     		throw new IllegalArgumentException("Invalid ID: vertex ID's cannot be negative");
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
    	
     	// Look for a valid edge record.    	
-    	RecordNumberBinding.recordNumberToEntry(ekey.out, key);
-
-		BdbEdgeData edata = new BdbEdgeData(ekey.label, ekey.in);
-		edgeDataBinding.objectToEntry(edata, data);
-
-        if (graph.outDb.getSearchBoth(null, key, data, null) != OperationStatus.SUCCESS)
-        	throw new RuntimeException("BdbEdge: Edge " + id + " does not exist.");
+    	if (graph.getLayout() == BdbGraph.Layout.PACKED) {
+    		if (!BdbPackedAdjacency.contains(graph, graph.outDb, ekey.out, ekey.label, ekey.in))
+    			throw new RuntimeException("BdbEdge: Edge " + id + " does not exist.");
+    	}
+    	else {
+	    	RecordNumberBinding.recordNumberToEntry(ekey.out, key);
+	
+			BdbEdgeData edata = new BdbEdgeData(ekey.label, ekey.in);
+			graph.edgeDataBinding.objectToEntry(edata, data);
+	
+	        if (graph.outDb.getSearchBoth(graph.getTransaction(), key, data, null) != OperationStatus.SUCCESS)
+	        	throw new RuntimeException("BdbEdge: Edge " + id + " does not exist.");
+    	}
         
         this.graph = graph;
         this.out = ekey.out;
@@ -123,16 +124,62 @@ public class BdbEdge extends BdbElement implements Edge {
     	this.in = in;
     }
     
+    /**
+     * Return a random edge. The edge is sampled exactly uniformly only if the
+     * graph has the edge sampling database; otherwise the distribution is only
+     * approximately uniform, and in the packed layout it favors the edges of the
+     * vertices with a low out-degree.
+     * 
+     * @param graph the graph
+     * @return a random edge
+     * @throws NoSuchElementException if the graph has no edges
+     * @throws DatabaseException on error
+     */
     public static BdbEdge getRandomEdge(final BdbGraph graph) throws DatabaseException {
     	
-    	// XXX This will loop forever if there are no edges
+    	// Sample exactly uniformly using the record numbers, if available
+    	
+    	if (graph.edgeSampleIndex != null) {
+    		List<DatabaseEntry> l = graph.edgeSampleIndex.sample(1);
+    		if (l.isEmpty()) throw new NoSuchElementException();
+    		BdbEdgeKey k = graph.edgeKeyBinding.entryToObject(l.get(0));
+    		return new BdbEdge(graph, k.out, k.label, k.in);
+    	}
+    	
+    	// The sampling loops below would never finish if there were no edges. An empty
+    	// out database means that there are none, since the packed layout deletes
+    	// its empty segments; unlike countEdges(), this does not need the counters.
+    	
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
+    	
+    	Cursor cursor = graph.outDb.openCursor(graph.getTransaction(), null);
+    	try {
+    		if (cursor.getFirst(key, data, null) != OperationStatus.SUCCESS)
+    			throw new NoSuchElementException();
+    	}
+    	finally {
+    		cursor.close();
+    	}
+    	
+    	if (graph.getLayout() == BdbGraph.Layout.PACKED) {
+    		
+    		// Pick a random vertex with at least one out-edge, and then one of its edges
+    		// uniformly at random. Note that this favors the edges of low-degree vertices.
+    		
+    		while (true) {
+    			ArrayList<Edge> edges = new ArrayList<Edge>();
+    			for (Edge e : BdbVertex.getRandomVertex(graph).getEdges(Direction.OUT))
+    				edges.add(e);
+    			if (!edges.isEmpty())
+    				return (BdbEdge) edges.get((int) (Math.random() * edges.size()));
+    		}
+    	}
     	
     	// Note: Use inDb instead of outDb, since most of our graphs are Barabasi graphs,
     	// in which the in-degree of a node is constant. Warning: This is a hack.
         
     	OperationStatus status;
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
     	
     	do {
     		
@@ -143,7 +190,7 @@ public class BdbEdge extends BdbElement implements Edge {
     		// will pick an out-vertex uniformly at random from the leaf page, so we still need to
     		// account for this.
     		
-		   	Cursor cursor = graph.inDbRandom.openCursor(null, null);
+		   	cursor = graph.inDbRandom.openCursor(graph.getTransaction(), null);
 		   	RecordNumberBinding.recordNumberToEntry(BdbRecordNumberComparator.RANDOM, key);
 		   	status = cursor.getSearchKeyRange(key, data, null);
 		   	if (status == OperationStatus.NOTFOUND) {
@@ -176,47 +223,127 @@ public class BdbEdge extends BdbElement implements Edge {
     	// Now return the encountered edge 
     	
     	long other = RecordNumberBinding.entryToRecordNumber(key);
-    	BdbEdgeData d = edgeDataBinding.entryToObject(data);
+    	BdbEdgeData d = graph.edgeDataBinding.entryToObject(data);
     	return new BdbEdge(graph, other, d.id, d.label);
     }
     
 
     protected void remove() throws DatabaseException{
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
+    	removeHalf(graph, Direction.OUT, this.out, this.label, this.in);
+    	removeHalf(graph, Direction.IN, this.in, this.label, this.out);
+
+        this.in = 0;
+		this.label = null;
+        this.out = 0;
+        this.graph = null;
+    }
+    
+    /**
+     * Add one half of an edge, which is the record in the out database together
+     * with the sampling record and the counters for the OUT direction, or the
+     * record in the in database for the IN direction. The neighbor does not
+     * need to be a vertex of the same graph, which is how the sharded graph
+     * stores the edges between two shards.
+     * 
+     * @param graph the graph
+     * @param direction the direction, either OUT or IN
+     * @param vertex the ID of the vertex that stores the half
+     * @param label the edge label
+     * @param neighbor the ID of the other vertex
+     * @return true if the half was added or buffered, false if it already exists
+     * @throws DatabaseException on error
+     */
+    static boolean addHalf(final BdbGraph graph, final Direction direction, final long vertex,
+    		final String label, final long neighbor) throws DatabaseException {
     	
-    	// Remove property records.
-    	BdbEdgeKey ekey = new BdbEdgeKey(this.out, this.label, this.in);
-      	edgeKeyBinding.objectToEntry(ekey, key);
+    	boolean out = direction == Direction.OUT;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
     	
-        this.graph.edgePropertyDb.delete(null, key);
+        // Make sure that the label has an ID before it is written to the records.
+        if (graph.labelDictionary != null)
+        	graph.labelDictionary.getOrCreateId(label);
         
-        // Remove edge records.
-        RecordNumberBinding.recordNumberToEntry(this.out, key);
+        // The bulk loader takes care of the sampling records and the counters.
+        if (graph.bulkLoader != null) {
+        	RecordNumberBinding.recordNumberToEntry(vertex, key);
+        	if (out)
+        		graph.bulkLoader.addOut(key, label, neighbor);
+        	else
+        		graph.bulkLoader.addIn(key, label, neighbor);
+        	return true;
+        }
         
-        BdbEdgeData edata = new BdbEdgeData(this.label, this.in);
-        edgeDataBinding.objectToEntry(edata, data);
+        boolean added;
+        if (graph.getLayout() == BdbGraph.Layout.PACKED) {
+        	added = BdbPackedAdjacency.add(graph, out ? graph.outDb : graph.inDb, vertex, label, neighbor);
+        }
+        else {
+        	RecordNumberBinding.recordNumberToEntry(vertex, key);
+        	graph.edgeDataBinding.objectToEntry(new BdbEdgeData(label, neighbor), data);
+        	added = (out ? graph.outDb : graph.inDb).putNoDupData(graph.getTransaction(), key, data)
+        			== OperationStatus.SUCCESS;
+        }
         
-
-    	Cursor cursor = this.graph.outDb.openCursor(null, null);
-    	if (cursor.getSearchBoth(key, data, null) == OperationStatus.SUCCESS)
-    		cursor.delete();
-    	cursor.close();
+        if (added && out) {
+        	if (graph.edgeSampleIndex != null) {
+        		graph.edgeKeyBinding.objectToEntry(new BdbEdgeKey(vertex, label, neighbor), data);
+        		graph.edgeSampleIndex.add(data);
+        	}
+        	graph.counters.addEdges(label, 1);
+        }
+        return added;
+    }
+    
+    /**
+     * Remove one half of an edge, which is the record in the out database together
+     * with the properties, the sampling record, and the counters for the OUT
+     * direction, or the record in the in database for the IN direction.
+     * 
+     * @param graph the graph
+     * @param direction the direction, either OUT or IN
+     * @param vertex the ID of the vertex that stores the half
+     * @param label the edge label
+     * @param neighbor the ID of the other vertex
+     * @return true if the half was removed, false if it did not exist
+     * @throws DatabaseException on error
+     */
+    static boolean removeHalf(final BdbGraph graph, final Direction direction, final long vertex,
+    		final String label, final long neighbor) throws DatabaseException {
     	
-    	RecordNumberBinding.recordNumberToEntry(this.in, key);
+    	boolean out = direction == Direction.OUT;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
     	
-    	edata.id = this.out;
-    	edgeDataBinding.objectToEntry(edata, data);
+    	// Remove property records.
+    	if (out) {
+    		graph.edgeKeyBinding.objectToEntry(new BdbEdgeKey(vertex, label, neighbor), key);
+    		graph.edgeKeyIndex.removeElement(key);
+    		graph.edgePropertyDb.delete(graph.getTransaction(), key);
+    		if (graph.edgeSampleIndex != null)
+    			graph.edgeSampleIndex.remove(key);
+    	}
     	
-    	cursor = this.graph.inDb.openCursor(null,  null);
-    	if (cursor.getSearchBoth(key, data, null) == OperationStatus.SUCCESS)
-    		cursor.delete();
-    	cursor.close();
-
-        this.in = 0;
-		this.label = null;
-        this.out = 0;
-        this.graph = null;
+    	// Remove the edge record.
+    	boolean removed = false;
+    	if (graph.getLayout() == BdbGraph.Layout.PACKED) {
+    		removed = BdbPackedAdjacency.remove(graph, out ? graph.outDb : graph.inDb, vertex, label, neighbor);
+    	}
+    	else {
+	    	RecordNumberBinding.recordNumberToEntry(vertex, key);
+	    	graph.edgeDataBinding.objectToEntry(new BdbEdgeData(label, neighbor), data);
+	    	
+	    	Cursor cursor = (out ? graph.outDb : graph.inDb).openCursor(graph.getTransaction(), graph.writeCursorConfig);
+	    	if (cursor.getSearchBoth(key, data, null) == OperationStatus.SUCCESS) {
+	    		cursor.delete();
+	    		removed = true;
+	    	}
+	    	cursor.close();
+    	}
+    	
+    	if (removed && out)
+    		graph.counters.addEdges(label, -1);
+    	return removed;
     }
 
     public Object getId() {
@@ -238,10 +365,8 @@ public class BdbEdge extends BdbElement implements Edge {
     		case IN : return new BdbVertex(this.graph, new Long(in));
     		}
 
-    	} catch (RuntimeException e) {
-    		throw e;
     	} catch (Exception e) {
-    		throw new RuntimeException(e.getMessage(), e);
+    		throw graph.failed(e);
     	}
 
     	throw new IllegalArgumentException("The Direction must be IN or OUT");
@@ -252,18 +377,22 @@ public class BdbEdge extends BdbElement implements Edge {
     }
 
     public Object getProperty(final String pkey) {
+    	Object cached = getCachedProperty(pkey);
+    	if (cached != NOT_CACHED)
+    		return cached;
+    	
     	Cursor cursor;
     	OperationStatus status;
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
     	
     	BdbEdgeKey ekey = new BdbEdgeKey(this.out, this.label, this.in);
-    	edgeKeyBinding.objectToEntry(ekey, key);
+    	graph.edgeKeyBinding.objectToEntry(ekey, key);
     	
     	StringBinding.stringToEntry(pkey, data);
     	
         try {
-        	cursor = graph.edgePropertyDb.openCursor(null,  null);
+        	cursor = graph.edgePropertyDb.openCursor(graph.getTransaction(), null);
         	
         	status = cursor.getSearchBothRange(key, data, null);
         	if (status == OperationStatus.SUCCESS) {
@@ -274,72 +403,105 @@ public class BdbEdge extends BdbElement implements Edge {
         	}
         	
         	cursor.close();
-        } catch (RuntimeException e) {
-			throw e;
-		} catch (Exception e) {
-			throw new RuntimeException(e.getMessage(), e);
+        } catch (Exception e) {
+			throw graph.failed(e);
 		}
         
-        if (status != OperationStatus.SUCCESS)
-        	return null;
+        Object value = null;
+        if (status == OperationStatus.SUCCESS) {
+        	BdbPropertyData result = BdbElement.propertyDataBinding.entryToObject(data);
+        	if (pkey.equals(result.pkey)) value = result.value;
+        }
         
-        BdbPropertyData result = BdbElement.propertyDataBinding.entryToObject(data);
-        return pkey.equals(result.pkey) ? result.value : null;
+        cacheProperty(pkey, value, graph.getPropertyCacheSize());
+        return value;
     }
 
     public Set<String> getPropertyKeys() {
     	Cursor cursor;
     	OperationStatus status;
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
     	
     	BdbEdgeKey ekey = new BdbEdgeKey(this.out, this.label, this.in);
-    	edgeKeyBinding.objectToEntry(ekey, key);
+    	graph.edgeKeyBinding.objectToEntry(ekey, key);
     	
-    	BdbPropertyData result;
 		Set<String> ret = new HashSet<String>();
 		
 		try {
-			cursor = this.graph.edgePropertyDb.openCursor(null, null);
+			cursor = this.graph.edgePropertyDb.openCursor(graph.getTransaction(), null);
 			
 			status = cursor.getSearchKey(key, data, null);
 			key.setPartial(0, 0, true);
 			while (status == OperationStatus.SUCCESS) {
 				
-				result = BdbElement.propertyDataBinding.entryToObject(data);
-				ret.add(result.pkey);
+				ret.add(StringBinding.entryToString(data));
 				status = cursor.getNextDup(key, data, null);
 			}
 			key.setPartial(false);
 			
 			cursor.close();
-		} catch (RuntimeException e) {
-			throw e;
 		} catch (Exception e) {
-			throw new RuntimeException(e.getMessage(), e);
+			throw graph.failed(e);
 		}
 		
 		return ret;
     }
     
+    public Map<String, Object> getPropertyMap() {
+    	BdbBulkCursor cursor;
+    	boolean found;
+    	BdbPropertyData result;
+		Map<String, Object> ret = new HashMap<String, Object>();
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
+    	
+    	BdbEdgeKey ekey = new BdbEdgeKey(this.out, this.label, this.in);
+    	graph.edgeKeyBinding.objectToEntry(ekey, key);
+		
+		try {
+			cursor = new BdbBulkCursor(this.graph.edgePropertyDb.openCursor(graph.getTransaction(), null),
+					graph.getBulkReadBufferSize(), false);
+			
+			found = cursor.getSearchKey(key, data);
+			while (found) {
+				
+				result = BdbElement.propertyDataBinding.entryToObject(data);
+				ret.put(result.pkey, result.value);
+				found = cursor.getNextDup(data);
+			}
+			
+			cursor.close();
+		} catch (Exception e) {
+			throw graph.failed(e);
+		}
+		
+		cacheProperties(ret, graph.getPropertyCacheSize());
+		return ret;
+    }
+    
     public void setProperty(final String pkey, final Object value) {
     	if (pkey == null || pkey.equals("") || pkey.equals("id") || pkey.equals("label"))
     		throw new IllegalArgumentException("BdbEdge: " + pkey + " is an invalid property key.");  	
     	
+    	invalidateCachedProperty(pkey);
+    	
     	Cursor cursor;
     	OperationStatus status;
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
     	
     	BdbEdgeKey ekey = new BdbEdgeKey(this.out, this.label, this.in);
-    	edgeKeyBinding.objectToEntry(ekey, key);
+    	graph.edgeKeyBinding.objectToEntry(ekey, key);
     	
     	StringBinding.stringToEntry(pkey, data);
     	BdbPropertyData pdata;
+    	boolean replaced = false;
+    	Object oldValue = null;
     	
         try {
-            //graph.autoStartTransaction();
-        	cursor = this.graph.edgePropertyDb.openCursor(null,  null);
+            graph.autoStartTransaction();
+        	cursor = this.graph.edgePropertyDb.openCursor(graph.getTransaction(), graph.writeCursorConfig);
         	
         	// If pkey exists, delete it.
         	status = cursor.getSearchBothRange(key, data, null);
@@ -351,8 +513,11 @@ public class BdbEdge extends BdbElement implements Edge {
         		if (status == OperationStatus.SUCCESS) {
         			
         			pdata = BdbElement.propertyDataBinding.entryToObject(data);
-        			if (pkey.equals(pdata.pkey))
+        			if (pkey.equals(pdata.pkey)) {
         				cursor.delete();
+        				replaced = true;
+        				oldValue = pdata.value;
+        			}
         		} else
         			pdata = new BdbPropertyData();
         	} else
@@ -366,13 +531,15 @@ public class BdbEdge extends BdbElement implements Edge {
         	
         	cursor.close();
         	
-        	//graph.autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
-        } catch (RuntimeException e) {
-            //graph.autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-			throw e;
-		} catch (Exception e) {
-            //graph.autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-			throw new RuntimeException(e.getMessage(), e);
+        	// Update the index
+        	if (status == OperationStatus.SUCCESS) {
+        		if (replaced) graph.edgeKeyIndex.remove(pkey, oldValue, key);
+        		graph.edgeKeyIndex.add(pkey, value, key);
+        	}
+        	
+        	graph.autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
+        } catch (Exception e) {
+            throw graph.mutationFailed(e);
 		}
         
         if (status != OperationStatus.SUCCESS)
@@ -380,21 +547,23 @@ public class BdbEdge extends BdbElement implements Edge {
     }
 
     public Object removeProperty(final String pkey) {
+    	invalidateCachedProperty(pkey);
+    	
     	Cursor cursor;
     	OperationStatus status;
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
     	
     	BdbEdgeKey ekey = new BdbEdgeKey(this.out, this.label, this.in);
-    	edgeKeyBinding.objectToEntry(ekey, key);
+    	graph.edgeKeyBinding.objectToEntry(ekey, key);
     	
     	StringBinding.stringToEntry(pkey, data);
     	BdbPropertyData result = null;
     	
         try {
-            //graph.autoStartTransaction();
+            graph.autoStartTransaction();
         	
-        	cursor = graph.edgePropertyDb.openCursor(null,  null);
+        	cursor = graph.edgePropertyDb.openCursor(graph.getTransaction(), graph.writeCursorConfig);
         	
         	// If pkey exists, delete it.
         	if (cursor.getSearchBothRange(key, data, null) == OperationStatus.SUCCESS) {
@@ -407,18 +576,22 @@ public class BdbEdge extends BdbElement implements Edge {
         			result = BdbElement.propertyDataBinding.entryToObject(data);
         			if (pkey.equals(result.pkey))
         				cursor.delete();
+        			else
+        				result = null;
         		}
         	}
         	
         	cursor.close();
         	
-        	//graph.autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
-        } catch (RuntimeException e) {
-            //graph.autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-			throw e;
-		} catch (Exception e) {
-            //graph.autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-			throw new RuntimeException(e.getMessage(), e);
+        	// Update the index
+        	if (result != null) {
+        		graph.edgeKeyBinding.objectToEntry(ekey, key);
+        		graph.edgeKeyIndex.remove(pkey, result.value, key);
+        	}
+        	
+        	graph.autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
+        } catch (Exception e) {
+            throw graph.mutationFailed(e);
 		}
         
         return result != null ? result.value : null;
@@ -1,5 +1,7 @@
 package com.tinkerpop.blueprints.extensions.impls.bdb;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import com.tinkerpop.blueprints.Element;
@@ -11,6 +13,10 @@ import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbPropertyDataBinding
 public abstract class BdbElement implements Element {
 	
     final protected static BdbPropertyDataBinding propertyDataBinding = new BdbPropertyDataBinding();
+    
+    final protected static Object NOT_CACHED = new Object();
+    
+    private HashMap<String, Object> propertyCache = null;
 
     public abstract Object getId();
     
@@ -21,5 +27,65 @@ public abstract class BdbElement implements Element {
     public abstract void setProperty(final String propertyKey, final Object value);
     
     public abstract Object removeProperty(final String propertyKey);
+    
+    /**
+     * Read all properties of the element using a single scan.
+     * 
+     * @return a new map of property keys to values
+     */
+    public abstract Map<String, Object> getPropertyMap();
+    
+    /**
+     * Get a property from the per-instance property cache.
+     * 
+     * @param propertyKey the property key
+     * @return the cached value (null if the property is known not to exist), or NOT_CACHED
+     */
+    protected Object getCachedProperty(final String propertyKey) {
+    	if (propertyCache == null) return NOT_CACHED;
+    	Object value = propertyCache.get(propertyKey);
+    	if (value == null && !propertyCache.containsKey(propertyKey)) return NOT_CACHED;
+    	return value;
+    }
+    
+    /**
+     * Put a property to the per-instance property cache. If the cache is full,
+     * it is emptied first.
+     * 
+     * @param propertyKey the property key
+     * @param value the value, or null if the property does not exist
+     * @param limit the maximum number of cached properties (0 to disable caching)
+     */
+    protected void cacheProperty(final String propertyKey, final Object value, final int limit) {
+    	if (limit <= 0) return;
+    	if (propertyCache == null) {
+    		propertyCache = new HashMap<String, Object>();
+    	}
+    	else if (propertyCache.size() >= limit && !propertyCache.containsKey(propertyKey)) {
+    		propertyCache.clear();
+    	}
+    	propertyCache.put(propertyKey, value);
+    }
+    
+    /**
+     * Replace the contents of the per-instance property cache with all properties
+     * of the element, if they fit.
+     * 
+     * @param properties the map of all properties
+     * @param limit the maximum number of cached properties (0 to disable caching)
+     */
+    protected void cacheProperties(final Map<String, Object> properties, final int limit) {
+    	if (limit <= 0 || properties.size() > limit) return;
+    	propertyCache = new HashMap<String, Object>(properties);
+    }
+    
+    /**
+     * Remove a property from the per-instance property cache.
+     * 
+     * @param propertyKey the property key
+     */
+    protected void invalidateCachedProperty(final String propertyKey) {
+    	if (propertyCache != null) propertyCache.remove(propertyKey);
+    }
 
 }
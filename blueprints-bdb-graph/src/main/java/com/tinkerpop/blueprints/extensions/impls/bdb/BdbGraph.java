@@ -1,27 +1,69 @@
 package com.tinkerpop.blueprints.extensions.impls.bdb;
 
-import com.sleepycat.db.BtreeStats;
+import com.sleepycat.bind.RecordNumberBinding;
+import com.sleepycat.db.CacheFileStats;
+import com.sleepycat.db.CacheStats;
+import com.sleepycat.db.CheckpointConfig;
+import com.sleepycat.db.CompactConfig;
+import com.sleepycat.db.CompactStats;
+import com.sleepycat.db.Cursor;
+import com.sleepycat.db.CursorConfig;
 import com.sleepycat.db.Database;
 import com.sleepycat.db.DatabaseConfig;
 import com.sleepycat.db.DatabaseEntry;
 import com.sleepycat.db.DatabaseException;
-import com.sleepycat.db.DatabaseStats;
 import com.sleepycat.db.DatabaseType;
+import com.sleepycat.db.DeadlockException;
 import com.sleepycat.db.Environment;
 import com.sleepycat.db.EnvironmentConfig;
-import com.sleepycat.db.QueueStats;
+import com.sleepycat.db.LockDetectMode;
+import com.sleepycat.db.OperationStatus;
 import com.sleepycat.db.StatsConfig;
+import com.sleepycat.db.Transaction;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
 import com.tinkerpop.blueprints.Features;
-import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.KeyIndexableGraph;
+import com.tinkerpop.blueprints.Parameter;
+import com.tinkerpop.blueprints.TransactionalGraph;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.AutoTransactionalGraph;
 import com.tinkerpop.blueprints.extensions.BenchmarkableGraph;
 import com.tinkerpop.blueprints.extensions.BulkloadableGraph;
+import com.tinkerpop.blueprints.extensions.PartitionableGraph;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbBulkCursor;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbBulkLoader;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbCacheStats;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbCompactionStats;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbCounters;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeDataBinding;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeKey;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeKeyBinding;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeSequence;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbExternalSorter;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbLabelDictionary;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbLongCursor;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbPackedSegmentKeyBinding;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbPackedSequence;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbRecordNumberComparator;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbVertexSequence;
+import com.tinkerpop.blueprints.extensions.util.LongConsumer;
+import com.tinkerpop.blueprints.util.ExceptionFactory;
+import com.tinkerpop.blueprints.util.PropertyFilteredIterable;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * A Blueprints implementation of Berkeley database using duplicates (http://www.oracle.com)
@@ -31,12 +73,66 @@ import java.io.File;
  * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
  */
 @SuppressWarnings("deprecation")
-public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
+public class BdbGraph implements AutoTransactionalGraph, BenchmarkableGraph, BulkloadableGraph, KeyIndexableGraph,
+		PartitionableGraph {
 	
 	final protected static BdbRecordNumberComparator recordNumberComparator = new BdbRecordNumberComparator();
 	
+	/**
+	 * The durability of the committed transactions
+	 */
+	public enum Durability {
+		
+		/// Write and flush the log on commit (the slowest, but fully durable)
+		SYNC,
+		
+		/// Write the log on commit, but do not flush it, so that the committed
+		/// transactions survive an application crash, but not an OS crash
+		WRITE_NO_SYNC,
+		
+		/// Do not write the log on commit, so that the committed transactions
+		/// might be lost on an application crash, but the database stays consistent
+		NO_SYNC
+	}
+	
+	/**
+	 * The storage layout of the adjacency lists, which is chosen when the
+	 * environment is created
+	 */
+	public enum Layout {
+		
+		/// One sorted duplicate per edge in out.db and in.db
+		DUPLICATES,
+		
+		/// One record per vertex and label (split into segments for large
+		/// neighborhoods) with a delta-encoded array of neighbor IDs
+		PACKED
+	}
+	
     private Environment dbEnv;
+    private File envHome;
     private int cacheSize;
+    private BdbGraphConfig config;
+    private CheckpointConfig checkpointConfig;
+    private boolean concurrent;
+    private Durability durability;
+    private Layout layout;
+    
+    private final ThreadLocal<Transaction> tx = new ThreadLocal<Transaction>();
+    private final ThreadLocal<Integer> txBuffer = new ThreadLocal<Integer>() {
+        protected Integer initialValue() {
+            return 1;
+        }
+    };
+    private final ThreadLocal<Integer> txCounter = new ThreadLocal<Integer>() {
+        protected Integer initialValue() {
+            return 0;
+        }
+    };
+    
+	private boolean autoTransactionControl = false;
+    
+    final CursorConfig writeCursorConfig;
   
     public Database vertexDb;
     public Database outDb;
@@ -44,11 +140,36 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
     public Database inDbRandom;
     protected Database vertexPropertyDb;
     protected Database edgePropertyDb;
+    protected Database labelDb;
+    protected Database vertexIndexDb;
+    protected Database edgeIndexDb;
+    protected Database indexedKeysDb;
+    protected Database counterDb;
+    
+    /// The numbers of the vertices and of the edges
+    public BdbCounters counters;
+    
+    BdbKeyIndex<Vertex> vertexKeyIndex;
+    BdbKeyIndex<Edge> edgeKeyIndex;
+    
+    protected Database vertexSampleDb;
+    protected Database edgeSampleDb;
     
-    final public DatabaseEntry key = new DatabaseEntry();
-    final public DatabaseEntry data = new DatabaseEntry();
+    /// The indexes for the random sampling, or null for the environments created without them
+    BdbSampleIndex vertexSampleIndex;
+    BdbSampleIndex edgeSampleIndex;
+    
+    /// The label dictionary, or null if the environment stores the labels as strings
+    public BdbLabelDictionary labelDictionary;
+    public BdbEdgeDataBinding edgeDataBinding;
+    public BdbEdgeKeyBinding edgeKeyBinding;
+    public BdbPackedSegmentKeyBinding segmentKeyBinding;
 
     boolean bulkLoadMode = false;
+    BdbBulkLoader bulkLoader = null;
+    private int bulkLoadBufferSize = BdbBulkLoader.DEFAULT_BUFFER_SIZE;
+    private int propertyCacheSize = 0;
+    private int bulkReadBufferSize = BdbBulkCursor.DEFAULT_BUFFER_SIZE;
 	
 	
 	// Features
@@ -74,16 +195,16 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
         FEATURES.isPersistent = true;
         FEATURES.isWrapper = false;
         FEATURES.isRDFModel = false;
-        FEATURES.supportsVertexIteration = false;	//TODO Add vertex iteration
-        FEATURES.supportsEdgeIteration = false;		//TODO Add edge iteration
+        FEATURES.supportsVertexIteration = true;
+        FEATURES.supportsEdgeIteration = true;
         FEATURES.supportsVertexIndex = true;
         FEATURES.supportsEdgeIndex = true;
         FEATURES.ignoresSuppliedIds = true;
         FEATURES.supportsTransactions = true;
         FEATURES.supportsIndices = false;
-        FEATURES.supportsKeyIndices = false;
-        FEATURES.supportsVertexKeyIndex = false;
-        FEATURES.supportsEdgeKeyIndex = false;
+        FEATURES.supportsKeyIndices = true;
+        FEATURES.supportsVertexKeyIndex = true;
+        FEATURES.supportsEdgeKeyIndex = true;
         FEATURES.supportsEdgeRetrieval = true;
         FEATURES.supportsVertexProperties = true;
         FEATURES.supportsEdgeProperties = true;
@@ -98,44 +219,179 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
      * @param cacheSize the database cache size (in MB).
      */
     public BdbGraph(final String directory, int cacheSize) {
+    	this(directory, cacheSize, false);
+    }
+
+    
+    /**
+     * Creates a new instance of a BdbGraph at directory.
+     * 
+     * In the concurrent mode, the environment is opened as a Concurrent Data Store,
+     * which allows any number of threads to read the graph in parallel on a shared
+     * cache, while the writes are serialized. Note that a thread must not write to
+     * the graph while it holds an open iterator, as that would self-deadlock.
+     *
+     * @param directory The database environment's persistent directory name.
+     * @param cacheSize the database cache size (in MB).
+     * @param concurrent whether to allow concurrent access from multiple threads.
+     */
+    public BdbGraph(final String directory, int cacheSize, boolean concurrent) {
+    	this(directory, createConfig(cacheSize, concurrent, null, null));
+    }
+
+    
+    /**
+     * Creates a new transactional instance of a BdbGraph at directory.
+     * 
+     * All operations of a thread run in that thread's current transaction, which
+     * ends by commit() or rollback(). With automatic transaction control enabled,
+     * the transaction is committed after every getMaxBufferSize() mutations, so
+     * that a commit, and thus possibly a log flush, is shared by many operations.
+     * 
+     * The reads also run in the current transaction, which they start if there is
+     * none, so that a thread can iterate over the graph and modify it at the same
+     * time. The read locks are then held until the end of the transaction, so a
+     * thread that only reads must still call commit() or rollback() regularly,
+     * or it would block the writers of the other threads. The deadlocks are
+     * detected and resolved by aborting the transaction with the fewest write
+     * locks; see getTransaction().
+     *
+     * @param directory The database environment's persistent directory name.
+     * @param cacheSize the database cache size (in MB).
+     * @param durability the durability of the committed transactions.
+     */
+    public BdbGraph(final String directory, int cacheSize, Durability durability) {
+    	this(directory, createConfig(cacheSize, false, durability, null));
+    }
+
+    
+    /**
+     * Creates a new instance of a BdbGraph at directory with the given layout of
+     * the adjacency lists. The layout of an existing environment cannot be changed.
+     *
+     * @param directory The database environment's persistent directory name.
+     * @param cacheSize the database cache size (in MB).
+     * @param layout the layout of the adjacency lists.
+     */
+    public BdbGraph(final String directory, int cacheSize, Layout layout) {
+    	this(directory, createConfig(cacheSize, false, null, layout));
+    }
+
+    
+    /**
+     * Create the configuration for the simple constructors.
+     *
+     * @param cacheSize the database cache size (in MB).
+     * @param concurrent whether to open the environment as a Concurrent Data Store.
+     * @param durability the durability of the committed transactions, or null for a
+     *                   non-transactional graph.
+     * @param layout the layout of the adjacency lists, or null to use the layout of
+     *               the existing environment or the default layout for a new one.
+     * @return the configuration
+     */
+    private static BdbGraphConfig createConfig(int cacheSize, boolean concurrent, Durability durability,
+    		Layout layout) {
+    	BdbGraphConfig config = new BdbGraphConfig();
+    	config.setCacheSize(cacheSize);
+    	config.setConcurrent(concurrent);
+    	config.setDurability(durability);
+    	config.setLayout(layout);
+    	return config;
+    }
+
+    
+    /**
+     * Creates a new instance of a BdbGraph at directory with the given configuration
+     * of the environment and of the databases, such as one of the presets of
+     * BdbGraphConfig.
+     *
+     * @param directory The database environment's persistent directory name.
+     * @param config the configuration.
+     */
+    public BdbGraph(final String directory, final BdbGraphConfig config) {
+    	
+    	boolean concurrent = config.isConcurrent();
+    	Durability durability = config.getDurability();
+    	Layout layout = config.getLayout();
     	
-    	this.cacheSize = cacheSize;
+    	if (concurrent && durability != null)
+    		throw new IllegalArgumentException("BdbGraph: The concurrent mode cannot be combined with transactions.");
+    	
+    	this.config = config;
+    	this.cacheSize = config.getCacheSize();
+    	this.concurrent = concurrent;
+    	this.durability = durability;
+    	this.writeCursorConfig = concurrent ? CursorConfig.WRITECURSOR : null;
+    	
+    	if (durability != null && (config.getCheckpointKBytes() > 0 || config.getCheckpointMinutes() > 0)) {
+    		this.checkpointConfig = new CheckpointConfig();
+    		this.checkpointConfig.setKBytes(config.getCheckpointKBytes());
+    		this.checkpointConfig.setMinutes(config.getCheckpointMinutes());
+    	}
     	
         try {
-        	File envHome = new File(directory);
+        	envHome = new File(directory);
         	envHome.mkdirs();
         	
         	EnvironmentConfig envConf = new EnvironmentConfig();
             envConf.setAllowCreate(true);
             envConf.setCacheMax(cacheSize * 1048576);
             envConf.setCacheSize(cacheSize * 1048576);
-            envConf.setCacheCount(1);
+            envConf.setCacheCount(config.getCacheCount());
+            if (config.getMmapSize() > 0) envConf.setMMapSize(config.getMmapSize());
             envConf.setInitializeCache(true);
-            //envConf.setInitializeLocking(true);
-            //envConf.setTransactional(true);
+            if (concurrent) {
+            	envConf.setInitializeCDB(true);
+            	envConf.setThreaded(true);
+            }
+            if (durability != null) {
+            	envConf.setInitializeLocking(true);
+            	envConf.setInitializeLogging(true);
+            	envConf.setTransactional(true);
+            	envConf.setThreaded(true);
+            	envConf.setLockDetectMode(LockDetectMode.MINWRITE);
+            	envConf.setTxnWriteNoSync(durability == Durability.WRITE_NO_SYNC);
+            	envConf.setTxnNoSync(durability == Durability.NO_SYNC);
+            	if (config.getLogBufferSize() > 0) envConf.setLogBufferSize(config.getLogBufferSize());
+            	if (config.getMaxLogFileSize() > 0) envConf.setMaxLogFileSize(config.getMaxLogFileSize());
+            	envConf.setLogAutoRemove(config.isLogAutoRemove());
+            }
+            
+            this.dbEnv = new Environment(envHome, envConf);
             
-            this.dbEnv = new Environment(envHome, envConf);        
-     
-            DatabaseConfig dbConfig = new DatabaseConfig();
-            dbConfig.setAllowCreate(true);
-            dbConfig.setType(DatabaseType.BTREE);
-            dbConfig.setSortedDuplicates(true);
-            this.outDb = this.dbEnv.openDatabase(null, "out.db", null, dbConfig);
-            this.inDb = this.dbEnv.openDatabase(null, "in.db", null, dbConfig);
-            this.vertexPropertyDb = this.dbEnv.openDatabase(null, "vertexProperty.db", null, dbConfig);
-            this.edgePropertyDb = this.dbEnv.openDatabase(null, "edgeProperty.db", null, dbConfig);
+            // The files must be complete before their names are examined
+            recoverRebuild();
             
-            dbConfig.setBtreeComparator(recordNumberComparator);
-            dbConfig.setReadOnly(true);
-            dbConfig.setAllowCreate(false);
-            this.inDbRandom = this.dbEnv.openDatabase(null, "in.db", null, dbConfig);
-
-            dbConfig = new DatabaseConfig();
-            dbConfig.setAllowCreate(true);
-            dbConfig.setSortedDuplicates(false);
-            dbConfig.setType(DatabaseType.QUEUE);
-            dbConfig.setRecordLength(0);
-            this.vertexDb = this.dbEnv.openDatabase(null, "vertex.db", null, dbConfig);
+            // The layout is determined by the names of the adjacency databases
+            Layout existing = null;
+            if (new File(envHome, "out.db").exists()) existing = Layout.DUPLICATES;
+            if (new File(envHome, "outPacked.db").exists()) existing = Layout.PACKED;
+            if (layout != null && existing != null && layout != existing) {
+            	dbEnv.close();
+            	dbEnv = null;
+            	throw new IllegalArgumentException("BdbGraph: The environment already uses the " + existing + " layout.");
+            }
+            this.layout = existing != null ? existing : (layout != null ? layout : Layout.DUPLICATES);
+            
+            // The environments created before the label dictionary store the labels as strings
+            boolean useDictionary = existing == null || new File(envHome, "label.db").exists();
+            boolean hasSampling = new File(envHome, "edgeSample.db").exists();
+            boolean useSampling = config.isSampling() && (existing == null || hasSampling);
+            boolean hasCounters = new File(envHome, "counter.db").exists();
+            boolean useCounters = config.isCounting();
+            boolean recount = useCounters && existing != null && !hasCounters;
+            
+            // Drop the sampling databases if they are disabled, so that they never go stale
+            if (hasSampling && !useSampling) {
+            	dbEnv.removeDatabase(null, "vertexSample.db", null);
+            	dbEnv.removeDatabase(null, "edgeSample.db", null);
+            }
+            if (hasCounters && !useCounters) dbEnv.removeDatabase(null, "counter.db", null);
+            
+            openDatabases(useDictionary, useSampling, useCounters);
+            
+            // The environments created before the counters need to be counted once
+            if (recount) counters.recount();
             
         } catch (RuntimeException e) {
             throw e;
@@ -145,6 +401,128 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
     }
 
     
+    /**
+     * Open the databases of the environment.
+     *
+     * @param useDictionary whether to use the label dictionary
+     * @param useSampling whether to use the databases for random sampling
+     * @param useCounters whether to keep the counters in counter.db
+     * @throws Exception on error
+     */
+    private void openDatabases(boolean useDictionary, boolean useSampling, boolean useCounters) throws Exception {
+    	
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(durability != null);
+        dbConfig.setAllowCreate(true);
+        dbConfig.setType(DatabaseType.BTREE);
+        
+        if (useDictionary) {
+        	dbConfig.setSortedDuplicates(false);
+        	this.labelDb = openDatabase("label.db", dbConfig);
+        	this.labelDictionary = new BdbLabelDictionary(labelDb, durability != null ? dbEnv : null);
+        }
+        this.edgeDataBinding = new BdbEdgeDataBinding(labelDictionary);
+        this.edgeKeyBinding = new BdbEdgeKeyBinding(labelDictionary);
+        this.segmentKeyBinding = new BdbPackedSegmentKeyBinding(labelDictionary);
+        
+        dbConfig.setSortedDuplicates(true);
+        // The access method of an existing database is read from the file
+        if (new File(envHome, "vertexProperty.db").exists())
+        	dbConfig.setType(DatabaseType.UNKNOWN);
+        else if (config.isVertexPropertyHash())
+        	dbConfig.setType(DatabaseType.HASH);
+        this.vertexPropertyDb = openDatabase("vertexProperty.db", dbConfig);
+        dbConfig.setType(DatabaseType.BTREE);
+        this.edgePropertyDb = openDatabase("edgeProperty.db", dbConfig);
+        this.vertexIndexDb = openDatabase("vertexIndex.db", dbConfig);
+        this.edgeIndexDb = openDatabase("edgeIndex.db", dbConfig);
+        this.indexedKeysDb = openDatabase("indexedKeys.db", dbConfig);
+        
+        dbConfig.setSortedDuplicates(false);
+        this.counterDb = useCounters ? openDatabase("counter.db", dbConfig) : null;
+        this.counters = new BdbCounters(this, counterDb);
+        dbConfig.setSortedDuplicates(true);
+        
+        final BdbGraph graph = this;
+        this.vertexKeyIndex = new BdbKeyIndex<Vertex>(this, "vertex", vertexPropertyDb, vertexIndexDb, indexedKeysDb) {
+        	protected Vertex create(DatabaseEntry id) {
+        		return new BdbVertex(graph, RecordNumberBinding.entryToRecordNumber(id));
+        	}
+        };
+        this.edgeKeyIndex = new BdbKeyIndex<Edge>(this, "edge", edgePropertyDb, edgeIndexDb, indexedKeysDb) {
+        	protected Edge create(DatabaseEntry id) {
+        		BdbEdgeKey k = graph.edgeKeyBinding.entryToObject(id);
+        		return new BdbEdge(graph, k.out, k.label, k.in);
+        	}
+        };
+        
+        if (this.layout == Layout.PACKED) {
+        	dbConfig.setSortedDuplicates(false);
+	        this.outDb = openDatabase("outPacked.db", dbConfig);
+	        this.inDb = openDatabase("inPacked.db", dbConfig);
+        }
+        else {
+	        this.outDb = openDatabase("out.db", dbConfig);
+	        this.inDb = openDatabase("in.db", dbConfig);
+	        
+	        dbConfig.setBtreeComparator(recordNumberComparator);
+	        dbConfig.setReadOnly(true);
+	        dbConfig.setAllowCreate(false);
+	        this.inDbRandom = openDatabase("in.db", dbConfig);
+        }
+
+        dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(durability != null);
+        dbConfig.setAllowCreate(true);
+        dbConfig.setSortedDuplicates(false);
+        dbConfig.setType(DatabaseType.QUEUE);
+        dbConfig.setRecordLength(0);
+        this.vertexDb = openDatabase("vertex.db", dbConfig);
+        
+        if (useSampling) {
+	        dbConfig = new DatabaseConfig();
+	        dbConfig.setTransactional(durability != null);
+	        dbConfig.setAllowCreate(true);
+	        dbConfig.setType(DatabaseType.BTREE);
+	        dbConfig.setBtreeRecordNumbers(true);
+	        this.vertexSampleDb = openDatabase("vertexSample.db", dbConfig);
+	        this.edgeSampleDb = openDatabase("edgeSample.db", dbConfig);
+	        this.vertexSampleIndex = new BdbSampleIndex(this, vertexSampleDb);
+	        this.edgeSampleIndex = new BdbSampleIndex(this, edgeSampleDb);
+        }
+    }
+
+    
+    /**
+     * Open a database with the page size and the compression from the configuration.
+     *
+     * @param name the database file name
+     * @param dbConfig the database configuration, which is modified
+     * @return the database
+     * @throws Exception on error
+     */
+    private Database openDatabase(String name, DatabaseConfig dbConfig) throws Exception {
+    	return openDatabase(name, name, dbConfig);
+    }
+
+    
+    /**
+     * Open a database with the page size and the compression from the configuration.
+     *
+     * @param name the database name in the configuration, such as "out.db"
+     * @param file the database file name
+     * @param dbConfig the database configuration, which is modified
+     * @return the database
+     * @throws Exception on error
+     */
+    private Database openDatabase(String name, String file, DatabaseConfig dbConfig) throws Exception {
+    	dbConfig.setPageSize(config.getPageSize(name));
+    	boolean compressed = name.equals("out.db") || name.equals("in.db");
+    	dbConfig.setBtreeCompressor(compressed ? config.getBtreeCompressor() : null);
+    	return this.dbEnv.openDatabase(null, file, null, dbConfig);
+    }
+
+    
     /**
      * Creates a new instance of a BdbGraph at directory.
      *
@@ -155,6 +533,118 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
     }
     
 
+    
+    /**
+     * Determine whether the graph allows concurrent access from multiple threads.
+     * 
+     * @return true if the environment is opened in the concurrent mode
+     */
+    public boolean isConcurrent() {
+    	return concurrent;
+    }
+    
+    
+    /**
+     * Determine whether the graph is transactional.
+     * 
+     * @return true if the environment is transactional
+     */
+    public boolean isTransactional() {
+    	return durability != null;
+    }
+    
+    
+    /**
+     * Return the durability of the committed transactions.
+     * 
+     * @return the durability, or null if the graph is not transactional
+     */
+    public Durability getDurability() {
+    	return durability;
+    }
+    
+    
+    /**
+     * Return the layout of the adjacency lists.
+     * 
+     * @return the layout
+     */
+    public Layout getLayout() {
+    	return layout;
+    }
+    
+    
+    /**
+     * Return the maximum number of properties cached by each vertex and edge object.
+     * 
+     * @return the maximum number of cached properties per element, or 0 if disabled
+     */
+    public int getPropertyCacheSize() {
+    	return propertyCacheSize;
+    }
+    
+    
+    /**
+     * Set the maximum number of properties cached by each vertex and edge object.
+     * The cache belongs to the object, so it does not see the updates made through
+     * other objects that represent the same element. It is disabled by default.
+     * 
+     * @param size the maximum number of cached properties per element, or 0 to disable
+     */
+    public void setPropertyCacheSize(int size) {
+    	if (size < 0) throw new IllegalArgumentException("The size must not be negative");
+    	propertyCacheSize = size;
+    }
+    
+    
+    /**
+     * Return the size of the buffer for the bulk reads of the adjacency lists,
+     * the properties, and the vertex and edge scans.
+     * 
+     * @return the buffer size in bytes, or 0 if the records are read one at a time
+     */
+    public int getBulkReadBufferSize() {
+    	return bulkReadBufferSize;
+    }
+    
+    
+    /**
+     * Set the size of the buffer for the bulk reads. The buffer is allocated
+     * for each open iterator, and it grows automatically if a single record
+     * does not fit.
+     * 
+     * @param size the buffer size in bytes (a multiple of 1024), or 0 to read
+     *             the records one at a time
+     */
+    public void setBulkReadBufferSize(int size) {
+    	if (size < 0 || size % 1024 != 0)
+    		throw new IllegalArgumentException("The size must be a non-negative multiple of 1024");
+    	bulkReadBufferSize = size;
+    }
+    
+    
+    /**
+     * Return the number of edges buffered in memory in the bulk-load mode.
+     * 
+     * @return the number of edges
+     */
+    public int getBulkLoadBufferSize() {
+    	return bulkLoadBufferSize;
+    }
+    
+    
+    /**
+     * Set the number of edges buffered in memory in the bulk-load mode. The new
+     * size takes effect at the next call to startBulkLoad().
+     * 
+     * @param size the number of edges
+     */
+    public void setBulkLoadBufferSize(int size) {
+    	if (size <= 0) throw new IllegalArgumentException("The size must be positive");
+    	bulkLoadBufferSize = size;
+    }
+    
+
     // BLUEPRINTS GRAPH INTERFACE
     
     
@@ -187,7 +677,7 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
 	 */
     @Override
 	public long getCacheHitCount() {
-    	return -1;	// Not available
+    	return getCacheStats().hits;
     }
 
     
@@ -198,21 +688,81 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
 	 */
     @Override
 	public long getCacheMissCount() {
-    	return -1;	// Not available
+    	return getCacheStats().misses;
+    }
+
+    
+    /**
+     * Get the buffer pool statistics of the environment since the last reset.
+     * 
+     * @return the statistics
+     */
+    public BdbCacheStats getCacheStats() {
+    	try {
+    		CacheStats s = dbEnv.getCacheStats(StatsConfig.DEFAULT);
+    		return new BdbCacheStats(s.getCacheHit(), s.getCacheMiss(), s.getPageIn(), s.getPageOut(),
+    				s.getRoEvict() + s.getRwEvict());
+    	} catch (DatabaseException e) {
+    		throw new RuntimeException(e);
+    	}
+    }
+
+    
+    /**
+     * Get the buffer pool statistics of each database file since the last reset,
+     * so that the misses can be attributed to the individual structures, such as
+     * out.db or vertexProperty.db. The evictions are not available per file.
+     * 
+     * @return the map from the file names to the statistics
+     */
+    public Map<String, BdbCacheStats> getCacheStatsByDatabase() {
+    	Map<String, BdbCacheStats> result = new TreeMap<String, BdbCacheStats>();
+    	try {
+    		for (CacheFileStats s : dbEnv.getCacheFileStats(StatsConfig.DEFAULT)) {
+    			String name = new File(s.getFileName()).getName();
+    			BdbCacheStats t = new BdbCacheStats(s.getCacheHit(), s.getCacheMiss(), s.getPageIn(),
+    					s.getPageOut(), -1);
+    			
+    			// A file opened through several handles, such as in.db, may be listed more than once
+    			BdbCacheStats u = result.get(name);
+    			if (u != null) {
+    				t.hits += u.hits;
+    				t.misses += u.misses;
+    				t.pagesIn += u.pagesIn;
+    				t.pagesOut += u.pagesOut;
+    			}
+    			result.put(name, t);
+    		}
+    	} catch (DatabaseException e) {
+    		throw new RuntimeException(e);
+    	}
+    	return result;
+    }
+
+    
+    /**
+     * Reset the buffer pool statistics of the environment and of all database
+     * files, such as between the phases of a benchmark.
+     */
+    public void resetCacheStats() {
+    	try {
+    		StatsConfig config = new StatsConfig();
+    		config.setClear(true);
+    		dbEnv.getCacheStats(config);
+    		dbEnv.getCacheFileStats(config);
+    	} catch (DatabaseException e) {
+    		throw new RuntimeException(e);
+    	}
     }
 
     public Vertex addVertex(final Object id) {        
         try {
-            //autoStartTransaction();
+            autoStartTransaction();
             final Vertex vertex = new BdbVertex(this);
-            //autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
+            autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
             return vertex;
-        } catch (RuntimeException e) {
-            //autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-            throw e;
         } catch (Exception e) {
-            //autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-            throw new RuntimeException(e.getMessage(), e);
+            throw mutationFailed(e);
         }     
     }
 
@@ -223,6 +773,7 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
     	try {
     		return new BdbVertex(this, id);
     	} catch (Exception e) {
+    		if (isDeadlock(e)) throw failed(e);
     		return null;
     	}
     }
@@ -231,32 +782,50 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
     	return new BdbVertexSequence(this);
     }
 
-    public long countVertices() {    	
-    	// Note: The fast version of StatConfig does not give us the results
-    	// we need, so this is kind of slow
-    	DatabaseStats s;
-		try {
-			s = vertexDb.getStats(null, StatsConfig.DEFAULT);
-			return ((QueueStats) s).getNumData();
-		} catch (DatabaseException e) {
-			throw new RuntimeException(e);
-		}
+    public long countVertices() {
+    	return counters.getVertexCount();
     }
 
     public void removeVertex(final Vertex vertex) {
         if (vertex == null || vertex.getId() == null)
             return;
         try {
-            //autoStartTransaction();
+            autoStartTransaction();
             ((BdbVertex) vertex).remove();
-            //autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
-        } catch (RuntimeException e) {
-            //autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-            throw e;
+            autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
         } catch (Exception e) {
-            //autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-            throw new RuntimeException(e.getMessage(), e);
+            throw mutationFailed(e);
+        }
+    }
+    
+    /**
+     * Remove several vertices together with all their edges. The adjacency lists
+     * of all vertices are read and deleted in one pass over each database in the
+     * key order, which is much faster than removing the vertices one at a time,
+     * especially if they have many edges or share neighbors.
+     * 
+     * @param vertices the vertices to remove
+     */
+    public void removeVertices(final Iterable<Vertex> vertices) {
+    	ArrayList<BdbVertex> l = new ArrayList<BdbVertex>();
+    	for (Vertex v : vertices) {
+    		if (v != null && v.getId() != null) l.add((BdbVertex) v);
+    	}
+    	if (l.isEmpty())
+    		return;
+    	
+    	long[] ids = new long[l.size()];
+    	for (int i = 0; i < ids.length; i++) ids[i] = l.get(i).id;
+    	
+        try {
+            autoStartTransaction();
+            BdbBatchRemover.removeVertices(this, ids);
+            autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
+        } catch (Exception e) {
+            throw mutationFailed(e);
         }
+        
+        for (BdbVertex v : l) v.removed();
     }
     
     public Vertex getRandomVertex() {
@@ -267,6 +836,29 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
     		throw new RuntimeException(e);
     	}
     }
+    
+    /**
+     * Return random vertices, sampled uniformly with replacement. This is
+     * cheaper than calling getRandomVertex() for each of them.
+     * 
+     * @param n the number of vertices
+     * @return the list of random vertices, which is empty if the graph has no vertices
+     */
+    public List<Vertex> getRandomVertices(int n) {
+    	List<Vertex> result = new ArrayList<Vertex>(n);
+    	try {
+    		if (vertexSampleIndex == null) {
+    			for (int i = 0; i < n; i++) result.add(BdbVertex.getRandomVertex(this));
+    		}
+    		else {
+    			for (DatabaseEntry key : vertexSampleIndex.sample(n)) result.add(new BdbVertex(this, key));
+    		}
+    	}
+    	catch (DatabaseException e) {
+    		throw new RuntimeException(e);
+    	}
+    	return result;
+    }
 
     public Edge addEdge(
 		final Object id,
@@ -275,20 +867,16 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
 		final String label)
     {    	
         try {
-            //autoStartTransaction();
+            autoStartTransaction();
             final Edge edge = new BdbEdge(
         		this,
         		(BdbVertex) outVertex,
         		(BdbVertex) inVertex,
         		label);
-            //autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
+            autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
             return edge;
-        } catch (RuntimeException e) {
-            //autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-            throw e;
         } catch (Exception e) {
-            //autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-            throw new RuntimeException(e.getMessage(), e);
+            throw mutationFailed(e);
         }
     }
 
@@ -299,42 +887,92 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
     	try {
     		return new BdbEdge(this, id);
     	} catch (Exception e) {
+    		if (isDeadlock(e)) throw failed(e);
     		return null;
     	}
     }
 
     public Iterable<Edge> getEdges() {
-    	return new BdbEdgeSequence(this);
+    	return getEdges(null, null);
+    }
+    
+    /**
+     * Return the edges in a range of the keys of the out database
+     * 
+     * @param from the first key (inclusive), or null to start at the beginning
+     * @param to the last key (exclusive), or null to continue until the end
+     * @return the edges
+     */
+    private CloseableIterable<Edge> getEdges(DatabaseEntry from, DatabaseEntry to) {
+    	if (layout == Layout.PACKED) {
+    		final BdbGraph graph = this;
+    		return new BdbPackedSequence<Edge>(this, outDb, from, to) {
+    			protected Edge create(long vertex, String label, long neighbor) {
+    				return new BdbEdge(graph, vertex, label, neighbor);
+    			}
+    		};
+    	}
+    	return new BdbEdgeSequence(this, from, to);
     }
 
-    public long countEdges() {    	
-    	// Note: The fast version of StatConfig does not give us the results
-    	// we need, so this is kind of slow
-    	DatabaseStats s;
-		try {
-			s = outDb.getStats(null, StatsConfig.DEFAULT);
-	    	return ((BtreeStats) s).getNumData();
-		} catch (DatabaseException e) {
-			throw new RuntimeException(e);
-		}
+    public long countEdges() {
+    	return counters.getEdgeCount();
+    }
+    
+    /**
+     * Return the number of edges with the given label. The edges buffered in
+     * the bulk-load mode are counted only after they are flushed.
+     * 
+     * @param label the edge label
+     * @return the number of edges
+     */
+    public long countEdges(String label) {
+    	return counters.getEdgeCount(label);
+    }
+    
+    /**
+     * Return the numbers of edges of all labels.
+     * 
+     * @return the map from the labels to the numbers of edges
+     */
+    public Map<String, Long> countEdgesByLabel() {
+    	return counters.getEdgeCounts();
+    }
+    
+    /**
+     * Recompute the numbers of vertices and edges by scanning the graph, which
+     * repairs them if they went out of sync, such as after a crash of a
+     * non-transactional graph. There must be no concurrent writers. This
+     * commits the current transaction.
+     */
+    public void recount() {
+    	try {
+    		stopBulkLoad();
+    		counters.recount();
+    	} catch (DatabaseException e) {
+    		throw new RuntimeException(e);
+    	}
     }
 
     public void removeEdge(final Edge edge) {
         if (edge == null || edge.getId() == null)
             return;
         try {
-            //autoStartTransaction();
+            autoStartTransaction();
             ((BdbEdge) edge).remove();
-            //autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
-        } catch (RuntimeException e) {
-            //autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-            throw e;
+            autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
         } catch (Exception e) {
-            //autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-            throw new RuntimeException(e.getMessage(), e);
+            throw mutationFailed(e);
         }
     }
     
+    /**
+     * Return a random edge. The edge is sampled exactly uniformly only if
+     * sampling is enabled; see BdbEdge.getRandomEdge().
+     * 
+     * @return a random edge
+     * @throws NoSuchElementException if the graph has no edges
+     */
     public Edge getRandomEdge() {
     	try {
     		return BdbEdge.getRandomEdge(this);
@@ -343,14 +981,52 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
     		throw new RuntimeException(e);
     	}
     }
+    
+    /**
+     * Return random edges, sampled uniformly with replacement. This is
+     * cheaper than calling getRandomEdge() for each of them.
+     * 
+     * @param n the number of edges
+     * @return the list of random edges, which is empty if the graph has no edges
+     */
+    public List<Edge> getRandomEdges(int n) {
+    	List<Edge> result = new ArrayList<Edge>(n);
+    	try {
+    		if (edgeSampleIndex == null) {
+    			try {
+    				for (int i = 0; i < n; i++) result.add(BdbEdge.getRandomEdge(this));
+    			}
+    			catch (NoSuchElementException e) {
+    				// There are no edges
+    			}
+    		}
+    		else {
+    			for (DatabaseEntry key : edgeSampleIndex.sample(n)) {
+    				BdbEdgeKey k = edgeKeyBinding.entryToObject(key);
+    				result.add(new BdbEdge(this, k.out, k.label, k.in));
+    			}
+    		}
+    	}
+    	catch (DatabaseException e) {
+    		throw new RuntimeException(e);
+    	}
+    	return result;
+    }
 
     public void clear() {
         try {
+        	commit();
+        	if (bulkLoader != null) bulkLoader.discard();
         	vertexDb.truncate(null, false);
             outDb.truncate(null, false);
             inDb.truncate(null, false);
         	vertexPropertyDb.truncate(null,  false);
         	edgePropertyDb.truncate(null, false);
+        	vertexKeyIndex.clear();
+        	edgeKeyIndex.clear();
+        	counters.clear();
+        	if (vertexSampleIndex != null) vertexSampleIndex.clear();
+        	if (edgeSampleIndex != null) edgeSampleIndex.clear();
         } catch (RuntimeException e) {
             throw e;
         } catch (Exception e) {
@@ -360,23 +1036,16 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
 
     public void shutdown() {
         try {
-            edgePropertyDb.close();
-            edgePropertyDb = null;
-
-            vertexPropertyDb.close();
-            vertexPropertyDb = null;
-            
-            inDb.close();
-            inDb = null;
-            
-            outDb.close();
-            outDb = null;
-            
-            vertexDb.close();
-            vertexDb = null;
+        	stopBulkLoad();
+        	commit();
+        	
+            closeDatabases();
             
-            inDbRandom.close();
-            inDbRandom = null;
+            if (checkpointConfig != null) {
+            	CheckpointConfig c = new CheckpointConfig();
+            	c.setForce(true);
+            	dbEnv.checkpoint(c);
+            }
             
             dbEnv.close();
             dbEnv = null;
@@ -387,6 +1056,59 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
         }   
     }
 
+    /**
+     * Close the databases of the environment.
+     * 
+     * @throws DatabaseException on error
+     */
+    private void closeDatabases() throws DatabaseException {
+        if (counterDb != null) {
+        	counterDb.close();
+        	counterDb = null;
+        }
+        
+        indexedKeysDb.close();
+        indexedKeysDb = null;
+        
+        edgeIndexDb.close();
+        edgeIndexDb = null;
+        
+        vertexIndexDb.close();
+        vertexIndexDb = null;
+        
+        edgePropertyDb.close();
+        edgePropertyDb = null;
+
+        vertexPropertyDb.close();
+        vertexPropertyDb = null;
+        
+        inDb.close();
+        inDb = null;
+        
+        outDb.close();
+        outDb = null;
+        
+        vertexDb.close();
+        vertexDb = null;
+        
+        if (inDbRandom != null) {
+        	inDbRandom.close();
+        	inDbRandom = null;
+        }
+        
+        if (labelDb != null) {
+        	labelDb.close();
+        	labelDb = null;
+        }
+        
+        if (vertexSampleDb != null) {
+        	vertexSampleDb.close();
+        	vertexSampleDb = null;
+        	edgeSampleDb.close();
+        	edgeSampleDb = null;
+        }
+    }
+
     public String toString() {
     	try {
     		return "bdbgraph[" + dbEnv.getHome() + "]";
@@ -396,19 +1118,33 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
     }
 
 	/**
-	 * Start bulk load mode
+	 * Start bulk load mode. The vertex existence checks are skipped, and the new
+	 * edges are buffered and written to out.db in sorted batches, while in.db is
+	 * built from the sorted reversed edges only when the bulk load stops. Until
+	 * then, the new edges might not be visible, and in particular not from their
+	 * in vertices. The bulk load mode is meant for a single loading thread. In the
+	 * packed layout, only the vertex existence checks are skipped.
 	 */
 	@Override
 	public void startBulkLoad() {
 		bulkLoadMode = true;
+		if (bulkLoader == null && layout == Layout.DUPLICATES)
+			bulkLoader = new BdbBulkLoader(this, envHome, bulkLoadBufferSize, edgeSampleDb);
 	}
 
 	/**
-	 * Stop bulk load mode
+	 * Stop bulk load mode, which writes the buffered edges and builds in.db
 	 */
 	@Override
 	public void stopBulkLoad() {
 		bulkLoadMode = false;
+		if (bulkLoader == null) return;
+		try {
+			bulkLoader.finish();
+		}
+		finally {
+			bulkLoader = null;
+		}
 	}
 
 	@Override
@@ -416,15 +1152,789 @@ public class BdbGraph implements Graph, BenchmarkableGraph, BulkloadableGraph {
 		return FEATURES;
 	}
 
+	/**
+	 * Get the vertices with the given property. The lookup uses the index if the
+	 * key is indexed, or scans all vertices otherwise.
+	 * 
+	 * @param key the property key
+	 * @param value the property value
+	 * @return the vertices
+	 */
 	@Override
 	public Iterable<Vertex> getVertices(String key, Object value) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		if (vertexKeyIndex.isIndexed(key))
+			return vertexKeyIndex.get(key, value);
+		return new PropertyFilteredIterable<Vertex>(key, value, getVertices());
 	}
 
+	/**
+	 * Get the edges with the given property. The lookup uses the index if the
+	 * key is indexed, or scans all edges otherwise.
+	 * 
+	 * @param key the property key
+	 * @param value the property value
+	 * @return the edges
+	 */
 	@Override
 	public Iterable<Edge> getEdges(String key, Object value) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		if (edgeKeyIndex.isIndexed(key))
+			return edgeKeyIndex.get(key, value);
+		return new PropertyFilteredIterable<Edge>(key, value, getEdges());
+	}
+
+	
+	// PRIMITIVE TRAVERSAL
+	
+	/**
+	 * Create a reusable cursor over the IDs of the neighbors of vertices, which
+	 * does not allocate any objects per edge. The cursor must be closed before
+	 * the end of the current transaction.
+	 * 
+	 * @return the cursor
+	 */
+	public BdbLongCursor getLongCursor() {
+		return new BdbLongCursor(this);
+	}
+	
+	/**
+	 * Pass the IDs of the neighbors of a vertex to a consumer, without creating
+	 * the Blueprints vertices or the edges. In the concurrent mode, the consumer
+	 * must not write to the graph.
+	 * 
+	 * @param vertex the vertex ID
+	 * @param direction the direction
+	 * @param labels the labels, or an empty array for all labels
+	 * @param consumer the consumer of the neighbor IDs
+	 */
+	public void forEachNeighbor(long vertex, Direction direction, String[] labels, LongConsumer consumer) {
+		BdbLongCursor cursor = new BdbLongCursor(this);
+		try {
+			cursor.open(vertex, direction, labels);
+			while (cursor.next()) consumer.accept(cursor.current());
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+	
+	// COMPACTION
+	
+	/**
+	 * Get the databases that can be compacted and rebuilt, which are all
+	 * databases except the queue of the vertices and the second handle of in.db
+	 * 
+	 * @return the map from the file names to the databases
+	 */
+	private Map<String, Database> getReorganizableDatabases() {
+		Map<String, Database> m = new LinkedHashMap<String, Database>();
+		m.put(layout == Layout.PACKED ? "outPacked.db" : "out.db", outDb);
+		m.put(layout == Layout.PACKED ? "inPacked.db" : "in.db", inDb);
+		m.put("vertexProperty.db", vertexPropertyDb);
+		m.put("edgeProperty.db", edgePropertyDb);
+		m.put("vertexIndex.db", vertexIndexDb);
+		m.put("edgeIndex.db", edgeIndexDb);
+		m.put("indexedKeys.db", indexedKeysDb);
+		if (counterDb != null) m.put("counter.db", counterDb);
+		if (labelDb != null) m.put("label.db", labelDb);
+		if (vertexSampleDb != null) {
+			m.put("vertexSample.db", vertexSampleDb);
+			m.put("edgeSample.db", edgeSampleDb);
+		}
+		return m;
+	}
+	
+	/**
+	 * Get the total size of the database files
+	 * 
+	 * @return the size in bytes
+	 */
+	private long getDatabaseFileSize() {
+		long n = new File(envHome, "vertex.db").length();
+		for (String name : getReorganizableDatabases().keySet()) n += new File(envHome, name).length();
+		return n;
+	}
+	
+	/**
+	 * Count the page reads of a fixed traversal, which reads the adjacency lists
+	 * and the properties of the first vertices in the ID order. This resets the
+	 * cache statistics.
+	 * 
+	 * @param n the number of vertices
+	 * @return the number of pages requested from the cache
+	 */
+	private long measureTraversal(int n) {
+		ArrayList<Vertex> vertices = new ArrayList<Vertex>(n);
+		BdbVertexSequence sequence = new BdbVertexSequence(this);
+		try {
+			for (Vertex v : sequence) {
+				if (vertices.size() >= n) break;
+				vertices.add(v);
+			}
+		}
+		finally {
+			sequence.close();
+		}
+		
+		resetCacheStats();
+		for (Vertex v : vertices) {
+			for (@SuppressWarnings("unused") Edge e : v.getEdges(Direction.BOTH)) {
+				// Only read the adjacency lists
+			}
+			((BdbVertex) v).getPropertyMap();
+		}
+		BdbCacheStats s = getCacheStats();
+		return s.hits + s.misses;
+	}
+	
+	/**
+	 * Compact the databases online after many elements were removed. The records
+	 * of the sparsely filled B-tree pages are moved to the other pages until they
+	 * are filled to the given percentage, and the emptied pages at the end of the
+	 * files are returned to the file system. The hash databases are not
+	 * compacted; use rebuild() for them. Neither this nor rebuild() reorganizes
+	 * the queue of the vertices, since its record numbers are the vertex IDs.
+	 * This commits the current transaction and resets the cache statistics if
+	 * the traversal is measured.
+	 * 
+	 * @param fillPercent the goal for filling the pages between 1 and 100, or 0 for the default
+	 * @param traversalSize the number of vertices of the traversal that is measured before
+	 *                      and after the compaction, or 0 not to measure it
+	 * @return the statistics
+	 */
+	public BdbCompactionStats compact(int fillPercent, int traversalSize) {
+		if (fillPercent < 0 || fillPercent > 100)
+			throw new IllegalArgumentException("The fill percent must be between 0 and 100");
+		
+		BdbCompactionStats stats = new BdbCompactionStats();
+		try {
+			stopBulkLoad();
+			commit();
+			if (traversalSize > 0) stats.traversalPagesBefore = measureTraversal(traversalSize);
+			commit();
+			stats.bytesBefore = getDatabaseFileSize();
+			
+			CompactConfig c = new CompactConfig();
+			if (fillPercent > 0) c.setFillPercent(fillPercent);
+			c.setFreeSpace(true);
+			for (Database db : getReorganizableDatabases().values()) {
+				if (db.getConfig().getType() != DatabaseType.BTREE) continue;
+				CompactStats s = db.compact(null, null, null, null, c);
+				stats.pagesExamined += s.getPagesExamine();
+				stats.pagesFreed += s.getPagesFree();
+			}
+			
+			stats.bytesAfter = getDatabaseFileSize();
+			if (traversalSize > 0) stats.traversalPagesAfter = measureTraversal(traversalSize);
+			commit();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+		return stats;
+	}
+	
+	/**
+	 * Compact the databases online with the default fill percentage.
+	 * 
+	 * @return the statistics
+	 */
+	public BdbCompactionStats compact() {
+		return compact(0, 0);
+	}
+	
+	/**
+	 * Rebuild the databases into fresh files by copying their records in the key
+	 * order, which fills the pages nearly sequentially and lays out the leaf pages
+	 * in the key order. The new files use the page sizes of the current
+	 * configuration. The graph must not be used by any other thread, and all
+	 * iterators must be closed, since the databases are reopened. The queue of
+	 * the vertices is not rebuilt, since its record numbers are the vertex IDs.
+	 * This commits the current transaction and resets
+	 * the cache statistics if the traversal is measured.
+	 * 
+	 * All databases are copied into ".new" files before any of them replaces its
+	 * original, which is first renamed to ".old", so that a rebuild interrupted by
+	 * a crash is finished or discarded the next time the graph is opened.
+	 * 
+	 * @param traversalSize the number of vertices of the traversal that is measured before
+	 *                      and after the rebuild, or 0 not to measure it
+	 * @return the statistics
+	 */
+	public BdbCompactionStats rebuild(int traversalSize) {
+		BdbCompactionStats stats = new BdbCompactionStats();
+		try {
+			stopBulkLoad();
+			commit();
+			if (traversalSize > 0) stats.traversalPagesBefore = measureTraversal(traversalSize);
+			commit();
+			stats.bytesBefore = getDatabaseFileSize();
+			
+			// Copy the records into new files
+			
+			Map<String, Database> databases = getReorganizableDatabases();
+			Map<String, Long> pagesBefore = new HashMap<String, Long>();
+			for (Map.Entry<String, Database> e : databases.entrySet()) {
+				pagesBefore.put(e.getKey(), new File(envHome, e.getKey()).length() / e.getValue().getConfig().getPageSize());
+				copyDatabase(e.getValue(), e.getKey(), e.getKey() + ".new");
+			}
+			
+			// Replace the old files, which need to be closed first; once the first
+			// of them is renamed to ".old", recoverRebuild() finishes the swap
+			
+			boolean useDictionary = labelDb != null;
+			boolean useSampling = vertexSampleDb != null;
+			boolean useCounters = counterDb != null;
+			closeDatabases();
+			if (durability != null) dbEnv.logFlush(null);
+			for (String name : databases.keySet()) {
+				dbEnv.renameDatabase(null, name, null, name + ".old");
+				dbEnv.renameDatabase(null, name + ".new", null, name);
+			}
+			for (String name : databases.keySet()) {
+				dbEnv.removeDatabase(null, name + ".old", null);
+			}
+			openDatabases(useDictionary, useSampling, useCounters);
+			
+			for (Map.Entry<String, Database> e : getReorganizableDatabases().entrySet()) {
+				long after = new File(envHome, e.getKey()).length() / e.getValue().getConfig().getPageSize();
+				stats.pagesFreed += Math.max(0, pagesBefore.get(e.getKey()) - after);
+			}
+			stats.bytesAfter = getDatabaseFileSize();
+			if (traversalSize > 0) stats.traversalPagesAfter = measureTraversal(traversalSize);
+			commit();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+		return stats;
+	}
+	
+	/**
+	 * Finish or roll back a rebuild that was interrupted by a crash. The copies
+	 * are all complete before the first original is renamed to ".old", so if
+	 * there is any ".old" file, the remaining copies replace their originals;
+	 * otherwise the copies are discarded. This must run before the databases
+	 * are opened.
+	 * 
+	 * @throws DatabaseException on error
+	 */
+	private void recoverRebuild() throws DatabaseException {
+		
+		String[] files = envHome.list();
+		if (files == null) return;
+		
+		boolean swapping = false;
+		for (String f : files) {
+			if (f.endsWith(".db.old")) swapping = true;
+		}
+		
+		for (String f : files) {
+			if (!f.endsWith(".db.new")) continue;
+			String name = f.substring(0, f.length() - 4);
+			if (swapping) {
+				if (new File(envHome, name).exists()) dbEnv.renameDatabase(null, name, null, name + ".old");
+				dbEnv.renameDatabase(null, f, null, name);
+			}
+			else {
+				dbEnv.removeDatabase(null, f, null);
+			}
+		}
+		
+		for (String f : envHome.list()) {
+			if (f.endsWith(".db.old")) dbEnv.removeDatabase(null, f, null);
+		}
+	}
+	
+	/**
+	 * Copy a database into a new file in the key order. The records are read
+	 * and written in the current transaction, which is committed after every
+	 * batch, so that it does not grow without bounds; since the cursor must be
+	 * closed before the commit, each batch reopens it after the last copied record.
+	 * 
+	 * @param db the database
+	 * @param name the database name in the configuration
+	 * @param file the file name of the copy
+	 * @throws Exception on error
+	 */
+	private void copyDatabase(Database db, String name, String file) throws Exception {
+		
+		// Remove a leftover of an interrupted rebuild
+		if (new File(envHome, file).exists()) dbEnv.removeDatabase(null, file, null);
+		
+		DatabaseConfig dbConfig = db.getConfig();
+		dbConfig.setAllowCreate(true);
+		dbConfig.setExclusiveCreate(true);
+		boolean duplicates = dbConfig.getSortedDuplicates();
+		Database copy = openDatabase(name, file, dbConfig);
+		
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+		byte[] lastKey = null;
+		byte[] lastData = null;
+		boolean more = true;
+		
+		try {
+			while (more) {
+				BdbBulkCursor cursor = new BdbBulkCursor(db.openCursor(getTransaction(), null), bulkReadBufferSize, false);
+				try {
+					if (lastKey != null) {
+						DatabaseEntry k = new DatabaseEntry(lastKey);
+						DatabaseEntry d = new DatabaseEntry(lastData);
+						OperationStatus status = duplicates
+								? cursor.getCursor().getSearchBoth(k, d, null)
+								: cursor.getCursor().getSearchKey(k, d, null);
+						if (status != OperationStatus.SUCCESS)
+							throw new IllegalStateException("BdbGraph: The database " + name + " changed during the rebuild.");
+					}
+					
+					for (int n = 0; n < bulkLoadBufferSize; n++) {
+						if (!cursor.getNext(key, data)) {
+							more = false;
+							break;
+						}
+						if (duplicates)
+							copy.putNoDupData(getTransaction(), key, data);
+						else
+							copy.put(getTransaction(), key, data);
+					}
+					
+					// The entries point into the buffer of the cursor
+					if (more) {
+						lastKey = BdbExternalSorter.bytes(key);
+						lastData = BdbExternalSorter.bytes(data);
+					}
+				}
+				finally {
+					cursor.close();
+				}
+				commit();
+			}
+		}
+		finally {
+			copy.close();
+		}
+	}
+
+	
+	// PARTITIONABLE GRAPH INTERFACE
+	
+	/**
+	 * Get the smallest and the largest vertex ID
+	 * 
+	 * @return the two IDs, or null if there are no vertices
+	 * @throws DatabaseException on error
+	 */
+	private long[] getVertexIdRange() throws DatabaseException {
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+		data.setPartial(0, 0, true);
+		
+		Cursor cursor = vertexDb.openCursor(getTransaction(), null);
+		try {
+			if (cursor.getFirst(key, data, null) != OperationStatus.SUCCESS) return null;
+			long first = RecordNumberBinding.entryToRecordNumber(key);
+			if (cursor.getLast(key, data, null) != OperationStatus.SUCCESS) return null;
+			return new long[] { first, RecordNumberBinding.entryToRecordNumber(key) };
+		}
+		finally {
+			cursor.close();
+		}
+	}
+	
+	/**
+	 * Split the vertices into ranges of IDs of nearly equal lengths. There is
+	 * more than one partition only in the concurrent mode, since otherwise the
+	 * environment cannot be used from several threads at the same time.
+	 * 
+	 * @param n the requested number of partitions
+	 * @return the list of the partitions
+	 */
+	@Override
+	public List<CloseableIterable<Vertex>> getVertexPartitions(int n) {
+		List<CloseableIterable<Vertex>> result = new ArrayList<CloseableIterable<Vertex>>();
+		long[] range;
+		
+		try {
+			range = concurrent && n > 1 ? getVertexIdRange() : null;
+		} catch (DatabaseException e) {
+			throw new RuntimeException(e);
+		}
+		
+		long from = 0;
+		if (range != null) {
+			long count = range[1] - range[0] + 1;
+			if (n > count) n = (int) count;
+			for (int i = 1; i < n; i++) {
+				long to = range[0] + count * i / n;
+				result.add(new BdbVertexSequence(this, from, to));
+				from = to;
+			}
+		}
+		result.add(new BdbVertexSequence(this, from, Long.MAX_VALUE));
+		
+		return result;
+	}
+	
+	/**
+	 * Split the edges into ranges of the keys of the out database. The bounds
+	 * are the out vertices of the quantiles of the edge sampling index, so that
+	 * the partitions have nearly equal numbers of edges, or evenly spaced vertex
+	 * IDs in the environments without the index. There is more than one
+	 * partition only in the concurrent mode.
+	 * 
+	 * @param n the requested number of partitions
+	 * @return the list of the partitions
+	 */
+	@Override
+	public List<CloseableIterable<Edge>> getEdgePartitions(int n) {
+		List<CloseableIterable<Edge>> result = new ArrayList<CloseableIterable<Edge>>();
+		
+		// The bounds are sorted in the order of the out database, and all edges
+		// of a vertex fall into the same partition
+		
+		TreeSet<byte[]> bounds = new TreeSet<byte[]>(new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				return BdbExternalSorter.compare(a, 0, a.length, b, 0, b.length);
+			}
+		});
+		
+		try {
+			if (concurrent && n > 1) {
+				DatabaseEntry entry = new DatabaseEntry();
+				if (edgeSampleIndex != null) {
+					for (DatabaseEntry key : edgeSampleIndex.quantiles(n)) {
+						outKeyPrefix(edgeKeyBinding.entryToObject(key).out, entry);
+						bounds.add(BdbExternalSorter.bytes(entry));
+					}
+				}
+				else {
+					long[] range = getVertexIdRange();
+					if (range != null) {
+						long count = range[1] - range[0] + 1;
+						for (int i = 1; i < n && i < count; i++) {
+							outKeyPrefix(range[0] + count * i / n, entry);
+							bounds.add(BdbExternalSorter.bytes(entry));
+						}
+					}
+				}
+			}
+		} catch (DatabaseException e) {
+			throw new RuntimeException(e);
+		}
+		
+		DatabaseEntry from = null;
+		for (byte[] b : bounds) {
+			DatabaseEntry to = new DatabaseEntry(b);
+			result.add(getEdges(from, to));
+			from = to;
+		}
+		result.add(getEdges(from, null));
+		
+		return result;
+	}
+	
+	/**
+	 * Encode the smallest key of the out database for the given vertex
+	 * 
+	 * @param vertex the vertex ID
+	 * @param entry the entry for the key
+	 */
+	private void outKeyPrefix(long vertex, DatabaseEntry entry) {
+		if (layout == Layout.PACKED)
+			segmentKeyBinding.prefixToEntry(vertex, null, entry);
+		else
+			RecordNumberBinding.recordNumberToEntry(vertex, entry);
+	}
+
+	
+	// KEY INDEXABLE GRAPH INTERFACE
+	
+	
+	/**
+	 * Get the key index for the given element class
+	 * 
+	 * @param elementClass the element class
+	 * @return the key index
+	 */
+	private BdbKeyIndex<?> getKeyIndex(final Class<?> elementClass) {
+		if (Vertex.class.isAssignableFrom(elementClass)) return vertexKeyIndex;
+		if (Edge.class.isAssignableFrom(elementClass)) return edgeKeyIndex;
+		throw ExceptionFactory.classIsNotIndexable(elementClass);
+	}
+
+	/**
+	 * Create an index of a property key, which also indexes the existing elements
+	 * using a sorted bulk build. This commits the current transaction.
+	 * 
+	 * @param key the property key
+	 * @param elementClass the element class
+	 * @param indexParameters the index parameters (ignored)
+	 */
+	@Override
+	public <T extends Element> void createKeyIndex(final String key, final Class<T> elementClass,
+			@SuppressWarnings("rawtypes") final Parameter... indexParameters) {
+		try {
+			getKeyIndex(elementClass).create(key, envHome, bulkLoadBufferSize);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Drop the index of a property key. This commits the current transaction.
+	 * 
+	 * @param key the property key
+	 * @param elementClass the element class
+	 */
+	@Override
+	public <T extends Element> void dropKeyIndex(final String key, final Class<T> elementClass) {
+		try {
+			getKeyIndex(elementClass).drop(key);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Get the indexed property keys.
+	 * 
+	 * @param elementClass the element class
+	 * @return the set of the indexed keys
+	 */
+	@Override
+	public <T extends Element> Set<String> getIndexedKeys(final Class<T> elementClass) {
+		return getKeyIndex(elementClass).getIndexedKeys();
+	}
+
+	
+	// TRANSACTIONAL GRAPH INTERFACE
+	
+	
+	/**
+	 * Get the current transaction of the calling thread, and start one if necessary.
+	 * Both the reads and the writes start the transaction, so a thread that only
+	 * reads must also end it by commit() or rollback() to release its locks.
+	 * 
+	 * If the transaction is chosen as the victim of a deadlock, the operations
+	 * of the elements and of the graph roll it back and throw BdbDeadlockException,
+	 * and the whole transaction should be retried. The iterators throw a
+	 * RuntimeException caused by DeadlockException instead, after which the
+	 * transaction must be rolled back by the caller.
+	 * 
+	 * @return the current transaction, or null if the graph is not transactional
+	 */
+	public Transaction getTransaction() {
+		
+		if (durability == null) return null;
+		
+		Transaction t = tx.get();
+		if (t == null) {
+			try {
+				t = dbEnv.beginTransaction(null, null);
+			} catch (DatabaseException e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+			tx.set(t);
+			txCounter.set(0);
+		}
+		return t;
+	}
+	
+	
+	/**
+	 * Determine whether an exception was caused by a deadlock.
+	 * 
+	 * @param e the exception
+	 * @return true if DeadlockException is in the chain of its causes
+	 */
+	private static boolean isDeadlock(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof DeadlockException) return true;
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Convert an exception of an operation to the exception to throw. If the
+	 * operation was chosen as the victim of a deadlock, the current transaction
+	 * is rolled back, since it cannot continue.
+	 * 
+	 * @param e the exception
+	 * @return BdbDeadlockException for a deadlock, or otherwise the exception as a RuntimeException
+	 */
+	RuntimeException failed(final Exception e) {
+		if (isDeadlock(e)) {
+			try {
+				rollback();
+			} catch (RuntimeException r) {
+				// The transaction is gone either way
+			}
+			return new BdbDeadlockException(e);
+		}
+		if (e instanceof RuntimeException) return (RuntimeException) e;
+		return new RuntimeException(e.getMessage(), e);
+	}
+	
+	
+	/**
+	 * Convert an exception of a mutation to the exception to throw, and abort
+	 * the transaction if it is controlled automatically or if it was chosen as
+	 * the victim of a deadlock.
+	 * 
+	 * @param e the exception
+	 * @return the exception to throw
+	 */
+	RuntimeException mutationFailed(final Exception e) {
+		RuntimeException r = failed(e);
+		if (!(r instanceof BdbDeadlockException)) autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
+		return r;
+	}
+	
+	
+	/**
+	 * Start a transaction, if it is controlled automatically.
+	 */
+    protected void autoStartTransaction() {
+    	if (!autoTransactionControl) return;
+        if (this.txBuffer.get() > 0) {
+        	getTransaction();
+        }
+    }
+
+    
+	/**
+	 * Count a finished mutation, and commit or abort the transaction if it is
+	 * controlled automatically.
+	 * 
+	 * @param conclusion whether the mutation succeeded
+	 */
+    protected void autoStopTransaction(final Conclusion conclusion) {
+    	if (!autoTransactionControl) return;
+        if (this.txBuffer.get() > 0) {
+            txCounter.set(txCounter.get() + 1);
+            if (conclusion == Conclusion.FAILURE) {
+            	rollback();
+            } else if (this.txCounter.get() % this.txBuffer.get() == 0) {
+            	commit();
+            }
+        }
+    }
+    
+    
+	/**
+	 * Commit the current transaction. All iterators opened in the transaction must
+	 * be closed or exhausted.
+	 */
+    @Override
+    public void commit() {
+    	Transaction t = tx.get();
+    	if (t == null) return;
+    	
+    	tx.remove();
+    	txCounter.set(0);
+    	
+    	try {
+    		t.commit();
+    		
+    		// Take a checkpoint if enough log was written or enough time passed
+    		if (checkpointConfig != null) dbEnv.checkpoint(checkpointConfig);
+		} catch (DatabaseException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+    }
+    
+    
+	/**
+	 * Abort the current transaction. All iterators opened in the transaction must
+	 * be closed or exhausted.
+	 */
+    @Override
+    public void rollback() {
+    	Transaction t = tx.get();
+    	if (t == null) return;
+    	
+    	tx.remove();
+    	txCounter.set(0);
+    	
+    	try {
+    		t.abort();
+		} catch (DatabaseException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+    }
+    
+    
+	/**
+	 * Stop the current transaction.
+	 * 
+	 * @param conclusion whether to commit or to abort the transaction
+	 */
+    @Override
+    public void stopTransaction(final Conclusion conclusion) {
+    	if (conclusion == Conclusion.SUCCESS)
+    		commit();
+    	else
+    		rollback();
+    }
+
+    
+	/**
+	 * Get the number of mutations in the current automatically controlled transaction.
+	 * 
+	 * @return the current size of the transaction buffer
+	 */
+	@Override
+	public int getCurrentBufferSize() {
+		return txCounter.get();
+	}
+
+	
+	/**
+	 * Get the number of mutations after which an automatically controlled
+	 * transaction is committed.
+	 * 
+	 * @return the maximum size of the transaction buffer
+	 */
+	@Override
+	public int getMaxBufferSize() {
+		return txBuffer.get();
+	}
+
+	
+	/**
+	 * Set the number of mutations after which an automatically controlled
+	 * transaction is committed. This commits the current transaction.
+	 * 
+	 * @param size the maximum size of the transaction buffer
+	 */
+	@Override
+	public void setMaxBufferSize(int size) {
+		commit();
+        this.txBuffer.set(size);
+        this.txCounter.set(0);
+	}
+
+	
+	/**
+	 * Enable or disable automatic transaction control.
+	 * 
+	 * @param enable whether to enable or disable the automatic transaction control
+	 */
+	@Override
+	public void setAutoTransactionControl(boolean enable) {
+		
+		if (autoTransactionControl == enable) return;
+		
+		if (autoTransactionControl) commit();		
+		autoTransactionControl = enable;		
+		if (autoTransactionControl) autoStartTransaction();
 	}
 }
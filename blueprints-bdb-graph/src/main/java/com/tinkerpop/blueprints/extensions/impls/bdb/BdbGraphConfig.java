@@ -0,0 +1,471 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb;
+
+import com.sleepycat.db.BtreeCompressor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The configuration of a BdbGraph environment and of its databases. The
+ * settings that determine the format of a database, such as the page size
+ * and the access method, apply only when the database is created, and they
+ * are ignored for the existing databases.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbGraphConfig {
+
+	private int cacheSize = 256;
+	private int cacheCount = 1;
+	private long mmapSize = 0;
+	private boolean concurrent = false;
+	private BdbGraph.Durability durability = null;
+	private BdbGraph.Layout layout = null;
+
+	private int defaultPageSize = 0;
+	private Map<String, Integer> pageSizes = new HashMap<String, Integer>();
+	private boolean vertexPropertyHash = false;
+	private BtreeCompressor btreeCompressor = null;
+	private boolean sampling = true;
+	private boolean counting = true;
+
+	private int logBufferSize = 0;
+	private int maxLogFileSize = 0;
+	private boolean logAutoRemove = false;
+	private int checkpointKBytes = 0;
+	private int checkpointMinutes = 0;
+
+
+	/**
+	 * Create an instance of class BdbGraphConfig with the default settings
+	 */
+	public BdbGraphConfig() {
+	}
+
+
+	/**
+	 * Create a configuration for workloads dominated by traversals and point
+	 * lookups: large pages for the adjacency lists, so that a neighborhood spans
+	 * fewer pages, a hashed vertexProperty.db, several cache partitions to reduce
+	 * the contention between the reading threads, and memory-mapped read-only
+	 * files of up to 64 MB.
+	 *
+	 * @param cacheSize the cache size in MB
+	 * @return the configuration
+	 */
+	public static BdbGraphConfig traversalHeavy(int cacheSize) {
+		BdbGraphConfig c = new BdbGraphConfig();
+		c.setCacheSize(cacheSize);
+		c.setCacheCount(4);
+		c.setMmapSize(64L * 1048576);
+		for (String name : new String[] { "out.db", "in.db", "outPacked.db", "inPacked.db" }) {
+			c.setPageSize(name, 65536);
+		}
+		c.setVertexPropertyHash(true);
+		return c;
+	}
+
+
+	/**
+	 * Create a configuration for workloads dominated by loading and updates:
+	 * medium-sized pages, which split less often than the default ones, a
+	 * large log buffer, and, for a transactional graph, a checkpoint after
+	 * every 64 MB of log with the automatic removal of the old log files.
+	 *
+	 * @param cacheSize the cache size in MB
+	 * @return the configuration
+	 */
+	public static BdbGraphConfig ingestHeavy(int cacheSize) {
+		BdbGraphConfig c = new BdbGraphConfig();
+		c.setCacheSize(cacheSize);
+		c.setDefaultPageSize(16384);
+		c.setLogBufferSize(8 * 1048576);
+		c.setMaxLogFileSize(64 * 1048576);
+		c.setLogAutoRemove(true);
+		c.setCheckpointKBytes(64 * 1024);
+		return c;
+	}
+
+
+	/**
+	 * Create a configuration from the name of a preset
+	 *
+	 * @param name the preset name, "default", "traversal-heavy", or "ingest-heavy"
+	 * @param cacheSize the cache size in MB
+	 * @return the configuration
+	 */
+	public static BdbGraphConfig forName(String name, int cacheSize) {
+		if ("traversal-heavy".equals(name)) return traversalHeavy(cacheSize);
+		if ("ingest-heavy".equals(name)) return ingestHeavy(cacheSize);
+		if ("default".equals(name)) {
+			BdbGraphConfig c = new BdbGraphConfig();
+			c.setCacheSize(cacheSize);
+			return c;
+		}
+		throw new IllegalArgumentException("BdbGraphConfig: Unknown preset \"" + name + "\"");
+	}
+
+
+	// Environment
+
+	/**
+	 * Return the cache size
+	 *
+	 * @return the cache size in MB
+	 */
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * Set the cache size
+	 *
+	 * @param cacheSize the cache size in MB
+	 */
+	public void setCacheSize(int cacheSize) {
+		if (cacheSize <= 0) throw new IllegalArgumentException("The cache size must be positive");
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Return the number of the cache regions
+	 *
+	 * @return the number of the cache regions
+	 */
+	public int getCacheCount() {
+		return cacheCount;
+	}
+
+	/**
+	 * Set the number of the cache regions, among which the cache is divided
+	 *
+	 * @param cacheCount the number of the cache regions
+	 */
+	public void setCacheCount(int cacheCount) {
+		if (cacheCount <= 0) throw new IllegalArgumentException("The cache count must be positive");
+		this.cacheCount = cacheCount;
+	}
+
+	/**
+	 * Return the maximum size of a read-only file that is memory-mapped
+	 * instead of being read through the cache
+	 *
+	 * @return the size in bytes, or 0 for the Berkeley DB default
+	 */
+	public long getMmapSize() {
+		return mmapSize;
+	}
+
+	/**
+	 * Set the maximum size of a read-only file that is memory-mapped
+	 *
+	 * @param mmapSize the size in bytes, or 0 for the Berkeley DB default
+	 */
+	public void setMmapSize(long mmapSize) {
+		if (mmapSize < 0) throw new IllegalArgumentException("The mmap size must not be negative");
+		this.mmapSize = mmapSize;
+	}
+
+	/**
+	 * Determine whether the environment is opened as a Concurrent Data Store
+	 *
+	 * @return true for the concurrent mode
+	 */
+	public boolean isConcurrent() {
+		return concurrent;
+	}
+
+	/**
+	 * Set whether to open the environment as a Concurrent Data Store, which
+	 * cannot be combined with transactions
+	 *
+	 * @param concurrent true for the concurrent mode
+	 */
+	public void setConcurrent(boolean concurrent) {
+		this.concurrent = concurrent;
+	}
+
+	/**
+	 * Return the durability of the committed transactions
+	 *
+	 * @return the durability, or null for a non-transactional graph
+	 */
+	public BdbGraph.Durability getDurability() {
+		return durability;
+	}
+
+	/**
+	 * Set the durability of the committed transactions
+	 *
+	 * @param durability the durability, or null for a non-transactional graph
+	 */
+	public void setDurability(BdbGraph.Durability durability) {
+		this.durability = durability;
+	}
+
+	/**
+	 * Return the layout of the adjacency lists
+	 *
+	 * @return the layout, or null to use the layout of an existing environment
+	 *         or the default layout for a new one
+	 */
+	public BdbGraph.Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Set the layout of the adjacency lists
+	 *
+	 * @param layout the layout, or null to use the layout of an existing
+	 *               environment or the default layout for a new one
+	 */
+	public void setLayout(BdbGraph.Layout layout) {
+		this.layout = layout;
+	}
+
+
+	// Databases
+
+	/**
+	 * Return the page size of the databases without a specific page size
+	 *
+	 * @return the page size in bytes, or 0 for the Berkeley DB default
+	 */
+	public int getDefaultPageSize() {
+		return defaultPageSize;
+	}
+
+	/**
+	 * Set the page size of the databases without a specific page size
+	 *
+	 * @param size the page size in bytes (a power of 2 between 512 and 65536),
+	 *             or 0 for the Berkeley DB default
+	 */
+	public void setDefaultPageSize(int size) {
+		checkPageSize(size);
+		this.defaultPageSize = size;
+	}
+
+	/**
+	 * Return the page size of a database
+	 *
+	 * @param name the database file name, such as "out.db"
+	 * @return the page size in bytes, or 0 for the Berkeley DB default
+	 */
+	public int getPageSize(String name) {
+		Integer size = pageSizes.get(name);
+		return size != null ? size.intValue() : defaultPageSize;
+	}
+
+	/**
+	 * Set the page size of a database
+	 *
+	 * @param name the database file name, such as "out.db"
+	 * @param size the page size in bytes (a power of 2 between 512 and 65536),
+	 *             or 0 for the Berkeley DB default
+	 */
+	public void setPageSize(String name, int size) {
+		checkPageSize(size);
+		pageSizes.put(name, size);
+	}
+
+	/**
+	 * Check whether the page size is valid
+	 *
+	 * @param size the page size
+	 */
+	private static void checkPageSize(int size) {
+		if (size != 0 && (size < 512 || size > 65536 || Integer.bitCount(size) != 1))
+			throw new IllegalArgumentException("The page size must be a power of 2 between 512 and 65536");
+	}
+
+	/**
+	 * Determine whether vertexProperty.db is a hash table instead of a B-tree
+	 *
+	 * @return true for a hash table
+	 */
+	public boolean isVertexPropertyHash() {
+		return vertexPropertyHash;
+	}
+
+	/**
+	 * Set whether vertexProperty.db is a hash table instead of a B-tree, which
+	 * is usually better for the random lookups of the properties of individual
+	 * vertices, but worse for the scans in the vertex ID order
+	 *
+	 * @param hash true for a hash table
+	 */
+	public void setVertexPropertyHash(boolean hash) {
+		this.vertexPropertyHash = hash;
+	}
+
+	/**
+	 * Return the compressor of the duplicate adjacency lists
+	 *
+	 * @return the compressor, or null if they are not compressed
+	 */
+	public BtreeCompressor getBtreeCompressor() {
+		return btreeCompressor;
+	}
+
+	/**
+	 * Set the compressor of out.db and in.db in the duplicates layout. The
+	 * consecutive records share their keys and long prefixes of their data,
+	 * so that a prefix compression of the records saves much of their space.
+	 * Unlike the other settings, the same compressor must be set every time
+	 * the environment is opened.
+	 *
+	 * @param compressor the compressor, or null to disable the compression
+	 */
+	public void setBtreeCompressor(BtreeCompressor compressor) {
+		this.btreeCompressor = compressor;
+	}
+
+	/**
+	 * Determine whether the graph maintains vertexSample.db and edgeSample.db
+	 *
+	 * @return true if the sampling databases are maintained
+	 */
+	public boolean isSampling() {
+		return sampling;
+	}
+
+	/**
+	 * Set whether the graph maintains vertexSample.db and edgeSample.db for the
+	 * exactly uniform random sampling and the balanced edge partitions. Each of
+	 * them costs one more B-tree write per added or removed element outside of
+	 * the bulk-load mode; without them, the random elements are found by probing
+	 * random IDs instead. Disabling the sampling for an existing environment
+	 * drops its sampling databases, and enabling it again later does not
+	 * recreate them.
+	 *
+	 * @param sampling true to maintain the sampling databases
+	 */
+	public void setSampling(boolean sampling) {
+		this.sampling = sampling;
+	}
+
+	/**
+	 * Determine whether the graph maintains the counters in counter.db
+	 *
+	 * @return true if the counters are maintained
+	 */
+	public boolean isCounting() {
+		return counting;
+	}
+
+	/**
+	 * Set whether the graph maintains the numbers of the vertices and of the
+	 * edges by label in counter.db. The counters cost one read-modify-write per
+	 * added or removed vertex and two per edge outside of the bulk-load mode,
+	 * and they serialize the concurrent transactions that modify the graph;
+	 * without them, the counts are computed by a scan. Disabling the counters
+	 * for an existing environment drops counter.db, and enabling them again
+	 * later recounts the graph when it is opened.
+	 *
+	 * @param counting true to maintain the counters
+	 */
+	public void setCounting(boolean counting) {
+		this.counting = counting;
+	}
+
+
+	// Logging and checkpoints
+
+	/**
+	 * Return the size of the in-memory log buffer of a transactional graph
+	 *
+	 * @return the size in bytes, or 0 for the Berkeley DB default
+	 */
+	public int getLogBufferSize() {
+		return logBufferSize;
+	}
+
+	/**
+	 * Set the size of the in-memory log buffer of a transactional graph
+	 *
+	 * @param size the size in bytes, or 0 for the Berkeley DB default
+	 */
+	public void setLogBufferSize(int size) {
+		if (size < 0) throw new IllegalArgumentException("The size must not be negative");
+		this.logBufferSize = size;
+	}
+
+	/**
+	 * Return the maximum size of a log file of a transactional graph
+	 *
+	 * @return the size in bytes, or 0 for the Berkeley DB default
+	 */
+	public int getMaxLogFileSize() {
+		return maxLogFileSize;
+	}
+
+	/**
+	 * Set the maximum size of a log file of a transactional graph
+	 *
+	 * @param size the size in bytes, or 0 for the Berkeley DB default
+	 */
+	public void setMaxLogFileSize(int size) {
+		if (size < 0) throw new IllegalArgumentException("The size must not be negative");
+		this.maxLogFileSize = size;
+	}
+
+	/**
+	 * Determine whether the log files that are no longer needed are removed
+	 *
+	 * @return true if they are removed automatically
+	 */
+	public boolean isLogAutoRemove() {
+		return logAutoRemove;
+	}
+
+	/**
+	 * Set whether the log files that are no longer needed are removed, which
+	 * saves space, but precludes the catastrophic recovery
+	 *
+	 * @param autoRemove true to remove them automatically
+	 */
+	public void setLogAutoRemove(boolean autoRemove) {
+		this.logAutoRemove = autoRemove;
+	}
+
+	/**
+	 * Return the amount of the log after which a commit takes a checkpoint
+	 *
+	 * @return the amount in KB, or 0 if not used
+	 */
+	public int getCheckpointKBytes() {
+		return checkpointKBytes;
+	}
+
+	/**
+	 * Set the amount of the log written since the last checkpoint after which
+	 * a commit takes a new checkpoint, which bounds the recovery time
+	 *
+	 * @param kbytes the amount in KB, or 0 if not used
+	 */
+	public void setCheckpointKBytes(int kbytes) {
+		if (kbytes < 0) throw new IllegalArgumentException("The amount must not be negative");
+		this.checkpointKBytes = kbytes;
+	}
+
+	/**
+	 * Return the time after which a commit takes a checkpoint
+	 *
+	 * @return the time in minutes, or 0 if not used
+	 */
+	public int getCheckpointMinutes() {
+		return checkpointMinutes;
+	}
+
+	/**
+	 * Set the time since the last checkpoint after which a commit takes a new
+	 * checkpoint
+	 *
+	 * @param minutes the time in minutes, or 0 if not used
+	 */
+	public void setCheckpointMinutes(int minutes) {
+		if (minutes < 0) throw new IllegalArgumentException("The time must not be negative");
+		this.checkpointMinutes = minutes;
+	}
+}
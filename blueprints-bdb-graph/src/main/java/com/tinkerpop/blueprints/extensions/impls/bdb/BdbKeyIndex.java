@@ -0,0 +1,460 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb;
+
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.db.Cursor;
+import com.sleepycat.db.Database;
+import com.sleepycat.db.DatabaseEntry;
+import com.sleepycat.db.DatabaseException;
+import com.sleepycat.db.OperationStatus;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbBulkCursor;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbExternalSorter;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbPropertyData;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A secondary index of the properties of the vertices or of the edges by the
+ * property key and value. The index database maps the property record, which
+ * is the encoded key and value, to the IDs of the elements, so that the index
+ * records are copies of the property records with the key and the data swapped.
+ * The index is maintained explicitly, since the property databases have
+ * duplicates and thus cannot be associated with a secondary database.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+abstract class BdbKeyIndex<T extends Element> {
+
+	private BdbGraph graph;
+	private Database propertyDb;
+	private Database indexDb;
+	private Database keysDb;
+	private DatabaseEntry name;
+
+	private volatile Set<String> keys;
+
+
+	/**
+	 * Create an instance of class BdbKeyIndex and load the set of the indexed keys
+	 *
+	 * @param graph the graph
+	 * @param name the name of the index in the database of the indexed keys
+	 * @param propertyDb the property database
+	 * @param indexDb the index database
+	 * @param keysDb the database of the indexed keys
+	 * @throws DatabaseException on error
+	 */
+	public BdbKeyIndex(BdbGraph graph, String name, Database propertyDb, Database indexDb, Database keysDb)
+			throws DatabaseException {
+
+		this.graph = graph;
+		this.propertyDb = propertyDb;
+		this.indexDb = indexDb;
+		this.keysDb = keysDb;
+		this.name = new DatabaseEntry();
+		StringBinding.stringToEntry(name, this.name);
+
+		Set<String> s = new HashSet<String>();
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+		key.setPartial(0, 0, true);
+		Cursor cursor = keysDb.openCursor(null, null);
+		try {
+			OperationStatus status = cursor.getSearchKey(this.name, data, null);
+			while (status == OperationStatus.SUCCESS) {
+				s.add(StringBinding.entryToString(data));
+				status = cursor.getNextDup(key, data, null);
+			}
+		}
+		finally {
+			cursor.close();
+		}
+		this.keys = s;
+	}
+
+
+	/**
+	 * Create the element object from its ID
+	 *
+	 * @param id the element ID from the index record
+	 * @return the element
+	 */
+	protected abstract T create(DatabaseEntry id);
+
+
+	/**
+	 * Get the indexed keys
+	 *
+	 * @return an unmodifiable set of the keys
+	 */
+	public Set<String> getIndexedKeys() {
+		return Collections.unmodifiableSet(keys);
+	}
+
+
+	/**
+	 * Determine whether there is at least one indexed key
+	 *
+	 * @return true if there are indexed keys
+	 */
+	public boolean isEmpty() {
+		return keys.isEmpty();
+	}
+
+
+	/**
+	 * Determine whether the key is indexed
+	 *
+	 * @param key the property key
+	 * @return true if the key is indexed
+	 */
+	public boolean isIndexed(String key) {
+		return keys.contains(key);
+	}
+
+
+	/**
+	 * Index a key, and add all existing properties with the key to the index
+	 * using a sorted bulk build. This commits the current transaction.
+	 *
+	 * @param key the property key
+	 * @param tempDir the directory for the temporary files
+	 * @param bufferSize the number of records sorted in memory
+	 * @throws DatabaseException on error
+	 */
+	public synchronized void create(String key, File tempDir, int bufferSize) throws DatabaseException {
+
+		if (keys.contains(key))
+			throw new IllegalArgumentException("BdbGraph: The key \"" + key + "\" is already indexed.");
+
+		BdbExternalSorter sorter = new BdbExternalSorter(tempDir, bufferSize);
+		DatabaseEntry id = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+
+		try {
+
+			// Collect the matching property records first, so that we do not hold
+			// a read cursor while writing
+
+			BdbBulkCursor cursor = new BdbBulkCursor(propertyDb.openCursor(graph.getTransaction(), null),
+					graph.getBulkReadBufferSize(), false);
+			try {
+				while (cursor.getNext(id, data)) {
+					if (key.equals(StringBinding.entryToString(data))) sorter.add(data, id);
+				}
+			}
+			finally {
+				cursor.close();
+			}
+
+			sorter.writeTo(graph, indexDb);
+			keysDb.put(graph.getTransaction(), name, keyEntry(key));
+			graph.commit();
+		}
+		finally {
+			sorter.discard();
+		}
+
+		Set<String> s = new HashSet<String>(keys);
+		s.add(key);
+		keys = s;
+	}
+
+
+	/**
+	 * Drop the index of a key. This commits the current transaction.
+	 *
+	 * @param key the property key
+	 * @throws DatabaseException on error
+	 */
+	public synchronized void drop(String key) throws DatabaseException {
+
+		if (!keys.contains(key)) return;
+
+		DatabaseEntry k = keyEntry(key);
+		DatabaseEntry data = new DatabaseEntry();
+		data.setPartial(0, 0, true);
+
+		Cursor cursor = indexDb.openCursor(graph.getTransaction(), graph.writeCursorConfig);
+		try {
+			OperationStatus status = cursor.getSearchKeyRange(k, data, null);
+			while (status == OperationStatus.SUCCESS && key.equals(StringBinding.entryToString(k))) {
+				cursor.delete();
+				status = cursor.getNext(k, data, null);
+			}
+		}
+		finally {
+			cursor.close();
+		}
+
+		cursor = keysDb.openCursor(graph.getTransaction(), graph.writeCursorConfig);
+		try {
+			if (cursor.getSearchBoth(name, keyEntry(key), null) == OperationStatus.SUCCESS)
+				cursor.delete();
+		}
+		finally {
+			cursor.close();
+		}
+		graph.commit();
+
+		Set<String> s = new HashSet<String>(keys);
+		s.remove(key);
+		keys = s;
+	}
+
+
+	/**
+	 * Remove all index records, but keep the set of the indexed keys
+	 *
+	 * @throws DatabaseException on error
+	 */
+	public void clear() throws DatabaseException {
+		indexDb.truncate(null, false);
+	}
+
+
+	/**
+	 * Add a property to the index, if the key is indexed
+	 *
+	 * @param key the property key
+	 * @param value the property value
+	 * @param id the element ID
+	 * @throws DatabaseException on error
+	 */
+	public void add(String key, Object value, DatabaseEntry id) throws DatabaseException {
+		if (!keys.contains(key)) return;
+		indexDb.putNoDupData(graph.getTransaction(), propertyEntry(key, value), id);
+	}
+
+
+	/**
+	 * Remove a property from the index, if the key is indexed
+	 *
+	 * @param key the property key
+	 * @param value the property value
+	 * @param id the element ID
+	 * @throws DatabaseException on error
+	 */
+	public void remove(String key, Object value, DatabaseEntry id) throws DatabaseException {
+		if (!keys.contains(key)) return;
+		remove(propertyEntry(key, value), id);
+	}
+
+
+	/**
+	 * Remove an index record
+	 *
+	 * @param property the encoded property
+	 * @param id the element ID
+	 * @throws DatabaseException on error
+	 */
+	private void remove(DatabaseEntry property, DatabaseEntry id) throws DatabaseException {
+		Cursor cursor = indexDb.openCursor(graph.getTransaction(), graph.writeCursorConfig);
+		try {
+			if (cursor.getSearchBoth(property, id, null) == OperationStatus.SUCCESS)
+				cursor.delete();
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+
+	/**
+	 * Remove all indexed properties of an element, which must be called before
+	 * the property records are deleted
+	 *
+	 * @param id the element ID
+	 * @throws DatabaseException on error
+	 */
+	public void removeElement(DatabaseEntry id) throws DatabaseException {
+		removeElements(Collections.singletonList(id));
+	}
+
+
+	/**
+	 * Remove all indexed properties of several elements, which must be called
+	 * before the property records are deleted. The properties are read with
+	 * one cursor in the order of the element IDs, and the index records are
+	 * then deleted with one cursor in the order of the index.
+	 *
+	 * @param ids the element IDs
+	 * @throws DatabaseException on error
+	 */
+	public void removeElements(List<DatabaseEntry> ids) throws DatabaseException {
+
+		if (keys.isEmpty() || ids.isEmpty()) return;
+
+		ArrayList<BdbExternalSorter.Record> elements = new ArrayList<BdbExternalSorter.Record>(ids.size());
+		for (DatabaseEntry id : ids) elements.add(new BdbExternalSorter.Record(BdbExternalSorter.bytes(id), new byte[0]));
+		Collections.sort(elements);
+
+		ArrayList<BdbExternalSorter.Record> records = new ArrayList<BdbExternalSorter.Record>();
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+		key.setPartial(0, 0, true);
+
+		Cursor cursor = propertyDb.openCursor(graph.getTransaction(), null);
+		try {
+			for (BdbExternalSorter.Record e : elements) {
+				OperationStatus status = cursor.getSearchKey(new DatabaseEntry(e.key), data, null);
+				while (status == OperationStatus.SUCCESS) {
+					if (keys.contains(StringBinding.entryToString(data)))
+						records.add(new BdbExternalSorter.Record(BdbExternalSorter.bytes(data), e.key));
+					status = cursor.getNextDup(key, data, null);
+				}
+			}
+		}
+		finally {
+			cursor.close();
+		}
+
+		if (records.isEmpty()) return;
+		Collections.sort(records);
+
+		cursor = indexDb.openCursor(graph.getTransaction(), graph.writeCursorConfig);
+		try {
+			for (BdbExternalSorter.Record r : records) {
+				if (cursor.getSearchBoth(new DatabaseEntry(r.key), new DatabaseEntry(r.data), null) == OperationStatus.SUCCESS)
+					cursor.delete();
+			}
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+
+	/**
+	 * Get the elements with the given property
+	 *
+	 * @param key the property key, which must be indexed
+	 * @param value the property value
+	 * @return the iterable of the elements
+	 */
+	public CloseableIterable<T> get(String key, Object value) {
+		return new BdbKeyIndexSequence(propertyEntry(key, value));
+	}
+
+
+	/**
+	 * Encode a property key
+	 *
+	 * @param key the property key
+	 * @return the entry
+	 */
+	private static DatabaseEntry keyEntry(String key) {
+		DatabaseEntry entry = new DatabaseEntry();
+		StringBinding.stringToEntry(key, entry);
+		return entry;
+	}
+
+
+	/**
+	 * Encode a property the same way as in the property databases
+	 *
+	 * @param key the property key
+	 * @param value the property value
+	 * @return the entry
+	 */
+	private static DatabaseEntry propertyEntry(String key, Object value) {
+		BdbPropertyData pdata = new BdbPropertyData();
+		pdata.pkey = key;
+		pdata.value = value;
+		DatabaseEntry entry = new DatabaseEntry();
+		BdbElement.propertyDataBinding.objectToEntry(pdata, entry);
+		return entry;
+	}
+
+
+	/**
+	 * The sequence of the elements with the given property
+	 */
+	class BdbKeyIndexSequence implements CloseableIterable<T> {
+
+		private DatabaseEntry property;
+		private BdbKeyIndexSequenceIterator iterator = null;
+
+		public BdbKeyIndexSequence(DatabaseEntry property) {
+			this.property = property;
+		}
+
+		public Iterator<T> iterator() {
+			return (iterator = new BdbKeyIndexSequenceIterator(property));
+		}
+
+		@Override
+		public void close() {
+			if (iterator != null) iterator.close();
+		}
+	}
+
+
+	/**
+	 * The iterator over the elements with the given property
+	 */
+	class BdbKeyIndexSequenceIterator implements Iterator<T> {
+
+		private BdbBulkCursor cursor;
+		private DatabaseEntry data = new DatabaseEntry();
+		private boolean found;
+
+		public BdbKeyIndexSequenceIterator(DatabaseEntry property) {
+			try {
+				this.cursor = new BdbBulkCursor(indexDb.openCursor(graph.getTransaction(), null),
+						graph.getBulkReadBufferSize(), false);
+				this.found = this.cursor.getSearchKey(property, data);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+			if (!found) close();
+		}
+
+		public T next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			T element = create(data);
+			try {
+				found = cursor.getNextDup(data);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+			if (!found) close();
+			return element;
+		}
+
+		public boolean hasNext() {
+			return found;
+		}
+
+		public void close() {
+			try {
+				if (this.cursor != null) this.cursor.close();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e.getMessage(), e);
+			} finally {
+				this.found = false;
+				this.cursor = null;
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
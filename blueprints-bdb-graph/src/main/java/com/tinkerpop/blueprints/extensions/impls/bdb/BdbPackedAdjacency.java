@@ -0,0 +1,255 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb;
+
+import com.sleepycat.db.Cursor;
+import com.sleepycat.db.Database;
+import com.sleepycat.db.DatabaseEntry;
+import com.sleepycat.db.DatabaseException;
+import com.sleepycat.db.OperationStatus;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbPackedSegmentDataBinding;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbPackedSegmentKey;
+
+import java.util.Arrays;
+
+/**
+ * The operations on the packed adjacency lists. Each list of the neighbors of
+ * a vertex by a label is stored as one or more segments, each of which is a
+ * sorted array of at most SEGMENT_CAPACITY neighbor IDs keyed by the vertex,
+ * the label, and a lower bound of the IDs in the segment.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+class BdbPackedAdjacency {
+
+	/**
+	 * The maximum number of neighbors in a segment
+	 */
+	public static final int SEGMENT_CAPACITY = 256;
+
+	final public static BdbPackedSegmentDataBinding segmentDataBinding = new BdbPackedSegmentDataBinding();
+
+
+	/**
+	 * Move the cursor to the segment that should contain the given neighbor,
+	 * which is the last segment of the list with the lower bound not greater
+	 * than the neighbor ID.
+	 *
+	 * @param graph the graph
+	 * @param cursor the cursor
+	 * @param vertex the vertex ID
+	 * @param label the edge label
+	 * @param neighbor the neighbor ID
+	 * @param key the entry for the key
+	 * @param data the entry for the data
+	 * @return the segment key, or null if there is no such segment
+	 * @throws DatabaseException on error
+	 */
+	private static BdbPackedSegmentKey findSegment(BdbGraph graph, Cursor cursor, long vertex, String label, long neighbor,
+			DatabaseEntry key, DatabaseEntry data) throws DatabaseException {
+
+		OperationStatus status;
+		BdbPackedSegmentKey k;
+
+		graph.segmentKeyBinding.objectToEntry(new BdbPackedSegmentKey(vertex, label, neighbor), key);
+		status = cursor.getSearchKeyRange(key, data, null);
+		if (status == OperationStatus.SUCCESS) {
+			k = graph.segmentKeyBinding.entryToObject(key);
+			if (k.matches(vertex, label) && k.start == neighbor) return k;
+			status = cursor.getPrev(key, data, null);
+		}
+		else {
+			status = cursor.getLast(key, data, null);
+		}
+
+		if (status == OperationStatus.SUCCESS) {
+			k = graph.segmentKeyBinding.entryToObject(key);
+			if (k.matches(vertex, label)) return k;
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Write a sorted array of neighbors, splitting it into several segments if
+	 * it does not fit into one.
+	 *
+	 * @param graph the graph
+	 * @param cursor the cursor
+	 * @param k the key of the first segment
+	 * @param ids the neighbor IDs
+	 * @throws DatabaseException on error
+	 */
+	private static void writeSegments(BdbGraph graph, Cursor cursor, BdbPackedSegmentKey k, long[] ids) throws DatabaseException {
+
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+
+		int segments = (ids.length + SEGMENT_CAPACITY - 1) / SEGMENT_CAPACITY;
+		for (int i = 0; i < segments; i++) {
+			int from = (int) ((long) ids.length * i / segments);
+			int to = (int) ((long) ids.length * (i + 1) / segments);
+
+			long start = i == 0 ? k.start : ids[from];
+			graph.segmentKeyBinding.objectToEntry(new BdbPackedSegmentKey(k.vertex, k.label, start), key);
+			segmentDataBinding.objectToEntry(Arrays.copyOfRange(ids, from, to), data);
+			cursor.put(key, data);
+		}
+	}
+
+
+	/**
+	 * Add a neighbor to an adjacency list
+	 *
+	 * @param graph the graph
+	 * @param db the out or in database
+	 * @param vertex the vertex ID
+	 * @param label the edge label
+	 * @param neighbor the neighbor ID
+	 * @return true if the neighbor was added, false if it was already there
+	 * @throws DatabaseException on error
+	 */
+	public static boolean add(BdbGraph graph, Database db, long vertex, String label, long neighbor)
+			throws DatabaseException {
+
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+		Cursor cursor = db.openCursor(graph.getTransaction(), graph.writeCursorConfig);
+
+		try {
+			BdbPackedSegmentKey k = findSegment(graph, cursor, vertex, label, neighbor, key, data);
+			boolean found = k != null;
+			long[] ids;
+			int pos;
+
+			if (!found) {
+
+				// The neighbor precedes all segments, so merge it into the first one, if any
+
+				k = new BdbPackedSegmentKey(vertex, label, neighbor);
+				graph.segmentKeyBinding.objectToEntry(k, key);
+				ids = new long[0];
+				if (cursor.getSearchKeyRange(key, data, null) == OperationStatus.SUCCESS
+						&& graph.segmentKeyBinding.entryToObject(key).matches(vertex, label)) {
+					ids = segmentDataBinding.entryToObject(data);
+					cursor.delete();
+				}
+				pos = 0;
+			}
+			else {
+				ids = segmentDataBinding.entryToObject(data);
+				pos = Arrays.binarySearch(ids, neighbor);
+				if (pos >= 0) return false;
+				pos = -(pos + 1);
+			}
+
+			long[] n = new long[ids.length + 1];
+			System.arraycopy(ids, 0, n, 0, pos);
+			n[pos] = neighbor;
+			System.arraycopy(ids, pos, n, pos + 1, ids.length - pos);
+
+			if (found && n.length <= SEGMENT_CAPACITY) {
+				segmentDataBinding.objectToEntry(n, data);
+				cursor.putCurrent(data);
+			}
+			else {
+				writeSegments(graph, cursor, k, n);
+			}
+
+			return true;
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+
+	/**
+	 * Remove a neighbor from an adjacency list
+	 *
+	 * @param graph the graph
+	 * @param db the out or in database
+	 * @param vertex the vertex ID
+	 * @param label the edge label
+	 * @param neighbor the neighbor ID
+	 * @return true if the neighbor was removed, false if it was not there
+	 * @throws DatabaseException on error
+	 */
+	public static boolean remove(BdbGraph graph, Database db, long vertex, String label, long neighbor)
+			throws DatabaseException {
+
+		Cursor cursor = db.openCursor(graph.getTransaction(), graph.writeCursorConfig);
+		try {
+			return remove(graph, cursor, vertex, label, neighbor);
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+
+	/**
+	 * Remove a neighbor from an adjacency list using an open write cursor,
+	 * so that a batch of removals sorted by the key can share one cursor
+	 *
+	 * @param graph the graph
+	 * @param cursor the write cursor of the out or in database
+	 * @param vertex the vertex ID
+	 * @param label the edge label
+	 * @param neighbor the neighbor ID
+	 * @return true if the neighbor was removed, false if it was not there
+	 * @throws DatabaseException on error
+	 */
+	public static boolean remove(BdbGraph graph, Cursor cursor, long vertex, String label, long neighbor)
+			throws DatabaseException {
+
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+
+		if (findSegment(graph, cursor, vertex, label, neighbor, key, data) == null) return false;
+
+		long[] ids = segmentDataBinding.entryToObject(data);
+		int pos = Arrays.binarySearch(ids, neighbor);
+		if (pos < 0) return false;
+
+		if (ids.length == 1) {
+			cursor.delete();
+		}
+		else {
+			long[] n = new long[ids.length - 1];
+			System.arraycopy(ids, 0, n, 0, pos);
+			System.arraycopy(ids, pos + 1, n, pos, n.length - pos);
+			segmentDataBinding.objectToEntry(n, data);
+			cursor.putCurrent(data);
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Determine whether an adjacency list contains the given neighbor
+	 *
+	 * @param graph the graph
+	 * @param db the out or in database
+	 * @param vertex the vertex ID
+	 * @param label the edge label
+	 * @param neighbor the neighbor ID
+	 * @return true if the neighbor is in the list
+	 * @throws DatabaseException on error
+	 */
+	public static boolean contains(BdbGraph graph, Database db, long vertex, String label, long neighbor)
+			throws DatabaseException {
+
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+		Cursor cursor = db.openCursor(graph.getTransaction(), null);
+
+		try {
+			if (findSegment(graph, cursor, vertex, label, neighbor, key, data) == null) return false;
+			return Arrays.binarySearch(segmentDataBinding.entryToObject(data), neighbor) >= 0;
+		}
+		finally {
+			cursor.close();
+		}
+	}
+}
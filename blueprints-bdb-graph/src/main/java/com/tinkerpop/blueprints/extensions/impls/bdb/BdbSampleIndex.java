@@ -0,0 +1,177 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb;
+
+import com.sleepycat.db.Cursor;
+import com.sleepycat.db.Database;
+import com.sleepycat.db.DatabaseEntry;
+import com.sleepycat.db.DatabaseException;
+import com.sleepycat.db.OperationStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A B-tree with record numbers (DB_RECNUM) that contains the keys of all
+ * vertices or of all edges, so that an element can be sampled exactly
+ * uniformly in O(log n) time by looking up a random record number. The
+ * adjacency databases cannot be used for this directly, since a database with
+ * duplicates cannot have record numbers.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+class BdbSampleIndex {
+
+	private static final Random random = new Random();
+
+	private BdbGraph graph;
+	private Database db;
+
+
+	/**
+	 * Create an instance of class BdbSampleIndex
+	 *
+	 * @param graph the graph
+	 * @param db the database with record numbers
+	 */
+	public BdbSampleIndex(BdbGraph graph, Database db) {
+		this.graph = graph;
+		this.db = db;
+	}
+
+
+	/**
+	 * Add an element
+	 *
+	 * @param key the element key
+	 * @throws DatabaseException on error
+	 */
+	public void add(DatabaseEntry key) throws DatabaseException {
+		db.put(graph.getTransaction(), key, new DatabaseEntry(new byte[0]));
+	}
+
+
+	/**
+	 * Remove an element
+	 *
+	 * @param key the element key
+	 * @throws DatabaseException on error
+	 */
+	public void remove(DatabaseEntry key) throws DatabaseException {
+		db.delete(graph.getTransaction(), key);
+	}
+
+
+	/**
+	 * Remove all elements
+	 *
+	 * @throws DatabaseException on error
+	 */
+	public void clear() throws DatabaseException {
+		db.truncate(null, false);
+	}
+
+
+	/**
+	 * Get the number of elements, which is the record number of the last record
+	 *
+	 * @param cursor the cursor
+	 * @return the number of elements
+	 * @throws DatabaseException on error
+	 */
+	private static int count(Cursor cursor) throws DatabaseException {
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+		key.setPartial(0, 0, true);
+		data.setPartial(0, 0, true);
+		if (cursor.getLast(key, data, null) != OperationStatus.SUCCESS) return 0;
+
+		DatabaseEntry recno = new DatabaseEntry();
+		if (cursor.getRecordNumber(recno, null) != OperationStatus.SUCCESS) return 0;
+		return recno.getRecordNumber();
+	}
+
+
+	/**
+	 * Sample elements uniformly at random with replacement. The record numbers
+	 * are looked up in the sorted order, so that a batch reads each page at
+	 * most once, and the result is then shuffled.
+	 *
+	 * @param n the number of elements
+	 * @return the keys of the elements, or an empty list if there are none
+	 * @throws DatabaseException on error
+	 */
+	public List<DatabaseEntry> sample(int n) throws DatabaseException {
+
+		ArrayList<DatabaseEntry> result = new ArrayList<DatabaseEntry>(n);
+		DatabaseEntry data = new DatabaseEntry();
+		data.setPartial(0, 0, true);
+
+		Cursor cursor = db.openCursor(graph.getTransaction(), null);
+		try {
+			while (result.size() < n) {
+				int count = count(cursor);
+				if (count == 0) break;
+
+				// A record might disappear between the count and the lookup if
+				// another thread removes an element, in which case we try again
+
+				int[] numbers = new int[n - result.size()];
+				for (int i = 0; i < numbers.length; i++) numbers[i] = 1 + random.nextInt(count);
+				Arrays.sort(numbers);
+
+				for (int r : numbers) {
+					DatabaseEntry key = new DatabaseEntry();
+					key.setRecordNumber(r);
+					if (cursor.getSearchRecordNumber(key, data, null) == OperationStatus.SUCCESS)
+						result.add(key);
+				}
+			}
+		}
+		finally {
+			cursor.close();
+		}
+
+		Collections.shuffle(result, random);
+		return result;
+	}
+
+
+	/**
+	 * Get the keys that split the elements into the given number of parts of
+	 * nearly equal sizes, which are the keys at the record numbers i * count / n
+	 * for i = 1, ..., n - 1
+	 *
+	 * @param n the number of parts
+	 * @return the sorted keys, or fewer keys if there are not enough elements
+	 * @throws DatabaseException on error
+	 */
+	public List<DatabaseEntry> quantiles(int n) throws DatabaseException {
+
+		ArrayList<DatabaseEntry> result = new ArrayList<DatabaseEntry>();
+		DatabaseEntry data = new DatabaseEntry();
+		data.setPartial(0, 0, true);
+
+		Cursor cursor = db.openCursor(graph.getTransaction(), null);
+		try {
+			int count = count(cursor);
+			int last = 0;
+			for (int i = 1; i < n; i++) {
+				int r = (int) ((long) count * i / n) + 1;
+				if (r <= last || r > count) continue;
+				last = r;
+
+				DatabaseEntry key = new DatabaseEntry();
+				key.setRecordNumber(r);
+				if (cursor.getSearchRecordNumber(key, data, null) == OperationStatus.SUCCESS)
+					result.add(key);
+			}
+		}
+		finally {
+			cursor.close();
+		}
+
+		return result;
+	}
+}
@@ -9,9 +9,12 @@ import com.sleepycat.db.OperationStatus;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Query;
+import com.tinkerpop.blueprints.TransactionalGraph;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbBulkCursor;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeVertexLabelSequence;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeVertexSequence;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbPackedSequence;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbPropertyData;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbVertexVertexLabelSequence;
 import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbVertexVertexSequence;
@@ -19,7 +22,10 @@ import com.tinkerpop.blueprints.util.MultiIterable;
 import com.tinkerpop.blueprints.util.StringFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
@@ -34,12 +40,15 @@ public class BdbVertex extends BdbElement implements Vertex {
     protected long id;
 
     protected BdbVertex(final BdbGraph graph) throws DatabaseException{
-    	DatabaseEntry data = graph.data;
+    	DatabaseEntry data = new DatabaseEntry();
 		data.setSize(0);
 		this.dataId = new DatabaseEntry();
 		
-		if (graph.vertexDb.append(null, this.dataId, data) != OperationStatus.SUCCESS)
+		if (graph.vertexDb.append(graph.getTransaction(), this.dataId, data) != OperationStatus.SUCCESS)
 			throw new RuntimeException("BdbVertex: Failed to create vertex ID.");
+		if (graph.vertexSampleIndex != null)
+			graph.vertexSampleIndex.add(this.dataId);
+		graph.counters.addVertices(1);
 			
 		this.id = RecordNumberBinding.entryToRecordNumber(dataId);
 		this.graph = graph;
@@ -55,7 +64,7 @@ public class BdbVertex extends BdbElement implements Vertex {
     	
     	this.dataId = new DatabaseEntry();
     	RecordNumberBinding.recordNumberToEntry((Long) id, this.dataId);
-		if (graph.vertexDb.exists(null, this.dataId) != OperationStatus.SUCCESS)
+		if (graph.vertexDb.exists(graph.getTransaction(), this.dataId) != OperationStatus.SUCCESS)
 			throw new RuntimeException("BdbVertex: Vertex " + id + " does not exist.");
 
 		this.id = ((Long) id).longValue();
@@ -77,21 +86,29 @@ public class BdbVertex extends BdbElement implements Vertex {
     
     public static BdbVertex getRandomVertex(final BdbGraph graph) throws DatabaseException {
     	
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
+    	
+    	// Sample exactly uniformly using the record numbers, if available
+    	
+    	if (graph.vertexSampleIndex != null) {
+    		List<DatabaseEntry> l = graph.vertexSampleIndex.sample(1);
+    		if (l.isEmpty()) throw new NoSuchElementException();
+    		return new BdbVertex(graph, l.get(0));
+    	}
     	
     	// Note: This implementation assumes that the number of vertex deletions is negligible
     	// as compared to the total number of nodes
     	
 		// Get the last ID# in the graph.
-		Cursor cursor = graph.vertexDb.openCursor(null, null);
+		Cursor cursor = graph.vertexDb.openCursor(graph.getTransaction(), null);
         OperationStatus status = cursor.getLast(key, data, null);
         cursor.close();
         if (status == OperationStatus.NOTFOUND) throw new NoSuchElementException();
         long lastId = RecordNumberBinding.entryToRecordNumber(key);
         
         // Get a random element
-        cursor = graph.vertexDb.openCursor(null, null);
+        cursor = graph.vertexDb.openCursor(graph.getTransaction(), null);
         RecordNumberBinding.recordNumberToEntry((long)(1 + lastId * Math.random()), key);
         status = cursor.getSearchKeyRange(key, data, null);
         cursor.close();
@@ -101,14 +118,16 @@ public class BdbVertex extends BdbElement implements Vertex {
     }
 
     protected void remove() throws DatabaseException {
-    	// Remove linked edge records.
-        for (Edge e : this.getEdges(Direction.BOTH))
-        	((BdbEdge) e).remove();
-
-    	// Remove properties and vertex record.
-    	this.graph.vertexPropertyDb.delete(null, this.dataId);
-    	this.graph.vertexDb.delete(null, this.dataId);
-
+    	// Remove the edges, the properties, and the vertex record in one batch, which
+    	// deletes the adjacency lists by ranges instead of one edge at a time.
+    	BdbBatchRemover.removeVertices(this.graph, new long[] { this.id });
+    	removed();
+    }
+    
+    /**
+     * Mark the vertex as removed
+     */
+    protected void removed() {
         this.dataId = null;
         this.graph = null;
     }
@@ -118,14 +137,18 @@ public class BdbVertex extends BdbElement implements Vertex {
     }
 
     public Object getProperty(final String pkey) {
+    	Object cached = getCachedProperty(pkey);
+    	if (cached != NOT_CACHED)
+    		return cached;
+    	
     	Cursor cursor;
     	OperationStatus status;
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
     	StringBinding.stringToEntry(pkey, data);
     	
         try {
-        	cursor = this.graph.vertexPropertyDb.openCursor(null,  null);
+        	cursor = this.graph.vertexPropertyDb.openCursor(graph.getTransaction(), null);
         	
         	status = cursor.getSearchBothRange(this.dataId, data, null);
         	if (status == OperationStatus.SUCCESS) {
@@ -136,65 +159,94 @@ public class BdbVertex extends BdbElement implements Vertex {
         	}
         	
         	cursor.close();
-        } catch (RuntimeException e) {
-			throw e;
-		} catch (Exception e) {
-			throw new RuntimeException(e.getMessage(), e);
+        } catch (Exception e) {
+			throw graph.failed(e);
 		}
         
-        if (status != OperationStatus.SUCCESS)
-        	return null;
+        Object value = null;
+        if (status == OperationStatus.SUCCESS) {
+        	BdbPropertyData result = BdbElement.propertyDataBinding.entryToObject(data);
+        	if (pkey.equals(result.pkey)) value = result.value;
+        }
         
-        BdbPropertyData result = BdbElement.propertyDataBinding.entryToObject(data);
-        return pkey.equals(result.pkey) ? result.value : null;
+        cacheProperty(pkey, value, graph.getPropertyCacheSize());
+        return value;
     }
 
     public Set<String> getPropertyKeys() {
     	Cursor cursor;
     	OperationStatus status;
-    	BdbPropertyData result;
 		Set<String> ret = new HashSet<String>();
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
 		
 		try {
-			cursor = this.graph.vertexPropertyDb.openCursor(null, null);
+			cursor = this.graph.vertexPropertyDb.openCursor(graph.getTransaction(), null);
 			
 			status = cursor.getSearchKey(this.dataId, data, null);
 			key.setPartial(0, 0, true);
 			while (status == OperationStatus.SUCCESS) {
 				
-				result = BdbElement.propertyDataBinding.entryToObject(data);
-				ret.add(result.pkey);
+				ret.add(StringBinding.entryToString(data));
 				status = cursor.getNextDup(key, data, null);
 			}
 			key.setPartial(false);
 			
 			cursor.close();
-		} catch (RuntimeException e) {
-			throw e;
 		} catch (Exception e) {
-			throw new RuntimeException(e.getMessage(), e);
+			throw graph.failed(e);
 		}
 		
 		return ret;
     }
     
+    public Map<String, Object> getPropertyMap() {
+    	BdbBulkCursor cursor;
+    	boolean found;
+    	BdbPropertyData result;
+		Map<String, Object> ret = new HashMap<String, Object>();
+    	DatabaseEntry data = new DatabaseEntry();
+		
+		try {
+			cursor = new BdbBulkCursor(this.graph.vertexPropertyDb.openCursor(graph.getTransaction(), null),
+					graph.getBulkReadBufferSize(), false);
+			
+			found = cursor.getSearchKey(this.dataId, data);
+			while (found) {
+				
+				result = BdbElement.propertyDataBinding.entryToObject(data);
+				ret.put(result.pkey, result.value);
+				found = cursor.getNextDup(data);
+			}
+			
+			cursor.close();
+		} catch (Exception e) {
+			throw graph.failed(e);
+		}
+		
+		cacheProperties(ret, graph.getPropertyCacheSize());
+		return ret;
+    }
+    
     public void setProperty(final String pkey, final Object value) {
     	if (pkey == null || pkey.equals("") || pkey.equals("id"))
     		throw new IllegalArgumentException("BdbVertex: " + pkey + " is an invalid property key.");  		
     	
+    	invalidateCachedProperty(pkey);
+    	
     	Cursor cursor;
     	OperationStatus status;
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
     	StringBinding.stringToEntry(pkey, data);
     	BdbPropertyData pdata;
+    	boolean replaced = false;
+    	Object oldValue = null;
     	
         try {
-            //graph.autoStartTransaction();
+            graph.autoStartTransaction();
         	
-        	cursor = this.graph.vertexPropertyDb.openCursor(null,  null);
+        	cursor = this.graph.vertexPropertyDb.openCursor(graph.getTransaction(), graph.writeCursorConfig);
         	
         	// If pkey exists, delete it.
         	status = cursor.getSearchBothRange(this.dataId, data, null);
@@ -206,8 +258,11 @@ public class BdbVertex extends BdbElement implements Vertex {
         		if (status == OperationStatus.SUCCESS) {
         			
         			pdata = BdbElement.propertyDataBinding.entryToObject(data);
-        			if (pkey.equals(pdata.pkey))
+        			if (pkey.equals(pdata.pkey)) {
         				cursor.delete();
+        				replaced = true;
+        				oldValue = pdata.value;
+        			}
         		} else
         			pdata = new BdbPropertyData();
         	} else
@@ -221,13 +276,15 @@ public class BdbVertex extends BdbElement implements Vertex {
         	
         	cursor.close();
         	
-        	//graph.autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
-        } catch (RuntimeException e) {
-            //graph.autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-			throw e;
-		} catch (Exception e) {
-            //graph.autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-			throw new RuntimeException(e.getMessage(), e);
+        	// Update the index
+        	if (status == OperationStatus.SUCCESS) {
+        		if (replaced) graph.vertexKeyIndex.remove(pkey, oldValue, this.dataId);
+        		graph.vertexKeyIndex.add(pkey, value, this.dataId);
+        	}
+        	
+        	graph.autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
+        } catch (Exception e) {
+            throw graph.mutationFailed(e);
 		}
         
         if (status != OperationStatus.SUCCESS)
@@ -235,17 +292,19 @@ public class BdbVertex extends BdbElement implements Vertex {
     }
 
     public Object removeProperty(final String pkey) {
+    	invalidateCachedProperty(pkey);
+    	
     	Cursor cursor;
     	OperationStatus status;
-    	DatabaseEntry key = graph.key;
-    	DatabaseEntry data = graph.data;
+    	DatabaseEntry key = new DatabaseEntry();
+    	DatabaseEntry data = new DatabaseEntry();
     	StringBinding.stringToEntry(pkey, data);
     	BdbPropertyData result = null;
     	
         try {
-            //graph.autoStartTransaction();
+            graph.autoStartTransaction();
         	
-        	cursor = this.graph.vertexPropertyDb.openCursor(null,  null);
+        	cursor = this.graph.vertexPropertyDb.openCursor(graph.getTransaction(), graph.writeCursorConfig);
         	
         	// If pkey exists, delete it.
         	if (cursor.getSearchBothRange(this.dataId, data, null) == OperationStatus.SUCCESS) {
@@ -258,18 +317,20 @@ public class BdbVertex extends BdbElement implements Vertex {
         			result = BdbElement.propertyDataBinding.entryToObject(data);
         			if (pkey.equals(result.pkey))
         				cursor.delete();
+        			else
+        				result = null;
         		}
         	}
         	
         	cursor.close();
         	
-        	//graph.autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
-        } catch (RuntimeException e) {
-            //graph.autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-			throw e;
-		} catch (Exception e) {
-            //graph.autoStopTransaction(TransactionalGraph.Conclusion.FAILURE);
-			throw new RuntimeException(e.getMessage(), e);
+        	// Update the index
+        	if (result != null)
+        		graph.vertexKeyIndex.remove(pkey, result.value, this.dataId);
+        	
+        	graph.autoStopTransaction(TransactionalGraph.Conclusion.SUCCESS);
+        } catch (Exception e) {
+            throw graph.mutationFailed(e);
 		}
         
         return result != null ? result.value : null;
@@ -295,8 +356,57 @@ public class BdbVertex extends BdbElement implements Vertex {
         return StringFactory.vertexString(this);
     }
 
+	/**
+	 * Get the edges of the vertex in the packed layout
+	 * 
+	 * @param direction the direction, either OUT or IN
+	 * @param labels the labels, or an empty array for all labels
+	 * @return the edges
+	 */
+	private Iterable<Edge> getPackedEdges(final Direction direction, String[] labels) {
+		final BdbGraph g = this.graph;
+		return new BdbPackedSequence<Edge>(g, direction == Direction.OUT ? g.outDb : g.inDb, this.id, labels) {
+			protected Edge create(long vertex, String label, long neighbor) {
+				return direction == Direction.OUT
+						? new BdbEdge(g, vertex, label, neighbor)
+						: new BdbEdge(g, neighbor, label, vertex);
+			}
+		};
+	}
+
+	/**
+	 * Get the adjacent vertices in the packed layout
+	 * 
+	 * @param direction the direction, either OUT or IN
+	 * @param labels the labels, or an empty array for all labels
+	 * @return the vertices
+	 */
+	private Iterable<Vertex> getPackedVertices(final Direction direction, String[] labels) {
+		final BdbGraph g = this.graph;
+		return new BdbPackedSequence<Vertex>(g, direction == Direction.OUT ? g.outDb : g.inDb, this.id, labels) {
+			protected Vertex create(long vertex, String label, long neighbor) {
+				return new BdbVertex(g, neighbor);
+			}
+		};
+	}
+
 	@Override
 	public Iterable<Edge> getEdges(Direction direction, String... labels) {
+		if (graph.getLayout() == BdbGraph.Layout.PACKED) {
+			switch (direction) {
+			case OUT :
+			case IN  :
+				return getPackedEdges(direction, labels);
+			case BOTH:
+				ArrayList<Iterable<Edge>> a = new ArrayList<Iterable<Edge>>();
+				a.add(getPackedEdges(Direction.OUT, labels));
+				a.add(getPackedEdges(Direction.IN , labels));
+				return new MultiIterable<Edge>(a);
+			default  :
+				throw new IllegalArgumentException("Invalid direction");
+			}
+		}
+		
     	if (labels.length == 0) {
     		switch (direction) {
     		case OUT :
@@ -329,6 +439,21 @@ public class BdbVertex extends BdbElement implements Vertex {
 
 	@Override
 	public Iterable<Vertex> getVertices(Direction direction, String... labels) {
+		if (graph.getLayout() == BdbGraph.Layout.PACKED) {
+			switch (direction) {
+			case OUT :
+			case IN  :
+				return getPackedVertices(direction, labels);
+			case BOTH:
+				ArrayList<Iterable<Vertex>> a = new ArrayList<Iterable<Vertex>>();
+				a.add(getPackedVertices(Direction.OUT, labels));
+				a.add(getPackedVertices(Direction.IN , labels));
+				return new MultiIterable<Vertex>(a);
+			default  :
+				throw new IllegalArgumentException("Invalid direction");
+			}
+		}
+		
     	if (labels.length == 0) {
     		switch (direction) {
     		case OUT :
@@ -361,6 +486,6 @@ public class BdbVertex extends BdbElement implements Vertex {
 
 	@Override
 	public Query query() {
-		throw new UnsupportedOperationException();
+		return new BdbVertexQuery(this.graph, this);
 	}
 }
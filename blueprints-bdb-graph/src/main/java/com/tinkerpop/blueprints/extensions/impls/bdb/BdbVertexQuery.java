@@ -0,0 +1,384 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb;
+
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Query;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbLongCursor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A query over the edges and the neighbors of a vertex. The direction and the
+ * labels are pushed down into the seeks to the label ranges of the adjacency
+ * lists, the limit closes the cursors as soon as it is reached, and the count
+ * and the neighbor IDs are read without creating the edges unless there are
+ * property filters. The property filters read only the properties that they
+ * test, one at a time.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbVertexQuery implements Query {
+
+	private static final String[] NO_LABELS = new String[0];
+
+	protected BdbGraph graph;
+	protected BdbVertex vertex;
+
+	private Direction direction = Direction.BOTH;
+	private String[] labels = NO_LABELS;
+	private long limit = Long.MAX_VALUE;
+	private List<HasFilter> filters = new ArrayList<HasFilter>();
+
+
+	/**
+	 * A property filter
+	 */
+	private static class HasFilter {
+
+		public String key;
+		public Object value;
+		public Compare compare;
+
+
+		/**
+		 * Create an instance of class HasFilter
+		 *
+		 * @param key the property key
+		 * @param value the value to compare to
+		 * @param compare the comparison
+		 */
+		public HasFilter(String key, Object value, Compare compare) {
+			this.key = key;
+			this.value = value;
+			this.compare = compare;
+		}
+
+
+		/**
+		 * Determine whether an element passes the filter
+		 *
+		 * @param element the element
+		 * @return true if it does
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public boolean matches(Element element) {
+			Object v = element.getProperty(key);
+			switch (compare) {
+			case EQUAL     : return v == null ? value == null : v.equals(value);
+			case NOT_EQUAL : return v == null ? value != null : !v.equals(value);
+			default        : break;
+			}
+
+			if (v == null || value == null || !(v instanceof Comparable)) return false;
+			int r;
+			try {
+				r = ((Comparable) v).compareTo(value);
+			}
+			catch (ClassCastException e) {
+				return false;
+			}
+
+			switch (compare) {
+			case GREATER_THAN      : return r > 0;
+			case GREATER_THAN_EQUAL: return r >= 0;
+			case LESS_THAN         : return r < 0;
+			case LESS_THAN_EQUAL   : return r <= 0;
+			default                : throw new IllegalArgumentException("Invalid comparison " + compare);
+			}
+		}
+	}
+
+
+	/**
+	 * Create an instance of class BdbVertexQuery
+	 *
+	 * @param graph the graph that stores the vertex
+	 * @param vertex the vertex
+	 */
+	protected BdbVertexQuery(final BdbGraph graph, final BdbVertex vertex) {
+		this.graph = graph;
+		this.vertex = vertex;
+	}
+
+
+	// Query construction
+
+	@Override
+	public Query has(final String key, final Object value) {
+		filters.add(new HasFilter(key, value, Compare.EQUAL));
+		return this;
+	}
+
+	@Override
+	public <T extends Comparable<T>> Query has(final String key, final T value, final Compare compare) {
+		filters.add(new HasFilter(key, value, compare));
+		return this;
+	}
+
+	@Override
+	public <T extends Comparable<T>> Query interval(final String key, final T startValue, final T endValue) {
+		filters.add(new HasFilter(key, startValue, Compare.GREATER_THAN_EQUAL));
+		filters.add(new HasFilter(key, endValue, Compare.LESS_THAN));
+		return this;
+	}
+
+	@Override
+	public Query direction(final Direction direction) {
+		this.direction = direction;
+		return this;
+	}
+
+	@Override
+	public Query labels(final String... labels) {
+		this.labels = labels;
+		return this;
+	}
+
+	@Override
+	public Query limit(final long max) {
+		this.limit = max;
+		return this;
+	}
+
+
+	// Query execution
+
+	@Override
+	public Iterable<Edge> edges() {
+		return new Results<Edge>(true, true);
+	}
+
+	@Override
+	public Iterable<Vertex> vertices() {
+		return new Results<Vertex>(!filters.isEmpty(), false);
+	}
+
+	/**
+	 * Count the matching edges. Without property filters, the adjacency lists
+	 * are counted without decoding the records.
+	 *
+	 * @return the number of edges, at most the limit
+	 */
+	@Override
+	public long count() {
+		if (limit <= 0)
+			return 0;
+
+		long n = 0;
+		if (filters.isEmpty()) {
+			BdbLongCursor cursor = new BdbLongCursor(graph);
+			try {
+				cursor.open(vertex.id, direction, labels);
+				n = cursor.count();
+			}
+			finally {
+				cursor.close();
+			}
+		}
+		else {
+			for (Iterator<Edge> i = edges().iterator(); i.hasNext(); i.next()) n++;
+		}
+
+		return Math.min(n, limit);
+	}
+
+	/**
+	 * Get the IDs of the matching neighbors. Without property filters, the IDs
+	 * are read from the adjacency lists without creating the edges or the vertices.
+	 *
+	 * @return the list of the vertex IDs
+	 */
+	@Override
+	public Object vertexIds() {
+		List<Object> ids = new ArrayList<Object>();
+		if (limit <= 0)
+			return ids;
+
+		if (filters.isEmpty()) {
+			BdbLongCursor cursor = new BdbLongCursor(graph);
+			try {
+				cursor.open(vertex.id, direction, labels);
+				while (ids.size() < limit && cursor.next()) ids.add(cursor.current());
+			}
+			finally {
+				cursor.close();
+			}
+		}
+		else {
+			for (Vertex v : vertices()) ids.add(v.getId());
+		}
+
+		return ids;
+	}
+
+
+	// Sources, which are overridden by the sharded graph
+
+	/**
+	 * Get the edges of the vertex in one direction with the requested labels
+	 *
+	 * @param d the direction, either OUT or IN
+	 * @return the edges
+	 */
+	protected Iterable<Edge> edges(final Direction d) {
+		return vertex.getEdges(d, labels);
+	}
+
+	/**
+	 * Get the neighbors of the vertex in one direction with the requested labels
+	 *
+	 * @param d the direction, either OUT or IN
+	 * @return the vertices
+	 */
+	protected Iterable<Vertex> vertices(final Direction d) {
+		return vertex.getVertices(d, labels);
+	}
+
+	/**
+	 * Get the other end of an edge without checking whether it exists
+	 *
+	 * @param e the edge
+	 * @param d the direction in which the edge was read
+	 * @return the other vertex
+	 */
+	protected Vertex neighbor(final Edge e, final Direction d) {
+		BdbEdge b = (BdbEdge) e;
+		return new BdbVertex(graph, d == Direction.OUT ? b.in : b.out);
+	}
+
+
+	/**
+	 * The results of the query, which are read from the adjacency lists of the
+	 * requested directions one after another
+	 *
+	 * @param <T> the type of the results, either Edge or Vertex
+	 */
+	private class Results<T> implements CloseableIterable<T> {
+
+		private boolean readEdges;
+		private boolean returnEdges;
+		private ResultIterator iterator = null;
+
+
+		/**
+		 * Create an instance of class Results
+		 *
+		 * @param readEdges true to read the edges, false to read only the neighbors
+		 * @param returnEdges true to return the edges, false to return the neighbors
+		 */
+		public Results(boolean readEdges, boolean returnEdges) {
+			this.readEdges = readEdges;
+			this.returnEdges = returnEdges;
+		}
+
+		public Iterator<T> iterator() {
+			return (iterator = new ResultIterator());
+		}
+
+		@Override
+		public void close() {
+			if (iterator != null) iterator.close();
+		}
+
+
+		class ResultIterator implements Iterator<T> {
+
+			private Direction[] directions;
+			private int directionIndex = -1;
+			private Iterable<?> source = null;
+			private Iterator<?> sourceIterator = null;
+			private T next = null;
+			private long returned = 0;
+
+			public ResultIterator() {
+				directions = direction == Direction.BOTH
+						? new Direction[] { Direction.OUT, Direction.IN }
+						: new Direction[] { direction };
+			}
+
+			/**
+			 * Find the next result
+			 *
+			 * @return true if there is a next result
+			 */
+			@SuppressWarnings("unchecked")
+			private boolean advance() {
+				if (returned >= limit) {
+					close();
+					return false;
+				}
+
+				while (directionIndex < directions.length) {
+					if (sourceIterator != null && sourceIterator.hasNext()) {
+						Object o = sourceIterator.next();
+						if (!readEdges) {
+							next = (T) o;
+							return true;
+						}
+
+						Edge e = (Edge) o;
+						boolean matches = true;
+						for (HasFilter f : filters) {
+							if (!f.matches(e)) {
+								matches = false;
+								break;
+							}
+						}
+						if (!matches) continue;
+
+						next = returnEdges ? (T) e : (T) neighbor(e, directions[directionIndex]);
+						return true;
+					}
+
+					closeSource();
+					if (++directionIndex < directions.length) {
+						Direction d = directions[directionIndex];
+						source = readEdges ? edges(d) : vertices(d);
+						sourceIterator = source.iterator();
+					}
+				}
+
+				return false;
+			}
+
+			public boolean hasNext() {
+				if (next != null)
+					return true;
+				return advance();
+			}
+
+			public T next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				T r = next;
+				next = null;
+				returned++;
+				return r;
+			}
+
+			/**
+			 * Close the current source
+			 */
+			private void closeSource() {
+				if (source instanceof CloseableIterable<?>) ((CloseableIterable<?>) source).close();
+				source = null;
+				sourceIterator = null;
+			}
+
+			public void close() {
+				closeSource();
+				directionIndex = directions.length;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeKey;
+import com.tinkerpop.blueprints.util.StringFactory;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An edge of a sharded graph, which is stored in the shard of its out vertex
+ * together with its properties, while the shard of its in vertex stores only
+ * the in half of the edge
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class ShardedBdbEdge implements Edge {
+
+	private ShardedBdbGraph graph;
+	protected long out;
+	protected String label;
+	protected long in;
+	private BdbEdge base;
+
+
+	/**
+	 * Create an instance of class ShardedBdbEdge
+	 *
+	 * @param graph the sharded graph
+	 * @param out the global ID of the out vertex
+	 * @param label the edge label
+	 * @param in the global ID of the in vertex
+	 * @param base the edge in the shard of the out vertex, or null to create it when needed
+	 */
+	protected ShardedBdbEdge(final ShardedBdbGraph graph, final long out, final String label, final long in,
+			final BdbEdge base) {
+		this.graph = graph;
+		this.out = out;
+		this.label = label;
+		this.in = in;
+		this.base = base;
+	}
+
+
+	/**
+	 * Get the edge in the shard of the out vertex, which has the properties
+	 *
+	 * @return the edge
+	 */
+	private BdbEdge getBase() {
+		if (base == null) {
+			base = new BdbEdge(graph.getShard(ShardedBdbGraph.shardOf(out)),
+					ShardedBdbGraph.localId(out), label, in);
+		}
+		return base;
+	}
+
+
+	/**
+	 * Mark the edge as removed
+	 */
+	protected void removed() {
+		this.in = 0;
+		this.label = null;
+		this.out = 0;
+		this.base = null;
+		this.graph = null;
+	}
+
+
+	@Override
+	public Object getId() {
+		if (graph == null || label == null)
+			return null;
+		return new BdbEdgeKey(this.out, this.label, this.in);
+	}
+
+	@Override
+	public Vertex getVertex(final Direction direction) throws IllegalArgumentException {
+		switch (direction) {
+		case OUT: return graph.getVertex(out);
+		case IN : return graph.getVertex(in);
+		default : throw new IllegalArgumentException("The Direction must be IN or OUT");
+		}
+	}
+
+	@Override
+	public String getLabel() {
+		return label;
+	}
+
+	@Override
+	public Object getProperty(final String key) {
+		return getBase().getProperty(key);
+	}
+
+	@Override
+	public Set<String> getPropertyKeys() {
+		return getBase().getPropertyKeys();
+	}
+
+	/**
+	 * Get all properties of the edge
+	 *
+	 * @return the map of the property keys to their values
+	 */
+	public Map<String, Object> getPropertyMap() {
+		return getBase().getPropertyMap();
+	}
+
+	@Override
+	public void setProperty(final String key, final Object value) {
+		getBase().setProperty(key, value);
+	}
+
+	@Override
+	public Object removeProperty(final String key) {
+		return getBase().removeProperty(key);
+	}
+
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (!(obj instanceof ShardedBdbEdge))
+			return false;
+
+		final ShardedBdbEdge other = (ShardedBdbEdge) obj;
+		return (this.out == other.out && this.in == other.in && this.label.equals(other.label));
+	}
+
+	public int hashCode() {
+		int h_out = (int)((this.out >>> 32) ^ this.out);
+		int h_in  = (int)((this.in  >>> 32) ^ this.in );
+		return h_out ^ label.hashCode() ^ (~h_in);
+	}
+
+	public String toString() {
+		return StringFactory.edgeString(this);
+	}
+}
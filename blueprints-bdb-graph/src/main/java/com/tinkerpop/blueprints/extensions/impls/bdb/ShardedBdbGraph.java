@@ -0,0 +1,1016 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb;
+
+import com.sleepycat.bind.RecordNumberBinding;
+import com.sleepycat.db.DatabaseEntry;
+import com.sleepycat.db.OperationStatus;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Features;
+import com.tinkerpop.blueprints.KeyIndexableGraph;
+import com.tinkerpop.blueprints.Parameter;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.BenchmarkableGraph;
+import com.tinkerpop.blueprints.extensions.BulkloadableGraph;
+import com.tinkerpop.blueprints.extensions.PartitionableGraph;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbCacheStats;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbEdgeKey;
+import com.tinkerpop.blueprints.extensions.util.LongConsumer;
+import com.tinkerpop.blueprints.util.MultiIterable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A graph hash-partitioned across several BdbGraph environments, usually on
+ * different disks, each of which has its own cache. A vertex is stored in one
+ * shard together with its properties and its out-edges, and the shard index
+ * is in the low SHARD_BITS bits of its global ID, so that a vertex is found
+ * without a lookup table. An edge between two shards is stored as two halves:
+ * the shard of the out vertex has the out record, the properties, and the
+ * counters of the edge, and the shard of the in vertex has the in record. The
+ * adjacency lists of the shards store the global IDs of the neighbors, while
+ * their keys are the local IDs.
+ *
+ * The shards are independent environments, so the operations that touch two
+ * shards are not atomic, even if the shards are transactional. The scans and
+ * the lookups of several vertices run in parallel in one thread per shard,
+ * unless the shards are transactional, since the transactions are bound to
+ * the threads.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class ShardedBdbGraph implements BenchmarkableGraph, BulkloadableGraph, KeyIndexableGraph,
+		PartitionableGraph {
+
+	/// The number of the low bits of a global vertex ID that hold the shard index
+	public static final int SHARD_BITS = 8;
+
+	/// The maximum number of shards
+	public static final int MAX_SHARDS = 1 << SHARD_BITS;
+
+	private static final String SHARD_FILE = "shard.txt";
+
+	private BdbGraph[] shards;
+	private boolean transactional;
+	private ExecutorService executor;
+	private AtomicInteger nextShard = new AtomicInteger();
+	private Random random = new Random();
+	private boolean bulkLoadMode = false;
+
+
+	// Features
+
+    private static final Features FEATURES = new Features();
+
+    static {
+
+        FEATURES.supportsSerializableObjectProperty = true;
+        FEATURES.supportsBooleanProperty = true;
+        FEATURES.supportsDoubleProperty = true;
+        FEATURES.supportsFloatProperty = true;
+        FEATURES.supportsIntegerProperty = true;
+        FEATURES.supportsPrimitiveArrayProperty = true;
+        FEATURES.supportsUniformListProperty = true;
+        FEATURES.supportsMixedListProperty = true;
+        FEATURES.supportsLongProperty = true;
+        FEATURES.supportsMapProperty = true;
+        FEATURES.supportsStringProperty = true;
+
+        FEATURES.supportsDuplicateEdges = false;
+        FEATURES.supportsSelfLoops = true;
+        FEATURES.isPersistent = true;
+        FEATURES.isWrapper = false;
+        FEATURES.isRDFModel = false;
+        FEATURES.supportsVertexIteration = true;
+        FEATURES.supportsEdgeIteration = true;
+        FEATURES.supportsVertexIndex = true;
+        FEATURES.supportsEdgeIndex = true;
+        FEATURES.ignoresSuppliedIds = true;
+        FEATURES.supportsTransactions = false;
+        FEATURES.supportsIndices = false;
+        FEATURES.supportsKeyIndices = true;
+        FEATURES.supportsVertexKeyIndex = true;
+        FEATURES.supportsEdgeKeyIndex = true;
+        FEATURES.supportsEdgeRetrieval = true;
+        FEATURES.supportsVertexProperties = true;
+        FEATURES.supportsEdgeProperties = true;
+        FEATURES.supportsThreadedTransactions = false;
+    }
+
+
+	/**
+	 * Create an instance of class ShardedBdbGraph. The shard index of each
+	 * directory is recorded in the directory when it is first used, and it must
+	 * not change afterwards, since it is a part of the vertex IDs.
+	 *
+	 * @param directories the directories of the shards, one per shard
+	 * @param config the configuration of each shard, including its cache size
+	 */
+	public ShardedBdbGraph(final String[] directories, final BdbGraphConfig config) {
+
+		if (directories.length == 0 || directories.length > MAX_SHARDS)
+			throw new IllegalArgumentException("ShardedBdbGraph: The number of shards must be between 1 and "
+					+ MAX_SHARDS + ".");
+
+		this.transactional = config.getDurability() != null;
+		this.shards = new BdbGraph[directories.length];
+
+		try {
+			for (int i = 0; i < directories.length; i++) {
+				checkShard(new File(directories[i]), i, directories.length);
+				shards[i] = new BdbGraph(directories[i], config);
+			}
+		} catch (RuntimeException e) {
+			for (BdbGraph g : shards) if (g != null) g.shutdown();
+			throw e;
+		} catch (Exception e) {
+			for (BdbGraph g : shards) if (g != null) g.shutdown();
+			throw new RuntimeException(e.getMessage(), e);
+		}
+
+		if (shards.length > 1 && !transactional) {
+			executor = Executors.newFixedThreadPool(shards.length, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ShardedBdbGraph");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * Create an instance of class ShardedBdbGraph with the default configuration
+	 *
+	 * @param directories the directories of the shards, one per shard
+	 * @param cacheSize the cache size of each shard in MB
+	 */
+	public ShardedBdbGraph(final String[] directories, int cacheSize) {
+		this(directories, BdbGraphConfig.forName("default", cacheSize));
+	}
+
+
+	/**
+	 * Check that the directory belongs to the given shard, or record the shard
+	 * index in a new directory
+	 *
+	 * @param directory the directory
+	 * @param index the shard index
+	 * @param count the number of shards
+	 * @throws Exception on error
+	 */
+	private static void checkShard(File directory, int index, int count) throws Exception {
+
+		String expected = index + "/" + count;
+		File f = new File(directory, SHARD_FILE);
+
+		if (f.exists()) {
+			BufferedReader in = new BufferedReader(new FileReader(f));
+			String actual;
+			try {
+				actual = in.readLine();
+			}
+			finally {
+				in.close();
+			}
+			if (!expected.equals(actual))
+				throw new IllegalArgumentException("ShardedBdbGraph: The directory " + directory
+						+ " contains the shard " + actual + " instead of " + expected + ".");
+		}
+		else {
+			if (new File(directory, "vertex.db").exists())
+				throw new IllegalArgumentException("ShardedBdbGraph: The directory " + directory
+						+ " contains a graph that is not a shard.");
+			directory.mkdirs();
+			FileWriter out = new FileWriter(f);
+			try {
+				out.write(expected + "\n");
+			}
+			finally {
+				out.close();
+			}
+		}
+	}
+
+
+	// IDS AND SHARDS
+
+	/**
+	 * Get the global ID of a vertex
+	 *
+	 * @param local the vertex ID within its shard
+	 * @param shard the shard index
+	 * @return the global ID
+	 */
+	public static long globalId(long local, int shard) {
+		return (local << SHARD_BITS) | shard;
+	}
+
+	/**
+	 * Get the shard index of a vertex
+	 *
+	 * @param global the global ID of the vertex
+	 * @return the shard index
+	 */
+	public static int shardOf(long global) {
+		return (int) (global & (MAX_SHARDS - 1));
+	}
+
+	/**
+	 * Get the vertex ID within its shard
+	 *
+	 * @param global the global ID of the vertex
+	 * @return the local ID
+	 */
+	public static long localId(long global) {
+		return global >>> SHARD_BITS;
+	}
+
+	/**
+	 * Get the number of shards
+	 *
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Get a shard. The adjacency lists of the shard contain the global IDs of
+	 * the neighbors, so the shard should be accessed directly only to read its
+	 * statistics and to configure it.
+	 *
+	 * @param index the shard index
+	 * @return the shard
+	 */
+	public BdbGraph getShard(int index) {
+		return shards[index];
+	}
+
+	/**
+	 * Parse a global vertex ID
+	 *
+	 * @param id the ID, either a Long or a String
+	 * @return the global ID, or -1 if it is not a valid ID of a vertex in one of the shards
+	 */
+	private long parseId(Object id) {
+		long global;
+		if (id instanceof Long)
+			global = ((Long) id).longValue();
+		else if (id instanceof String) {
+			try {
+				global = Long.parseLong((String) id);
+			}
+			catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		else
+			return -1;
+		return global > 0 && shardOf(global) < shards.length ? global : -1;
+	}
+
+
+	// ELEMENT WRAPPERS
+
+	/**
+	 * Get the vertex with the given global ID without checking whether it exists
+	 *
+	 * @param global the global ID
+	 * @return the vertex
+	 */
+	ShardedBdbVertex vertexFor(long global) {
+		int shard = shardOf(global);
+		return new ShardedBdbVertex(this, shard, new BdbVertex(shards[shard], localId(global)));
+	}
+
+	/**
+	 * Wrap the vertices of a shard
+	 *
+	 * @param shard the shard index
+	 * @param vertices the vertices of the shard
+	 * @return the vertices of the sharded graph
+	 */
+	CloseableIterable<Vertex> vertices(final int shard, Iterable<Vertex> vertices) {
+		final ShardedBdbGraph graph = this;
+		return new MappedIterable<Vertex, Vertex>(vertices) {
+			protected Vertex map(Vertex v) {
+				return new ShardedBdbVertex(graph, shard, (BdbVertex) v);
+			}
+		};
+	}
+
+	/**
+	 * Wrap the neighbors read from the adjacency lists of a shard, which have the global IDs
+	 *
+	 * @param vertices the neighbors from the shard
+	 * @return the vertices of the sharded graph
+	 */
+	CloseableIterable<Vertex> neighbors(Iterable<Vertex> vertices) {
+		return new MappedIterable<Vertex, Vertex>(vertices) {
+			protected Vertex map(Vertex v) {
+				return vertexFor(((BdbVertex) v).id);
+			}
+		};
+	}
+
+	/**
+	 * Wrap the edges read from the out database of a shard
+	 *
+	 * @param shard the shard index
+	 * @param edges the edges from the shard
+	 * @return the edges of the sharded graph
+	 */
+	CloseableIterable<Edge> outEdges(final int shard, Iterable<Edge> edges) {
+		final ShardedBdbGraph graph = this;
+		return new MappedIterable<Edge, Edge>(edges) {
+			protected Edge map(Edge e) {
+				BdbEdge b = (BdbEdge) e;
+				return new ShardedBdbEdge(graph, globalId(b.out, shard), b.label, b.in, b);
+			}
+		};
+	}
+
+	/**
+	 * Wrap the edges read from the in database of a shard
+	 *
+	 * @param shard the shard index
+	 * @param edges the edges from the shard
+	 * @return the edges of the sharded graph
+	 */
+	CloseableIterable<Edge> inEdges(final int shard, Iterable<Edge> edges) {
+		final ShardedBdbGraph graph = this;
+		return new MappedIterable<Edge, Edge>(edges) {
+			protected Edge map(Edge e) {
+				BdbEdge b = (BdbEdge) e;
+				return new ShardedBdbEdge(graph, b.out, b.label, globalId(b.in, shard), null);
+			}
+		};
+	}
+
+
+	// PARALLEL EXECUTION
+
+	/**
+	 * A task that runs on one shard
+	 */
+	private interface ShardTask {
+
+		/**
+		 * Run the task
+		 *
+		 * @param shard the shard index
+		 * @throws Exception on error
+		 */
+		public void run(int shard) throws Exception;
+	}
+
+	/**
+	 * Run a task on each of the given shards, in parallel if possible
+	 *
+	 * @param indexes the shard indexes
+	 * @param task the task
+	 */
+	private void fanOut(List<Integer> indexes, final ShardTask task) {
+		try {
+			if (executor == null || indexes.size() <= 1) {
+				for (int i : indexes) task.run(i);
+				return;
+			}
+
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(indexes.size());
+			for (final int i : indexes) {
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						task.run(i);
+						return null;
+					}
+				}));
+			}
+
+			// Wait for all tasks even after a failure, so that no task still uses
+			// a shard after this method returns
+
+			ExecutionException failure = null;
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				}
+				catch (ExecutionException e) {
+					if (failure == null) failure = e;
+				}
+			}
+			if (failure != null) {
+				Throwable cause = failure.getCause();
+				if (cause instanceof Exception) throw (Exception) cause;
+				if (cause instanceof Error) throw (Error) cause;
+				throw failure;
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Get the indexes of all shards
+	 *
+	 * @return the list of the indexes
+	 */
+	private List<Integer> allShards() {
+		List<Integer> l = new ArrayList<Integer>(shards.length);
+		for (int i = 0; i < shards.length; i++) l.add(i);
+		return l;
+	}
+
+	/**
+	 * Pick a shard at random with the probability proportional to its weight
+	 *
+	 * @param weights the weights of the shards
+	 * @return the shard index
+	 */
+	private int pickShard(long[] weights) {
+		long total = 0;
+		for (long w : weights) total += w;
+		if (total <= 0) throw new NoSuchElementException();
+
+		long r = (long) (random.nextDouble() * total);
+		for (int i = 0; i < weights.length; i++) {
+			if (r < weights[i]) return i;
+			r -= weights[i];
+		}
+		return weights.length - 1;
+	}
+
+
+	// BLUEPRINTS GRAPH INTERFACE
+
+	@Override
+	public Features getFeatures() {
+		return FEATURES;
+	}
+
+	/**
+	 * Add a vertex. The vertex IDs are assigned by the graph, but a supplied ID,
+	 * if any, is hashed to choose the shard, so that the related vertices can be
+	 * placed together; otherwise the vertices are spread over the shards in turn.
+	 *
+	 * @param id the supplied ID, or null
+	 * @return the new vertex
+	 */
+	@Override
+	public Vertex addVertex(final Object id) {
+		int shard;
+		if (id != null)
+			shard = (id.hashCode() & Integer.MAX_VALUE) % shards.length;
+		else
+			shard = (nextShard.getAndIncrement() & Integer.MAX_VALUE) % shards.length;
+		return new ShardedBdbVertex(this, shard, (BdbVertex) shards[shard].addVertex(null));
+	}
+
+	@Override
+	public Vertex getVertex(final Object id) {
+		if (id == null)
+			throw new IllegalArgumentException("ShardedBdbGraph.getVertex(id) cannot be null.");
+
+		long global = parseId(id);
+		if (global < 0) return null;
+
+		int shard = shardOf(global);
+		BdbVertex v = (BdbVertex) shards[shard].getVertex(localId(global));
+		return v == null ? null : new ShardedBdbVertex(this, shard, v);
+	}
+
+	/**
+	 * Get several vertices at once. The IDs are grouped by their shards, and
+	 * the shards are searched in parallel.
+	 *
+	 * @param ids the vertex IDs
+	 * @return the list of the vertices in the order of the IDs, with null for
+	 *         each ID of a vertex that does not exist
+	 */
+	public List<Vertex> getVertices(final List<?> ids) {
+
+		final Vertex[] result = new Vertex[ids.size()];
+		final List<List<Integer>> positions = new ArrayList<List<Integer>>(shards.length);
+		for (int i = 0; i < shards.length; i++) positions.add(new ArrayList<Integer>());
+
+		final long[] globals = new long[ids.size()];
+		for (int i = 0; i < globals.length; i++) {
+			globals[i] = parseId(ids.get(i));
+			if (globals[i] >= 0) positions.get(shardOf(globals[i])).add(i);
+		}
+
+		List<Integer> indexes = new ArrayList<Integer>();
+		for (int i = 0; i < shards.length; i++) {
+			if (!positions.get(i).isEmpty()) indexes.add(i);
+		}
+
+		fanOut(indexes, new ShardTask() {
+			public void run(int shard) throws Exception {
+				BdbGraph g = shards[shard];
+				DatabaseEntry key = new DatabaseEntry();
+				for (int p : positions.get(shard)) {
+					long local = localId(globals[p]);
+					RecordNumberBinding.recordNumberToEntry(local, key);
+					if (g.vertexDb.exists(g.getTransaction(), key) == OperationStatus.SUCCESS)
+						result[p] = new ShardedBdbVertex(ShardedBdbGraph.this, shard, new BdbVertex(g, local));
+				}
+			}
+		});
+
+		List<Vertex> l = new ArrayList<Vertex>(result.length);
+		Collections.addAll(l, result);
+		return l;
+	}
+
+	@Override
+	public Iterable<Vertex> getVertices() {
+		List<Iterable<Vertex>> l = new ArrayList<Iterable<Vertex>>(shards.length);
+		for (int i = 0; i < shards.length; i++) l.add(vertices(i, shards[i].getVertices()));
+		return new MultiIterable<Vertex>(l);
+	}
+
+	/**
+	 * Get the vertices with the given property. All shards are searched in
+	 * parallel, using their indexes if the key is indexed.
+	 *
+	 * @param key the property key
+	 * @param value the property value
+	 * @return the vertices
+	 */
+	@Override
+	public Iterable<Vertex> getVertices(final String key, final Object value) {
+		final List<List<Vertex>> found = new ArrayList<List<Vertex>>(shards.length);
+		for (int i = 0; i < shards.length; i++) found.add(new ArrayList<Vertex>());
+
+		fanOut(allShards(), new ShardTask() {
+			public void run(int shard) throws Exception {
+				for (Vertex v : vertices(shard, shards[shard].getVertices(key, value)))
+					found.get(shard).add(v);
+			}
+		});
+
+		List<Vertex> result = new ArrayList<Vertex>();
+		for (List<Vertex> l : found) result.addAll(l);
+		return result;
+	}
+
+	@Override
+	public void removeVertex(final Vertex vertex) {
+		if (vertex == null || vertex.getId() == null)
+			return;
+
+		// Remove the edges first, since their other halves can be in other shards
+
+		ShardedBdbVertex v = (ShardedBdbVertex) vertex;
+		ArrayList<Edge> edges = new ArrayList<Edge>();
+		for (Edge e : v.getEdges(Direction.BOTH))
+			edges.add(e);
+		for (Edge e : edges)
+			removeEdge(e);
+
+		shards[v.shard].removeVertex(v.base);
+		v.removed();
+	}
+
+	@Override
+	public long countVertices() {
+		long n = 0;
+		for (BdbGraph g : shards) n += g.countVertices();
+		return n;
+	}
+
+	@Override
+	public Vertex getRandomVertex() {
+		long[] weights = new long[shards.length];
+		for (int i = 0; i < shards.length; i++) weights[i] = shards[i].countVertices();
+		int shard = pickShard(weights);
+		return new ShardedBdbVertex(this, shard, (BdbVertex) shards[shard].getRandomVertex());
+	}
+
+	@Override
+	public Edge addEdge(final Object id, final Vertex outVertex, final Vertex inVertex, final String label) {
+		ShardedBdbVertex o = (ShardedBdbVertex) outVertex;
+		ShardedBdbVertex i = (ShardedBdbVertex) inVertex;
+		BdbGraph os = shards[o.shard];
+		BdbGraph is = shards[i.shard];
+
+		try {
+			if (!bulkLoadMode) {
+				if (os.vertexDb.exists(os.getTransaction(), o.base.dataId) != OperationStatus.SUCCESS
+						|| is.vertexDb.exists(is.getTransaction(), i.base.dataId) != OperationStatus.SUCCESS)
+					throw new RuntimeException("ShardedBdbEdge: Vertex " + o.id + " or " + i.id + " does not exist.");
+			}
+
+			if (BdbEdge.addHalf(os, Direction.OUT, o.base.id, label, i.id))
+				BdbEdge.addHalf(is, Direction.IN, i.base.id, label, o.id);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+
+		return new ShardedBdbEdge(this, o.id, label, i.id, null);
+	}
+
+	@Override
+	public Edge getEdge(final Object id) {
+		if (id == null)
+			throw new IllegalArgumentException("ShardedBdbGraph.getEdge(id) cannot be null.");
+		if (!(id instanceof BdbEdgeKey))
+			return null;
+
+		BdbEdgeKey k = (BdbEdgeKey) id;
+		if (parseId(k.out) < 0 || parseId(k.in) < 0)
+			return null;
+
+		BdbEdge e = (BdbEdge) shards[shardOf(k.out)].getEdge(new BdbEdgeKey(localId(k.out), k.label, k.in));
+		return e == null ? null : new ShardedBdbEdge(this, k.out, k.label, k.in, e);
+	}
+
+	@Override
+	public Iterable<Edge> getEdges() {
+		List<Iterable<Edge>> l = new ArrayList<Iterable<Edge>>(shards.length);
+		for (int i = 0; i < shards.length; i++) l.add(outEdges(i, shards[i].getEdges()));
+		return new MultiIterable<Edge>(l);
+	}
+
+	/**
+	 * Get the edges with the given property. All shards are searched in
+	 * parallel, using their indexes if the key is indexed.
+	 *
+	 * @param key the property key
+	 * @param value the property value
+	 * @return the edges
+	 */
+	@Override
+	public Iterable<Edge> getEdges(final String key, final Object value) {
+		final List<List<Edge>> found = new ArrayList<List<Edge>>(shards.length);
+		for (int i = 0; i < shards.length; i++) found.add(new ArrayList<Edge>());
+
+		fanOut(allShards(), new ShardTask() {
+			public void run(int shard) throws Exception {
+				for (Edge e : outEdges(shard, shards[shard].getEdges(key, value)))
+					found.get(shard).add(e);
+			}
+		});
+
+		List<Edge> result = new ArrayList<Edge>();
+		for (List<Edge> l : found) result.addAll(l);
+		return result;
+	}
+
+	@Override
+	public void removeEdge(final Edge edge) {
+		if (edge == null || edge.getId() == null)
+			return;
+
+		ShardedBdbEdge e = (ShardedBdbEdge) edge;
+		try {
+			BdbEdge.removeHalf(shards[shardOf(e.out)], Direction.OUT, localId(e.out), e.label, e.in);
+			BdbEdge.removeHalf(shards[shardOf(e.in)], Direction.IN, localId(e.in), e.label, e.out);
+		} catch (RuntimeException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		e.removed();
+	}
+
+	@Override
+	public long countEdges() {
+		long n = 0;
+		for (BdbGraph g : shards) n += g.countEdges();
+		return n;
+	}
+
+	/**
+	 * Return the number of edges with the given label
+	 *
+	 * @param label the edge label
+	 * @return the number of edges
+	 */
+	public long countEdges(String label) {
+		long n = 0;
+		for (BdbGraph g : shards) n += g.countEdges(label);
+		return n;
+	}
+
+	/**
+	 * Return the numbers of edges of all labels
+	 *
+	 * @return the map from the labels to the numbers of edges
+	 */
+	public Map<String, Long> countEdgesByLabel() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (BdbGraph g : shards) {
+			for (Map.Entry<String, Long> e : g.countEdgesByLabel().entrySet()) {
+				Long n = result.get(e.getKey());
+				result.put(e.getKey(), n == null ? e.getValue() : n.longValue() + e.getValue().longValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return a random edge. The shard is chosen with the probability proportional
+	 * to its number of edges, so that the edges are sampled uniformly if the
+	 * shards sample them uniformly.
+	 *
+	 * @return a random edge
+	 */
+	@Override
+	public Edge getRandomEdge() {
+		long[] weights = new long[shards.length];
+		for (int i = 0; i < shards.length; i++) weights[i] = shards[i].countEdges();
+		int shard = pickShard(weights);
+		BdbEdge e = (BdbEdge) shards[shard].getRandomEdge();
+		return new ShardedBdbEdge(this, globalId(e.out, shard), e.label, e.in, e);
+	}
+
+	/**
+	 * Remove all vertices and edges from all shards
+	 */
+	public void clear() {
+		for (BdbGraph g : shards) g.clear();
+	}
+
+	/**
+	 * Commit the current transaction of each transactional shard, one after
+	 * another, which is not atomic across the shards
+	 */
+	public void commit() {
+		for (BdbGraph g : shards) g.commit();
+	}
+
+	/**
+	 * Abort the current transaction of each transactional shard
+	 */
+	public void rollback() {
+		for (BdbGraph g : shards) g.rollback();
+	}
+
+	@Override
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+
+		RuntimeException failure = null;
+		for (BdbGraph g : shards) {
+			try {
+				g.shutdown();
+			}
+			catch (RuntimeException e) {
+				if (failure == null) failure = e;
+			}
+		}
+		if (failure != null) throw failure;
+	}
+
+	public String toString() {
+		return "shardedbdbgraph[" + shards.length + " shards]";
+	}
+
+
+	// BENCHMARKABLE GRAPH INTERFACE
+
+	@Override
+	public int getBufferPoolSize() {
+		int n = 0;
+		for (BdbGraph g : shards) n += g.getBufferPoolSize();
+		return n;
+	}
+
+	@Override
+	public int getTotalCacheSize() {
+		int n = 0;
+		for (BdbGraph g : shards) n += g.getTotalCacheSize();
+		return n;
+	}
+
+	@Override
+	public long getCacheHitCount() {
+		return getCacheStats().hits;
+	}
+
+	@Override
+	public long getCacheMissCount() {
+		return getCacheStats().misses;
+	}
+
+	/**
+	 * Get the buffer pool statistics summed over the caches of all shards
+	 *
+	 * @return the statistics
+	 */
+	public BdbCacheStats getCacheStats() {
+		BdbCacheStats s = new BdbCacheStats(0, 0, 0, 0, 0);
+		for (BdbGraph g : shards) {
+			BdbCacheStats t = g.getCacheStats();
+			s.hits += t.hits;
+			s.misses += t.misses;
+			s.pagesIn += t.pagesIn;
+			s.pagesOut += t.pagesOut;
+			s.evictions += t.evictions;
+		}
+		return s;
+	}
+
+	/**
+	 * Reset the buffer pool statistics of all shards
+	 */
+	public void resetCacheStats() {
+		for (BdbGraph g : shards) g.resetCacheStats();
+	}
+
+
+	// BULKLOADABLE GRAPH INTERFACE
+
+	/**
+	 * Start bulk load mode in all shards. The vertex existence checks are
+	 * skipped, and in the duplicates layout, the halves of the new edges are
+	 * buffered by the bulk loaders of their shards.
+	 */
+	@Override
+	public void startBulkLoad() {
+		bulkLoadMode = true;
+		for (BdbGraph g : shards) g.startBulkLoad();
+	}
+
+	/**
+	 * Stop bulk load mode in all shards, which writes the buffered edges
+	 */
+	@Override
+	public void stopBulkLoad() {
+		bulkLoadMode = false;
+		for (BdbGraph g : shards) g.stopBulkLoad();
+	}
+
+
+	// PARTITIONABLE GRAPH INTERFACE
+
+	/**
+	 * Split the vertices into the partitions of the shards, so that the shards
+	 * are scanned in parallel. Each shard is split further only if it is
+	 * concurrent. The transactional shards are scanned in a single partition.
+	 *
+	 * @param n the requested number of partitions
+	 * @return the list of the partitions
+	 */
+	@Override
+	public List<CloseableIterable<Vertex>> getVertexPartitions(int n) {
+		List<CloseableIterable<Vertex>> result = new ArrayList<CloseableIterable<Vertex>>();
+		if (transactional) {
+			result.add(new MappedIterable<Vertex, Vertex>(getVertices()) {
+				protected Vertex map(Vertex v) {
+					return v;
+				}
+			});
+			return result;
+		}
+
+		int perShard = (n + shards.length - 1) / shards.length;
+		for (int i = 0; i < shards.length; i++) {
+			for (CloseableIterable<Vertex> p : shards[i].getVertexPartitions(perShard))
+				result.add(vertices(i, p));
+		}
+		return result;
+	}
+
+	/**
+	 * Split the edges into the partitions of the shards, so that the shards
+	 * are scanned in parallel. Each shard is split further only if it is
+	 * concurrent. The transactional shards are scanned in a single partition.
+	 *
+	 * @param n the requested number of partitions
+	 * @return the list of the partitions
+	 */
+	@Override
+	public List<CloseableIterable<Edge>> getEdgePartitions(int n) {
+		List<CloseableIterable<Edge>> result = new ArrayList<CloseableIterable<Edge>>();
+		if (transactional) {
+			result.add(new MappedIterable<Edge, Edge>(getEdges()) {
+				protected Edge map(Edge e) {
+					return e;
+				}
+			});
+			return result;
+		}
+
+		int perShard = (n + shards.length - 1) / shards.length;
+		for (int i = 0; i < shards.length; i++) {
+			for (CloseableIterable<Edge> p : shards[i].getEdgePartitions(perShard))
+				result.add(outEdges(i, p));
+		}
+		return result;
+	}
+
+
+	// PRIMITIVE TRAVERSAL
+
+	/**
+	 * Pass the global IDs of the neighbors of a vertex to a consumer, without
+	 * creating the Blueprints vertices or the edges. Only the shard of the
+	 * vertex is read, since its adjacency lists store the global IDs.
+	 *
+	 * @param vertex the global vertex ID
+	 * @param direction the direction
+	 * @param labels the labels, or an empty array for all labels
+	 * @param consumer the consumer of the neighbor IDs
+	 */
+	public void forEachNeighbor(long vertex, Direction direction, String[] labels, LongConsumer consumer) {
+		int shard = shardOf(vertex);
+		if (shard >= shards.length) return;
+		shards[shard].forEachNeighbor(localId(vertex), direction, labels, consumer);
+	}
+
+
+	// KEY INDEXABLE GRAPH INTERFACE
+
+	/**
+	 * Index a key in all shards. This commits the current transactions.
+	 *
+	 * @param key the property key
+	 * @param elementClass the element class, either Vertex or Edge
+	 * @param indexParameters the index parameters, which are ignored
+	 */
+	@Override
+	public <T extends Element> void createKeyIndex(final String key, final Class<T> elementClass,
+			final Parameter... indexParameters) {
+		for (BdbGraph g : shards) g.createKeyIndex(key, elementClass, indexParameters);
+	}
+
+	@Override
+	public <T extends Element> void dropKeyIndex(final String key, final Class<T> elementClass) {
+		for (BdbGraph g : shards) g.dropKeyIndex(key, elementClass);
+	}
+
+	@Override
+	public <T extends Element> Set<String> getIndexedKeys(final Class<T> elementClass) {
+		return shards[0].getIndexedKeys(elementClass);
+	}
+
+
+	/**
+	 * An iterable that maps the elements of another iterable, and that closes it
+	 * if it is closeable
+	 *
+	 * @param <S> the source type
+	 * @param <T> the target type
+	 */
+	static abstract class MappedIterable<S, T> implements CloseableIterable<T> {
+
+		private Iterable<S> source;
+
+		public MappedIterable(Iterable<S> source) {
+			this.source = source;
+		}
+
+		protected abstract T map(S element);
+
+		public Iterator<T> iterator() {
+			final Iterator<S> i = source.iterator();
+			return new Iterator<T>() {
+				public boolean hasNext() {
+					return i.hasNext();
+				}
+				public T next() {
+					return map(i.next());
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public void close() {
+			if (source instanceof CloseableIterable<?>) ((CloseableIterable<?>) source).close();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Query;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.MultiIterable;
+import com.tinkerpop.blueprints.util.StringFactory;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A vertex of a sharded graph, which is stored in one of the shards together
+ * with its properties, its out-edges, and the in halves of its in-edges
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class ShardedBdbVertex implements Vertex {
+
+	private ShardedBdbGraph graph;
+	protected int shard;
+	protected BdbVertex base;
+	protected long id;
+
+
+	/**
+	 * Create an instance of class ShardedBdbVertex
+	 *
+	 * @param graph the sharded graph
+	 * @param shard the shard index
+	 * @param base the vertex in the shard
+	 */
+	protected ShardedBdbVertex(final ShardedBdbGraph graph, final int shard, final BdbVertex base) {
+		this.graph = graph;
+		this.shard = shard;
+		this.base = base;
+		this.id = ShardedBdbGraph.globalId(base.id, shard);
+	}
+
+
+	/**
+	 * Mark the vertex as removed
+	 */
+	protected void removed() {
+		this.base = null;
+		this.graph = null;
+	}
+
+
+	@Override
+	public Object getId() {
+		return base != null ? id : null;
+	}
+
+	@Override
+	public Object getProperty(final String key) {
+		return base.getProperty(key);
+	}
+
+	@Override
+	public Set<String> getPropertyKeys() {
+		return base.getPropertyKeys();
+	}
+
+	/**
+	 * Get all properties of the vertex
+	 *
+	 * @return the map of the property keys to their values
+	 */
+	public Map<String, Object> getPropertyMap() {
+		return base.getPropertyMap();
+	}
+
+	@Override
+	public void setProperty(final String key, final Object value) {
+		base.setProperty(key, value);
+	}
+
+	@Override
+	public Object removeProperty(final String key) {
+		return base.removeProperty(key);
+	}
+
+	@Override
+	public Iterable<Edge> getEdges(final Direction direction, final String... labels) {
+		switch (direction) {
+		case OUT :
+			return graph.outEdges(shard, base.getEdges(Direction.OUT, labels));
+		case IN  :
+			return graph.inEdges(shard, base.getEdges(Direction.IN, labels));
+		case BOTH:
+			ArrayList<Iterable<Edge>> a = new ArrayList<Iterable<Edge>>();
+			a.add(graph.outEdges(shard, base.getEdges(Direction.OUT, labels)));
+			a.add(graph.inEdges(shard, base.getEdges(Direction.IN , labels)));
+			return new MultiIterable<Edge>(a);
+		default  :
+			throw new IllegalArgumentException("Invalid direction");
+		}
+	}
+
+	@Override
+	public Iterable<Vertex> getVertices(final Direction direction, final String... labels) {
+
+		// The adjacency lists of the shard store the global IDs of the neighbors
+
+		return graph.neighbors(base.getVertices(direction, labels));
+	}
+
+	@Override
+	public Query query() {
+		final ShardedBdbGraph g = this.graph;
+		final int s = this.shard;
+		return new BdbVertexQuery(g.getShard(s), base) {
+
+			// The edges and the neighbors of the shard need to be wrapped, and the
+			// filters need to read the properties of the in-edges from the other shards
+
+			protected Iterable<Edge> edges(final Direction d) {
+				return d == Direction.OUT ? g.outEdges(s, super.edges(d)) : g.inEdges(s, super.edges(d));
+			}
+
+			protected Iterable<Vertex> vertices(final Direction d) {
+				return g.neighbors(super.vertices(d));
+			}
+
+			protected Vertex neighbor(final Edge e, final Direction d) {
+				ShardedBdbEdge x = (ShardedBdbEdge) e;
+				return g.vertexFor(d == Direction.OUT ? x.in : x.out);
+			}
+		};
+	}
+
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (!(obj instanceof ShardedBdbVertex))
+			return false;
+
+		final ShardedBdbVertex other = (ShardedBdbVertex) obj;
+		return this.id == other.id;
+	}
+
+	public int hashCode() {
+		return (int)((this.id >>> 32) ^ this.id);
+	}
+
+	public String toString() {
+		return StringFactory.vertexString(this);
+	}
+}
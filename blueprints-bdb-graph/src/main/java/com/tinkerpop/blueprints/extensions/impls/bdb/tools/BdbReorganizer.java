@@ -0,0 +1,117 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.tools;
+
+import com.tinkerpop.blueprints.extensions.impls.bdb.BdbGraph;
+import com.tinkerpop.blueprints.extensions.impls.bdb.BdbGraphConfig;
+import com.tinkerpop.blueprints.extensions.impls.bdb.util.BdbCompactionStats;
+
+
+/**
+ * An offline tool that compacts or rebuilds the databases of a BdbGraph
+ * environment, which must not be open in any other process
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbReorganizer {
+
+	static final String PROGRAM_NAME = "bdbreorganize.sh";
+	static final String PROGRAM_LONG_NAME = "BdbGraph -- compact or rebuild the databases";
+
+
+	/**
+	 * Print the usage info for the tool
+	 */
+	private static void usage() {
+		System.err.println(PROGRAM_LONG_NAME);
+		System.err.println("");
+		System.err.println("Usage: " + PROGRAM_NAME + " [OPTIONS] DIRECTORY");
+		System.err.println("");
+		System.err.println("Options:");
+		System.err.println("  --cache MB         Set the cache size (default: 256)");
+		System.err.println("  --fill PERCENT     Set the goal for filling the pages when compacting");
+		System.err.println("  --help             Print this help");
+		System.err.println("  --preset NAME      Use a configuration preset (default, traversal-heavy,");
+		System.err.println("                     or ingest-heavy), which determines the page sizes");
+		System.err.println("                     of the rebuilt databases");
+		System.err.println("  --rebuild          Rebuild the databases into new files in the key order");
+		System.err.println("                     instead of compacting them in place");
+		System.err.println("  --traversal N      Measure the page reads of a traversal of N vertices");
+		System.err.println("                     before and after (default: 1000, 0 to disable)");
+	}
+
+
+	/**
+	 * Run the tool
+	 *
+	 * @param args the command-line arguments
+	 * @throws Exception on error
+	 */
+	public static void main(String args[]) throws Exception {
+
+		int cacheSize = 256;
+		int fillPercent = 0;
+		int traversalSize = 1000;
+		String preset = "default";
+		boolean rebuild = false;
+		String directory = null;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String a = args[i];
+				if ("--help".equals(a)) {
+					usage();
+					return;
+				}
+				else if ("--rebuild".equals(a)) {
+					rebuild = true;
+				}
+				else if (a.startsWith("--") && i + 1 >= args.length) {
+					throw new IllegalArgumentException("The option " + a + " requires an argument");
+				}
+				else if ("--cache".equals(a)) {
+					cacheSize = Integer.parseInt(args[++i]);
+				}
+				else if ("--fill".equals(a)) {
+					fillPercent = Integer.parseInt(args[++i]);
+				}
+				else if ("--preset".equals(a)) {
+					preset = args[++i];
+				}
+				else if ("--traversal".equals(a)) {
+					traversalSize = Integer.parseInt(args[++i]);
+				}
+				else if (a.startsWith("--") || directory != null) {
+					throw new IllegalArgumentException("Invalid argument " + a);
+				}
+				else {
+					directory = a;
+				}
+			}
+			if (directory == null) {
+				usage();
+				System.exit(1);
+			}
+
+			BdbGraph graph = new BdbGraph(directory, BdbGraphConfig.forName(preset, cacheSize));
+			try {
+				BdbCompactionStats stats = rebuild ? graph.rebuild(traversalSize)
+						: graph.compact(fillPercent, traversalSize);
+
+				System.out.println("Pages examined   : " + stats.pagesExamined);
+				System.out.println("Pages freed      : " + stats.pagesFreed);
+				System.out.println("Size before      : " + stats.bytesBefore);
+				System.out.println("Size after       : " + stats.bytesAfter);
+				if (stats.traversalPagesBefore >= 0) {
+					System.out.println("Traversal before : " + stats.traversalPagesBefore + " page reads");
+					System.out.println("Traversal after  : " + stats.traversalPagesAfter + " page reads");
+				}
+			}
+			finally {
+				graph.shutdown();
+			}
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
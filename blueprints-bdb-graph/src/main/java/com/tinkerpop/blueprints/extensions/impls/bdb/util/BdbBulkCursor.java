@@ -0,0 +1,277 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+import com.sleepycat.db.Cursor;
+import com.sleepycat.db.DatabaseEntry;
+import com.sleepycat.db.DatabaseException;
+import com.sleepycat.db.MemoryException;
+import com.sleepycat.db.MultipleDataEntry;
+import com.sleepycat.db.MultipleKeyDataEntry;
+import com.sleepycat.db.MultipleRecnoDataEntry;
+import com.sleepycat.db.OperationStatus;
+
+import java.util.ArrayList;
+
+/**
+ * A cursor wrapper that reads the records using the bulk retrieval, so that
+ * the whole sets of duplicates or large pages of the key/data pairs are read
+ * in a single call to the database, and the individual records are then read
+ * from the buffer. The data returned by the methods of this class point into
+ * the shared buffer, so they are valid only until the next call. The buffers
+ * are recycled within each thread, so that opening a cursor for a short list
+ * of duplicates does not allocate a new buffer.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbBulkCursor {
+
+	/**
+	 * The default size of the bulk read buffer in bytes
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The maximum number of free buffers kept by each thread
+	 */
+	private static final int MAX_FREE_BUFFERS = 16;
+
+	private static final ThreadLocal<ArrayList<byte[]>> freeBuffers = new ThreadLocal<ArrayList<byte[]>>() {
+		protected ArrayList<byte[]> initialValue() {
+			return new ArrayList<byte[]>();
+		}
+	};
+
+	private Cursor cursor;
+	private boolean recno;
+	private byte[] buffer;
+
+	private DatabaseEntry skip = new DatabaseEntry();
+	private MultipleDataEntry dups = null;
+	private DatabaseEntry pairs = null;
+
+
+	/**
+	 * Create an instance of class BdbBulkCursor
+	 *
+	 * @param cursor the open cursor, which will be closed together with this object
+	 * @param bufferSize the size of the buffer (a multiple of 1024), or 0 to read
+	 *                   the records one at a time
+	 * @param recno true if the database is a Queue or a Recno database
+	 */
+	public BdbBulkCursor(Cursor cursor, int bufferSize, boolean recno) {
+		this.cursor = cursor;
+		this.recno = recno;
+		this.buffer = bufferSize > 0 ? acquireBuffer(bufferSize) : null;
+		this.skip.setPartial(0, 0, true);
+	}
+
+
+	/**
+	 * Get a free buffer of the calling thread, or allocate a new one
+	 *
+	 * @param size the minimum buffer size
+	 * @return the buffer
+	 */
+	private static byte[] acquireBuffer(int size) {
+		ArrayList<byte[]> l = freeBuffers.get();
+		for (int i = l.size() - 1; i >= 0; i--) {
+			if (l.get(i).length >= size) return l.remove(i);
+		}
+		return new byte[size];
+	}
+
+
+	/**
+	 * Return a buffer to the free buffers of the calling thread
+	 *
+	 * @param buffer the buffer
+	 */
+	private static void releaseBuffer(byte[] buffer) {
+		ArrayList<byte[]> l = freeBuffers.get();
+		if (l.size() < MAX_FREE_BUFFERS) l.add(buffer);
+	}
+
+
+	/**
+	 * Get the underlying cursor
+	 *
+	 * @return the cursor
+	 */
+	public Cursor getCursor() {
+		return cursor;
+	}
+
+
+	/**
+	 * Double the size of the buffer after it was too small for a single record
+	 *
+	 * @param e the exception
+	 */
+	private void growBuffer(MemoryException e) {
+		int size = buffer.length * 2;
+		while (e.getDatabaseEntry() != null && size < e.getDatabaseEntry().getSize()) size *= 2;
+		buffer = new byte[size];
+	}
+
+
+	/**
+	 * Prepare a new multiple data entry that uses the buffer
+	 *
+	 * @return the entry
+	 */
+	private MultipleDataEntry newDups() {
+		MultipleDataEntry m = new MultipleDataEntry(buffer);
+		m.setUserBuffer(buffer.length, true);
+		return m;
+	}
+
+
+	/**
+	 * Prepare a new multiple key/data entry that uses the buffer
+	 *
+	 * @return the entry
+	 */
+	private DatabaseEntry newPairs() {
+		DatabaseEntry m = recno ? new MultipleRecnoDataEntry(buffer) : new MultipleKeyDataEntry(buffer);
+		m.setUserBuffer(buffer.length, true);
+		return m;
+	}
+
+
+	/**
+	 * Get the next key/data pair from the buffer
+	 *
+	 * @param key the entry for the key
+	 * @param data the entry for the data
+	 * @return true if there was a pair in the buffer
+	 * @throws DatabaseException on error
+	 */
+	private boolean nextPair(DatabaseEntry key, DatabaseEntry data) throws DatabaseException {
+		if (pairs == null) return false;
+		if (recno)
+			return ((MultipleRecnoDataEntry) pairs).next(key, data);
+		else
+			return ((MultipleKeyDataEntry) pairs).next(key, data);
+	}
+
+
+	/**
+	 * Move to the given key and read its first duplicate
+	 *
+	 * @param key the key
+	 * @param data the entry for the data
+	 * @return true if the key was found
+	 * @throws DatabaseException on error
+	 */
+	public boolean getSearchKey(DatabaseEntry key, DatabaseEntry data) throws DatabaseException {
+
+		if (buffer == null)
+			return cursor.getSearchKey(key, data, null) == OperationStatus.SUCCESS;
+
+		while (true) {
+			dups = newDups();
+			try {
+				if (cursor.getSearchKey(key, dups, null) != OperationStatus.SUCCESS) {
+					dups = null;
+					return false;
+				}
+				return dups.next(data);
+			} catch (MemoryException e) {
+				growBuffer(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Read the next duplicate of the current key
+	 *
+	 * @param data the entry for the data
+	 * @return true if there is a next duplicate
+	 * @throws DatabaseException on error
+	 */
+	public boolean getNextDup(DatabaseEntry data) throws DatabaseException {
+
+		if (buffer == null)
+			return cursor.getNextDup(skip, data, null) == OperationStatus.SUCCESS;
+
+		if (dups == null) return false;
+		if (dups.next(data)) return true;
+
+		while (true) {
+			dups = newDups();
+			try {
+				if (cursor.getNextDup(skip, dups, null) != OperationStatus.SUCCESS) {
+					dups = null;
+					return false;
+				}
+				return dups.next(data);
+			} catch (MemoryException e) {
+				growBuffer(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Read the next key/data pair, or the first pair if the cursor is not yet
+	 * positioned
+	 *
+	 * @param key the entry for the key
+	 * @param data the entry for the data
+	 * @return true if there is a next pair
+	 * @throws DatabaseException on error
+	 */
+	public boolean getNext(DatabaseEntry key, DatabaseEntry data) throws DatabaseException {
+
+		if (buffer == null)
+			return cursor.getNext(key, data, null) == OperationStatus.SUCCESS;
+
+		if (nextPair(key, data)) return true;
+
+		while (true) {
+			pairs = newPairs();
+			try {
+				if (cursor.getNext(new DatabaseEntry(), pairs, null) != OperationStatus.SUCCESS) {
+					pairs = null;
+					return false;
+				}
+				return nextPair(key, data);
+			} catch (MemoryException e) {
+				growBuffer(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Move to the smallest key that is greater than or equal to the given key
+	 * and read its first record. The following calls to getNext() continue from
+	 * there.
+	 *
+	 * @param key the key, which also receives the found key
+	 * @param data the entry for the data
+	 * @return true if there is such key
+	 * @throws DatabaseException on error
+	 */
+	public boolean getSearchKeyRange(DatabaseEntry key, DatabaseEntry data) throws DatabaseException {
+		dups = null;
+		pairs = null;
+		return cursor.getSearchKeyRange(key, data, null) == OperationStatus.SUCCESS;
+	}
+
+
+	/**
+	 * Close the cursor
+	 *
+	 * @throws DatabaseException on error
+	 */
+	public void close() throws DatabaseException {
+		dups = null;
+		pairs = null;
+		if (buffer != null) {
+			releaseBuffer(buffer);
+			buffer = null;
+		}
+		cursor.close();
+	}
+}
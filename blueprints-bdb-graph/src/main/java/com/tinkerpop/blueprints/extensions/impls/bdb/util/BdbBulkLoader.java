@@ -0,0 +1,157 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+import com.sleepycat.bind.RecordNumberBinding;
+import com.sleepycat.db.Database;
+import com.sleepycat.db.DatabaseEntry;
+import com.sleepycat.db.OperationStatus;
+import com.tinkerpop.blueprints.extensions.impls.bdb.BdbGraph;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The edge loader for the bulk-load mode. The edges are buffered in memory,
+ * and each full buffer is sorted and written to out.db in the key order. The
+ * reversed records are sorted the same way and saved as runs in temporary
+ * files, which are merged and appended to in.db in the key order at the end
+ * of the bulk load, so that both B-trees are filled nearly sequentially. The
+ * database of the edge keys for random sampling, if any, is built the same way.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbBulkLoader {
+
+	/**
+	 * The default number of edges buffered in memory
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1000000;
+
+	private BdbGraph graph;
+	private int bufferSize;
+
+	private ArrayList<BdbExternalSorter.Record> outBuffer;
+	private BdbExternalSorter inSorter;
+	private BdbExternalSorter sampleSorter;
+	private Database sampleDb;
+
+
+	/**
+	 * Create an instance of class BdbBulkLoader
+	 *
+	 * @param graph the graph
+	 * @param tempDir the directory for the temporary files
+	 * @param bufferSize the number of edges buffered in memory
+	 * @param sampleDb the database of the edge keys for random sampling, or null
+	 */
+	public BdbBulkLoader(BdbGraph graph, File tempDir, int bufferSize, Database sampleDb) {
+
+		if (bufferSize <= 0) throw new IllegalArgumentException("The buffer size must be positive");
+
+		this.graph = graph;
+		this.bufferSize = bufferSize;
+
+		this.outBuffer = new ArrayList<BdbExternalSorter.Record>();
+		this.inSorter = new BdbExternalSorter(tempDir, bufferSize);
+		this.sampleSorter = sampleDb == null ? null : new BdbExternalSorter(tempDir, bufferSize);
+		this.sampleDb = sampleDb;
+	}
+
+
+	/**
+	 * Add the out half of an edge, which is its record in out.db
+	 *
+	 * @param out the key of the out vertex
+	 * @param label the edge label
+	 * @param in the ID of the in vertex
+	 */
+	public void addOut(DatabaseEntry out, String label, long in) {
+
+		DatabaseEntry data = new DatabaseEntry();
+
+		BdbEdgeData edata = new BdbEdgeData(label, in);
+		graph.edgeDataBinding.objectToEntry(edata, data);
+		outBuffer.add(new BdbExternalSorter.Record(BdbExternalSorter.bytes(out), BdbExternalSorter.bytes(data)));
+
+		if (sampleSorter != null) {
+			BdbEdgeKey ekey = new BdbEdgeKey(RecordNumberBinding.entryToRecordNumber(out), label, in);
+			graph.edgeKeyBinding.objectToEntry(ekey, data);
+			sampleSorter.add(data, new DatabaseEntry(new byte[0]));
+		}
+
+		if (outBuffer.size() >= bufferSize) flush();
+	}
+
+
+	/**
+	 * Add the in half of an edge, which is its reversed record in in.db
+	 *
+	 * @param in the key of the in vertex
+	 * @param label the edge label
+	 * @param out the ID of the out vertex
+	 */
+	public void addIn(DatabaseEntry in, String label, long out) {
+
+		DatabaseEntry data = new DatabaseEntry();
+
+		BdbEdgeData edata = new BdbEdgeData(label, out);
+		graph.edgeDataBinding.objectToEntry(edata, data);
+		inSorter.add(in, data);
+	}
+
+
+	/**
+	 * Write the buffered edges to out.db
+	 */
+	public void flush() {
+
+		if (outBuffer.isEmpty()) return;
+
+		try {
+			Collections.sort(outBuffer);
+			Map<String, Long> counts = new HashMap<String, Long>();
+			for (BdbExternalSorter.Record r : outBuffer) {
+				DatabaseEntry data = new DatabaseEntry(r.data);
+				if (graph.outDb.putNoDupData(graph.getTransaction(),
+						new DatabaseEntry(r.key), data) == OperationStatus.SUCCESS) {
+					String label = graph.edgeDataBinding.entryToObject(data).label;
+					Long n = counts.get(label);
+					counts.put(label, n == null ? 1 : n.longValue() + 1);
+				}
+			}
+			graph.counters.addEdges(counts);
+			outBuffer.clear();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+
+
+	/**
+	 * Flush the buffers and build in.db by merging the sorted runs
+	 */
+	public void finish() {
+		try {
+			flush();
+			inSorter.writeTo(graph, graph.inDb);
+			if (sampleSorter != null) sampleSorter.writeTo(graph, sampleDb);
+		}
+		finally {
+			discard();
+		}
+	}
+
+
+	/**
+	 * Discard the buffered edges and delete the temporary files
+	 */
+	public void discard() {
+		outBuffer.clear();
+		inSorter.discard();
+		if (sampleSorter != null) sampleSorter.discard();
+	}
+}
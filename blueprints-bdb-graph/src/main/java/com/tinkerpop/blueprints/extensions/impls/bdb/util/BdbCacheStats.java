@@ -0,0 +1,62 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+/**
+ * The buffer pool statistics of the environment or of one database file
+ * since they were last reset. The pages are evicted from the shared pool,
+ * so the evictions are known only for the whole environment; the pages
+ * written out are the closest per-file measure of the evictions of dirty
+ * pages.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbCacheStats {
+
+	/// The number of pages found in the cache
+	public long hits;
+
+	/// The number of pages not found in the cache
+	public long misses;
+
+	/// The number of pages read into the cache
+	public long pagesIn;
+
+	/// The number of pages written from the cache
+	public long pagesOut;
+
+	/// The number of clean and dirty pages evicted from the cache, or -1 for a single file
+	public long evictions;
+
+
+	/**
+	 * Create an instance of class BdbCacheStats
+	 *
+	 * @param hits the number of pages found in the cache
+	 * @param misses the number of pages not found in the cache
+	 * @param pagesIn the number of pages read into the cache
+	 * @param pagesOut the number of pages written from the cache
+	 * @param evictions the number of evicted pages, or -1 if not available
+	 */
+	public BdbCacheStats(long hits, long misses, long pagesIn, long pagesOut, long evictions) {
+		this.hits = hits;
+		this.misses = misses;
+		this.pagesIn = pagesIn;
+		this.pagesOut = pagesOut;
+		this.evictions = evictions;
+	}
+
+
+	/**
+	 * Get the hit ratio
+	 *
+	 * @return the fraction of the page requests found in the cache, or NaN if there were none
+	 */
+	public double getHitRatio() {
+		return hits + misses == 0 ? Double.NaN : hits / (double) (hits + misses);
+	}
+
+
+	public String toString() {
+		return "cachestats[hits=" + hits + ", misses=" + misses + ", in=" + pagesIn
+				+ ", out=" + pagesOut + ", evictions=" + evictions + "]";
+	}
+}
@@ -0,0 +1,47 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+/**
+ * The result of a compaction or of a rebuild of the databases of a graph.
+ * The page reads of the traversal are the pages requested from the cache
+ * (the hits and the misses) while reading the adjacency lists and the
+ * properties of a fixed set of vertices, which does not depend on the state
+ * of the cache, so that they are comparable before and after.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbCompactionStats {
+
+	/// The number of pages examined by the compaction, or 0 for a rebuild
+	public long pagesExamined;
+
+	/// The number of pages freed by emptying them or by rebuilding the files
+	public long pagesFreed;
+
+	/// The total size of the database files before, in bytes
+	public long bytesBefore;
+
+	/// The total size of the database files after, in bytes
+	public long bytesAfter;
+
+	/// The number of page reads of the traversal before, or -1 if not measured
+	public long traversalPagesBefore;
+
+	/// The number of page reads of the traversal after, or -1 if not measured
+	public long traversalPagesAfter;
+
+
+	/**
+	 * Create an instance of class BdbCompactionStats
+	 */
+	public BdbCompactionStats() {
+		this.traversalPagesBefore = -1;
+		this.traversalPagesAfter = -1;
+	}
+
+
+	public String toString() {
+		return "compactionstats[examined=" + pagesExamined + ", freed=" + pagesFreed
+				+ ", bytes=" + bytesBefore + "->" + bytesAfter
+				+ ", traversal=" + traversalPagesBefore + "->" + traversalPagesAfter + "]";
+	}
+}
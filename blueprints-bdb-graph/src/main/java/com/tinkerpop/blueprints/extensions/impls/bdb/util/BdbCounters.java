@@ -0,0 +1,353 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+import com.sleepycat.bind.tuple.LongBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.db.Cursor;
+import com.sleepycat.db.Database;
+import com.sleepycat.db.DatabaseEntry;
+import com.sleepycat.db.DatabaseException;
+import com.sleepycat.db.LockMode;
+import com.sleepycat.db.OperationStatus;
+import com.sleepycat.db.Transaction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.impls.bdb.BdbGraph;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The persistent numbers of the vertices, of the edges, and of the edges with
+ * each label, which are updated together with the element records, so that
+ * they can be read in constant time instead of walking the databases. In a
+ * transactional graph, the counters are updated in the current transaction of
+ * the thread, and thus they are rolled back together with the elements.
+ * 
+ * The updates write-lock the counters until the end of the transaction. Every
+ * update locks "vertices" first, even if it changes only the edge counters, and
+ * then "edges" and the labels in their sorted order. Since a transaction that
+ * holds any counter lock thus also holds "vertices", the counter locks are
+ * acquired in one total order and cannot deadlock with each other, regardless
+ * of the order in which a transaction adds vertices and edges. The counters
+ * are small enough to share a B-tree
+ * page, though, and so the transactions that add or remove elements are
+ * serialized on counter.db from their first such mutation until they commit;
+ * a graph with many concurrent writers should keep its transactions short or
+ * disable the counters in BdbGraphConfig. Without counter.db, the counts are
+ * computed by a scan.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbCounters {
+
+	private static final String VERTICES = "vertices";
+	private static final String EDGES = "edges";
+	private static final String LABEL = "label";
+
+	private BdbGraph graph;
+	private Database db;
+
+	private DatabaseEntry verticesKey;
+	private DatabaseEntry edgesKey;
+
+
+	/**
+	 * Create an instance of class BdbCounters
+	 *
+	 * @param graph the graph
+	 * @param db the database of the counters, or null to count by scanning
+	 */
+	public BdbCounters(BdbGraph graph, Database db) {
+		this.graph = graph;
+		this.db = db;
+		this.verticesKey = key(VERTICES, null);
+		this.edgesKey = key(EDGES, null);
+	}
+
+
+	/**
+	 * Encode the key of a counter
+	 *
+	 * @param name the counter name
+	 * @param label the edge label, or null
+	 * @return the key
+	 */
+	private static DatabaseEntry key(String name, String label) {
+		TupleOutput to = new TupleOutput();
+		to.writeString(name);
+		if (label != null) to.writeString(label);
+		DatabaseEntry entry = new DatabaseEntry();
+		entry.setData(to.getBufferBytes(), 0, to.getBufferLength());
+		return entry;
+	}
+
+
+	/**
+	 * Read a counter
+	 *
+	 * @param key the key of the counter
+	 * @return the value, or 0 if it does not exist
+	 */
+	private long get(DatabaseEntry key) {
+		DatabaseEntry data = new DatabaseEntry();
+		try {
+			if (db.get(graph.getTransaction(), key, data, null) != OperationStatus.SUCCESS) return 0;
+		} catch (DatabaseException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+		return LongBinding.entryToLong(data);
+	}
+
+
+	/**
+	 * Write-lock the "vertices" counter, which comes first in the lock order, in
+	 * the current transaction, creating it if it does not exist yet
+	 *
+	 * @throws DatabaseException on error
+	 */
+	private void lockFirst() throws DatabaseException {
+		if (db == null || !graph.isTransactional()) return;
+		Transaction t = graph.getTransaction();
+		DatabaseEntry data = new DatabaseEntry();
+		if (db.get(t, verticesKey, data, LockMode.RMW) != OperationStatus.SUCCESS) {
+			LongBinding.longToEntry(0, data);
+			db.put(t, verticesKey, data);
+		}
+	}
+
+
+	/**
+	 * Add a value to a counter. In a transactional graph the counter is read
+	 * with a write lock, which serializes the updates and avoids the deadlocks
+	 * from upgrading a read lock. The updates in the other modes are serialized
+	 * by this object.
+	 *
+	 * @param key the key of the counter
+	 * @param delta the value to add
+	 * @throws DatabaseException on error
+	 */
+	private void add(DatabaseEntry key, long delta) throws DatabaseException {
+		if (db == null) return;
+		if (graph.isTransactional()) {
+			update(key, delta, graph.getTransaction());
+		}
+		else {
+			synchronized (this) {
+				update(key, delta, null);
+			}
+		}
+	}
+
+
+	/**
+	 * Read, update, and write a counter
+	 *
+	 * @param key the key of the counter
+	 * @param delta the value to add
+	 * @param t the transaction, or null
+	 * @throws DatabaseException on error
+	 */
+	private void update(DatabaseEntry key, long delta, Transaction t) throws DatabaseException {
+		DatabaseEntry data = new DatabaseEntry();
+		long value = 0;
+		if (db.get(t, key, data, t != null ? LockMode.RMW : null) == OperationStatus.SUCCESS)
+			value = LongBinding.entryToLong(data);
+		LongBinding.longToEntry(value + delta, data);
+		db.put(t, key, data);
+	}
+
+
+	/**
+	 * Get the number of vertices
+	 *
+	 * @return the number of vertices
+	 */
+	public long getVertexCount() {
+		if (db == null) return scanVertices();
+		return get(verticesKey);
+	}
+
+
+	/**
+	 * Get the number of edges
+	 *
+	 * @return the number of edges
+	 */
+	public long getEdgeCount() {
+		if (db == null) return sum(getEdgeCounts());
+		return get(edgesKey);
+	}
+
+
+	/**
+	 * Get the number of edges with the given label
+	 *
+	 * @param label the edge label
+	 * @return the number of edges
+	 */
+	public long getEdgeCount(String label) {
+		if (db == null) {
+			Long n = getEdgeCounts().get(label);
+			return n == null ? 0 : n.longValue();
+		}
+		return get(key(LABEL, label));
+	}
+
+
+	/**
+	 * Get the numbers of edges of all labels
+	 *
+	 * @return the map from the labels to the numbers of edges
+	 */
+	public Map<String, Long> getEdgeCounts() {
+
+		Map<String, Long> result = new TreeMap<String, Long>();
+		if (db == null) {
+			scanEdges(result);
+			return result;
+		}
+
+		DatabaseEntry key = key(LABEL, null);
+		DatabaseEntry data = new DatabaseEntry();
+
+		try {
+			Cursor cursor = db.openCursor(graph.getTransaction(), null);
+			try {
+				OperationStatus status = cursor.getSearchKeyRange(key, data, null);
+				while (status == OperationStatus.SUCCESS) {
+					TupleInput ti = new TupleInput(key.getData(), key.getOffset(), key.getSize());
+					if (!LABEL.equals(ti.readString())) break;
+					long n = LongBinding.entryToLong(data);
+					if (n != 0) result.put(ti.readString(), n);
+					status = cursor.getNext(key, data, null);
+				}
+			}
+			finally {
+				cursor.close();
+			}
+		} catch (DatabaseException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Update the counters after vertices were added or removed
+	 *
+	 * @param delta the number of added vertices, or a negative number for removed vertices
+	 * @throws DatabaseException on error
+	 */
+	public void addVertices(long delta) throws DatabaseException {
+		add(verticesKey, delta);
+	}
+
+
+	/**
+	 * Update the counters after edges were added or removed
+	 *
+	 * @param label the edge label
+	 * @param delta the number of added edges, or a negative number for removed edges
+	 * @throws DatabaseException on error
+	 */
+	public void addEdges(String label, long delta) throws DatabaseException {
+		// The lock order: "vertices", "edges", and then the labels
+		lockFirst();
+		add(edgesKey, delta);
+		add(key(LABEL, label), delta);
+	}
+
+
+	/**
+	 * Update the counters after edges with various labels were added or removed
+	 *
+	 * @param deltas the map from the labels to the numbers of added edges
+	 * @throws DatabaseException on error
+	 */
+	public void addEdges(Map<String, Long> deltas) throws DatabaseException {
+		// The lock order: "vertices", "edges", and then the labels in the sorted order
+		lockFirst();
+		long total = sum(deltas);
+		if (total != 0) add(edgesKey, total);
+		for (Map.Entry<String, Long> e : new TreeMap<String, Long>(deltas).entrySet()) {
+			add(key(LABEL, e.getKey()), e.getValue().longValue());
+		}
+	}
+
+
+	/**
+	 * Sum the numbers of edges of all labels
+	 *
+	 * @param counts the map from the labels to the numbers of edges
+	 * @return the total
+	 */
+	private static long sum(Map<String, Long> counts) {
+		long total = 0;
+		for (Long n : counts.values()) total += n.longValue();
+		return total;
+	}
+
+
+	/**
+	 * Reset all counters to zero
+	 *
+	 * @throws DatabaseException on error
+	 */
+	public void clear() throws DatabaseException {
+		if (db != null) db.truncate(null, false);
+	}
+
+
+	/**
+	 * Count the vertices by scanning the graph
+	 *
+	 * @return the number of vertices
+	 */
+	private long scanVertices() {
+		long vertices = 0;
+		Iterable<Vertex> vi = graph.getVertices();
+		for (@SuppressWarnings("unused") Vertex v : vi) vertices++;
+		return vertices;
+	}
+
+
+	/**
+	 * Count the edges by label by scanning the graph
+	 *
+	 * @param labels the map to add the numbers of edges by label to
+	 */
+	private void scanEdges(Map<String, Long> labels) {
+		Iterable<Edge> ei = graph.getEdges();
+		for (Edge e : ei) {
+			Long n = labels.get(e.getLabel());
+			labels.put(e.getLabel(), n == null ? 1 : n.longValue() + 1);
+		}
+	}
+
+
+	/**
+	 * Recompute all counters by scanning the vertices and the edges, which
+	 * repairs the counters of an environment that was not shut down cleanly
+	 * or that was created before the counters were introduced. There must be no
+	 * concurrent writers. This commits the current transaction.
+	 *
+	 * @throws DatabaseException on error
+	 */
+	public void recount() throws DatabaseException {
+
+		if (db == null) return;
+
+		Map<String, Long> labels = new HashMap<String, Long>();
+		long vertices = scanVertices();
+		scanEdges(labels);
+
+		graph.commit();
+		clear();
+		addVertices(vertices);
+		addEdges(labels);
+		graph.commit();
+	}
+}
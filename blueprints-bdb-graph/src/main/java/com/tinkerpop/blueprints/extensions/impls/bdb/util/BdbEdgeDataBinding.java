@@ -3,16 +3,42 @@ package com.tinkerpop.blueprints.extensions.impls.bdb.util;
 import com.sleepycat.bind.tuple.TupleBinding;
 import com.sleepycat.bind.tuple.TupleInput;
 import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.db.DatabaseEntry;
 
 public class BdbEdgeDataBinding extends TupleBinding<BdbEdgeData> {
+	
+	private BdbLabelDictionary dictionary;
+	
+	public BdbEdgeDataBinding() {
+		this(null);
+	}
+	
+	public BdbEdgeDataBinding(final BdbLabelDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
 
     public void objectToEntry(BdbEdgeData object, TupleOutput to) {
-    	to.writeString(object.label);
+    	BdbLabelDictionary.writeLabel(dictionary, to, object.label);
     	to.writeLong(object.id);
     }
 
     public BdbEdgeData entryToObject(TupleInput ti) {
-    	BdbEdgeData object = new BdbEdgeData(ti.readString(), ti.readLong());
+    	BdbEdgeData object = new BdbEdgeData(BdbLabelDictionary.readLabel(dictionary, ti), ti.readLong());
     	return object;
     }
+    
+    /**
+     * Write the encoded label, which is the prefix of all edge data with that label
+     * 
+     * @param label the label
+     * @param entry the entry
+     * @return false if no edge can have the label, because it is not in the dictionary
+     */
+    public boolean labelToEntry(String label, DatabaseEntry entry) {
+    	if (dictionary != null && dictionary.getId(label) < 0) return false;
+    	TupleOutput to = new TupleOutput();
+    	BdbLabelDictionary.writeLabel(dictionary, to, label);
+    	entry.setData(to.getBufferBytes(), 0, to.getBufferLength());
+    	return true;
+    }
 } 
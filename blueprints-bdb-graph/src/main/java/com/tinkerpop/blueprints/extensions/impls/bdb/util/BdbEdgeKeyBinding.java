@@ -5,15 +5,25 @@ import com.sleepycat.bind.tuple.TupleInput;
 import com.sleepycat.bind.tuple.TupleOutput;
 
 public class BdbEdgeKeyBinding extends TupleBinding<BdbEdgeKey> {
+	
+	private BdbLabelDictionary dictionary;
+	
+	public BdbEdgeKeyBinding() {
+		this(null);
+	}
+	
+	public BdbEdgeKeyBinding(final BdbLabelDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
 
     public void objectToEntry(BdbEdgeKey object, TupleOutput to) {
     	to.writeLong(object.out);
-    	to.writeString(object.label);
+    	BdbLabelDictionary.writeLabel(dictionary, to, object.label);
     	to.writeLong(object.in);
     }
 
     public BdbEdgeKey entryToObject(TupleInput ti) {
-    	BdbEdgeKey object = new BdbEdgeKey(ti.readLong(), ti.readString(), ti.readLong());
+    	BdbEdgeKey object = new BdbEdgeKey(ti.readLong(), BdbLabelDictionary.readLabel(dictionary, ti), ti.readLong());
     	return object;
     }
 } 
@@ -1,9 +1,7 @@
 package com.tinkerpop.blueprints.extensions.impls.bdb.util;
 
 import com.sleepycat.bind.RecordNumberBinding;
-import com.sleepycat.db.Cursor;
 import com.sleepycat.db.DatabaseEntry; 
-import com.sleepycat.db.OperationStatus; 
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.extensions.impls.bdb.BdbEdge;
@@ -13,17 +11,36 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
+ * The sequence of all edges, or of the edges in a range of the keys of the out
+ * database
+ *
  * @author Daniel Margo (http://www.eecs.harvard.edu/~dmargo)
  * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
  */
 public class BdbEdgeSequence implements CloseableIterable<Edge> {
 
     private BdbGraph graph;
+    private DatabaseEntry from;
+    private DatabaseEntry to;
     private BdbEdgeSequenceIterator iterator = null;
         
     public BdbEdgeSequence(final BdbGraph graph)
+    {
+    	this(graph, null, null);
+    }
+    
+    /**
+     * Create an instance of class BdbEdgeSequence over a range of the keys
+     * 
+     * @param graph the graph
+     * @param from the first key (inclusive), or null to start at the beginning
+     * @param to the last key (exclusive), or null to continue until the end
+     */
+    public BdbEdgeSequence(final BdbGraph graph, final DatabaseEntry from, final DatabaseEntry to)
     {
     	this.graph = graph;
+    	this.from = from;
+    	this.to = to;
     }
 
     public Iterator<Edge> iterator() {
@@ -38,25 +55,32 @@ public class BdbEdgeSequence implements CloseableIterable<Edge> {
 
     class BdbEdgeSequenceIterator implements Iterator<Edge> {
 	    	
-	    private Cursor cursor;
+	    private BdbBulkCursor cursor;
 	    private DatabaseEntry key = new DatabaseEntry();
 	    private DatabaseEntry data = new DatabaseEntry();
 	    private boolean useStored = false;
 	    
 	    public BdbEdgeSequenceIterator()
 	    {
-	    	OperationStatus status;
+	    	boolean found;
 	    	
 	        try {
-	            this.cursor = graph.outDb.openCursor(null, null);
-	            status = this.cursor.getFirst(this.key, this.data, null);
+	            this.cursor = new BdbBulkCursor(graph.outDb.openCursor(graph.getTransaction(), null), graph.getBulkReadBufferSize(), false);
+	            if (from != null) {
+	            	this.key = new DatabaseEntry(BdbExternalSorter.bytes(from));
+	            	found = this.cursor.getSearchKeyRange(this.key, this.data);
+	            }
+	            else {
+	            	found = this.cursor.getNext(this.key, this.data);
+	            }
+	            found = found && inRange();
 	        } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 	         
-	        if (status == OperationStatus.SUCCESS)
+	        if (found)
 	        	this.useStored = true;
 	        else
 	        	this.close();
@@ -67,22 +91,22 @@ public class BdbEdgeSequence implements CloseableIterable<Edge> {
 				throw new NoSuchElementException();
 		    if (this.useStored) {
 		    	this.useStored = false;
-		    	BdbEdgeData edata = BdbEdge.edgeDataBinding.entryToObject(data);
+		    	BdbEdgeData edata = graph.edgeDataBinding.entryToObject(data);
 		    	return new BdbEdge(graph, RecordNumberBinding.entryToRecordNumber(this.key), edata.label, edata.id);
 		    }
 		    
-		    OperationStatus status;
+		    boolean found;
 		    
 		    try {
-	            status = this.cursor.getNext(this.key, this.data, null);   	 
+	            found = this.cursor.getNext(this.key, this.data) && inRange();
 		    } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 	               
-	        if (status == OperationStatus.SUCCESS) {
-		    	BdbEdgeData edata = BdbEdge.edgeDataBinding.entryToObject(data);
+	        if (found) {
+		    	BdbEdgeData edata = graph.edgeDataBinding.entryToObject(data);
 		    	return new BdbEdge(graph, RecordNumberBinding.entryToRecordNumber(this.key), edata.label, edata.id);
 	        } else {
 	            this.close();
@@ -96,17 +120,17 @@ public class BdbEdgeSequence implements CloseableIterable<Edge> {
 			if (this.useStored)
 				return true;
 			
-		    OperationStatus status;
+		    boolean found;
 		    
 		    try {
-	            status = this.cursor.getNext(this.key, this.data, null);   	 
+	            found = this.cursor.getNext(this.key, this.data) && inRange();
 		    } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 		    
-	        if (status == OperationStatus.SUCCESS) {
+	        if (found) {
 	        	this.useStored = true;
 	        	return true;
 	        } else {
@@ -115,6 +139,10 @@ public class BdbEdgeSequence implements CloseableIterable<Edge> {
 	        }	
 		}
 		
+		private boolean inRange() {
+			return to == null || BdbExternalSorter.compare(this.key, to) < 0;
+		}
+		
 		public void close() {
 		    try {
 		    	if (this.cursor != null) this.cursor.close();
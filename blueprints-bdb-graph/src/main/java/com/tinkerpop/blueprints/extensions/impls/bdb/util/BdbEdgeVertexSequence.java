@@ -1,9 +1,7 @@
 package com.tinkerpop.blueprints.extensions.impls.bdb.util;
 
 import com.sleepycat.bind.RecordNumberBinding;
-import com.sleepycat.db.Cursor;
 import com.sleepycat.db.DatabaseEntry; 
-import com.sleepycat.db.OperationStatus; 
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
@@ -43,30 +41,29 @@ public class BdbEdgeVertexSequence implements CloseableIterable<Edge> {
     
     class BdbEdgeVertexSequenceIterator implements Iterator<Edge> {
 	
-	    private Cursor cursor;
-	    private DatabaseEntry key = new DatabaseEntry();
+	    private BdbBulkCursor cursor;
 	    private DatabaseEntry data = new DatabaseEntry();
 	    private boolean useStored = false;
 	    
 	    public BdbEdgeVertexSequenceIterator() {
-	    	OperationStatus status;
+	    	boolean found;
 	    	
 	        try {
 	        	
 	        	switch (direction) {
-	        	case OUT: this.cursor = graph.outDb.openCursor(null, null); break;
-	        	case IN : this.cursor = graph.inDb.openCursor(null, null); break;
+	        	case OUT: this.cursor = new BdbBulkCursor(graph.outDb.openCursor(graph.getTransaction(), null), graph.getBulkReadBufferSize(), false); break;
+	        	case IN : this.cursor = new BdbBulkCursor(graph.inDb.openCursor(graph.getTransaction(), null), graph.getBulkReadBufferSize(), false); break;
 	        	default : throw new IllegalArgumentException("Invalid direction");
 	        	}
 	        	
-	            status = this.cursor.getSearchKey(id, this.data, null);
+	            found = this.cursor.getSearchKey(id, this.data);
 	        } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 	        
-	        if (status == OperationStatus.SUCCESS)
+	        if (found)
 	        	this.useStored = true;
 	        else
 	        	this.close();
@@ -77,27 +74,25 @@ public class BdbEdgeVertexSequence implements CloseableIterable<Edge> {
 				throw new NoSuchElementException();
 		    if (this.useStored) {
 		    	this.useStored = false;
-		    	BdbEdgeData edata = BdbEdge.edgeDataBinding.entryToObject(data);
+		    	BdbEdgeData edata = graph.edgeDataBinding.entryToObject(data);
 		    	switch (direction) {
 	        	case OUT: return new BdbEdge(graph, RecordNumberBinding.entryToRecordNumber(id), edata.label, edata.id);
 	        	case IN : return new BdbEdge(graph, edata.id, edata.label, RecordNumberBinding.entryToRecordNumber(id));
 		    	}
 		    }
 		    
-		    OperationStatus status;
+		    boolean found;
 		    
 		    try {
-		    	this.key.setPartial(0, 0, true);
-	            status = this.cursor.getNextDup(id, this.data, null);
-	            this.key.setPartial(false);
+	            found = this.cursor.getNextDup(this.data);
 		    } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 	               
-	        if (status == OperationStatus.SUCCESS) {
-		    	BdbEdgeData edata = BdbEdge.edgeDataBinding.entryToObject(data);
+	        if (found) {
+		    	BdbEdgeData edata = graph.edgeDataBinding.entryToObject(data);
 		    	switch (direction) {
 	        	case OUT: return new BdbEdge(graph, RecordNumberBinding.entryToRecordNumber(id), edata.label, edata.id);
 	        	case IN : return new BdbEdge(graph, edata.id, edata.label, RecordNumberBinding.entryToRecordNumber(id));
@@ -116,19 +111,17 @@ public class BdbEdgeVertexSequence implements CloseableIterable<Edge> {
 			if (this.useStored)
 				return true;
 			
-		    OperationStatus status;
+		    boolean found;
 		    
 		    try {
-		    	this.key.setPartial(0, 0, true);
-	            status = this.cursor.getNextDup(this.key, this.data, null);
-	            this.key.setPartial(false);
+	            found = this.cursor.getNextDup(this.data);
 		    } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 		    
-	        if (status == OperationStatus.SUCCESS) {
+	        if (found) {
 	        	this.useStored = true;
 	        	return true;
 	        } else {
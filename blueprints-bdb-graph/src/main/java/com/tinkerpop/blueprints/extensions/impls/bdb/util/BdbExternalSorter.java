@@ -0,0 +1,323 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+import com.sleepycat.db.Database;
+import com.sleepycat.db.DatabaseEntry;
+import com.tinkerpop.blueprints.extensions.impls.bdb.BdbGraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+/**
+ * An external sort of key/data pairs in the order of a B-tree with sorted
+ * duplicates that uses the default comparators. The pairs are buffered in
+ * memory, each full buffer is sorted and saved as a run in a temporary file,
+ * and the runs are finally merged and written to a database in the key order,
+ * so that the pages of the B-tree are filled nearly sequentially.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbExternalSorter {
+
+	private File tempDir;
+	private int bufferSize;
+
+	private ArrayList<Record> buffer;
+	private ArrayList<File> runs;
+
+
+	/**
+	 * Create an instance of class BdbExternalSorter
+	 *
+	 * @param tempDir the directory for the temporary files
+	 * @param bufferSize the number of pairs buffered in memory
+	 */
+	public BdbExternalSorter(File tempDir, int bufferSize) {
+
+		if (bufferSize <= 0) throw new IllegalArgumentException("The buffer size must be positive");
+
+		this.tempDir = tempDir;
+		this.bufferSize = bufferSize;
+
+		this.buffer = new ArrayList<Record>();
+		this.runs = new ArrayList<File>();
+	}
+
+
+	/**
+	 * Add a key/data pair
+	 *
+	 * @param key the key
+	 * @param data the data
+	 */
+	public void add(DatabaseEntry key, DatabaseEntry data) {
+		add(new Record(bytes(key), bytes(data)));
+	}
+
+
+	/**
+	 * Add a key/data pair
+	 *
+	 * @param r the record
+	 */
+	public void add(Record r) {
+		buffer.add(r);
+		if (buffer.size() >= bufferSize) spill();
+	}
+
+
+	/**
+	 * Sort the buffered pairs and save them to a new run
+	 */
+	public void spill() {
+
+		if (buffer.isEmpty()) return;
+
+		try {
+			Collections.sort(buffer);
+			File f = File.createTempFile("sort-", ".tmp", tempDir);
+			runs.add(f);
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+			try {
+				for (Record r : buffer) r.write(out);
+			}
+			finally {
+				out.close();
+			}
+			buffer.clear();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+
+
+	/**
+	 * Merge the sorted pairs into a database and delete the temporary files.
+	 * The current transaction is committed after every bufferSize pairs, so
+	 * that it does not grow without bounds.
+	 *
+	 * @param graph the graph
+	 * @param db the database
+	 */
+	public void writeTo(BdbGraph graph, Database db) {
+
+		spill();
+
+		PriorityQueue<Run> queue = new PriorityQueue<Run>();
+		try {
+			boolean duplicates = db.getConfig().getSortedDuplicates();
+			for (File f : runs) {
+				Run r = new Run(f);
+				if (r.next()) queue.add(r); else r.close();
+			}
+
+			long count = 0;
+			while (!queue.isEmpty()) {
+				Run r = queue.poll();
+				if (duplicates)
+					db.putNoDupData(graph.getTransaction(),
+							new DatabaseEntry(r.current.key), new DatabaseEntry(r.current.data));
+				else
+					db.put(graph.getTransaction(),
+							new DatabaseEntry(r.current.key), new DatabaseEntry(r.current.data));
+				if (r.next()) queue.add(r); else r.close();
+
+				if (++count % bufferSize == 0) graph.commit();
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		} finally {
+			for (Run r : queue) {
+				try {
+					r.close();
+				} catch (IOException e) {
+					// Ignore, since we are already handling an error
+				}
+			}
+			discard();
+		}
+	}
+
+
+	/**
+	 * Discard the buffered pairs and delete the temporary files
+	 */
+	public void discard() {
+		buffer.clear();
+		for (File f : runs) f.delete();
+		runs.clear();
+	}
+
+
+	/**
+	 * Get the contents of a database entry
+	 *
+	 * @param entry the database entry
+	 * @return a copy of the contents
+	 */
+	public static byte[] bytes(DatabaseEntry entry) {
+		return Arrays.copyOfRange(entry.getData(), entry.getOffset(), entry.getOffset() + entry.getSize());
+	}
+
+
+	/**
+	 * Compare two byte arrays lexicographically as unsigned bytes, which is the
+	 * order of the default B-tree comparator
+	 *
+	 * @param a the first array
+	 * @param aOffset the offset in the first array
+	 * @param aLength the length of the first array
+	 * @param b the second array
+	 * @param bOffset the offset in the second array
+	 * @param bLength the length of the second array
+	 * @return the result of the comparison
+	 */
+	public static int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+		int n = Math.min(aLength, bLength);
+		for (int i = 0; i < n; i++) {
+			int r = (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+			if (r != 0) return r;
+		}
+		return aLength - bLength;
+	}
+
+
+	/**
+	 * Compare the contents of two database entries as unsigned bytes
+	 *
+	 * @param a the first entry
+	 * @param b the second entry
+	 * @return the result of the comparison
+	 */
+	public static int compare(DatabaseEntry a, DatabaseEntry b) {
+		return compare(a.getData(), a.getOffset(), a.getSize(), b.getData(), b.getOffset(), b.getSize());
+	}
+
+
+	/**
+	 * A key/data pair, ordered the same way as in a B-tree with sorted duplicates
+	 * that uses the default comparators
+	 */
+	public static class Record implements Comparable<Record> {
+
+		public byte[] key;
+		public byte[] data;
+
+
+		/**
+		 * Create an instance of class Record
+		 *
+		 * @param key the key
+		 * @param data the data
+		 */
+		public Record(byte[] key, byte[] data) {
+			this.key = key;
+			this.data = data;
+		}
+
+
+		/**
+		 * Read the record
+		 *
+		 * @param in the input stream
+		 * @throws IOException on I/O error
+		 */
+		public Record(DataInputStream in) throws IOException {
+			key = new byte[in.readInt()];
+			in.readFully(key);
+			data = new byte[in.readInt()];
+			in.readFully(data);
+		}
+
+
+		/**
+		 * Write the record
+		 *
+		 * @param out the output stream
+		 * @throws IOException on I/O error
+		 */
+		public void write(DataOutputStream out) throws IOException {
+			out.writeInt(key.length);
+			out.write(key);
+			out.writeInt(data.length);
+			out.write(data);
+		}
+
+
+		@Override
+		public int compareTo(Record other) {
+			int r = compare(key, 0, key.length, other.key, 0, other.key.length);
+			return r != 0 ? r : compare(data, 0, data.length, other.data, 0, other.data.length);
+		}
+	}
+
+
+	/**
+	 * A sorted run in a temporary file
+	 */
+	private static class Run implements Comparable<Run> {
+
+		private DataInputStream in;
+		public Record current;
+
+
+		/**
+		 * Create an instance of class Run and open the file
+		 *
+		 * @param file the file
+		 * @throws IOException on I/O error
+		 */
+		public Run(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			current = null;
+		}
+
+
+		/**
+		 * Read the next record
+		 *
+		 * @return true if there is a record, false at the end of the run
+		 * @throws IOException on I/O error
+		 */
+		public boolean next() throws IOException {
+			try {
+				current = new Record(in);
+				return true;
+			} catch (EOFException e) {
+				current = null;
+				return false;
+			}
+		}
+
+
+		/**
+		 * Close the run
+		 *
+		 * @throws IOException on I/O error
+		 */
+		public void close() throws IOException {
+			in.close();
+		}
+
+
+		@Override
+		public int compareTo(Run other) {
+			return current.compareTo(other.current);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+import com.sleepycat.bind.tuple.IntegerBinding;
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.db.Cursor;
+import com.sleepycat.db.Database;
+import com.sleepycat.db.DatabaseEntry;
+import com.sleepycat.db.DatabaseException;
+import com.sleepycat.db.Environment;
+import com.sleepycat.db.OperationStatus;
+import com.sleepycat.db.Transaction;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The persistent dictionary of the edge labels, which assigns each label a
+ * small integer ID that is then stored in the edge records instead of the label
+ * string. The entire dictionary is kept in memory, so that translating an ID
+ * back to the label returns a shared String instead of decoding a new one.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbLabelDictionary {
+
+	private Database db;
+	private Environment transactionalEnv;
+
+	private ConcurrentHashMap<String, Integer> ids;
+	private volatile String[] labels;
+
+
+	/**
+	 * Create an instance of class BdbLabelDictionary and load the dictionary
+	 *
+	 * @param db the database that maps the labels to their IDs
+	 * @param transactionalEnv the environment if it is transactional, or null
+	 * @throws DatabaseException on error
+	 */
+	public BdbLabelDictionary(Database db, Environment transactionalEnv) throws DatabaseException {
+
+		this.db = db;
+		this.transactionalEnv = transactionalEnv;
+		this.ids = new ConcurrentHashMap<String, Integer>();
+
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry data = new DatabaseEntry();
+		String[] l = new String[16];
+
+		Cursor cursor = db.openCursor(null, null);
+		try {
+			while (cursor.getNext(key, data, null) == OperationStatus.SUCCESS) {
+				String label = StringBinding.entryToString(key);
+				int id = IntegerBinding.entryToInt(data);
+				if (id >= l.length) l = Arrays.copyOf(l, Math.max(l.length * 2, id + 1));
+				l[id] = label;
+				ids.put(label, id);
+			}
+		}
+		finally {
+			cursor.close();
+		}
+
+		this.labels = l;
+	}
+
+
+	/**
+	 * Get the ID of a label
+	 *
+	 * @param label the label
+	 * @return the ID, or -1 if the label is not in the dictionary
+	 */
+	public int getId(String label) {
+		if (label == null) return -1;
+		Integer id = ids.get(label);
+		return id == null ? -1 : id.intValue();
+	}
+
+
+	/**
+	 * Get the ID of a label, and add the label to the dictionary if necessary.
+	 * A new label is committed right away, independently of the current
+	 * transaction.
+	 *
+	 * @param label the label
+	 * @return the ID
+	 */
+	public int getOrCreateId(String label) {
+
+		if (label == null)
+			throw new IllegalArgumentException("The edge label cannot be null");
+
+		Integer id = ids.get(label);
+		if (id != null) return id.intValue();
+
+		synchronized (this) {
+			id = ids.get(label);
+			if (id != null) return id.intValue();
+
+			int n = ids.size();
+			DatabaseEntry key = new DatabaseEntry();
+			DatabaseEntry data = new DatabaseEntry();
+			StringBinding.stringToEntry(label, key);
+			IntegerBinding.intToEntry(n, data);
+
+			try {
+				if (transactionalEnv != null) {
+					Transaction t = transactionalEnv.beginTransaction(null, null);
+					try {
+						db.put(t, key, data);
+					}
+					catch (DatabaseException e) {
+						t.abort();
+						throw e;
+					}
+					t.commit();
+				}
+				else {
+					db.put(null, key, data);
+				}
+			} catch (DatabaseException e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+
+			String[] l = labels;
+			if (n >= l.length) l = Arrays.copyOf(l, l.length * 2);
+			l[n] = label;
+			labels = l;
+			ids.put(label, n);
+
+			return n;
+		}
+	}
+
+
+	/**
+	 * Get the label with the given ID
+	 *
+	 * @param id the ID
+	 * @return the label
+	 */
+	public String getLabel(int id) {
+		String[] l = labels;
+		if (id < 0 || id >= l.length || l[id] == null)
+			throw new IllegalStateException("BdbLabelDictionary: Invalid label ID " + id);
+		return l[id];
+	}
+
+
+	/**
+	 * Write a label, either as its ID or, without a dictionary, as a string
+	 *
+	 * @param dictionary the dictionary, or null
+	 * @param to the output
+	 * @param label the label
+	 */
+	public static void writeLabel(BdbLabelDictionary dictionary, TupleOutput to, String label) {
+		if (dictionary == null)
+			to.writeString(label);
+		else
+			to.writePackedInt(dictionary.getId(label));
+	}
+
+
+	/**
+	 * Read a label written by writeLabel()
+	 *
+	 * @param dictionary the dictionary, or null
+	 * @param ti the input
+	 * @return the label
+	 */
+	public static String readLabel(BdbLabelDictionary dictionary, TupleInput ti) {
+		if (dictionary == null)
+			return ti.readString();
+		else
+			return dictionary.getLabel(ti.readPackedInt());
+	}
+}
@@ -0,0 +1,369 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+import com.sleepycat.bind.RecordNumberBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.db.Cursor;
+import com.sleepycat.db.DatabaseEntry;
+import com.sleepycat.db.DatabaseException;
+import com.sleepycat.db.OperationStatus;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.impls.bdb.BdbGraph;
+import com.tinkerpop.blueprints.extensions.impls.bdb.BdbVertex;
+
+
+/**
+ * A reusable cursor over the IDs of the neighbors of a vertex, which decodes
+ * the IDs straight from the database entries without creating any objects
+ * for the individual edges. The cursor can be moved to another vertex any
+ * number of times, and it keeps its database cursors open until it is closed,
+ * which must happen before the end of the current transaction. In the
+ * concurrent mode, the calling thread must not write to the graph while the
+ * cursor is open.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbLongCursor {
+
+	private static final Direction[] OUT = { Direction.OUT };
+	private static final Direction[] IN = { Direction.IN };
+	private static final Direction[] BOTH = { Direction.OUT, Direction.IN };
+
+	private BdbGraph graph;
+	private boolean packed;
+	private BdbBulkCursor outCursor = null;
+	private BdbBulkCursor inCursor = null;
+
+	private DatabaseEntry vertexKey = new DatabaseEntry();
+	private DatabaseEntry key = new DatabaseEntry();
+	private DatabaseEntry data = new DatabaseEntry();
+	private DatabaseEntry skip = new DatabaseEntry();
+
+	private long vertex;
+	private Direction[] directions = null;
+	private String[] labels;
+	private int directionIndex;
+	private int labelIndex;
+	private BdbBulkCursor cursor = null;
+	private byte[] prefix = null;
+	private boolean positioned = false;
+
+	private long[] ids = new long[256];
+	private int count = 0;
+	private int index = 0;
+	private long current = -1;
+
+
+	/**
+	 * Create an instance of class BdbLongCursor
+	 *
+	 * @param graph the graph
+	 */
+	public BdbLongCursor(final BdbGraph graph) {
+		this.graph = graph;
+		this.packed = graph.getLayout() == BdbGraph.Layout.PACKED;
+		this.skip.setPartial(0, 0, true);
+	}
+
+
+	/**
+	 * Move the cursor before the first neighbor of a vertex
+	 *
+	 * @param vertex the vertex ID
+	 * @param direction the direction
+	 * @param labels the labels, or no labels for all edges
+	 */
+	public void open(final long vertex, final Direction direction, final String... labels) {
+		switch (direction) {
+		case OUT : this.directions = OUT; break;
+		case IN  : this.directions = IN; break;
+		case BOTH: this.directions = BOTH; break;
+		default  : throw new IllegalArgumentException("Invalid direction");
+		}
+
+		this.vertex = vertex;
+		this.labels = labels;
+		this.directionIndex = 0;
+		this.labelIndex = -1;
+		this.positioned = false;
+		this.count = 0;
+		this.index = 0;
+		this.current = -1;
+
+		if (!packed) RecordNumberBinding.recordNumberToEntry(vertex, vertexKey);
+	}
+
+
+	/**
+	 * Advance to the next neighbor
+	 *
+	 * @return true if there is a next neighbor, false if there are no more neighbors
+	 */
+	public boolean next() {
+		if (directions == null)
+			return false;
+
+		try {
+			while (true) {
+				if (index < count) {
+					current = ids[index++];
+					return true;
+				}
+				count = index = 0;
+				if (positioned && advance()) continue;
+				if (!seek()) break;
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+
+		directions = null;
+		current = -1;
+		return false;
+	}
+
+
+	/**
+	 * Count the neighbors of the vertex given to open() without decoding them,
+	 * using the number of the duplicates if all labels are requested, or the
+	 * counts stored in the packed segments. The cursor needs to be opened
+	 * again afterwards.
+	 *
+	 * @return the number of neighbors
+	 */
+	public long count() {
+		if (directions == null)
+			return 0;
+
+		long n = 0;
+		try {
+			int groups = Math.max(1, labels.length);
+			for (Direction direction : directions) {
+				Cursor c = getCursor(direction).getCursor();
+				for (int i = 0; i < groups; i++) {
+					String label = labels.length == 0 ? null : labels[i];
+					if (label != null && isRepeated(i)) continue;
+					OperationStatus status;
+
+					if (packed) {
+						if (!graph.segmentKeyBinding.prefixToEntry(vertex, label, key)) continue;
+						byte[] p = BdbExternalSorter.bytes(key);
+						status = c.getSearchKeyRange(key, data, null);
+						while (status == OperationStatus.SUCCESS && startsWith(key, p)) {
+							n += new TupleInput(data.getData(), data.getOffset(), data.getSize()).readPackedInt();
+							status = c.getNext(key, data, null);
+						}
+					}
+					else if (label == null) {
+						if (c.getSearchKey(vertexKey, skip, null) == OperationStatus.SUCCESS)
+							n += c.count();
+					}
+					else {
+						if (!graph.edgeDataBinding.labelToEntry(label, data)) continue;
+						byte[] p = BdbExternalSorter.bytes(data);
+						status = c.getSearchBothRange(vertexKey, data, null);
+						while (status == OperationStatus.SUCCESS && startsWith(data, p)) {
+							n++;
+							status = c.getNextDup(skip, data, null);
+						}
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+
+		directions = null;
+		current = -1;
+		return n;
+	}
+
+
+	/**
+	 * Get the ID of the current neighbor
+	 *
+	 * @return the neighbor ID
+	 */
+	public long current() {
+		return current;
+	}
+
+
+	/**
+	 * Create a Blueprints vertex for the current neighbor
+	 *
+	 * @return the vertex
+	 */
+	public Vertex getVertex() {
+		return new BdbVertex(graph, current);
+	}
+
+
+	/**
+	 * Close the database cursors. The cursor can be opened again afterwards.
+	 */
+	public void close() {
+		directions = null;
+		try {
+			if (outCursor != null) outCursor.close();
+			if (inCursor != null) inCursor.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		} finally {
+			outCursor = null;
+			inCursor = null;
+			cursor = null;
+		}
+	}
+
+
+	/**
+	 * Get the database cursor for the given direction, opening it if necessary.
+	 * The packed segments are read one at a time, since they are already large.
+	 *
+	 * @param direction the direction, either OUT or IN
+	 * @return the cursor
+	 * @throws DatabaseException on error
+	 */
+	private BdbBulkCursor getCursor(Direction direction) throws DatabaseException {
+		int bufferSize = packed ? 0 : graph.getBulkReadBufferSize();
+		if (direction == Direction.OUT) {
+			if (outCursor == null)
+				outCursor = new BdbBulkCursor(graph.outDb.openCursor(graph.getTransaction(), null), bufferSize, false);
+			return outCursor;
+		}
+		else {
+			if (inCursor == null)
+				inCursor = new BdbBulkCursor(graph.inDb.openCursor(graph.getTransaction(), null), bufferSize, false);
+			return inCursor;
+		}
+	}
+
+
+	/**
+	 * Seek to the first record of the next direction and label
+	 *
+	 * @return true if the cursor is positioned on a record, false if there are no more records
+	 * @throws DatabaseException on error
+	 */
+	private boolean seek() throws DatabaseException {
+		int groups = Math.max(1, labels.length);
+		positioned = false;
+
+		while (true) {
+			if (++labelIndex >= groups) {
+				labelIndex = 0;
+				if (++directionIndex >= directions.length) return false;
+			}
+
+			String label = labels.length == 0 ? null : labels[labelIndex];
+			if (label != null && isRepeated(labelIndex)) continue;
+			cursor = getCursor(directions[directionIndex]);
+
+			if (packed) {
+				if (!graph.segmentKeyBinding.prefixToEntry(vertex, label, key)) continue;
+				prefix = BdbExternalSorter.bytes(key);
+				positioned = cursor.getSearchKeyRange(key, data) && load();
+			}
+			else if (label == null) {
+				prefix = null;
+				positioned = cursor.getSearchKey(vertexKey, data) && load();
+			}
+			else {
+				if (!graph.edgeDataBinding.labelToEntry(label, data)) continue;
+				prefix = BdbExternalSorter.bytes(data);
+				positioned = cursor.getCursor().getSearchBothRange(vertexKey, data, null) == OperationStatus.SUCCESS
+						&& load();
+			}
+
+			if (positioned) return true;
+		}
+	}
+
+
+	/**
+	 * Read the next record of the current direction and label
+	 *
+	 * @return true if there is such record
+	 * @throws DatabaseException on error
+	 */
+	private boolean advance() throws DatabaseException {
+		if (packed)
+			positioned = cursor.getNext(key, data) && load();
+		else if (prefix == null)
+			positioned = cursor.getNextDup(data) && load();
+		else
+			positioned = cursor.getCursor().getNextDup(skip, data, null) == OperationStatus.SUCCESS && load();
+		return positioned;
+	}
+
+
+	/**
+	 * Decode the neighbor IDs of the current record, if it belongs to the
+	 * current vertex and label
+	 *
+	 * @return true if it does
+	 */
+	private boolean load() {
+		if (packed) {
+			if (!startsWith(key, prefix)) return false;
+			TupleInput in = new TupleInput(data.getData(), data.getOffset(), data.getSize());
+			int n = in.readPackedInt();
+			if (ids.length < n) ids = new long[n];
+			long last = 0;
+			for (int i = 0; i < n; i++) {
+				last += in.readPackedLong();
+				ids[i] = last;
+			}
+			count = n;
+		}
+		else {
+			if (prefix != null && !startsWith(data, prefix)) return false;
+
+			// The neighbor ID is the last field of the record, written as a
+			// big-endian long with the sign bit flipped
+
+			byte[] b = data.getData();
+			int offset = data.getOffset() + data.getSize() - 8;
+			long id = 0;
+			for (int i = 0; i < 8; i++) id = (id << 8) | (b[offset + i] & 0xff);
+			ids[0] = id ^ 0x8000000000000000L;
+			count = 1;
+		}
+		index = 0;
+		return true;
+	}
+
+
+	/**
+	 * Determine whether the label at the given index appeared earlier in the list
+	 *
+	 * @param i the index
+	 * @return true if it did
+	 */
+	private boolean isRepeated(int i) {
+		for (int j = 0; j < i; j++) {
+			if (labels[j].equals(labels[i])) return true;
+		}
+		return false;
+	}
+
+
+	/**
+	 * Determine whether an entry starts with the given prefix
+	 *
+	 * @param entry the entry
+	 * @param prefix the prefix
+	 * @return true if it does
+	 */
+	private static boolean startsWith(DatabaseEntry entry, byte[] prefix) {
+		if (entry.getSize() < prefix.length) return false;
+		return BdbExternalSorter.compare(entry.getData(), entry.getOffset(), prefix.length, prefix, 0, prefix.length) == 0;
+	}
+}
@@ -0,0 +1,33 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+
+/**
+ * The binding for the packed adjacency list segments, which are sorted arrays
+ * of neighbor IDs written as the count followed by the packed deltas
+ * 
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbPackedSegmentDataBinding extends TupleBinding<long[]> {
+
+    public void objectToEntry(long[] object, TupleOutput to) {
+    	to.writePackedInt(object.length);
+    	long last = 0;
+    	for (long id : object) {
+    		to.writePackedLong(id - last);
+    		last = id;
+    	}
+    }
+
+    public long[] entryToObject(TupleInput ti) {
+    	long[] object = new long[ti.readPackedInt()];
+    	long last = 0;
+    	for (int i = 0; i < object.length; i++) {
+    		last += ti.readPackedLong();
+    		object[i] = last;
+    	}
+    	return object;
+    }
+} 
@@ -0,0 +1,26 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+/**
+ * The key of a segment of a packed adjacency list
+ * 
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbPackedSegmentKey {
+	public long vertex;
+	public String label;
+	public long start;
+	
+	public BdbPackedSegmentKey(final long vertex, final String label, final long start) {
+		this.vertex = vertex;
+		this.label = label;
+		this.start = start;
+	}
+	
+	public boolean matches(final long vertex, final String label) {
+		return this.vertex == vertex && this.label.equals(label);
+	}
+    
+    public String toString() {
+    	return "packedsegmentkey[" + this.vertex + ":" + this.label + ":" + this.start + "]";
+    }
+}
@@ -0,0 +1,54 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.db.DatabaseEntry;
+
+/**
+ * The binding for the keys of the packed adjacency list segments, which sorts
+ * the segments by the vertex, the label, and the first neighbor
+ * 
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public class BdbPackedSegmentKeyBinding extends TupleBinding<BdbPackedSegmentKey> {
+	
+	private BdbLabelDictionary dictionary;
+	
+	public BdbPackedSegmentKeyBinding() {
+		this(null);
+	}
+	
+	public BdbPackedSegmentKeyBinding(final BdbLabelDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+    public void objectToEntry(BdbPackedSegmentKey object, TupleOutput to) {
+    	to.writeLong(object.vertex);
+    	BdbLabelDictionary.writeLabel(dictionary, to, object.label);
+    	to.writeLong(object.start);
+    }
+
+    public BdbPackedSegmentKey entryToObject(TupleInput ti) {
+    	BdbPackedSegmentKey object = new BdbPackedSegmentKey(ti.readLong(),
+    			BdbLabelDictionary.readLabel(dictionary, ti), ti.readLong());
+    	return object;
+    }
+    
+    /**
+     * Write the key prefix of all segments of a vertex, optionally with a label
+     * 
+     * @param vertex the vertex ID
+     * @param label the label, or null for all labels
+     * @param entry the entry
+     * @return false if no segment can have the label, because it is not in the dictionary
+     */
+    public boolean prefixToEntry(long vertex, String label, DatabaseEntry entry) {
+    	if (label != null && dictionary != null && dictionary.getId(label) < 0) return false;
+    	TupleOutput to = new TupleOutput();
+    	to.writeLong(vertex);
+    	if (label != null) BdbLabelDictionary.writeLabel(dictionary, to, label);
+    	entry.setData(to.getBufferBytes(), 0, to.getBufferLength());
+    	return true;
+    }
+} 
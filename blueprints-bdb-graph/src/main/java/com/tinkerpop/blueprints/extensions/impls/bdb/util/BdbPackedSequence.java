@@ -0,0 +1,224 @@
+package com.tinkerpop.blueprints.extensions.impls.bdb.util;
+
+import com.sleepycat.db.Cursor;
+import com.sleepycat.db.Database;
+import com.sleepycat.db.DatabaseEntry;
+import com.sleepycat.db.OperationStatus;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.extensions.impls.bdb.BdbGraph;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * A sequence over the packed adjacency lists, either of one vertex or of the
+ * entire database, optionally restricted to a set of labels, which are sought
+ * in order, or of a range of the keys of the database. The subclasses convert each (vertex, label, neighbor) triple into
+ * the returned object.
+ *
+ * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
+ */
+public abstract class BdbPackedSequence<T> implements CloseableIterable<T> {
+
+	final private static BdbPackedSegmentDataBinding segmentDataBinding = new BdbPackedSegmentDataBinding();
+
+	private BdbGraph graph;
+	private Database db;
+	private Long vertex;
+	private SortedSet<String> labels = null;
+	private DatabaseEntry from = null;
+	private DatabaseEntry to = null;
+	private BdbPackedSequenceIterator iterator = null;
+
+	/**
+	 * Create an instance of class BdbPackedSequence
+	 *
+	 * @param graph the graph
+	 * @param db the out or in database
+	 * @param vertex the vertex ID, or null for all vertices
+	 * @param labels the labels, or an empty array for all labels
+	 */
+	public BdbPackedSequence(final BdbGraph graph, final Database db, final Long vertex, final String[] labels) {
+
+		this.graph = graph;
+		this.db = db;
+		this.vertex = vertex;
+
+		if (labels.length > 0) {
+			if (vertex == null) throw new IllegalArgumentException("The labels require a vertex");
+			this.labels = new TreeSet<String>();
+			for (String label : labels)
+				this.labels.add(label);
+		}
+	}
+
+	/**
+	 * Create an instance of class BdbPackedSequence over a range of the keys
+	 *
+	 * @param graph the graph
+	 * @param db the out or in database
+	 * @param from the first key of the range (inclusive), or null to start at the beginning
+	 * @param to the last key of the range (exclusive), or null to continue until the end
+	 */
+	public BdbPackedSequence(final BdbGraph graph, final Database db, final DatabaseEntry from, final DatabaseEntry to) {
+
+		this.graph = graph;
+		this.db = db;
+		this.vertex = null;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Create the object for an edge
+	 *
+	 * @param vertex the vertex ID
+	 * @param label the edge label
+	 * @param neighbor the neighbor ID
+	 * @return the object
+	 */
+	protected abstract T create(long vertex, String label, long neighbor);
+
+	public Iterator<T> iterator() {
+		return (iterator = new BdbPackedSequenceIterator());
+	}
+
+	@Override
+	public void close() {
+		if (iterator != null) iterator.close();
+	}
+
+
+	class BdbPackedSequenceIterator implements Iterator<T> {
+
+		private Cursor cursor;
+		private DatabaseEntry key = new DatabaseEntry();
+		private DatabaseEntry data = new DatabaseEntry();
+		private Iterator<String> labelIterator = labels == null ? null : labels.iterator();
+		private String label = null;
+		private boolean positioned = false;
+		private BdbPackedSegmentKey segment = null;
+		private long[] ids = null;
+		private int index = 0;
+
+		public BdbPackedSequenceIterator() {
+			try {
+				this.cursor = db.openCursor(graph.getTransaction(), null);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+		}
+
+		/**
+		 * Move the cursor to the first segment with the given key prefix
+		 *
+		 * @param label the label, or null to seek only by the vertex
+		 * @return the operation status
+		 */
+		private OperationStatus seek(String label) throws Exception {
+			if (!graph.segmentKeyBinding.prefixToEntry(vertex, label, key)) return OperationStatus.NOTFOUND;
+			return cursor.getSearchKeyRange(key, data, null);
+		}
+
+		/**
+		 * Read the next segment that belongs to the sequence
+		 *
+		 * @return true if there is such segment
+		 */
+		private boolean nextSegment() {
+			OperationStatus status;
+
+			try {
+				while (true) {
+					if (!positioned) {
+						positioned = true;
+						if (labelIterator != null) {
+							if (!labelIterator.hasNext()) return false;
+							label = labelIterator.next();
+							status = seek(label);
+						}
+						else if (vertex != null) {
+							status = seek(null);
+						}
+						else if (from != null) {
+							key = new DatabaseEntry(BdbExternalSorter.bytes(from));
+							status = cursor.getSearchKeyRange(key, data, null);
+						}
+						else {
+							status = cursor.getFirst(key, data, null);
+						}
+					}
+					else {
+						status = cursor.getNext(key, data, null);
+					}
+
+					if (status != OperationStatus.SUCCESS) {
+						if (labelIterator == null) return false;
+						positioned = false;
+						continue;
+					}
+
+					if (to != null && BdbExternalSorter.compare(key, to) >= 0) return false;
+
+					segment = graph.segmentKeyBinding.entryToObject(key);
+					if (vertex != null && segment.vertex != vertex.longValue()) {
+						if (labelIterator == null) return false;
+						positioned = false;
+						continue;
+					}
+					if (label != null && !label.equals(segment.label)) {
+						positioned = false;
+						continue;
+					}
+
+					ids = segmentDataBinding.entryToObject(data);
+					index = 0;
+					if (ids.length > 0) return true;
+				}
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+		}
+
+		public T next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return create(segment.vertex, segment.label, ids[index++]);
+		}
+
+		public boolean hasNext() {
+			if (this.cursor == null)
+				return false;
+			if (ids != null && index < ids.length)
+				return true;
+			if (nextSegment())
+				return true;
+			this.close();
+			return false;
+		}
+
+		public void close() {
+			try {
+				if (this.cursor != null) this.cursor.close();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e.getMessage(), e);
+			} finally {
+				this.ids = null;
+				this.data = null;
+				this.cursor = null;
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
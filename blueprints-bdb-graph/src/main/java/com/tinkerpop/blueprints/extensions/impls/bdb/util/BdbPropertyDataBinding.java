@@ -2,34 +2,85 @@ package com.tinkerpop.blueprints.extensions.impls.bdb.util;
 
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
 
 import com.sleepycat.bind.tuple.TupleBinding;
 import com.sleepycat.bind.tuple.TupleInput;
 import com.sleepycat.bind.tuple.TupleOutput;
+import com.tinkerpop.blueprints.extensions.io.fgf.FGFTypes;
 
+/**
+ * The binding for the property records. The value is prefixed by a one-byte
+ * FGFTypes code and written using the native tuple encoding, falling back to
+ * Java serialization only for the values of type FGFTypes.OTHER. Records written
+ * by the older versions, which consist of only a serialization stream, are
+ * recognized by the stream's magic number and still read correctly.
+ */
 public class BdbPropertyDataBinding extends TupleBinding<BdbPropertyData> {
 
+	private static final byte LEGACY_MAGIC = (byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8);
+
     public void objectToEntry(BdbPropertyData object, TupleOutput to) {
     	to.writeString(object.pkey);
-    	try {
-    		new ObjectOutputStream(to).writeObject(object.value);
-    	} catch (RuntimeException e) {
-    		throw e;
-    	} catch (Exception e) {
-			throw new RuntimeException(e.getMessage(), e);
+
+    	Object value = object.value;
+    	short type = value == null ? FGFTypes.OTHER : FGFTypes.fromSampleValue(value);
+    	to.writeByte(type);
+
+    	switch (type) {
+    	case FGFTypes.STRING : to.writeString ((String ) value); break;
+    	case FGFTypes.BOOLEAN: to.writeBoolean((Boolean) value); break;
+    	case FGFTypes.SHORT  : to.writeShort  ((Short  ) value); break;
+    	case FGFTypes.INTEGER: to.writeInt    ((Integer) value); break;
+    	case FGFTypes.LONG   : to.writeLong   ((Long   ) value); break;
+    	case FGFTypes.FLOAT  : to.writeFloat  ((Float  ) value); break;
+    	case FGFTypes.DOUBLE : to.writeDouble ((Double ) value); break;
+    	default:
+	    	try {
+	    		ObjectOutputStream out = new ObjectOutputStream(to);
+	    		out.writeObject(value);
+	    		out.flush();
+	    	} catch (RuntimeException e) {
+	    		throw e;
+	    	} catch (Exception e) {
+				throw new RuntimeException(e.getMessage(), e);
+	    	}
     	}
     }
 
     public BdbPropertyData entryToObject(TupleInput ti) {
     	BdbPropertyData object = new BdbPropertyData();
     	object.pkey = ti.readString();
-    	try {
-        	object.value = new ObjectInputStream(ti).readObject();
-    	} catch (RuntimeException e) {
-    		throw e;
-    	} catch (Exception e) {
-			throw new RuntimeException(e.getMessage(), e);
+
+    	// Records written before the typed encoding start with the serialization magic
+
+    	ti.mark(1);
+    	byte type = ti.readByte();
+    	if (type == LEGACY_MAGIC) {
+    		ti.reset();
+    		type = FGFTypes.OTHER;
+    	}
+
+    	switch (type) {
+    	case FGFTypes.STRING : object.value = ti.readString (); break;
+    	case FGFTypes.BOOLEAN: object.value = ti.readBoolean(); break;
+    	case FGFTypes.SHORT  : object.value = ti.readShort  (); break;
+    	case FGFTypes.INTEGER: object.value = ti.readInt    (); break;
+    	case FGFTypes.LONG   : object.value = ti.readLong   (); break;
+    	case FGFTypes.FLOAT  : object.value = ti.readFloat  (); break;
+    	case FGFTypes.DOUBLE : object.value = ti.readDouble (); break;
+    	case FGFTypes.OTHER  :
+	    	try {
+	        	object.value = new ObjectInputStream(ti).readObject();
+	    	} catch (RuntimeException e) {
+	    		throw e;
+	    	} catch (Exception e) {
+				throw new RuntimeException(e.getMessage(), e);
+	    	}
+	    	break;
+    	default:
+    		throw new RuntimeException("BdbPropertyDataBinding: Invalid property type code " + type);
     	}
     	return object;
     }
-} 
+}
@@ -1,8 +1,7 @@
 package com.tinkerpop.blueprints.extensions.impls.bdb.util;
 
-import com.sleepycat.db.Cursor;
+import com.sleepycat.bind.RecordNumberBinding;
 import com.sleepycat.db.DatabaseEntry; 
-import com.sleepycat.db.OperationStatus; 
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.extensions.impls.bdb.BdbGraph;
@@ -12,16 +11,33 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
+ * The sequence of all vertices, or of the vertices in a range of record numbers
+ *
  * @author Daniel Margo (http://www.eecs.harvard.edu/~dmargo)
  * @author Peter Macko (http://www.eecs.harvard.edu/~pmacko)
  */
 public class BdbVertexSequence implements CloseableIterable<Vertex> {
 
     private BdbGraph graph;
+    private long from;
+    private long to;
     private BdbVertexSequenceIterator iterator = null;
     
     public BdbVertexSequence(final BdbGraph graph) {
+    	this(graph, 0, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Create an instance of class BdbVertexSequence over a range of record numbers
+     * 
+     * @param graph the graph
+     * @param from the first record number (inclusive), or 0 to start at the beginning
+     * @param to the last record number (exclusive), or Long.MAX_VALUE to continue until the end
+     */
+    public BdbVertexSequence(final BdbGraph graph, final long from, final long to) {
     	this.graph = graph;
+    	this.from = from;
+    	this.to = to;
     }
 
     public Iterator<Vertex> iterator() {
@@ -36,24 +52,31 @@ public class BdbVertexSequence implements CloseableIterable<Vertex> {
 
     class BdbVertexSequenceIterator implements Iterator<Vertex> {
     	
-        private Cursor cursor;
+        private BdbBulkCursor cursor;
         private DatabaseEntry key = new DatabaseEntry();
         private DatabaseEntry data = new DatabaseEntry();
         private boolean useStoredKey = false;
 	  
 	    public BdbVertexSequenceIterator() {
-	    	OperationStatus status;
+	    	boolean found;
 	    	
 	        try {
-	            this.cursor = graph.vertexDb.openCursor(null, null);
-	            status = this.cursor.getFirst(this.key, this.data, null);
+	            this.cursor = new BdbBulkCursor(graph.vertexDb.openCursor(graph.getTransaction(), null), graph.getBulkReadBufferSize(), true);
+	            if (from > 0) {
+	            	RecordNumberBinding.recordNumberToEntry(from, this.key);
+	            	found = this.cursor.getSearchKeyRange(this.key, this.data);
+	            }
+	            else {
+	            	found = this.cursor.getNext(this.key, this.data);
+	            }
+	            found = found && inRange();
 	        } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 	        
-	        if (status == OperationStatus.SUCCESS)
+	        if (found)
 	        	this.useStoredKey = true;
 	        else
 	        	this.close();
@@ -64,20 +87,20 @@ public class BdbVertexSequence implements CloseableIterable<Vertex> {
 				throw new NoSuchElementException();
 		    if (this.useStoredKey) {
 		    	this.useStoredKey = false;
-		    	return new BdbVertex(graph, this.key);
+		    	return new BdbVertex(graph, RecordNumberBinding.entryToRecordNumber(this.key));
 		    }
 	    
-		    OperationStatus status;  
+		    boolean found;
 		    try {
-		        status = this.cursor.getNext(this.key, this.data, null);   	        
+		        found = this.cursor.getNext(this.key, this.data) && inRange();
 		    } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 	        
-	        if (status == OperationStatus.SUCCESS)
-	        	return new BdbVertex(graph, this.key);
+	        if (found)
+	        	return new BdbVertex(graph, RecordNumberBinding.entryToRecordNumber(this.key));
 	        else {
 	            this.close();
 	            throw new NoSuchElementException();
@@ -90,17 +113,17 @@ public class BdbVertexSequence implements CloseableIterable<Vertex> {
 			if (this.useStoredKey)
 				return true;
 			
-		    OperationStatus status;
+		    boolean found;
 		    
 		    try {
-		        status = this.cursor.getNext(this.key, this.data, null);   	        
+		        found = this.cursor.getNext(this.key, this.data) && inRange();
 		    } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 	        
-	        if (status == OperationStatus.SUCCESS) {
+	        if (found) {
 	        	this.useStoredKey = true;
 	        	return true;
 	        } else {
@@ -109,6 +132,10 @@ public class BdbVertexSequence implements CloseableIterable<Vertex> {
 	        }
 		}
 		
+		private boolean inRange() {
+			return to == Long.MAX_VALUE || RecordNumberBinding.entryToRecordNumber(this.key) < to;
+		}
+		
 		public void close() {
 		    try{
 		    	if (this.cursor != null) this.cursor.close();
@@ -1,13 +1,11 @@
 package com.tinkerpop.blueprints.extensions.impls.bdb.util;
 
-import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.db.Cursor;
 import com.sleepycat.db.DatabaseEntry; 
 import com.sleepycat.db.OperationStatus; 
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
-import com.tinkerpop.blueprints.extensions.impls.bdb.BdbEdge;
 import com.tinkerpop.blueprints.extensions.impls.bdb.BdbGraph;
 import com.tinkerpop.blueprints.extensions.impls.bdb.BdbVertex;
 
@@ -53,108 +51,85 @@ public class BdbVertexVertexLabelSequence implements CloseableIterable<Vertex> {
 	    private Cursor cursor;
 	    private DatabaseEntry key = new DatabaseEntry();
 	    private DatabaseEntry data = new DatabaseEntry();
-	    private boolean useStored = false;
+	    private Iterator<String> labelIterator = labels.iterator();
+	    private String label = null;
+	    private BdbEdgeData edata = null;
 	    
 	    public BdbVertexVertexLabelSequenceIterator() {
-	    	
-	    	StringBinding.stringToEntry(labels.first(), this.data);
-	    	
-	    	OperationStatus status;
-	    	
 	        try {
 	        	switch (direction) {
-	        	case OUT: this.cursor = graph.outDb.openCursor(null, null); break;
-	        	case IN : this.cursor = graph.inDb.openCursor(null, null); break;
+	        	case OUT: this.cursor = graph.outDb.openCursor(graph.getTransaction(), null); break;
+	        	case IN : this.cursor = graph.inDb.openCursor(graph.getTransaction(), null); break;
 	        	default : throw new IllegalArgumentException("Invalid direction");
 	        	}
+	        } catch (RuntimeException e) {
+	            throw e;
+	        } catch (Exception e) {
+	            throw new RuntimeException(e.getMessage(), e);
+	        }
+	    }
+	    
+	    /**
+	     * Advance to the next matching edge record. The duplicates are sorted by label,
+	     * so we seek to the first record of each requested label in turn and then
+	     * read the records while the label stays the same.
+	     * 
+	     * @return true if there is a next vertex, false if there are no more vertices
+	     */
+	    private boolean advance() {
+	    	OperationStatus status;
+	    	
+	        try {
+	        	if (this.label != null) {
+	        		this.key.setPartial(0, 0, true);
+	        		status = this.cursor.getNextDup(this.key, this.data, null);
+	        		this.key.setPartial(false);
+	        		if (status == OperationStatus.SUCCESS) {
+	        			BdbEdgeData d = graph.edgeDataBinding.entryToObject(this.data);
+	        			if (this.label.equals(d.label)) {
+	        				this.edata = d;
+	        				return true;
+	        			}
+	        		}
+	        	}
 	        	
-	            status = this.cursor.getSearchBothRange(id, this.data, null);
-	            if (status == OperationStatus.SUCCESS)
-	            	status = this.cursor.getCurrent(id, this.data, null);
+	        	while (this.labelIterator.hasNext()) {
+	        		this.label = this.labelIterator.next();
+	        		if (!graph.edgeDataBinding.labelToEntry(this.label, this.data)) continue;
+	        		status = this.cursor.getSearchBothRange(id, this.data, null);
+	        		if (status == OperationStatus.SUCCESS) {
+	        			BdbEdgeData d = graph.edgeDataBinding.entryToObject(this.data);
+	        			if (this.label.equals(d.label)) {
+	        				this.edata = d;
+	        				return true;
+	        			}
+	        		}
+	        	}
 	        } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 	        
-	        if (status == OperationStatus.SUCCESS) {
-	        	BdbEdgeData edata = BdbEdge.edgeDataBinding.entryToObject(this.data);
-	        	if (labels.contains(edata.label))
-	        		this.useStored = true;
-	        	else
-	        		this.close();
-	        } else
-	        	this.close();
+	        this.close();
+	        return false;
 	    }
 		
 		public Vertex next() {
-			if (this.cursor == null)
+			if (!hasNext())
 				throw new NoSuchElementException();
-		    if (this.useStored) {
-		    	this.useStored = false;
-		    	BdbEdgeData edata = BdbEdge.edgeDataBinding.entryToObject(data);
-		    	return new BdbVertex(graph, edata.id);
-		    }
-		    
-		    OperationStatus status;
-		    
-		    //XXX dmargo: This loop is obviously hackish to support the new Blueprints API.
-		    // The correct implementation should search for labels in order.
-		    this.key.setPartial(0, 0, true);
-		    while (true) {
-			    try {
-		            status = this.cursor.getNextDup(this.key, this.data, null);   	 
-			    } catch (RuntimeException e) {
-		            throw e;
-		        } catch (Exception e) {
-		            throw new RuntimeException(e.getMessage(), e);
-		        }
-		               
-		        if (status == OperationStatus.SUCCESS) {
-			    	BdbEdgeData edata = BdbEdge.edgeDataBinding.entryToObject(data);
-			    	if (labels.contains(edata.label)) {
-			    		this.key.setPartial(false);
-			    		return new BdbVertex(graph, edata.id);
-			    	}
-		    	} else {
-		    		this.key.setPartial(false);
-			        this.close();
-			        throw new NoSuchElementException();
-		    	}
-		    }
+			
+			BdbEdgeData d = this.edata;
+			this.edata = null;
+	    	return new BdbVertex(graph, d.id);
 		}
 	
 		public boolean hasNext() {
-			if (cursor == null)
-				return false;
-			if (this.useStored)
+			if (this.edata != null)
 				return true;
-			
-		    OperationStatus status;
-		    
-		    this.key.setPartial(0, 0, true);
-		    while (true) {
-			    try {
-		            status = this.cursor.getNextDup(this.key, this.data, null);   	 
-			    } catch (RuntimeException e) {
-		            throw e;
-		        } catch (Exception e) {
-		            throw new RuntimeException(e.getMessage(), e);
-		        }
-			    
-		        if (status == OperationStatus.SUCCESS) {
-		        	BdbEdgeData edata = BdbEdge.edgeDataBinding.entryToObject(this.data);
-		        	if (labels.contains(edata.label)) {
-		        		this.key.setPartial(false);
-		        		this.useStored = true;
-		        		return true;
-		        	}
-		        } else {
-		        	this.key.setPartial(false);
-			        this.close();
-			        return false;
-		        }
-		    }
+			if (this.cursor == null)
+				return false;
+			return advance();
 		}
 		
 		public void close() {
@@ -165,7 +140,7 @@ public class BdbVertexVertexLabelSequence implements CloseableIterable<Vertex> {
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        } finally {
-	        	this.useStored = false;
+	        	this.edata = null;
 	        	this.data = null;
 	        	this.cursor = null;
 	        }
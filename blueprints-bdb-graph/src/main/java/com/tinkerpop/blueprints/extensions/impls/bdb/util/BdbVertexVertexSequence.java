@@ -1,12 +1,9 @@
 package com.tinkerpop.blueprints.extensions.impls.bdb.util;
 
-import com.sleepycat.db.Cursor;
 import com.sleepycat.db.DatabaseEntry; 
-import com.sleepycat.db.OperationStatus; 
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
-import com.tinkerpop.blueprints.extensions.impls.bdb.BdbEdge;
 import com.tinkerpop.blueprints.extensions.impls.bdb.BdbGraph;
 import com.tinkerpop.blueprints.extensions.impls.bdb.BdbVertex;
 
@@ -44,30 +41,29 @@ public class BdbVertexVertexSequence implements CloseableIterable<Vertex> {
     
     class BdbVertexVertexSequenceIterator implements Iterator<Vertex> {
 	
-	    private Cursor cursor;
-	    private DatabaseEntry key = new DatabaseEntry();
+	    private BdbBulkCursor cursor;
 	    private DatabaseEntry data = new DatabaseEntry();
 	    private boolean useStored = false;
 	    
 	    public BdbVertexVertexSequenceIterator() {
-	    	OperationStatus status;
+	    	boolean found;
 	    	
 	        try {
 	        	
 	        	switch (direction) {
-	        	case OUT: this.cursor = graph.outDb.openCursor(null, null); break;
-	        	case IN : this.cursor = graph.inDb.openCursor(null, null); break;
+	        	case OUT: this.cursor = new BdbBulkCursor(graph.outDb.openCursor(graph.getTransaction(), null), graph.getBulkReadBufferSize(), false); break;
+	        	case IN : this.cursor = new BdbBulkCursor(graph.inDb.openCursor(graph.getTransaction(), null), graph.getBulkReadBufferSize(), false); break;
 	        	default : throw new IllegalArgumentException("Invalid direction");
 	        	}
 	        	
-	            status = this.cursor.getSearchKey(id, this.data, null);
+	            found = this.cursor.getSearchKey(id, this.data);
 	        } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 	        
-	        if (status == OperationStatus.SUCCESS)
+	        if (found)
 	        	this.useStored = true;
 	        else
 	        	this.close();
@@ -78,24 +74,22 @@ public class BdbVertexVertexSequence implements CloseableIterable<Vertex> {
 				throw new NoSuchElementException();
 		    if (this.useStored) {
 		    	this.useStored = false;
-		    	BdbEdgeData edata = BdbEdge.edgeDataBinding.entryToObject(data);
+		    	BdbEdgeData edata = graph.edgeDataBinding.entryToObject(data);
 		    	return new BdbVertex(graph, edata.id);
 		    }
 		    
-		    OperationStatus status;
+		    boolean found;
 		    
 		    try {
-		    	this.key.setPartial(0, 0, true);
-	            status = this.cursor.getNextDup(id, this.data, null);
-	            this.key.setPartial(false);
+	            found = this.cursor.getNextDup(this.data);
 		    } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 	               
-	        if (status == OperationStatus.SUCCESS) {
-		    	BdbEdgeData edata = BdbEdge.edgeDataBinding.entryToObject(data);
+	        if (found) {
+		    	BdbEdgeData edata = graph.edgeDataBinding.entryToObject(data);
 		    	return new BdbVertex(graph, edata.id);
 		    } else {
 	            this.close();
@@ -109,19 +103,17 @@ public class BdbVertexVertexSequence implements CloseableIterable<Vertex> {
 			if (this.useStored)
 				return true;
 			
-		    OperationStatus status;
+		    boolean found;
 		    
 		    try {
-		    	this.key.setPartial(0, 0, true);
-	            status = this.cursor.getNextDup(this.key, this.data, null);
-	            this.key.setPartial(false);
+	            found = this.cursor.getNextDup(this.data);
 		    } catch (RuntimeException e) {
 	            throw e;
 	        } catch (Exception e) {
 	            throw new RuntimeException(e.getMessage(), e);
 	        }
 		    
-	        if (status == OperationStatus.SUCCESS) {
+	        if (found) {
 	        	this.useStored = true;
 	        	return true;
 	        } else {
@@ -0,0 +1,36 @@
+package com.tinkerpop.blueprints.extensions;
+
+import java.util.List;
+
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+
+/**
+ * A graph that can split the iteration over all its vertices or edges into
+ * disjoint partitions, each of which can be scanned from a different thread
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public interface PartitionableGraph extends Graph {
+
+	/**
+	 * Split the vertices into disjoint partitions that together contain each
+	 * vertex exactly once. Each partition should be iterated by only one thread,
+	 * and a closeable partition should be closed by the thread that iterated it.
+	 * 
+	 * @param n the requested number of partitions, which is only a hint
+	 * @return the list of the partitions
+	 */
+	public List<? extends Iterable<Vertex>> getVertexPartitions(int n);
+	
+	/**
+	 * Split the edges into disjoint partitions that together contain each
+	 * edge exactly once. Each partition should be iterated by only one thread,
+	 * and a closeable partition should be closed by the thread that iterated it.
+	 * 
+	 * @param n the requested number of partitions, which is only a hint
+	 * @return the list of the partitions
+	 */
+	public List<? extends Iterable<Edge>> getEdgePartitions(int n);
+}
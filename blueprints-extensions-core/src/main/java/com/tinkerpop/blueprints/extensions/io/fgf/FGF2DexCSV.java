@@ -38,6 +38,10 @@ public class FGF2DexCSV {
 		FGFFileReader reader = new FGFFileReader(inputFile);
 		
 		try {
+			if (reader.isStreaming()) {
+				throw new IOException("The DEX CSV converter does not support streaming FGF");
+			}
+			
 			outputDir.mkdirs();
 			
 			if (listener != null) {
@@ -0,0 +1,385 @@
+package com.tinkerpop.blueprints.extensions.io.fgf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.TransactionalGraph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.AutoTransactionalGraph;
+import com.tinkerpop.blueprints.extensions.io.GraphProgressListener;
+import com.tinkerpop.blueprints.extensions.util.LongObjectLRUCache;
+import com.tinkerpop.blueprints.impls.dex.DexGraph;
+import com.tinkerpop.blueprints.impls.neo4j.batch.Neo4jBatchGraph;
+import com.tinkerpop.blueprints.util.wrappers.batch.BatchGraph;
+
+
+/**
+ * Fast Graph Format: Applies a delta log to a Blueprints graph that was loaded
+ * with the FGFConstants.KEY_ORIGINAL_ID property
+ *
+ * <p>The operations are grouped into transactions of txBuffer operations each:
+ * graphs with automatic transaction control (such as SqlGraph) buffer them
+ * themselves, and the other transactional graphs (such as Neo4j) are committed
+ * explicitly.</p>
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public class FGFDeltaApplier implements FGFDeltaReaderHandler {
+
+	/**
+	 * The default maximum number of vertices kept in the lookup cache
+	 */
+	public static final int DEFAULT_VERTEX_CACHE_SIZE = 100000;
+
+	private Graph graph;
+	private GraphProgressListener listener;
+
+	private int txBuffer;
+	private int opsSinceCommit;
+	private boolean txEnabled;
+
+	private LongObjectLRUCache<Vertex> vertexCache;
+
+	private long verticesProcessed;
+	private long edgesProcessed;
+
+
+	/**
+	 * Apply a delta log to a graph
+	 *
+	 * @param graph the graph
+	 * @param file the delta log file
+	 * @param txBuffer the number of operations before a commit
+	 * @param listener the progress listener
+	 * @return the number of applied operations
+	 * @throws IOException on I/O or parse error
+	 * @throws ClassNotFoundException on property unmarshalling error due to a missing class
+	 */
+	public static long apply(final Graph graph, final File file, final int txBuffer,
+			final GraphProgressListener listener) throws IOException, ClassNotFoundException {
+		return apply(graph, new FGFDeltaReader(file), txBuffer, listener);
+	}
+
+
+	/**
+	 * Apply a delta log to a graph
+	 *
+	 * @param graph the graph
+	 * @param in the input stream with the delta log
+	 * @param txBuffer the number of operations before a commit
+	 * @param listener the progress listener
+	 * @return the number of applied operations
+	 * @throws IOException on I/O or parse error
+	 * @throws ClassNotFoundException on property unmarshalling error due to a missing class
+	 */
+	public static long apply(final Graph graph, final InputStream in, final int txBuffer,
+			final GraphProgressListener listener) throws IOException, ClassNotFoundException {
+		return apply(graph, new FGFDeltaReader(in), txBuffer, listener);
+	}
+
+
+	/**
+	 * Apply a delta log to a graph
+	 *
+	 * @param graph the graph
+	 * @param reader the open delta log reader, which will be closed at the end
+	 * @param txBuffer the number of operations before a commit
+	 * @param listener the progress listener
+	 * @return the number of applied operations
+	 * @throws IOException on I/O or parse error
+	 * @throws ClassNotFoundException on property unmarshalling error due to a missing class
+	 */
+	private static long apply(final Graph graph, final FGFDeltaReader reader, final int txBuffer,
+			final GraphProgressListener listener) throws IOException, ClassNotFoundException {
+
+		if (graph instanceof BatchGraph || graph instanceof Neo4jBatchGraph) {
+			reader.close();
+			throw new IllegalArgumentException("Delta logs cannot be applied to batch graphs, "
+					+ "since they do not support lookups and removals");
+		}
+
+		FGFDeltaApplier a = new FGFDeltaApplier(graph, txBuffer, DEFAULT_VERTEX_CACHE_SIZE, listener);
+		try {
+			a.start();
+			reader.read(a);
+			a.finish();
+		}
+		finally {
+			reader.close();
+		}
+
+		return reader.getNumberOfOperationsRead();
+	}
+
+
+	/**
+	 * Create an instance of class FGFDeltaApplier
+	 *
+	 * @param graph the graph
+	 * @param txBuffer the number of operations before a commit
+	 * @param vertexCacheSize the maximum number of vertices in the lookup cache
+	 * @param listener the progress listener
+	 */
+	public FGFDeltaApplier(Graph graph, int txBuffer, int vertexCacheSize,
+			GraphProgressListener listener) {
+
+		this.graph = graph;
+		this.txBuffer = txBuffer;
+		this.listener = listener;
+
+		this.vertexCache = new LongObjectLRUCache<Vertex>(Math.max(1, vertexCacheSize));
+		this.opsSinceCommit = 0;
+		this.verticesProcessed = 0;
+		this.edgesProcessed = 0;
+
+		this.txEnabled = graph instanceof TransactionalGraph
+				&& !(graph instanceof AutoTransactionalGraph);
+	}
+
+
+	/**
+	 * Prepare the graph for applying the operations
+	 */
+	public void start() {
+		if (graph instanceof AutoTransactionalGraph) {
+			AutoTransactionalGraph g = (AutoTransactionalGraph) graph;
+			g.setMaxBufferSize(txBuffer);
+			g.setAutoTransactionControl(true);
+		}
+	}
+
+
+	/**
+	 * Finish applying the operations and commit
+	 */
+	public void finish() {
+
+		if (graph instanceof AutoTransactionalGraph) {
+			((AutoTransactionalGraph) graph).setAutoTransactionControl(false);
+		}
+
+		if (graph instanceof TransactionalGraph) {
+			((TransactionalGraph) graph).commit();
+			opsSinceCommit = 0;
+		}
+
+		if (listener != null) {
+			listener.graphProgress((int) verticesProcessed, (int) edgesProcessed);
+		}
+	}
+
+
+	/**
+	 * Account for one applied operation, and periodically commit
+	 *
+	 * @param vertex true if the operation was on a vertex
+	 */
+	private void operationApplied(boolean vertex) {
+
+		if (vertex) verticesProcessed++; else edgesProcessed++;
+
+		if (txEnabled && ++opsSinceCommit > txBuffer) {
+			((TransactionalGraph) graph).commit();
+			opsSinceCommit = 0;
+		}
+
+		if (listener != null && (verticesProcessed + edgesProcessed) % 10000 == 0) {
+			listener.graphProgress((int) verticesProcessed, (int) edgesProcessed);
+		}
+	}
+
+
+	/**
+	 * Find a vertex using its original ID
+	 *
+	 * @param id the original vertex ID
+	 * @return the vertex
+	 */
+	private Vertex getVertex(long id) {
+
+		Vertex v = vertexCache.get(id);
+		if (v != null) return v;
+
+		if (graph instanceof DexGraph) {
+			((DexGraph) graph).label.set(null);
+		}
+
+		Iterable<Vertex> i = graph.getVertices(FGFConstants.KEY_ORIGINAL_ID, (int) id);
+		Iterator<Vertex> itr = i.iterator();
+		if (itr.hasNext()) v = itr.next();
+		boolean b = itr.hasNext();
+		if (i instanceof CloseableIterable) ((CloseableIterable<?>) i).close();
+		if (v == null) throw new RuntimeException("Cannot find vertex with " + FGFConstants.KEY_ORIGINAL_ID + " " + id);
+		if (b) throw new RuntimeException("There is more than one vertex with " + FGFConstants.KEY_ORIGINAL_ID + " " + id);
+
+		vertexCache.put(id, v);
+		return v;
+	}
+
+
+	/**
+	 * Find an edge
+	 *
+	 * @param tail the tail vertex ID (also known as the "out" or the "source" vertex)
+	 * @param head the head vertex ID (also known as the "in" or the "target" vertex)
+	 * @param label the edge label
+	 * @return the edge
+	 */
+	private Edge getEdge(long tail, long head, String label) {
+
+		Vertex t = getVertex(tail);
+		Object headId = getVertex(head).getId();
+
+		Edge r = null;
+		Iterable<Edge> i = t.getEdges(Direction.OUT, label);
+		for (Edge e : i) {
+			if (headId.equals(e.getVertex(Direction.IN).getId())) {
+				r = e;
+				break;
+			}
+		}
+		if (i instanceof CloseableIterable) ((CloseableIterable<?>) i).close();
+
+		if (r == null) throw new RuntimeException("Cannot find edge " + tail + " -" + label + "-> " + head);
+		return r;
+	}
+
+
+	/**
+	 * Callback for adding a vertex
+	 *
+	 * @param id the original vertex ID
+	 * @param type the vertex type
+	 * @param properties the map of properties
+	 */
+	@Override
+	public void addVertex(long id, String type, Map<String, Object> properties) {
+
+		if (graph instanceof DexGraph) {
+			((DexGraph) graph).label.set(FGFFileWriter.DEFAULT_VERTEX_TYPE.equals(type)
+					? DexGraph.DEFAULT_DEX_VERTEX_LABEL : type);
+		}
+
+		Vertex v;
+		try {
+			v = graph.addVertex(null);
+		}
+		finally {
+			if (graph instanceof DexGraph) {
+				((DexGraph) graph).label.set(null);
+			}
+		}
+
+		for (Map.Entry<String, Object> p : properties.entrySet()) {
+			v.setProperty(p.getKey(), p.getValue());
+		}
+		v.setProperty(FGFConstants.KEY_ORIGINAL_ID, (int) id);
+
+		vertexCache.put(id, v);
+		operationApplied(true);
+	}
+
+
+	/**
+	 * Callback for adding an edge
+	 *
+	 * @param tail the tail vertex ID (also known as the "out" or the "source" vertex)
+	 * @param head the head vertex ID (also known as the "in" or the "target" vertex)
+	 * @param label the edge label
+	 * @param properties the map of properties
+	 */
+	@Override
+	public void addEdge(long tail, long head, String label, Map<String, Object> properties) {
+
+		Edge e = graph.addEdge(null, getVertex(tail), getVertex(head), label);
+		for (Map.Entry<String, Object> p : properties.entrySet()) {
+			e.setProperty(p.getKey(), p.getValue());
+		}
+
+		operationApplied(false);
+	}
+
+
+	/**
+	 * Callback for setting or removing a vertex property
+	 *
+	 * @param id the original vertex ID
+	 * @param key the property key
+	 * @param value the new value, or null if the property should be removed
+	 */
+	@Override
+	public void setVertexProperty(long id, String key, Object value) {
+
+		Vertex v = getVertex(id);
+		if (value == null) {
+			v.removeProperty(key);
+		}
+		else {
+			v.setProperty(key, value);
+		}
+
+		operationApplied(true);
+	}
+
+
+	/**
+	 * Callback for setting or removing an edge property
+	 *
+	 * @param tail the tail vertex ID (also known as the "out" or the "source" vertex)
+	 * @param head the head vertex ID (also known as the "in" or the "target" vertex)
+	 * @param label the edge label
+	 * @param key the property key
+	 * @param value the new value, or null if the property should be removed
+	 */
+	@Override
+	public void setEdgeProperty(long tail, long head, String label, String key, Object value) {
+
+		Edge e = getEdge(tail, head, label);
+		if (value == null) {
+			e.removeProperty(key);
+		}
+		else {
+			e.setProperty(key, value);
+		}
+
+		operationApplied(false);
+	}
+
+
+	/**
+	 * Callback for removing a vertex
+	 *
+	 * @param id the original vertex ID
+	 */
+	@Override
+	public void removeVertex(long id) {
+
+		graph.removeVertex(getVertex(id));
+		vertexCache.remove(id);
+
+		operationApplied(true);
+	}
+
+
+	/**
+	 * Callback for removing an edge
+	 *
+	 * @param tail the tail vertex ID (also known as the "out" or the "source" vertex)
+	 * @param head the head vertex ID (also known as the "in" or the "target" vertex)
+	 * @param label the edge label
+	 */
+	@Override
+	public void removeEdge(long tail, long head, String label) {
+
+		graph.removeEdge(getEdge(tail, head, label));
+
+		operationApplied(false);
+	}
+}
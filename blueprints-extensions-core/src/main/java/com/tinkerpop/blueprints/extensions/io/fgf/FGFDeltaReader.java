@@ -0,0 +1,331 @@
+package com.tinkerpop.blueprints.extensions.io.fgf;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Fast Graph Format: Delta Log Reader
+ *
+ * <p>A delta log can end with a partially written operation, for example if the
+ * writer crashed, in which case the reader stops cleanly after the last complete
+ * operation and reports its end offset.</p>
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public class FGFDeltaReader implements Closeable {
+
+	private CountingInputStream counter;
+	private DataInputStream in;
+	private boolean closed = false;
+	private boolean skipObjects = false;
+	private long operationsRead = 0;
+	private long validLength = 0;
+	private boolean truncated = false;
+
+
+	/**
+	 * Create an instance of class FGFDeltaReader and open the file for reading
+	 *
+	 * @param file the file
+	 * @throws IOException on I/O or parse error
+	 */
+	public FGFDeltaReader(File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+
+
+	/**
+	 * Create an instance of class FGFDeltaReader that reads a delta log from an input stream
+	 *
+	 * @param in the input stream
+	 * @throws IOException on I/O or parse error
+	 */
+	public FGFDeltaReader(InputStream in) throws IOException {
+
+		this.counter = new CountingInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+		this.in = new DataInputStream(counter);
+
+
+		// Read the header
+
+		byte[] header = new byte[4];
+		this.in.readFully(header);
+		if (header[0] != 'F' || header[1] != 'G' || header[2] != 'F' || header[3] != 'D') {
+			throw new IOException("Invalid FGF delta log magic value, expected \"FGFD\"");
+		}
+		validLength = counter.position;
+	}
+
+
+	/**
+	 * Determine the length of the complete part of a delta log, i.e. the offset of
+	 * the end of its last complete operation, without unmarshalling the values
+	 *
+	 * @param file the file
+	 * @return the length in bytes
+	 * @throws IOException on I/O or parse error
+	 */
+	static long getValidLength(File file) throws IOException {
+
+		FGFDeltaReader r = new FGFDeltaReader(file);
+		r.skipObjects = true;
+		try {
+			r.read(new FGFDeltaReaderHandler() {
+				public void addVertex(long id, String type, Map<String, Object> properties) {}
+				public void addEdge(long tail, long head, String label, Map<String, Object> properties) {}
+				public void setVertexProperty(long id, String key, Object value) {}
+				public void setEdgeProperty(long tail, long head, String label, String key, Object value) {}
+				public void removeVertex(long id) {}
+				public void removeEdge(long tail, long head, String label) {}
+			});
+		}
+		catch (ClassNotFoundException e) {
+			// Cannot happen, since the objects are not unmarshalled
+			throw new IOException(e.getMessage(), e);
+		}
+		finally {
+			r.close();
+		}
+
+		return r.getValidLength();
+	}
+
+
+	/**
+	 * Get the number of operations read so far
+	 *
+	 * @return the number of operations
+	 */
+	public long getNumberOfOperationsRead() {
+		return operationsRead;
+	}
+
+
+	/**
+	 * Get the offset of the end of the last complete operation read so far,
+	 * counted from the beginning of the log including its header
+	 *
+	 * @return the offset in bytes
+	 */
+	public long getValidLength() {
+		return validLength;
+	}
+
+
+	/**
+	 * Determine whether the log ends with a partially written operation, which
+	 * the reader skipped; this is known only after the entire log has been read
+	 *
+	 * @return true if the last operation is incomplete
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+
+	/**
+	 * Read a property value together with its type code
+	 *
+	 * @return the value, or null for a removed property
+	 * @throws IOException on I/O or parse error
+	 * @throws ClassNotFoundException on property unmarshalling error due to a missing class
+	 */
+	private Object readValue() throws IOException, ClassNotFoundException {
+
+		short type = (short) in.readUnsignedByte();
+
+		switch (type) {
+		case FGFDeltaWriter.NULL: return null;
+		case FGFTypes.BOOLEAN: return in.readBoolean();
+		case FGFTypes.STRING : return in.readUTF    ();
+		case FGFTypes.SHORT  : return in.readShort  ();
+		case FGFTypes.INTEGER: return in.readInt    ();
+		case FGFTypes.LONG   : return in.readLong   ();
+		case FGFTypes.DOUBLE : return in.readDouble ();
+		case FGFTypes.FLOAT  : return in.readFloat  ();
+		case FGFTypes.OTHER  :
+			byte[] b = new byte[in.readInt()];
+			in.readFully(b);
+			if (skipObjects) return b;
+			ObjectInputStream o = new ObjectInputStream(new ByteArrayInputStream(b));
+			try {
+				return o.readObject();
+			}
+			finally {
+				o.close();
+			}
+		default:
+			throw new IOException("Invalid property type code: " + type);
+		}
+	}
+
+
+	/**
+	 * Read the properties
+	 *
+	 * @return the map of properties
+	 * @throws IOException on I/O or parse error
+	 * @throws ClassNotFoundException on property unmarshalling error due to a missing class
+	 */
+	private Map<String, Object> readProperties() throws IOException, ClassNotFoundException {
+
+		int count = in.readInt();
+		Map<String, Object> properties = new HashMap<String, Object>();
+
+		for (int i = 0; i < count; i++) {
+			String key = in.readUTF();
+			Object value = readValue();
+			if (value == null) throw new IOException("Null value of property " + key);
+			properties.put(key, value);
+		}
+
+		return properties;
+	}
+
+
+	/**
+	 * Read the delta log until its end, or until the last complete operation if
+	 * the log ends with a partially written operation
+	 *
+	 * @param handler the callback
+	 * @throws IOException on I/O or parse error
+	 * @throws ClassNotFoundException on property unmarshalling error due to a missing class
+	 */
+	public void read(FGFDeltaReaderHandler handler) throws IOException, ClassNotFoundException {
+
+		if (closed) throw new IOException("The reader is already closed");
+
+		while (true) {
+
+			int op = in.read();
+			if (op < 0) break;
+
+			try {
+				switch (op) {
+
+				case FGFDeltaWriter.OP_ADD_VERTEX: {
+					long id = in.readLong();
+					String type = in.readUTF();
+					handler.addVertex(id, type, readProperties());
+					break;
+				}
+
+				case FGFDeltaWriter.OP_ADD_EDGE: {
+					long tail = in.readLong();
+					long head = in.readLong();
+					String label = in.readUTF();
+					handler.addEdge(tail, head, label, readProperties());
+					break;
+				}
+
+				case FGFDeltaWriter.OP_SET_VERTEX_PROPERTY: {
+					long id = in.readLong();
+					String key = in.readUTF();
+					handler.setVertexProperty(id, key, readValue());
+					break;
+				}
+
+				case FGFDeltaWriter.OP_SET_EDGE_PROPERTY: {
+					long tail = in.readLong();
+					long head = in.readLong();
+					String label = in.readUTF();
+					String key = in.readUTF();
+					handler.setEdgeProperty(tail, head, label, key, readValue());
+					break;
+				}
+
+				case FGFDeltaWriter.OP_REMOVE_VERTEX:
+					handler.removeVertex(in.readLong());
+					break;
+
+				case FGFDeltaWriter.OP_REMOVE_EDGE: {
+					long tail = in.readLong();
+					long head = in.readLong();
+					handler.removeEdge(tail, head, in.readUTF());
+					break;
+				}
+
+				default:
+					throw new IOException("Invalid delta log operation code: " + op);
+				}
+			}
+			catch (EOFException e) {
+				truncated = true;
+				break;
+			}
+
+			operationsRead++;
+			validLength = counter.position;
+		}
+	}
+
+
+	/**
+	 * Close the reader
+	 *
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		in.close();
+	}
+
+
+	/**
+	 * An input stream that counts the bytes that were read from it
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		public long position = 0;
+
+
+		/**
+		 * Create an instance of class CountingInputStream
+		 *
+		 * @param in the underlying input stream
+		 */
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int r = super.read();
+			if (r >= 0) position++;
+			return r;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int r = super.read(b, off, len);
+			if (r > 0) position += r;
+			return r;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long r = super.skip(n);
+			if (r > 0) position += r;
+			return r;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
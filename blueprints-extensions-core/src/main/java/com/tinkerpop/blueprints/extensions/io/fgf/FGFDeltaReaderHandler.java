@@ -0,0 +1,73 @@
+package com.tinkerpop.blueprints.extensions.io.fgf;
+
+import java.util.Map;
+
+
+/**
+ * Fast Graph Format: Handler for the delta log reader
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public interface FGFDeltaReaderHandler {
+
+
+	/**
+	 * Callback for adding a vertex
+	 *
+	 * @param id the original vertex ID
+	 * @param type the vertex type
+	 * @param properties the map of properties
+	 */
+	public void addVertex(long id, String type, Map<String, Object> properties);
+
+
+	/**
+	 * Callback for adding an edge
+	 *
+	 * @param tail the tail vertex ID (also known as the "out" or the "source" vertex)
+	 * @param head the head vertex ID (also known as the "in" or the "target" vertex)
+	 * @param label the edge label
+	 * @param properties the map of properties
+	 */
+	public void addEdge(long tail, long head, String label, Map<String, Object> properties);
+
+
+	/**
+	 * Callback for setting or removing a vertex property
+	 *
+	 * @param id the original vertex ID
+	 * @param key the property key
+	 * @param value the new value, or null if the property should be removed
+	 */
+	public void setVertexProperty(long id, String key, Object value);
+
+
+	/**
+	 * Callback for setting or removing an edge property
+	 *
+	 * @param tail the tail vertex ID (also known as the "out" or the "source" vertex)
+	 * @param head the head vertex ID (also known as the "in" or the "target" vertex)
+	 * @param label the edge label
+	 * @param key the property key
+	 * @param value the new value, or null if the property should be removed
+	 */
+	public void setEdgeProperty(long tail, long head, String label, String key, Object value);
+
+
+	/**
+	 * Callback for removing a vertex
+	 *
+	 * @param id the original vertex ID
+	 */
+	public void removeVertex(long id);
+
+
+	/**
+	 * Callback for removing an edge
+	 *
+	 * @param tail the tail vertex ID (also known as the "out" or the "source" vertex)
+	 * @param head the head vertex ID (also known as the "in" or the "target" vertex)
+	 * @param label the edge label
+	 */
+	public void removeEdge(long tail, long head, String label);
+}
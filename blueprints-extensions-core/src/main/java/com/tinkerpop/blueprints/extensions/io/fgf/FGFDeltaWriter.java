@@ -0,0 +1,359 @@
+package com.tinkerpop.blueprints.extensions.io.fgf;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.Map.Entry;
+
+
+/**
+ * Fast Graph Format: Delta Log Writer
+ *
+ * <p>A delta log is an append-only sequence of graph updates (vertex and edge
+ * additions, property updates, and removals) that refers to the vertices using
+ * their original FGF IDs, i.e. the values of FGFConstants.KEY_ORIGINAL_ID. The
+ * edges do not have persistent IDs, so they are identified by their tail, head,
+ * and label. See doc/FGF.txt for the format description.</p>
+ *
+ * <p>Each operation is first serialized into a scratch buffer, and it is written
+ * to the log only once it is complete, so an operation that fails (for example
+ * because of a value that cannot be serialized) does not leave a partial record
+ * in the log.</p>
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public class FGFDeltaWriter implements Closeable {
+
+	static final byte OP_ADD_VERTEX          = 'V';
+	static final byte OP_ADD_EDGE            = 'E';
+	static final byte OP_SET_VERTEX_PROPERTY = 'P';
+	static final byte OP_SET_EDGE_PROPERTY   = 'Q';
+	static final byte OP_REMOVE_VERTEX       = 'v';
+	static final byte OP_REMOVE_EDGE         = 'e';
+
+	/**
+	 * The type code of a removed (null) property value, which is used only in delta logs
+	 */
+	static final short NULL = 0xFF;
+
+	private DataOutputStream out;
+	private ByteArrayOutputStream recordBuffer;
+	private DataOutputStream record;
+	private ByteArrayOutputStream objectBuffer;
+	private boolean closed = false;
+
+
+	/**
+	 * Create an instance of class FGFDeltaWriter and open the file for appending;
+	 * the file is created if it does not exist, and a partially written operation
+	 * at its end, which can be left behind by a crash, is truncated
+	 *
+	 * @param file the file
+	 * @throws IOException on error
+	 */
+	public FGFDeltaWriter(File file) throws IOException {
+		this(openForAppend(file), file.length() == 0);
+	}
+
+
+	/**
+	 * Create an instance of class FGFDeltaWriter that writes a new delta log
+	 * to the given output stream
+	 *
+	 * @param out the output stream
+	 * @throws IOException on error
+	 */
+	public FGFDeltaWriter(OutputStream out) throws IOException {
+		this(out, true);
+	}
+
+
+	/**
+	 * Create an instance of class FGFDeltaWriter
+	 *
+	 * @param out the output stream
+	 * @param writeHeader true to write the header
+	 * @throws IOException on error
+	 */
+	private FGFDeltaWriter(OutputStream out, boolean writeHeader) throws IOException {
+
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.recordBuffer = new ByteArrayOutputStream();
+		this.record = new DataOutputStream(recordBuffer);
+		this.objectBuffer = new ByteArrayOutputStream();
+
+		if (writeHeader) {
+			this.out.write('F');
+			this.out.write('G');
+			this.out.write('F');
+			this.out.write('D');
+		}
+	}
+
+
+	/**
+	 * Open a delta log file for appending, truncating it after its last complete
+	 * operation (or to the empty file if even the header is incomplete)
+	 *
+	 * @param file the file
+	 * @return the output stream
+	 * @throws IOException on error
+	 */
+	private static OutputStream openForAppend(File file) throws IOException {
+
+		if (file.exists()) {
+			long length = file.length() < 4 ? 0 : FGFDeltaReader.getValidLength(file);
+			if (length < file.length()) {
+				RandomAccessFile f = new RandomAccessFile(file, "rw");
+				try {
+					f.setLength(length);
+				}
+				finally {
+					f.close();
+				}
+			}
+		}
+
+		return new FileOutputStream(file, true);
+	}
+
+
+	/**
+	 * Start a new operation in the scratch buffer
+	 *
+	 * @param op the operation code
+	 * @throws IOException on I/O error
+	 */
+	private void startRecord(byte op) throws IOException {
+		checkOpen();
+		recordBuffer.reset();
+		record.write(op);
+	}
+
+
+	/**
+	 * Write the complete operation from the scratch buffer to the log
+	 *
+	 * @throws IOException on I/O error
+	 */
+	private void endRecord() throws IOException {
+		record.flush();
+		recordBuffer.writeTo(out);
+		recordBuffer.reset();
+	}
+
+
+	/**
+	 * Write a property value together with its type code
+	 *
+	 * @param value the value (null for a removed property)
+	 * @throws IOException on I/O error
+	 */
+	private void writeValue(Object value) throws IOException {
+
+		if (value == null) {
+			record.write(NULL);
+			return;
+		}
+
+		short type = FGFTypes.fromSampleValue(value);
+		record.write(type);
+
+		switch (type) {
+		case FGFTypes.BOOLEAN: record.writeBoolean((Boolean) value); break;
+		case FGFTypes.STRING : record.writeUTF    ((String ) value); break;
+		case FGFTypes.SHORT  : record.writeShort  ((Short  ) value); break;
+		case FGFTypes.INTEGER: record.writeInt    ((Integer) value); break;
+		case FGFTypes.LONG   : record.writeLong   ((Long   ) value); break;
+		case FGFTypes.DOUBLE : record.writeDouble ((Double ) value); break;
+		case FGFTypes.FLOAT  : record.writeFloat  ((Float  ) value); break;
+		default:
+
+			// Serialize the object separately, so that the record stays self-delimiting
+
+			objectBuffer.reset();
+			ObjectOutputStream o = new ObjectOutputStream(objectBuffer);
+			o.writeObject(value);
+			o.close();
+			record.writeInt(objectBuffer.size());
+			objectBuffer.writeTo(record);
+		}
+	}
+
+
+	/**
+	 * Write the properties
+	 *
+	 * @param properties the map of properties (can be null)
+	 * @throws IOException on I/O error
+	 */
+	private void writeProperties(Map<String, Object> properties) throws IOException {
+
+		if (properties == null) {
+			record.writeInt(0);
+			return;
+		}
+
+		record.writeInt(properties.size());
+		for (Entry<String, Object> p : properties.entrySet()) {
+			if (p.getValue() == null) throw new IllegalArgumentException("Null property value");
+			record.writeUTF(p.getKey());
+			writeValue(p.getValue());
+		}
+	}
+
+
+	/**
+	 * Write the edge identification
+	 *
+	 * @param tail the tail vertex ID (also known as the "out" or the "source" vertex)
+	 * @param head the head vertex ID (also known as the "in" or the "target" vertex)
+	 * @param label the edge label
+	 * @throws IOException on I/O error
+	 */
+	private void writeEdgeKey(long tail, long head, String label) throws IOException {
+		record.writeLong(tail);
+		record.writeLong(head);
+		record.writeUTF(label);
+	}
+
+
+	/**
+	 * Check that the writer is still open
+	 */
+	private void checkOpen() {
+		if (closed) throw new IllegalStateException("The writer is already closed");
+	}
+
+
+	/**
+	 * Log the addition of a vertex
+	 *
+	 * @param id the original ID of the new vertex
+	 * @param type the vertex type (use "" for the default type)
+	 * @param properties the vertex properties (can be null)
+	 * @throws IOException on error
+	 */
+	public void addVertex(long id, String type, Map<String, Object> properties) throws IOException {
+		startRecord(OP_ADD_VERTEX);
+		record.writeLong(id);
+		record.writeUTF(type == null ? FGFFileWriter.DEFAULT_VERTEX_TYPE : type);
+		writeProperties(properties);
+		endRecord();
+	}
+
+
+	/**
+	 * Log the addition of an edge
+	 *
+	 * @param tail the tail vertex ID (also known as the "out" or the "source" vertex)
+	 * @param head the head vertex ID (also known as the "in" or the "target" vertex)
+	 * @param label the edge label
+	 * @param properties the edge properties (can be null)
+	 * @throws IOException on error
+	 */
+	public void addEdge(long tail, long head, String label, Map<String, Object> properties)
+			throws IOException {
+		startRecord(OP_ADD_EDGE);
+		writeEdgeKey(tail, head, label);
+		writeProperties(properties);
+		endRecord();
+	}
+
+
+	/**
+	 * Log setting or removing a vertex property
+	 *
+	 * @param id the original vertex ID
+	 * @param key the property key
+	 * @param value the new value, or null to remove the property
+	 * @throws IOException on error
+	 */
+	public void setVertexProperty(long id, String key, Object value) throws IOException {
+		startRecord(OP_SET_VERTEX_PROPERTY);
+		record.writeLong(id);
+		record.writeUTF(key);
+		writeValue(value);
+		endRecord();
+	}
+
+
+	/**
+	 * Log setting or removing an edge property
+	 *
+	 * @param tail the tail vertex ID (also known as the "out" or the "source" vertex)
+	 * @param head the head vertex ID (also known as the "in" or the "target" vertex)
+	 * @param label the edge label
+	 * @param key the property key
+	 * @param value the new value, or null to remove the property
+	 * @throws IOException on error
+	 */
+	public void setEdgeProperty(long tail, long head, String label, String key, Object value)
+			throws IOException {
+		startRecord(OP_SET_EDGE_PROPERTY);
+		writeEdgeKey(tail, head, label);
+		record.writeUTF(key);
+		writeValue(value);
+		endRecord();
+	}
+
+
+	/**
+	 * Log the removal of a vertex together with all its edges
+	 *
+	 * @param id the original vertex ID
+	 * @throws IOException on error
+	 */
+	public void removeVertex(long id) throws IOException {
+		startRecord(OP_REMOVE_VERTEX);
+		record.writeLong(id);
+		endRecord();
+	}
+
+
+	/**
+	 * Log the removal of an edge
+	 *
+	 * @param tail the tail vertex ID (also known as the "out" or the "source" vertex)
+	 * @param head the head vertex ID (also known as the "in" or the "target" vertex)
+	 * @param label the edge label
+	 * @throws IOException on error
+	 */
+	public void removeEdge(long tail, long head, String label) throws IOException {
+		startRecord(OP_REMOVE_EDGE);
+		writeEdgeKey(tail, head, label);
+		endRecord();
+	}
+
+
+	/**
+	 * Flush the log, so that all operations written so far are visible to the readers
+	 *
+	 * @throws IOException on error
+	 */
+	public void flush() throws IOException {
+		checkOpen();
+		out.flush();
+	}
+
+
+	/**
+	 * Close the writer
+	 *
+	 * @throws IOException on error
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		out.close();
+	}
+}
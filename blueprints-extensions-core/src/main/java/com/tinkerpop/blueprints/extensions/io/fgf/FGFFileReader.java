@@ -6,22 +6,32 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 
 /**
  * Fast Graph Format: Reader
+ * 
+ * <p>The reader accepts both the regular FGF1 files and the streaming (FGFS) variant.
+ * In the streaming variant, the property, vertex, and edge types are discovered as
+ * they appear in the stream, so the type arrays and the object counts are complete
+ * only after read() finishes. The objects of a type can be spread over several chunks
+ * that interleave with the chunks of other types, so a type does not have a range of
+ * consecutive IDs, and the handler's type start and end callbacks bracket each chunk
+ * rather than each type.</p>
  *
  * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
  */
 public class FGFFileReader implements Closeable {
 	
-	private File file;
-	private BufferedInputStream in;
+	private InputStream in;
 	private DataInputStream din;
 	private boolean closed = false;
+	private boolean streaming;
 	
 	private PropertyType[] propertyTypes;
 	private VertexType[] vertexTypes;
@@ -41,19 +51,41 @@ public class FGFFileReader implements Closeable {
 	 * @throws IOException on I/O or parse error 
 	 */
 	public FGFFileReader(File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+	
+	
+	/**
+	 * Create an instance of class FGFFileReader that reads a FGF from an input stream,
+	 * such as a pipe; both the regular and the streaming FGF are accepted
+	 * 
+	 * @param in the input stream
+	 * @throws IOException on I/O or parse error 
+	 */
+	public FGFFileReader(InputStream in) throws IOException {
 		
-		this.file = file;
-		this.in = new BufferedInputStream(new FileInputStream(this.file));
+		this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
 		
-		din = new DataInputStream(in);
+		din = new DataInputStream(this.in);
 		
 		
 		// Read the header
 		
 		byte[] header = new byte[4];
 		
-		din.read(header);
-		assertMagic(header, "FGF1");
+		din.readFully(header);
+		if (header[0] != 'F' || header[1] != 'G' || header[2] != 'F') {
+			throw new IOException("Invalid FGF magic value, expected \"FGF\"");
+		}
+		if (header[3] == '1') {
+			streaming = false;
+		}
+		else if (header[3] == 'S') {
+			streaming = true;
+		}
+		else {
+			throw new IOException("Unsupported FGF version: " + (char) header[3]);
+		}
 		
 		
 		// Read the metadata
@@ -73,9 +105,21 @@ public class FGFFileReader implements Closeable {
 		}
 		
 		
+		// The streaming FGF does not have the counts and the property types up front
+		
+		if (streaming) {
+			propertyTypes = new PropertyType[0];
+			vertexTypes = new VertexType[0];
+			edgeTypes = new EdgeType[0];
+			totalVertices = 0;
+			totalEdges = 0;
+			return;
+		}
+		
+		
 		// Read the object counts
 		
-		din.read(header);
+		din.readFully(header);
 		assertMagic(header, "CNTS");
 		
 		propertyTypes = new PropertyType[(int) din.readLong()];
@@ -106,7 +150,7 @@ public class FGFFileReader implements Closeable {
 		
 		// Read the property types
 		
-		din.read(header);
+		din.readFully(header);
 		assertMagic(header, "ATTR");
 		
 		for (int i = 0; i < propertyTypes.length; i++) {
@@ -145,6 +189,17 @@ public class FGFFileReader implements Closeable {
 	}
 	
 	
+	/**
+	 * Determine whether this is a streaming FGF, in which case the counts and the types
+	 * are not known until the entire input is read
+	 * 
+	 * @return true if this is a streaming FGF
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+	
+	
 	/**
 	 * Get the initial vertex ID
 	 * 
@@ -166,7 +221,7 @@ public class FGFFileReader implements Closeable {
 	
 	
 	/**
-	 * Get the total number of vertices
+	 * Get the total number of vertices (for a streaming FGF, the number of vertices read so far)
 	 * 
 	 * @return the total number of vertices
 	 */
@@ -176,7 +231,7 @@ public class FGFFileReader implements Closeable {
 	
 	
 	/**
-	 * Get the total number of edges
+	 * Get the total number of edges (for a streaming FGF, the number of edges read so far)
 	 * 
 	 * @return the total number of edges
 	 */
@@ -263,6 +318,11 @@ public class FGFFileReader implements Closeable {
 	 */
 	public void read(FGFFileReaderHandler handler) throws IOException, ClassNotFoundException {
 		
+		if (streaming) {
+			readStream(handler);
+			return;
+		}
+		
 		byte[] header = new byte[4];
 		Map<PropertyType, Object> properties = new HashMap<PropertyType, Object>();
 		
@@ -281,7 +341,7 @@ public class FGFFileReader implements Closeable {
 			
 			ObjectInputStream iin = new ObjectInputStream(din);
 			
-			iin.read(header);
+			iin.readFully(header);
 			assertMagic(header, "NODE");
 			String name = iin.readUTF();
 			if (!t.getName().equals(name)) {
@@ -311,7 +371,7 @@ public class FGFFileReader implements Closeable {
 			
 			ObjectInputStream iin = new ObjectInputStream(din);
 			
-			iin.read(header);
+			iin.readFully(header);
 			assertMagic(header, "EDGE");
 			String name = iin.readUTF();
 			if (!t.getName().equals(name)) {
@@ -338,13 +398,126 @@ public class FGFFileReader implements Closeable {
 		
 		// Finish
 		
-		din.read(header);
+		din.readFully(header);
 		assertMagic(header, "ENDG");
 		
 		close();
 	}
 	
 	
+	/**
+	 * Read a streaming FGF
+	 * 
+	 * @param handler the reader handler
+	 * @throws IOException on I/O or parse error 
+	 * @throws ClassNotFoundException if a property cannot be loaded due to a missing class
+	 */
+	private void readStream(FGFFileReaderHandler handler) throws IOException, ClassNotFoundException {
+		
+		byte[] header = new byte[4];
+		Map<PropertyType, Object> properties = new HashMap<PropertyType, Object>();
+		Map<String, VertexType> vertexTypeMap = new HashMap<String, VertexType>();
+		Map<String, EdgeType> edgeTypeMap = new HashMap<String, EdgeType>();
+		
+		int objectTypeIndex = 0;
+		long vertexId = initialVertexId;
+		long edgeId = initialEdgeId;
+		
+		while (true) {
+			
+			din.readFully(header);
+			
+			
+			// End of the graph
+			
+			if (isMagic(header, "ENDG")) break;
+			
+			
+			// A new property type
+			
+			if (isMagic(header, "ATTR")) {
+				String name = din.readUTF();
+				short type = din.readShort();
+				
+				PropertyType t = new PropertyType(propertyTypes.length, name, type);
+				propertyTypes = Arrays.copyOf(propertyTypes, propertyTypes.length + 1);
+				propertyTypes[propertyTypes.length - 1] = t;
+				
+				if (handler != null) handler.propertyType(t);
+				continue;
+			}
+			
+			
+			// A chunk of vertices
+			
+			if (isMagic(header, "NODE")) {
+				String name = din.readUTF();
+				long count = din.readLong();
+				din.readLong();		// the chunk size in bytes
+				
+				VertexType t = vertexTypeMap.get(name);
+				if (t == null) {
+					t = new VertexType(objectTypeIndex++, name, -1, 0);
+					vertexTypeMap.put(name, t);
+					vertexTypes = Arrays.copyOf(vertexTypes, vertexTypes.length + 1);
+					vertexTypes[vertexTypes.length - 1] = t;
+				}
+				((ObjectType) t).count += count;
+				totalVertices += count;
+				
+				ObjectInputStream iin = new ObjectInputStream(din);
+				
+				if (handler != null) handler.vertexTypeStart(t, count);
+				
+				for (long i = 0; i < count; i++) {
+					readProperties(iin, properties);
+					if (handler != null) handler.vertex(vertexId++, t, properties);
+				}
+				
+				if (handler != null) handler.vertexTypeEnd(t, count);
+				continue;
+			}
+			
+			
+			// A chunk of edges
+			
+			if (isMagic(header, "EDGE")) {
+				String name = din.readUTF();
+				long count = din.readLong();
+				din.readLong();		// the chunk size in bytes
+				
+				EdgeType t = edgeTypeMap.get(name);
+				if (t == null) {
+					t = new EdgeType(objectTypeIndex++, name, -1, 0);
+					edgeTypeMap.put(name, t);
+					edgeTypes = Arrays.copyOf(edgeTypes, edgeTypes.length + 1);
+					edgeTypes[edgeTypes.length - 1] = t;
+				}
+				((ObjectType) t).count += count;
+				totalEdges += count;
+				
+				ObjectInputStream iin = new ObjectInputStream(din);
+				
+				if (handler != null) handler.edgeTypeStart(t, count);
+				
+				for (long i = 0; i < count; i++) {
+					long head = iin.readLong();
+					long tail = iin.readLong();
+					readProperties(iin, properties);
+					if (handler != null) handler.edge(edgeId++, tail, head, t, properties);
+				}
+				
+				if (handler != null) handler.edgeTypeEnd(t, count);
+				continue;
+			}
+			
+			throw new IOException("Invalid streaming FGF chunk");
+		}
+		
+		close();
+	}
+	
+	
 	/**
 	 * Assert that the magic value holds
 	 * 
@@ -353,11 +526,24 @@ public class FGFFileReader implements Closeable {
 	 * @throws IOException if the assertion does not hold
 	 */
 	private void assertMagic(byte[] buffer, String magic) throws IOException {
+		if (!isMagic(buffer, magic)) {
+			throw new IOException("Invalid FGF magic value, expected \"" + magic + "\"");
+		}
+	}
+	
+	
+	/**
+	 * Check whether the buffer contains the given magic value
+	 * 
+	 * @param buffer the byte buffer
+	 * @param magic the magic value
+	 * @return true if it does
+	 */
+	private boolean isMagic(byte[] buffer, String magic) {
 		for (int i = 0; i < magic.length(); i++) {
-			if (buffer[i] != magic.charAt(i)) {
-				throw new IOException("Invalid FGF magic value, expected \"" + magic + "\"");
-			}
+			if (buffer[i] != magic.charAt(i)) return false;
 		}
+		return true;
 	}
 	
 	
@@ -483,9 +669,10 @@ public class FGFFileReader implements Closeable {
 
 		
 		/**
-		 * Return the first ID of object of this type
+		 * Return the first ID of object of this type; the objects of the type have
+		 * consecutive IDs starting with this one, except in a streaming FGF
 		 * 
-		 * @return the first (starting) ID
+		 * @return the first (starting) ID, or -1 if the FGF is streaming
 		 */
 		public long getStartId() {
 			return startId;
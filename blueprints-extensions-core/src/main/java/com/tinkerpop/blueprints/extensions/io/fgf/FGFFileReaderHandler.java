@@ -5,6 +5,10 @@ import java.util.Map;
 
 /**
  * Fast Graph Format: Handler for the reader
+ * 
+ * <p>In a regular FGF, the type start and end callbacks bracket all objects of
+ * the type. In a streaming FGF, they bracket a single chunk, the count is the
+ * number of objects in the chunk, and the same type can start again later.</p>
  *
  * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
  */
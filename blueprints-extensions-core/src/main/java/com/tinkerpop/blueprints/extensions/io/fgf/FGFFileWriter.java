@@ -1,6 +1,7 @@
 package com.tinkerpop.blueprints.extensions.io.fgf;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -8,15 +9,26 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
 
 /**
  * Fast Graph Format: Writer
+ * 
+ * <p>When writing to a file, the writer produces a regular FGF1 file, which requires
+ * the vertices and edges to be buffered in temporary files until the writer is closed.
+ * When writing to an OutputStream, it produces the streaming (FGFS) variant, in which
+ * the objects are written in self-delimiting chunks. The writer keeps one open chunk
+ * for the vertices and one for each edge label, and writes a chunk out when it fills
+ * up or when the writer is flushed or closed, so the chunks of different edge labels
+ * can interleave in the stream.</p>
  *
  * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
  */
@@ -24,9 +36,21 @@ public class FGFFileWriter implements Closeable {
 	
 	static final String DEFAULT_VERTEX_TYPE = ""; 
 	
+	/**
+	 * The default maximum number of objects in a chunk of a streaming FGF
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 10000;
+	
 	private File file;
 	private DataOutputStream out;
 	
+	private boolean streaming;
+	private int chunkSize;
+	private Chunk vertexChunk;
+	private Map<String, Chunk> edgeChunks;
+	private long streamedVertices;
+	private ArrayList<String> newPropertyTypes;
+	
 	private File propertyTypeFile;
 	private RandomAccessFile propertyTypeOut;
 	
@@ -81,6 +105,70 @@ public class FGFFileWriter implements Closeable {
 		propertyTypeFile = File.createTempFile(file.getName(), ".tmp");
 		propertyTypeFile.deleteOnExit();
 		propertyTypeOut = new RandomAccessFile(propertyTypeFile, "rw");
+		
+		streaming = false;
+	}
+	
+
+	/**
+	 * Create an instance of class FGFFileWriter that writes a streaming FGF
+	 * to the given output stream
+	 * 
+	 * @param out the output stream
+	 * @throws IOException on error
+	 */
+	public FGFFileWriter(OutputStream out) throws IOException {
+		this(out, 0, 0, DEFAULT_CHUNK_SIZE);
+	}
+	
+
+	/**
+	 * Create an instance of class FGFFileWriter that writes a streaming FGF
+	 * to the given output stream
+	 * 
+	 * @param out the output stream
+	 * @param initialVertexId the initial vertex ID
+	 * @param initialEdgeId the initial vertex ID
+	 * @param chunkSize the maximum number of objects in a chunk
+	 * @throws IOException on error
+	 */
+	public FGFFileWriter(OutputStream out, long initialVertexId, long initialEdgeId,
+			int chunkSize) throws IOException {
+		
+		this.file = null;
+		this.initialVertexId = initialVertexId;
+		this.initialEdgeId = initialEdgeId;
+		this.chunkSize = chunkSize;
+		
+		
+		// Check
+		
+		if (initialVertexId < 0) throw new IllegalArgumentException("initialVertexId < 0");
+		if (initialEdgeId   < 0) throw new IllegalArgumentException("initialEdgeId   < 0");
+		if (chunkSize      <= 0) throw new IllegalArgumentException("chunkSize <= 0");
+		
+		
+		// Initialize
+		
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		
+		streaming = true;
+		vertexChunk = null;
+		edgeChunks = new LinkedHashMap<String, Chunk>();
+		streamedVertices = 0;
+		newPropertyTypes = new ArrayList<String>();
+		
+		
+		// Write the header right away
+		
+		this.out.write('F');
+		this.out.write('G');
+		this.out.write('F');
+		this.out.write('S');
+		
+		write(2 * 8);
+		write(initialVertexId);
+		write(initialEdgeId  );
 	}
 	
 	
@@ -123,6 +211,23 @@ public class FGFFileWriter implements Closeable {
 		if (closed) return;
 		
 		
+		// Streaming FGF: just finish the open chunks
+		
+		if (streaming) {
+			flushChunks();
+			
+			out.write('E');
+			out.write('N');
+			out.write('D');
+			out.write('G');
+
+			out.close();
+			
+			closed = true;
+			return;
+		}
+		
+		
 		// Header
 		
 		out.write('F');
@@ -246,14 +351,100 @@ public class FGFFileWriter implements Closeable {
 		PropertyType t = propertyTypes.get(key);
 		if (t == null) {
 			t = new PropertyType(FGFTypes.fromSampleValue(sampleValue));
-			propertyTypeOut.writeUTF(key);
-			propertyTypeOut.writeShort(t.type);
+			if (streaming) {
+				newPropertyTypes.add(key);
+			}
+			else {
+				propertyTypeOut.writeUTF(key);
+				propertyTypeOut.writeShort(t.type);
+			}
 			propertyTypes.put(key, t);
 		}
 		return t;
 	}
 	
 	
+	/**
+	 * Write out a chunk of a streaming FGF, preceded by the definitions of any
+	 * property types that first appeared since the last chunk was written
+	 * 
+	 * @param chunk the chunk, or null to write out just the property types
+	 * @throws IOException on error
+	 */
+	private void writeChunk(Chunk chunk) throws IOException {
+		
+		for (String key : newPropertyTypes) {
+			out.write('A');
+			out.write('T');
+			out.write('T');
+			out.write('R');
+			out.writeUTF(key);
+			out.writeShort(propertyTypes.get(key).type);
+		}
+		newPropertyTypes.clear();
+		
+		if (chunk == null) return;
+		
+		chunk.out.close();
+		
+		if (chunk.vertex) {
+			out.write('N');
+			out.write('O');
+			out.write('D');
+			out.write('E');
+		}
+		else {
+			out.write('E');
+			out.write('D');
+			out.write('G');
+			out.write('E');
+		}
+		out.writeUTF(chunk.name);
+		write(chunk.count);
+		write(chunk.bytes.size());
+		chunk.bytes.writeTo(out);
+	}
+	
+	
+	/**
+	 * Write out the open vertex chunk of a streaming FGF, if any
+	 * 
+	 * @throws IOException on error
+	 */
+	private void flushVertexChunk() throws IOException {
+		if (vertexChunk == null) return;
+		writeChunk(vertexChunk);
+		vertexChunk = null;
+	}
+	
+	
+	/**
+	 * Write out all open chunks of a streaming FGF, the vertices first, so that
+	 * the endpoints of the edges precede them in the stream
+	 * 
+	 * @throws IOException on error
+	 */
+	private void flushChunks() throws IOException {
+		flushVertexChunk();
+		for (Chunk c : edgeChunks.values()) writeChunk(c);
+		edgeChunks.clear();
+		writeChunk(null);
+	}
+	
+	
+	/**
+	 * Write out the open chunks of a streaming FGF and flush the output stream,
+	 * so that the consumer can process everything written so far
+	 * 
+	 * @throws IOException on error
+	 */
+	public void flush() throws IOException {
+		if (closed) return;
+		if (streaming) flushChunks();
+		out.flush();
+	}
+	
+	
 	/**
 	 * Get a vertex type
 	 * 
@@ -358,6 +549,14 @@ public class FGFFileWriter implements Closeable {
 	 */
 	public long writeVertex(Map<String, Object> properties) throws IOException {
 		
+		if (streaming) {
+			if (vertexChunk == null) vertexChunk = new Chunk(true, DEFAULT_VERTEX_TYPE);
+			long id = initialVertexId + streamedVertices++;
+			writeProperties(vertexChunk.out, properties);
+			if (++vertexChunk.count >= chunkSize) flushVertexChunk();
+			return id;
+		}
+		
 		ObjectType t = getVertexType();
 		long id = initialVertexId + t.count++;
 				
@@ -378,6 +577,23 @@ public class FGFFileWriter implements Closeable {
 	 */
 	public void writeEdge(long tail, long head, String type, Map<String, Object> properties) throws IOException {
 		
+		if (streaming) {
+			Chunk c = edgeChunks.get(type);
+			if (c == null) {
+				c = new Chunk(false, type);
+				edgeChunks.put(type, c);
+			}
+			c.out.writeLong(head);
+			c.out.writeLong(tail);
+			writeProperties(c.out, properties);
+			if (++c.count >= chunkSize) {
+				flushVertexChunk();
+				writeChunk(c);
+				edgeChunks.remove(type);
+			}
+			return;
+		}
+		
 		ObjectType t = getEdgeType(type);
 		t.count++;
 		
@@ -432,4 +648,24 @@ public class FGFFileWriter implements Closeable {
 			out.writeUTF(name);
 		}
 	}
+	
+	
+	/**
+	 * A chunk of objects of the same type in a streaming FGF
+	 */
+	private class Chunk {
+		
+		public boolean vertex;
+		public String name;
+		public ByteArrayOutputStream bytes;
+		public ObjectOutputStream out;
+		public long count = 0;
+		
+		public Chunk(boolean vertex, String name) throws IOException {
+			this.vertex = vertex;
+			this.name = name;
+			this.bytes = new ByteArrayOutputStream();
+			this.out = new ObjectOutputStream(this.bytes);
+		}
+	}
 }
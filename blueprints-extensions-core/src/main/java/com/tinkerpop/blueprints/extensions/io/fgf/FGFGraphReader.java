@@ -2,6 +2,8 @@ package com.tinkerpop.blueprints.extensions.io.fgf;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -15,6 +17,7 @@ import com.tinkerpop.blueprints.Graph;
 import com.tinkerpop.blueprints.KeyIndexableGraph;
 import com.tinkerpop.blueprints.TransactionalGraph;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.BulkloadableGraph;
 import com.tinkerpop.blueprints.extensions.io.GraphProgressListener;
 import com.tinkerpop.blueprints.extensions.io.fgf.FGFFileReader.EdgeType;
 import com.tinkerpop.blueprints.extensions.io.fgf.FGFFileReader.PropertyType;
@@ -145,11 +148,47 @@ public class FGFGraphReader {
 			final boolean bulkLoad, final boolean createOriginalIdProperty,
 			final GraphProgressListener listener)
 					throws IOException, ClassNotFoundException {
-		
-		// Open the reader
-		
-		FGFFileReader reader = new FGFFileReader(file);
-		
+		inputGraph(graph, new FGFFileReader(file), txBuffer, bulkLoad, createOriginalIdProperty, listener);
+	}
+	
+	
+	/**
+	 * Load to an instance of Graph from an input stream, such as a pipe from a converter
+	 * that produces a streaming FGF
+	 * 
+	 * @param graph the graph to populate with the data
+	 * @param in the input stream with either a regular or a streaming FGF
+	 * @param txBuffer the number of operations before a commit
+	 * @param bulkLoad true to bulk-load the graph; false to use incremental load
+	 * @param createOriginalIdProperty true to create the FGFConstants.KEY_ORIGINAL_ID property
+	 * @param listener the progress listener
+	 * @throws IOException on I/O or parse error
+	 * @throws ClassNotFoundException on property unmarshalling error due to a missing class
+	 */
+	public static void inputGraph(final Graph graph, final InputStream in, final int txBuffer,
+			final boolean bulkLoad, final boolean createOriginalIdProperty,
+			final GraphProgressListener listener)
+					throws IOException, ClassNotFoundException {
+		inputGraph(graph, new FGFFileReader(in), txBuffer, bulkLoad, createOriginalIdProperty, listener);
+	}
+	
+	
+	/**
+	 * Load to an instance of Graph and optionally index all property keys
+	 * 
+	 * @param graph the graph to populate with the data
+	 * @param reader the open FGF reader
+	 * @param txBuffer the number of operations before a commit
+	 * @param bulkLoad true to bulk-load the graph; false to use incremental load
+	 * @param createOriginalIdProperty true to create the FGFConstants.KEY_ORIGINAL_ID property
+	 * @param listener the progress listener
+	 * @throws IOException on I/O or parse error
+	 * @throws ClassNotFoundException on property unmarshalling error due to a missing class
+	 */
+	private static void inputGraph(final Graph graph, final FGFFileReader reader, final int txBuffer,
+			final boolean bulkLoad, final boolean createOriginalIdProperty,
+			final GraphProgressListener listener)
+					throws IOException, ClassNotFoundException {
 		
 		// Check whether the input file and the settings are compatible with bulk-load, if it is enabled
 		
@@ -176,11 +215,22 @@ public class FGFGraphReader {
 		final Graph wrappedGraph = bulkLoad && graph instanceof TransactionalGraph
 				? BatchGraph.wrap(graph, txBuffer) : graph;
 
-		Loader l = new Loader(wrappedGraph, reader, txBuffer, false /* do not index all properties */,
-				createOriginalIdProperty, listener);
-		reader.read(l);
-		l.finish();
-		l = null;
+		if (bulkLoad && graph instanceof BulkloadableGraph) {
+			((BulkloadableGraph) graph).startBulkLoad();
+		}
+		
+		try {
+			Loader l = new Loader(wrappedGraph, reader, txBuffer, false /* do not index all properties */,
+					createOriginalIdProperty, listener);
+			reader.read(l);
+			l.finish();
+			l = null;
+		}
+		finally {
+			if (bulkLoad && graph instanceof BulkloadableGraph) {
+				((BulkloadableGraph) graph).stopBulkLoad();
+			}
+		}
 		
 		
 		// Finish
@@ -287,6 +337,20 @@ public class FGFGraphReader {
 		}
 		
 		
+		/**
+		 * Make sure that the vertex array can hold the given ID; this is necessary only
+		 * for the streaming FGF, which does not announce the number of vertices up front
+		 * 
+		 * @param id the vertex ID
+		 */
+		private void ensureVertexCapacity(long id) {
+			if (id < vertices.length) return;
+			long n = Math.max(id + 1, 2L * vertices.length);
+			if (n > Integer.MAX_VALUE) n = Integer.MAX_VALUE;
+			vertices = Arrays.copyOf(vertices, (int) n);
+		}
+		
+		
 		/**
 		 * Finish loading
 		 */
@@ -370,6 +434,7 @@ public class FGFGraphReader {
 			// Create the vertex
 			
 			Vertex v = graph.addVertex(a);
+			ensureVertexCapacity(id);
 			vertices[(int) id] = v;
 			verticesLoaded++;
 			opsSinceCommit++;
@@ -493,6 +558,7 @@ public class FGFGraphReader {
 			// Look up the head and tail vertices; attempt to use the key indexes if the corresponding
 			// Vertex objects are not readily available
 			
+			ensureVertexCapacity(Math.max(tail, head));
 			Vertex t = vertices[(int) tail];
 			Vertex h = vertices[(int) head];
 			
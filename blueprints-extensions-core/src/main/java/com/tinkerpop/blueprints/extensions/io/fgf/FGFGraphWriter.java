@@ -2,16 +2,17 @@ package com.tinkerpop.blueprints.extensions.io.fgf;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
 
-import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Graph;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.extensions.io.GraphProgressListener;
+import com.tinkerpop.blueprints.extensions.util.ParallelScan;
 
 
 /**
@@ -24,6 +25,7 @@ public class FGFGraphWriter {
 	private final Graph graph;
 	private boolean keepOriginalId = false;
 	private GraphProgressListener listener = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
 	
 	
 	/**
@@ -58,6 +60,17 @@ public class FGFGraphWriter {
     }
     
     
+    /**
+     * Set the number of threads that read a PartitionableGraph in parallel.
+     * (The default is the number of available processors.)
+     * 
+     * @param threads the number of threads
+     */
+    public void setThreads(final int threads) {
+    	this.threads = threads;
+    }
+    
+    
     /**
 	 * Export an instance of a Graph to a FGF file
 	 * 
@@ -65,7 +78,7 @@ public class FGFGraphWriter {
 	 * @throws IOException on I/O error
 	 */
 	public void outputGraph(final File file) throws IOException {
-		outputGraph(graph, file, keepOriginalId, listener);
+		outputGraph(graph, file, keepOriginalId, listener, threads);
 	}
 	
 	
@@ -94,72 +107,164 @@ public class FGFGraphWriter {
 			final boolean keepOriginalId, final GraphProgressListener listener)
 			throws IOException {
 		
-		// Open the writer
-		
-		FGFFileWriter writer = new FGFFileWriter(file);
+		outputGraph(graph, file, keepOriginalId, listener, Runtime.getRuntime().availableProcessors());
+	}
+	
+	
+	/**
+	 * Export an instance of a Graph to a FGF file
+	 * 
+	 * @param graph the input graph
+	 * @param file the output file
+	 * @param keepOriginalId whether to keep the original ID property
+	 * @param listener the progress listener
+	 * @param threads the number of threads that read a PartitionableGraph in parallel
+	 * @throws IOException on I/O error
+	 */
+	public static void outputGraph(final Graph graph, final File file,
+			final boolean keepOriginalId, final GraphProgressListener listener,
+			final int threads) throws IOException {
 		
+		outputGraph(graph, new FGFFileWriter(file), keepOriginalId, listener, threads);
+	}
+	
+	
+	/**
+	 * Export an instance of a Graph as a streaming FGF to an output stream, such as
+	 * a pipe to a loader, without going through a temporary file
+	 * 
+	 * @param graph the input graph
+	 * @param out the output stream
+	 * @param keepOriginalId whether to keep the original ID property
+	 * @param listener the progress listener
+	 * @throws IOException on I/O error
+	 */
+	public static void outputGraph(final Graph graph, final OutputStream out,
+			final boolean keepOriginalId, final GraphProgressListener listener)
+			throws IOException {
+		outputGraph(graph, out, keepOriginalId, listener, Runtime.getRuntime().availableProcessors());
+	}
+	
+	
+	/**
+	 * Export an instance of a Graph as a streaming FGF to an output stream, such as
+	 * a pipe to a loader, without going through a temporary file
+	 * 
+	 * @param graph the input graph
+	 * @param out the output stream
+	 * @param keepOriginalId whether to keep the original ID property
+	 * @param listener the progress listener
+	 * @param threads the number of threads that read a PartitionableGraph in parallel
+	 * @throws IOException on I/O error
+	 */
+	public static void outputGraph(final Graph graph, final OutputStream out,
+			final boolean keepOriginalId, final GraphProgressListener listener,
+			final int threads) throws IOException {
+		outputGraph(graph, new FGFFileWriter(out), keepOriginalId, listener, threads);
+	}
+	
+	
+	/**
+	 * Export an instance of a Graph using the given FGF writer. The vertices and
+	 * the edges of a PartitionableGraph are read by several threads in parallel,
+	 * so their order in the output is then not deterministic.
+	 * 
+	 * @param graph the input graph
+	 * @param writer the FGF writer, which will be closed at the end, even on error
+	 * @param keepOriginalId whether to keep the original ID property
+	 * @param listener the progress listener
+	 * @param threads the number of threads that read a PartitionableGraph in parallel
+	 * @throws IOException on I/O error
+	 */
+	private static void outputGraph(final Graph graph, final FGFFileWriter writer,
+			final boolean keepOriginalId, final GraphProgressListener listener,
+			final int threads) throws IOException {
 		
 		// Initialize
 		
-		int numVertices = 0;
-		int numEdges = 0;
+		// The counters are shared by the scan threads, and like the writer and
+		// the vertex map, they are accessed only while holding the writer's lock
 		
-		Map<String, Object> properties = new TreeMap<String, Object>();
-		Map<Object, Long> vertexMap = new HashMap<Object, Long>();
+		final int[] counts = new int[2];
+		final Map<Object, Long> vertexMap = new HashMap<Object, Long>();
+		boolean ok = false;
 		
 		
 		// Export vertices
 		
-		Iterable<Vertex> vertices = graph.getVertices();
-		for (Vertex v : vertices) {
-			properties.clear();
-			for (String k : v.getPropertyKeys()) {
-				if (!keepOriginalId && k.equals(FGFConstants.KEY_ORIGINAL_ID)) continue;
-				properties.put(k, v.getProperty(k));
-			}
-			vertexMap.put(v.getId(), writer.writeVertex(properties));
-			
-			if (listener != null && (numVertices % 10000) == 0) {
-				listener.graphProgress(numVertices, numEdges);
-			}
-			
-			numVertices++;
-		}
-		if (vertices instanceof CloseableIterable<?>) {
-			((CloseableIterable<Vertex>) vertices).close();
-		}
-		
+		try {
+			ParallelScan.forEachVertex(graph, threads, new ParallelScan.Visitor<Vertex>() {
+				public void visit(Vertex v) throws Exception {
+					Map<String, Object> properties = new TreeMap<String, Object>();
+					for (String k : v.getPropertyKeys()) {
+						if (!keepOriginalId && k.equals(FGFConstants.KEY_ORIGINAL_ID)) continue;
+						properties.put(k, v.getProperty(k));
+					}
+					
+					synchronized (writer) {
+						vertexMap.put(v.getId(), writer.writeVertex(properties));
+						
+						if (listener != null && (counts[0] % 10000) == 0) {
+							listener.graphProgress(counts[0], counts[1]);
+						}
+						
+						counts[0]++;
+					}
+				}
+			});
 		
-		// Export edges
 		
-		Iterable<Edge> edges = graph.getEdges();
-		for (Edge e : edges) {
-			properties.clear();
-			for (String k : e.getPropertyKeys()) {
-				properties.put(k, e.getProperty(k));
-			}
+			// Export edges
 			
-			writer.writeEdge(vertexMap.get(e.getVertex(Direction.OUT).getId()).longValue(),
-					vertexMap.get(e.getVertex(Direction.IN).getId()).longValue(),
-					e.getLabel(), properties);
+			ParallelScan.forEachEdge(graph, threads, new ParallelScan.Visitor<Edge>() {
+				public void visit(Edge e) throws Exception {
+					Map<String, Object> properties = new TreeMap<String, Object>();
+					for (String k : e.getPropertyKeys()) {
+						properties.put(k, e.getProperty(k));
+					}
+					Object out = e.getVertex(Direction.OUT).getId();
+					Object in = e.getVertex(Direction.IN).getId();
+					String label = e.getLabel();
+					
+					synchronized (writer) {
+						writer.writeEdge(vertexMap.get(out).longValue(), vertexMap.get(in).longValue(),
+								label, properties);
+						
+						if (listener != null && (counts[1] % 10000) == 0) {
+							listener.graphProgress(counts[0], counts[1]);
+						}
+						
+						counts[1]++;
+					}
+				}
+			});
 			
-			if (listener != null && (numEdges % 10000) == 0) {
-				listener.graphProgress(numVertices, numEdges);
-			}
 			
-			numEdges++;
-		}
-		if (edges instanceof CloseableIterable<?>) {
-			((CloseableIterable<Edge>) edges).close();
+			// Finish
+			
+			writer.close();
+			ok = true;
+		} catch (IOException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage(), e);
+		} finally {
+			
+			// Release the output and the temporary files of the writer, but do not
+			// let a failure to close it mask the original exception
+			
+			if (!ok) {
+				try {
+					writer.close();
+				}
+				catch (Exception e) {};
+			}
 		}
     		
-    		
-    	// Finish
-		
-		writer.close();
-    		
 		if (listener != null) {
-			listener.graphProgress(numVertices, numEdges);
+			listener.graphProgress(counts[0], counts[1]);
 		}
 	}
 }
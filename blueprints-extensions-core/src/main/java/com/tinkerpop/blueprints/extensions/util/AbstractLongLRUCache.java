@@ -0,0 +1,265 @@
+package com.tinkerpop.blueprints.extensions.util;
+
+
+/**
+ * The common part of the bounded caches with primitive long keys and the least
+ * recently used eviction policy. The keys, the hash chains, and the recency list
+ * are stored in parallel primitive arrays indexed by the entry slot, and the
+ * subclasses store the values in their own arrays indexed by the same slot.
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public abstract class AbstractLongLRUCache {
+
+	protected static final int NONE = -1;
+
+	private int capacity;
+
+	private int[] buckets;
+	private int bucketMask;
+
+	private long[] keys;
+	private int[] chain;
+	private int[] prev;
+	private int[] next;
+
+	private int head;
+	private int tail;
+	private int size;
+	private int used;
+	private int free;
+
+
+	/**
+	 * Create an instance of class AbstractLongLRUCache
+	 *
+	 * @param capacity the maximum number of entries
+	 */
+	protected AbstractLongLRUCache(int capacity) {
+
+		if (capacity <= 0) throw new IllegalArgumentException("The capacity must be positive");
+
+		this.capacity = capacity;
+
+		int n = 1;
+		while (n < capacity * 2 && n < (1 << 30)) n <<= 1;
+		this.buckets = new int[n];
+		this.bucketMask = n - 1;
+
+		this.keys = new long[capacity];
+		this.chain = new int[capacity];
+		this.prev = new int[capacity];
+		this.next = new int[capacity];
+
+		clearEntries();
+	}
+
+
+	/**
+	 * Remove all entries from the cache
+	 */
+	public void clear() {
+		clearEntries();
+	}
+
+
+	/**
+	 * Remove all entries from the hash table and the recency list
+	 */
+	private void clearEntries() {
+		for (int i = 0; i < buckets.length; i++) buckets[i] = NONE;
+		head = NONE;
+		tail = NONE;
+		size = 0;
+		used = 0;
+		free = NONE;
+	}
+
+
+	/**
+	 * Get the number of entries in the cache
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * Get the maximum number of entries in the cache
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+
+	/**
+	 * Compute the bucket for the given key
+	 *
+	 * @param key the key
+	 * @return the bucket index
+	 */
+	private int bucket(long key) {
+		int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & bucketMask;
+	}
+
+
+	/**
+	 * Find the entry slot of the given key
+	 *
+	 * @param key the key
+	 * @return the entry slot, or NONE if not found
+	 */
+	protected int find(long key) {
+		int i = buckets[bucket(key)];
+		while (i != NONE) {
+			if (keys[i] == key) return i;
+			i = chain[i];
+		}
+		return NONE;
+	}
+
+
+	/**
+	 * Unlink the entry from the recency list
+	 *
+	 * @param i the entry slot
+	 */
+	private void unlink(int i) {
+		if (prev[i] != NONE) next[prev[i]] = next[i]; else head = next[i];
+		if (next[i] != NONE) prev[next[i]] = prev[i]; else tail = prev[i];
+	}
+
+
+	/**
+	 * Link the entry as the most recently used entry
+	 *
+	 * @param i the entry slot
+	 */
+	private void linkFirst(int i) {
+		prev[i] = NONE;
+		next[i] = head;
+		if (head != NONE) prev[head] = i; else tail = i;
+		head = i;
+	}
+
+
+	/**
+	 * Remove the entry from its hash bucket
+	 *
+	 * @param i the entry slot
+	 */
+	private void removeFromBucket(int i) {
+		int b = bucket(keys[i]);
+		if (buckets[b] == i) {
+			buckets[b] = chain[i];
+			return;
+		}
+		int j = buckets[b];
+		while (chain[j] != i) j = chain[j];
+		chain[j] = chain[i];
+	}
+
+
+	/**
+	 * Mark the entry as the most recently used
+	 *
+	 * @param i the entry slot
+	 */
+	protected void touch(int i) {
+		if (i != head) {
+			unlink(i);
+			linkFirst(i);
+		}
+	}
+
+
+	/**
+	 * Find the slot for the given key, or add a new entry for it, evicting the
+	 * least recently used entry if the cache is full. In either case, the entry
+	 * becomes the most recently used.
+	 *
+	 * @param key the key
+	 * @return the entry slot
+	 */
+	protected int findOrAdd(long key) {
+
+		int i = find(key);
+		if (i != NONE) {
+			touch(i);
+			return i;
+		}
+
+		if (free != NONE) {
+			i = free;
+			free = chain[i];
+			size++;
+		}
+		else if (used < capacity) {
+			i = used++;
+			size++;
+		}
+		else {
+			i = tail;
+			unlink(i);
+			removeFromBucket(i);
+			evicted(i);
+		}
+
+		keys[i] = key;
+
+		int b = bucket(key);
+		chain[i] = buckets[b];
+		buckets[b] = i;
+		linkFirst(i);
+		return i;
+	}
+
+
+	/**
+	 * Remove the entry for the given key
+	 *
+	 * @param key the key
+	 * @return true if the key was in the cache
+	 */
+	public boolean remove(long key) {
+
+		int i = find(key);
+		if (i == NONE) return false;
+
+		unlink(i);
+		removeFromBucket(i);
+		evicted(i);
+
+		chain[i] = free;
+		free = i;
+		size--;
+		return true;
+	}
+
+
+	/**
+	 * Check whether the cache contains the given key, without updating its recency
+	 *
+	 * @param key the key
+	 * @return true if the key is in the cache
+	 */
+	public boolean containsKey(long key) {
+		return find(key) != NONE;
+	}
+
+
+	/**
+	 * Callback for an entry that is about to be evicted or removed, so that
+	 * the subclass can release its value
+	 *
+	 * @param i the entry slot
+	 */
+	protected void evicted(int i) {
+		// Nothing to do by default
+	}
+}
@@ -0,0 +1,18 @@
+package com.tinkerpop.blueprints.extensions.util;
+
+
+/**
+ * A callback that accepts primitive long values, such as vertex IDs, so that
+ * the graphs can report them without allocating an object for each
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public interface LongConsumer {
+
+	/**
+	 * Accept a value
+	 *
+	 * @param value the value
+	 */
+	public void accept(long value);
+}
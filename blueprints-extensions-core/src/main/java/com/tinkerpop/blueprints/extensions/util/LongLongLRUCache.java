@@ -0,0 +1,63 @@
+package com.tinkerpop.blueprints.extensions.util;
+
+
+/**
+ * A bounded map from primitive longs to primitive longs with the least recently
+ * used eviction policy. The entries are stored in parallel primitive arrays, so
+ * the cache does not allocate any objects after it is created.
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public class LongLongLRUCache extends AbstractLongLRUCache {
+
+	private long missingValue;
+	private long[] values;
+
+
+	/**
+	 * Create an instance of class LongLongLRUCache
+	 *
+	 * @param capacity the maximum number of entries
+	 * @param missingValue the value returned by get() for keys that are not in the cache
+	 */
+	public LongLongLRUCache(int capacity, long missingValue) {
+		super(capacity);
+		this.missingValue = missingValue;
+		this.values = new long[capacity];
+	}
+
+
+	/**
+	 * Get the value that is returned for keys that are not in the cache
+	 *
+	 * @return the missing value marker
+	 */
+	public long getMissingValue() {
+		return missingValue;
+	}
+
+
+	/**
+	 * Get the value for the given key and mark it as the most recently used
+	 *
+	 * @param key the key
+	 * @return the value, or the missing value marker if the key is not in the cache
+	 */
+	public long get(long key) {
+		int i = find(key);
+		if (i == NONE) return missingValue;
+		touch(i);
+		return values[i];
+	}
+
+
+	/**
+	 * Put a value to the cache, evicting the least recently used entry if the cache is full
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void put(long key, long value) {
+		values[findOrAdd(key)] = value;
+	}
+}
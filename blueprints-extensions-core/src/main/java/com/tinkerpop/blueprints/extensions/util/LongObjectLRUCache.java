@@ -0,0 +1,76 @@
+package com.tinkerpop.blueprints.extensions.util;
+
+import java.util.Arrays;
+
+
+/**
+ * A bounded map from primitive longs to objects with the least recently used
+ * eviction policy. The keys are stored in primitive arrays, so the cache does
+ * not allocate any objects after it is created other than the values.
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ *
+ * @param <V> the type of the values
+ */
+public class LongObjectLRUCache<V> extends AbstractLongLRUCache {
+
+	private Object[] values;
+
+
+	/**
+	 * Create an instance of class LongObjectLRUCache
+	 *
+	 * @param capacity the maximum number of entries
+	 */
+	public LongObjectLRUCache(int capacity) {
+		super(capacity);
+		this.values = new Object[capacity];
+	}
+
+
+	/**
+	 * Remove all entries from the cache
+	 */
+	@Override
+	public void clear() {
+		super.clear();
+		Arrays.fill(values, null);
+	}
+
+
+	/**
+	 * Get the value for the given key and mark it as the most recently used
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key is not in the cache
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int i = find(key);
+		if (i == NONE) return null;
+		touch(i);
+		return (V) values[i];
+	}
+
+
+	/**
+	 * Put a value to the cache, evicting the least recently used entry if the cache is full
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void put(long key, V value) {
+		values[findOrAdd(key)] = value;
+	}
+
+
+	/**
+	 * Release the value of an entry that is about to be evicted or removed
+	 *
+	 * @param i the entry slot
+	 */
+	@Override
+	protected void evicted(int i) {
+		values[i] = null;
+	}
+}
@@ -0,0 +1,158 @@
+package com.tinkerpop.blueprints.extensions.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.PartitionableGraph;
+
+
+/**
+ * A scan of all vertices or all edges of a graph using several threads, each
+ * of which iterates over different partitions of a PartitionableGraph. Other
+ * graphs, and graphs that return only one partition, are scanned in the
+ * calling thread.
+ * 
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public class ParallelScan {
+	
+	/**
+	 * The number of partitions requested per thread, so that the threads that
+	 * finish early can pick up the remaining partitions
+	 */
+	public static final int PARTITIONS_PER_THREAD = 4;
+	
+	
+	/**
+	 * The callback for each element of the scan, which must be thread-safe
+	 *
+	 * @param <T> the element type
+	 */
+	public interface Visitor<T> {
+		
+		/**
+		 * Visit an element
+		 * 
+		 * @param element the element
+		 * @throws Exception on error, which stops the scan
+		 */
+		public void visit(T element) throws Exception;
+	}
+	
+	
+	/**
+	 * Visit all vertices of a graph
+	 * 
+	 * @param graph the graph
+	 * @param threads the number of threads
+	 * @param visitor the visitor
+	 * @throws Exception the first exception thrown by the visitor or by the graph
+	 */
+	public static void forEachVertex(Graph graph, int threads, Visitor<? super Vertex> visitor) throws Exception {
+		List<? extends Iterable<Vertex>> partitions;
+		if (graph instanceof PartitionableGraph && threads > 1) {
+			partitions = ((PartitionableGraph) graph).getVertexPartitions(threads * PARTITIONS_PER_THREAD);
+		}
+		else {
+			partitions = Collections.singletonList(graph.getVertices());
+		}
+		run(partitions, threads, visitor);
+	}
+	
+	
+	/**
+	 * Visit all edges of a graph
+	 * 
+	 * @param graph the graph
+	 * @param threads the number of threads
+	 * @param visitor the visitor
+	 * @throws Exception the first exception thrown by the visitor or by the graph
+	 */
+	public static void forEachEdge(Graph graph, int threads, Visitor<? super Edge> visitor) throws Exception {
+		List<? extends Iterable<Edge>> partitions;
+		if (graph instanceof PartitionableGraph && threads > 1) {
+			partitions = ((PartitionableGraph) graph).getEdgePartitions(threads * PARTITIONS_PER_THREAD);
+		}
+		else {
+			partitions = Collections.singletonList(graph.getEdges());
+		}
+		run(partitions, threads, visitor);
+	}
+	
+	
+	/**
+	 * Visit all elements of the given partitions
+	 * 
+	 * @param partitions the partitions
+	 * @param threads the number of threads
+	 * @param visitor the visitor
+	 * @throws Exception the first exception thrown by the visitor or by the iteration
+	 */
+	public static <T> void run(List<? extends Iterable<T>> partitions, int threads,
+			final Visitor<? super T> visitor) throws Exception {
+		
+		if (partitions.isEmpty()) return;
+		if (partitions.size() == 1 || threads <= 1) {
+			for (Iterable<T> p : partitions) scan(p, visitor);
+			return;
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, partitions.size()));
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(partitions.size());
+			for (final Iterable<T> p : partitions) {
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						scan(p, visitor);
+						return null;
+					}
+				}));
+			}
+			
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				}
+				catch (ExecutionException e) {
+					for (Future<Void> g : futures) g.cancel(false);
+					Throwable cause = e.getCause();
+					if (cause instanceof Exception) throw (Exception) cause;
+					if (cause instanceof Error) throw (Error) cause;
+					throw e;
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	
+	/**
+	 * Visit all elements of one partition in the calling thread
+	 * 
+	 * @param partition the partition
+	 * @param visitor the visitor
+	 * @throws Exception on error
+	 */
+	private static <T> void scan(Iterable<T> partition, Visitor<? super T> visitor) throws Exception {
+		try {
+			for (T element : partition) visitor.visit(element);
+		}
+		finally {
+			if (partition instanceof CloseableIterable<?>) {
+				((CloseableIterable<?>) partition).close();
+			}
+		}
+	}
+}
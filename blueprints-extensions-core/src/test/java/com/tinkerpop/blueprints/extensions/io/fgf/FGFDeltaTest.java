@@ -0,0 +1,159 @@
+package com.tinkerpop.blueprints.extensions.io.fgf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.tinkerpop.blueprints.BaseTest;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+
+/**
+ * Tests for the FGF delta log writer, reader, and applier.
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public class FGFDeltaTest extends BaseTest {
+
+    private static Vertex getVertex(TinkerGraph graph, int id) {
+        for (Vertex v : graph.getVertices(FGFConstants.KEY_ORIGINAL_ID, id)) return v;
+        return null;
+    }
+
+    public void testRoundTrip() throws Exception {
+        TinkerGraph graph = new TinkerGraph();
+        for (int i = 0; i < 3; i++) {
+            Vertex v = graph.addVertex(null);
+            v.setProperty(FGFConstants.KEY_ORIGINAL_ID, i);
+            v.setProperty("name", "v" + i);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FGFDeltaWriter w = new FGFDeltaWriter(out);
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("name", "v3");
+        properties.put("created", new Date(1000));
+        w.addVertex(3, "", properties);
+
+        properties = new HashMap<String, Object>();
+        properties.put("weight", 1);
+        w.addEdge(0, 3, "knows", properties);
+        w.setEdgeProperty(0, 3, "knows", "weight", 2.5);
+        w.setVertexProperty(0, "name", "a");
+        w.setVertexProperty(1, "name", null);
+        w.addEdge(1, 2, "likes", null);
+        w.addEdge(2, 1, "likes", null);
+        w.removeEdge(1, 2, "likes");
+
+        // A failed operation must not leave anything behind in the log
+
+        try {
+            w.setVertexProperty(0, "bad", new Object());
+            fail();
+        }
+        catch (IOException e) {
+            // Expected
+        }
+        properties = new HashMap<String, Object>();
+        properties.put("ok", 1);
+        properties.put("bad", null);
+        try {
+            w.addVertex(4, "", properties);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        w.removeVertex(2);
+        w.close();
+
+        long n = FGFDeltaApplier.apply(graph, new ByteArrayInputStream(out.toByteArray()), 2, null);
+        assertEquals(9, n);
+
+        Vertex v0 = getVertex(graph, 0);
+        Vertex v3 = getVertex(graph, 3);
+        assertEquals("a", v0.getProperty("name"));
+        assertNull(v0.getProperty("bad"));
+        assertNull(getVertex(graph, 1).getProperty("name"));
+        assertNull(getVertex(graph, 2));
+        assertNull(getVertex(graph, 4));
+        assertEquals("v3", v3.getProperty("name"));
+        assertEquals(new Date(1000), v3.getProperty("created"));
+
+        int count = 0;
+        for (Edge e : v0.getEdges(Direction.OUT)) {
+            assertEquals("knows", e.getLabel());
+            assertEquals(v3, e.getVertex(Direction.IN));
+            assertEquals(2.5, e.getProperty("weight"));
+            count++;
+        }
+        assertEquals(1, count);
+        assertFalse(getVertex(graph, 1).getEdges(Direction.BOTH).iterator().hasNext());
+    }
+
+    public void testTornTail() throws Exception {
+        File file = File.createTempFile("delta", ".fgfd");
+        file.delete();
+
+        FGFDeltaWriter w = new FGFDeltaWriter(file);
+        w.setVertexProperty(0, "name", "a");
+        w.setVertexProperty(1, "name", "b");
+        w.close();
+        long complete = file.length();
+
+        // Reopening appends without another header
+
+        w = new FGFDeltaWriter(file);
+        w.setVertexProperty(2, "name", "c");
+        w.close();
+
+        RandomAccessFile f = new RandomAccessFile(file, "rw");
+        f.setLength(file.length() - 3);
+        f.close();
+
+        final Map<Long, Object> values = new HashMap<Long, Object>();
+        FGFDeltaReaderHandler handler = new FGFDeltaReaderHandler() {
+            public void addVertex(long id, String type, Map<String, Object> properties) { fail(); }
+            public void addEdge(long tail, long head, String label, Map<String, Object> properties) { fail(); }
+            public void setVertexProperty(long id, String key, Object value) { values.put(id, value); }
+            public void setEdgeProperty(long tail, long head, String label, String key, Object value) { fail(); }
+            public void removeVertex(long id) { fail(); }
+            public void removeEdge(long tail, long head, String label) { fail(); }
+        };
+
+        FGFDeltaReader r = new FGFDeltaReader(file);
+        r.read(handler);
+        r.close();
+        assertEquals(2, r.getNumberOfOperationsRead());
+        assertTrue(r.isTruncated());
+        assertEquals(complete, r.getValidLength());
+        assertEquals(2, values.size());
+
+        // The writer drops the partial operation before appending
+
+        w = new FGFDeltaWriter(file);
+        w.setVertexProperty(3, "name", "d");
+        w.close();
+
+        values.clear();
+        r = new FGFDeltaReader(file);
+        r.read(handler);
+        r.close();
+        assertEquals(3, r.getNumberOfOperationsRead());
+        assertFalse(r.isTruncated());
+        assertEquals(file.length(), r.getValidLength());
+        assertEquals("d", values.get(3L));
+        assertFalse(values.containsKey(2L));
+
+        file.delete();
+    }
+}
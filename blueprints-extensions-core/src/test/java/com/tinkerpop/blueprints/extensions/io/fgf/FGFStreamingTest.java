@@ -0,0 +1,110 @@
+package com.tinkerpop.blueprints.extensions.io.fgf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.tinkerpop.blueprints.BaseTest;
+
+/**
+ * Tests for the streaming variant of the FGF.
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public class FGFStreamingTest extends BaseTest {
+
+    public void testAlternatingTypesRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FGFFileWriter w = new FGFFileWriter(out, 10, 100, 3);
+
+        for (int i = 0; i < 8; i++) {
+            Map<String, Object> properties = new HashMap<String, Object>();
+            properties.put("name", "v" + i);
+            assertEquals(10 + i, w.writeVertex(properties));
+        }
+
+        // Alternate the labels in the scan order; each label gets its own chunks
+
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> properties = new HashMap<String, Object>();
+            properties.put("i", i);
+            w.writeEdge(10 + i % 8, 10 + (i + 1) % 8, i % 2 == 0 ? "even" : "odd", properties);
+        }
+        w.close();
+
+        FGFFileReader r = new FGFFileReader(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(r.isStreaming());
+
+        final List<String> vertices = new ArrayList<String>();
+        final List<Object[]> edges = new ArrayList<Object[]>();
+        final int[] chunks = new int[2];
+
+        r.read(new FGFFileReaderHandler() {
+            @Override
+            public void propertyType(FGFFileReader.PropertyType type) {
+            }
+
+            @Override
+            public void vertexTypeStart(FGFFileReader.VertexType type, long count) {
+                assertEquals(-1, type.getStartId());
+                assertTrue(count <= 3);
+                chunks[0]++;
+            }
+
+            @Override
+            public void vertex(long id, FGFFileReader.VertexType type,
+                    Map<FGFFileReader.PropertyType, Object> properties) {
+                assertEquals(10 + vertices.size(), id);
+                vertices.add((String) properties.values().iterator().next());
+            }
+
+            @Override
+            public void vertexTypeEnd(FGFFileReader.VertexType type, long count) {
+            }
+
+            @Override
+            public void edgeTypeStart(FGFFileReader.EdgeType type, long count) {
+                assertEquals(-1, type.getStartId());
+                assertTrue(count <= 3);
+                chunks[1]++;
+            }
+
+            @Override
+            public void edge(long id, long tail, long head, FGFFileReader.EdgeType type,
+                    Map<FGFFileReader.PropertyType, Object> properties) {
+                assertEquals(100 + edges.size(), id);
+                edges.add(new Object[] { tail, head, type.getName(), properties.values().iterator().next() });
+            }
+
+            @Override
+            public void edgeTypeEnd(FGFFileReader.EdgeType type, long count) {
+            }
+        });
+
+        assertEquals(8, vertices.size());
+        for (int i = 0; i < 8; i++) assertEquals("v" + i, vertices.get(i));
+
+        // 5 edges of each label in chunks of at most 3, not one chunk per edge
+
+        assertEquals(3, chunks[0]);
+        assertEquals(4, chunks[1]);
+        assertEquals(2, r.getEdgeTypes().length);
+        for (FGFFileReader.EdgeType t : r.getEdgeTypes()) assertEquals(5, t.size());
+        assertEquals(8, r.getNumberOfVertices());
+        assertEquals(10, r.getNumberOfEdges());
+
+        assertEquals(10, edges.size());
+        boolean[] seen = new boolean[10];
+        for (Object[] e : edges) {
+            int i = (Integer) e[3];
+            assertFalse(seen[i]);
+            seen[i] = true;
+            assertEquals(10L + i % 8, e[0]);
+            assertEquals(10L + (i + 1) % 8, e[1]);
+            assertEquals(i % 2 == 0 ? "even" : "odd", e[2]);
+        }
+    }
+}
@@ -5,12 +5,25 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.sparsity.dex.gdb.AttributeKind;
 import com.sparsity.dex.gdb.AttributeList;
 import com.sparsity.dex.gdb.DataType;
 import com.sparsity.dex.gdb.Int32List;
+import com.sparsity.dex.gdb.Objects;
+import com.sparsity.dex.gdb.ObjectsIterator;
 import com.sparsity.dex.gdb.StringList;
+import com.sparsity.dex.gdb.Value;
 import com.sparsity.dex.io.CSVReader;
 import com.sparsity.dex.io.EdgeTypeLoader;
 import com.sparsity.dex.io.NodeTypeLoader;
@@ -30,6 +43,17 @@ import com.tinkerpop.blueprints.impls.dex.DexGraph;
  */
 public class DexCSVLoader {
 	
+	/**
+	 * The number of parsed edges passed at a time from a parser thread to the loading thread
+	 */
+	private static final int EDGE_CHUNK_SIZE = 10000;
+	
+	/**
+	 * How long (in ms) a parser thread waits for room in the queue before checking
+	 * whether the load was cancelled
+	 */
+	private static final long EDGE_QUEUE_POLL_MS = 100;
+	
 	
 	/**
 	 * Load from a directory of CSV files
@@ -88,10 +112,6 @@ public class DexCSVLoader {
 			throw new IOException("No edges found");
 		}
 		
-		if (nodeFiles.size() != 1) {
-			throw new IOException("Only one DEX node type is currently supported");
-		}
-		
 		
 		// Wrap the listener
 		
@@ -103,7 +123,9 @@ public class DexCSVLoader {
 		
 		// Load each node type
 		
-		int nodeIdAttribute = Integer.MIN_VALUE;
+		int[] nodeTypes = new int[nodeFiles.size()];
+		int[] nodeIdAttributes = new int[nodeFiles.size()];
+		int nodeTypeIndex = 0;
 		
 		for (File f : nodeFiles) {		
 			
@@ -154,7 +176,9 @@ public class DexCSVLoader {
 				attributes.add(a);
 			}
 			
-			nodeIdAttribute = attributeMap.get(FGFConstants.KEY_ORIGINAL_ID);
+			nodeTypes[nodeTypeIndex] = type;
+			nodeIdAttributes[nodeTypeIndex] = attributeMap.get(FGFConstants.KEY_ORIGINAL_ID);
+			nodeTypeIndex++;
 			
 			
 			// Create the CSV reader
@@ -179,12 +203,21 @@ public class DexCSVLoader {
 			reader.close();
 		}
 		
-		assert nodeIdAttribute != Integer.MIN_VALUE;
+		// Load the edges
 		
+		if (wrappedListener != null) wrappedListener.nodePhase = false;
 		
-		// Load each edge type
+		if (nodeTypes.length > 1) {
+			
+			// The DEX edge loader can resolve the endpoints only through a single attribute,
+			// so the edges between multiple node types need to be loaded by us
+			
+			loadEdges(graph, edgeFiles, edgePrefix, nodeTypes, nodeIdAttributes, listener,
+					wrappedListener == null ? 0 : wrappedListener.nodes);
+			return;
+		}
 		
-		if (wrappedListener != null) wrappedListener.nodePhase = false;
+		int nodeIdAttribute = nodeIdAttributes[0];
 		
 		for (File f : edgeFiles) {		
 			
@@ -252,6 +285,186 @@ public class DexCSVLoader {
 	}
 	
 	
+	/**
+	 * Load the edges between vertices of multiple node types. The .csv files are
+	 * parsed concurrently, one file per thread, while the calling thread, which
+	 * owns the DEX session, creates the edges, since DEX allows only one writer.
+	 * 
+	 * @param graph the DEX graph
+	 * @param edgeFiles the edge files
+	 * @param edgePrefix the file name prefix of the edge files
+	 * @param nodeTypes the node types
+	 * @param nodeIdAttributes the original ID attribute for each node type
+	 * @param listener the progress listener
+	 * @param nodesLoaded the number of loaded nodes (for the progress listener)
+	 * @throws IOException on I/O or parse error
+	 */
+	private static void loadEdges(com.sparsity.dex.gdb.Graph graph, List<File> edgeFiles, String edgePrefix,
+			int[] nodeTypes, int[] nodeIdAttributes, GraphProgressListener listener, int nodesLoaded)
+			throws IOException {
+		
+		// Map the original vertex IDs to the DEX object IDs
+		
+		VertexIdMap vertexIds = new VertexIdMap();
+		Value value = new Value();
+		
+		for (int i = 0; i < nodeTypes.length; i++) {
+			Objects objs = graph.select(nodeTypes[i]);
+			ObjectsIterator objsItr = objs.iterator();
+			while (objsItr.hasNext()) {
+				long oid = objsItr.nextObject();
+				graph.getAttribute(oid, nodeIdAttributes[i], value);
+				if (!value.isNull()) vertexIds.put(value.getInteger(), oid);
+			}
+			objsItr.close();
+			objs.close();
+		}
+		
+		
+		// Create the edge types and their properties; this needs to happen in this thread
+		
+		final EdgeFile[] files = new EdgeFile[edgeFiles.size()];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = new EdgeFile(graph, edgeFiles.get(i), edgePrefix);
+		}
+		
+		
+		// Start the parsers
+		
+		int threads = Math.max(1, Math.min(files.length, Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final BlockingQueue<EdgeChunk> queue = new ArrayBlockingQueue<EdgeChunk>(4 * threads);
+		final AtomicBoolean cancelled = new AtomicBoolean(false);
+		ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+		
+		for (final EdgeFile f : files) {
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					try {
+						f.parse(queue, cancelled);
+					}
+					finally {
+						
+						// Do not block here: if the loading thread gave up, nobody
+						// would ever take the end-of-file marker from a full queue
+						
+						try {
+							offer(queue, new EdgeChunk(f, -1), cancelled);
+						}
+						catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		
+		
+		// Create the edges
+		
+		boolean ok = false;
+		try {
+			int running = files.length;
+			int edges = 0;
+			
+			while (running > 0) {
+				EdgeChunk c = queue.take();
+				if (c.size < 0) {
+					running--;
+					continue;
+				}
+				
+				EdgeFile f = c.file;
+				int n = f.attributes.length;
+				
+				for (int i = 0; i < c.size; i++) {
+					long tail = vertexIds.get(c.tails[i]);
+					long head = vertexIds.get(c.heads[i]);
+					if (tail == Objects.InvalidOID) {
+						throw new IOException("Cannot find vertex with " + FGFConstants.KEY_ORIGINAL_ID + " " + c.tails[i]);
+					}
+					if (head == Objects.InvalidOID) {
+						throw new IOException("Cannot find vertex with " + FGFConstants.KEY_ORIGINAL_ID + " " + c.heads[i]);
+					}
+					
+					long e = graph.newEdge(f.type, tail, head);
+					
+					for (int a = 0; a < n; a++) {
+						String v = c.values[i * n + a];
+						if (v == null || v.length() == 0) continue;
+						graph.setAttribute(e, f.attributes[a], parseValue(f.dataTypes[a], v, value));
+					}
+				}
+				
+				edges += c.size;
+				if (listener != null) listener.graphProgress(nodesLoaded, edges);
+			}
+			
+			for (Future<Void> f : futures) f.get();
+			ok = true;
+		}
+		catch (InterruptedException e) {
+			throw new IOException("Interrupted while loading edges", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+		finally {
+			if (!ok) {
+				cancelled.set(true);
+				for (Future<Void> f : futures) f.cancel(true);
+			}
+			executor.shutdownNow();
+		}
+	}
+	
+	
+	/**
+	 * Add a chunk to the queue, waiting for room unless the load gets cancelled
+	 * 
+	 * @param queue the queue
+	 * @param c the chunk
+	 * @param cancelled the flag that the loading thread sets when it gives up
+	 * @return true if the chunk was added, false if the load was cancelled
+	 * @throws InterruptedException if interrupted
+	 */
+	private static boolean offer(BlockingQueue<EdgeChunk> queue, EdgeChunk c, AtomicBoolean cancelled)
+			throws InterruptedException {
+		
+		while (!cancelled.get()) {
+			if (queue.offer(c, EDGE_QUEUE_POLL_MS, TimeUnit.MILLISECONDS)) return true;
+		}
+		
+		return false;
+	}
+	
+	
+	/**
+	 * Convert a .csv value to a DEX Value
+	 * 
+	 * @param type the DEX data type
+	 * @param str the string value
+	 * @param out the output Value
+	 * @return the output Value
+	 */
+	private static Value parseValue(DataType type, String str, Value out) {
+		
+		switch (type) {
+		case Boolean: out.setBooleanVoid(Boolean.parseBoolean(str)); break;
+		case Integer: out.setIntegerVoid(Integer.parseInt(str)); break;
+		case Long   : out.setLongVoid(Long.parseLong(str)); break;
+		case Double : out.setDoubleVoid(Double.parseDouble(str)); break;
+		case String : out.setStringVoid(str); break;
+		default     : throw new UnsupportedOperationException();
+		}
+		
+		return out;
+	}
+	
+	
 	/**
 	 * Read the property name to the column index map from a header of a data .csv file
 	 * 
@@ -386,4 +599,183 @@ public class DexCSVLoader {
 			}
 		}
 	}
+	
+	
+	/**
+	 * A dense map from original vertex IDs to DEX object IDs
+	 */
+	private static class VertexIdMap {
+		
+		private long[] oids = new long[1024];
+		
+		
+		/**
+		 * Put a mapping
+		 * 
+		 * @param id the original vertex ID
+		 * @param oid the DEX object ID
+		 */
+		public void put(int id, long oid) {
+			if (id < 0) throw new IllegalArgumentException("Invalid vertex ID: " + id);
+			if (id >= oids.length) {
+				int n = oids.length;
+				while (n <= id && n < Integer.MAX_VALUE) n = n >= (1 << 29) ? Integer.MAX_VALUE : n << 1;
+				long[] a = new long[n];
+				System.arraycopy(oids, 0, a, 0, oids.length);
+				oids = a;
+			}
+			oids[id] = oid + 1;
+		}
+		
+		
+		/**
+		 * Get the DEX object ID
+		 * 
+		 * @param id the original vertex ID
+		 * @return the DEX object ID, or Objects.InvalidOID if not found
+		 */
+		public long get(long id) {
+			if (id < 0 || id >= oids.length || oids[(int) id] == 0) return Objects.InvalidOID;
+			return oids[(int) id] - 1;
+		}
+	}
+	
+	
+	/**
+	 * An edge .csv file together with its DEX type
+	 */
+	private static class EdgeFile {
+		
+		public final File file;
+		public final int type;
+		public final int[] attributes;
+		public final DataType[] dataTypes;
+		public final int[] columns;
+		
+		
+		/**
+		 * Create an instance of class EdgeFile and create its DEX type and attributes
+		 * 
+		 * @param graph the DEX graph
+		 * @param file the .csv file
+		 * @param edgePrefix the file name prefix of the edge files
+		 * @throws IOException on I/O or parse error
+		 */
+		public EdgeFile(com.sparsity.dex.gdb.Graph graph, File file, String edgePrefix) throws IOException {
+			
+			this.file = file;
+			
+			String typeName = FGF2DexCSV.decodeFileNameFriendlyString(
+					file.getName().substring(edgePrefix.length(), file.getName().length() - 4));
+			
+			HashMap<String, Integer> csvAttributeToColumn = readAttributeToColumnMap(file);
+			
+			String metaFileName = edgePrefix + FGF2DexCSV.encodeToFileNameFriendlyString(typeName) + "-meta.csv";
+			HashMap<String, DataType> attributeTypes = readPropertyTypes(new File(file.getParentFile(), metaFileName));
+			
+			this.type = graph.newEdgeType(typeName, true /* directed */, true /* materialized */);
+			this.attributes = new int[attributeTypes.size()];
+			this.dataTypes = new DataType[attributeTypes.size()];
+			this.columns = new int[attributeTypes.size()];
+			
+			int i = 0;
+			for (String s : attributeTypes.keySet()) {
+				
+				Integer column = csvAttributeToColumn.get(s);
+				if (column == null) {
+					throw new IOException("The attribute " + s + " does not appear in the .csv header");
+				}
+				
+				dataTypes[i] = attributeTypes.get(s);
+				attributes[i] = graph.newAttribute(type, s, dataTypes[i], AttributeKind.Basic);
+				columns[i] = column;
+				i++;
+			}
+		}
+		
+		
+		/**
+		 * Parse the file and pass the edges to the queue in chunks
+		 * 
+		 * @param queue the queue
+		 * @param cancelled the flag that the loading thread sets when it gives up
+		 * @throws IOException on I/O or parse error
+		 * @throws InterruptedException if interrupted
+		 */
+		public void parse(BlockingQueue<EdgeChunk> queue, AtomicBoolean cancelled)
+				throws IOException, InterruptedException {
+			
+			CSVReader reader = new CSVReader();
+			reader.setStartLine(1);
+			reader.open(file.getAbsolutePath());
+			
+			try {
+				StringList row = new StringList();
+				ArrayList<String> columnValues = new ArrayList<String>();
+				EdgeChunk c = new EdgeChunk(this, EDGE_CHUNK_SIZE);
+				
+				while (reader.read(row)) {
+					
+					columnValues.clear();
+					for (String v : row) columnValues.add(v);
+					
+					// The columns are _head,_tail,...
+					
+					c.heads[c.size] = Long.parseLong(columnValues.get(0));
+					c.tails[c.size] = Long.parseLong(columnValues.get(1));
+					for (int a = 0; a < columns.length; a++) {
+						c.values[c.size * columns.length + a]
+								= columns[a] < columnValues.size() ? columnValues.get(columns[a]) : null;
+					}
+					c.size++;
+					
+					if (c.size == EDGE_CHUNK_SIZE) {
+						if (!offer(queue, c, cancelled)) return;
+						c = new EdgeChunk(this, EDGE_CHUNK_SIZE);
+					}
+				}
+				
+				if (c.size > 0) offer(queue, c, cancelled);
+			}
+			finally {
+				reader.close();
+			}
+		}
+	}
+	
+	
+	/**
+	 * A chunk of parsed edges
+	 */
+	private static class EdgeChunk {
+		
+		public final EdgeFile file;
+		public int size;
+		public final long[] tails;
+		public final long[] heads;
+		public final String[] values;
+		
+		
+		/**
+		 * Create an instance of class EdgeChunk
+		 * 
+		 * @param file the edge file
+		 * @param capacity the capacity, or -1 to create an end-of-file marker
+		 */
+		public EdgeChunk(EdgeFile file, int capacity) {
+			this.file = file;
+			if (capacity < 0) {
+				this.size = -1;
+				this.tails = null;
+				this.heads = null;
+				this.values = null;
+			}
+			else {
+				this.size = 0;
+				this.tails = new long[capacity];
+				this.heads = new long[capacity];
+				this.values = new String[capacity * file.attributes.length];
+			}
+		}
+	}
 }
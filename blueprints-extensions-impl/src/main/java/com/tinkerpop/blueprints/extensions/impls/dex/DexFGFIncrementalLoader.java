@@ -29,6 +29,12 @@ import com.tinkerpop.blueprints.impls.dex.DexGraph;
  */
 public class DexFGFIncrementalLoader {
 	
+	/**
+	 * The default number of objects to buffer before they are created and
+	 * their attributes are written one attribute at a time
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+	
 	
 	/**
 	 * Load from a FGF file
@@ -55,10 +61,36 @@ public class DexFGFIncrementalLoader {
 	public static void load(DexGraph graph, File file,
 			GraphProgressListener listener)
 			throws IOException, ClassNotFoundException {
+		load(graph, file, DEFAULT_BATCH_SIZE, listener);
+	}	
+	
+	
+	/**
+	 * Load from a FGF file and optionally index all properties
+	 * 
+	 * @param graph the batch graph
+	 * @param file the input file
+	 * @param batchSize the number of objects to buffer before creating them in bulk
+	 *                  (1 to create each object and set its attributes immediately)
+	 * @param listener the progress listener
+	 * @throws IOException on I/O or parse error
+	 * @throws ClassNotFoundException on property unmarshalling error due to a missing class
+	 */
+	public static void load(DexGraph graph, File file, int batchSize,
+			GraphProgressListener listener)
+			throws IOException, ClassNotFoundException {
 		
 		FGFFileReader reader = new FGFFileReader(file);
+		
+		if (reader.isStreaming()) {
+			try {
+				reader.close();
+			}
+			catch (Exception e) {};
+			throw new IOException("The DEX incremental loader does not support streaming FGF");
+		}
 
-		Loader l = new Loader(graph, reader, false, listener);
+		Loader l = new Loader(graph, reader, batchSize, false, listener);
 		reader.read(l);
 		l.finish();
 		l = null;
@@ -92,6 +124,15 @@ public class DexFGFIncrementalLoader {
 		private long edgesLoaded;
 		private int vertexTypeIndex;
 		
+		private int batchSize;
+		private int batchCount;
+		private long[] batchIds;
+		private long[] batchOids;
+		private long[] batchTails;
+		private long[] batchHeads;
+		private boolean batchOfEdges;
+		private AttributeColumn[] columns;
+		
 		@SuppressWarnings("unused")
 		private int opsSinceCommit;
 		
@@ -101,10 +142,11 @@ public class DexFGFIncrementalLoader {
 		 * 
 		 * @param graph the graph
 		 * @param reader the input file reader
+		 * @param batchSize the number of objects to buffer before creating them
 		 * @param indexAllProperties whether to index all properties
 		 * @param listener the progress listener
 		 */
-		public Loader(DexGraph graph, FGFFileReader reader, boolean indexAllProperties, GraphProgressListener listener) {
+		public Loader(DexGraph graph, FGFFileReader reader, int batchSize, boolean indexAllProperties, GraphProgressListener listener) {
 			
 			this.blueprintsGraph = graph;
 			this.graph = this.blueprintsGraph.getRawGraph();
@@ -131,6 +173,14 @@ public class DexFGFIncrementalLoader {
 			
 			this.type = Type.InvalidType;
 			this.temp = new Value();
+			
+			this.batchSize = Math.max(1, batchSize);
+			this.batchCount = 0;
+			this.batchIds = new long[this.batchSize];
+			this.batchOids = new long[this.batchSize];
+			this.batchTails = new long[this.batchSize];
+			this.batchHeads = new long[this.batchSize];
+			this.columns = new AttributeColumn[reader.getPropertyTypes().length];
 		}
 		
 		
@@ -138,9 +188,90 @@ public class DexFGFIncrementalLoader {
 		 * Finish the loading process
 		 */
 		public void finish() {
+			flush();
 			opsSinceCommit = 0;
 		}
 		
+		
+		/**
+		 * Create all buffered objects, and then set their attributes one attribute
+		 * at a time, reusing the same Value object
+		 */
+		private void flush() {
+			
+			if (batchCount == 0) return;
+			
+			
+			// Create the objects
+			
+			if (batchOfEdges) {
+				for (int i = 0; i < batchCount; i++) {
+					batchOids[i] = graph.newEdge(this.type, batchTails[i], batchHeads[i]);
+				}
+				edgesLoaded += batchCount;
+			}
+			else {
+				for (int i = 0; i < batchCount; i++) {
+					long n = graph.newNode(this.type);
+					batchOids[i] = n;
+					vertices[(int) batchIds[i]] = n;
+				}
+				verticesLoaded += batchCount;
+			}
+			opsSinceCommit += batchCount;
+			
+			
+			// Set the attributes, one attribute at a time
+			
+			for (AttributeColumn c : columns) {
+				if (c == null || c.size == 0) continue;
+				c.write(graph, batchOids, temp);
+				opsSinceCommit += c.size;
+				c.size = 0;
+			}
+			
+			if (!batchOfEdges) {
+				for (int i = 0; i < batchCount; i++) {
+					temp.setIntegerVoid((int) batchIds[i]);
+					graph.setAttribute(batchOids[i], attrId, temp);
+				}
+				opsSinceCommit += batchCount;
+			}
+			
+			batchCount = 0;
+			
+			
+			// Callback
+			
+			if (listener != null) {
+				listener.graphProgress((int) verticesLoaded, (int) edgesLoaded);
+			}
+		}
+		
+		
+		/**
+		 * Append the properties of the object that is being buffered at the given
+		 * position to the per-attribute columns
+		 * 
+		 * @param position the position of the object in the batch
+		 * @param properties the map of properties
+		 */
+		private void bufferProperties(int position, Map<PropertyType, Object> properties) {
+			
+			for (Map.Entry<PropertyType, Object> e : properties.entrySet()) {
+				PropertyType t = e.getKey();
+				int attr = getOrCreateAttributeHandle(t);
+				
+				AttributeColumn c = columns[t.getIndex()];
+				if (c == null || c.attr != attr) {
+					c = new AttributeColumn(attr, ((PropertyTypeAux) t.getAux()).type, batchSize);
+					columns[t.getIndex()] = c;
+				}
+				
+				c.add(position, e.getValue());
+			}
+		}
+		
 
 		/**
 		 * Callback for a property type
@@ -276,31 +407,16 @@ public class DexFGFIncrementalLoader {
 		@Override
 		public void vertex(long id, VertexType type, Map<PropertyType, Object> properties) {
 			
-			long n = graph.newNode(this.type);
-			vertices[(int) id] = n;
-			verticesLoaded++;
-			opsSinceCommit++;			
-			
+			// Buffer the vertex together with its ID, since the IDs in a batch do
+			// not need to be consecutive
 			
-			// Properties
+			batchOfEdges = false;
+			batchIds[batchCount] = id;
 			
-			for (Map.Entry<PropertyType, Object> e : properties.entrySet()) {
-				int attr = getOrCreateAttributeHandle(e.getKey());
-				Value v = DexUtils.translateValue(((PropertyTypeAux) e.getKey().getAux()).type, e.getValue(), temp);
-				graph.setAttribute(n, attr, v);
-				opsSinceCommit++;
-			}
+			bufferProperties(batchCount, properties);
+			batchCount++;
 			
-			temp.setInteger((int) id);
-			graph.setAttribute(n, attrId, temp);
-			opsSinceCommit++;
-			
-			
-			// Callback
-			
-			if (listener != null && verticesLoaded % 10000 == 0) {
-				listener.graphProgress((int) verticesLoaded, 0);
-			}
+			if (batchCount >= batchSize) flush();
 		}
 
 		
@@ -311,7 +427,8 @@ public class DexFGFIncrementalLoader {
 		 * @param count the number of vertices of the given type
 		 */
 		@Override
-		public void vertexTypeEnd(VertexType type, long count) {			
+		public void vertexTypeEnd(VertexType type, long count) {
+			flush();
 			vertexTypeIndex++;
 		}
 		
@@ -366,28 +483,16 @@ public class DexFGFIncrementalLoader {
 			}
 			
 			
-			// Create the relationship
+			// Buffer the relationship
 			
-			long r = graph.newEdge(this.type, t, h);
-			edgesLoaded++;
-			opsSinceCommit++;
+			batchOfEdges = true;
+			batchTails[batchCount] = t;
+			batchHeads[batchCount] = h;
 			
+			bufferProperties(batchCount, properties);
+			batchCount++;
 			
-			// Add properties
-
-			for (Map.Entry<PropertyType, Object> e : properties.entrySet()) {
-				int attr = getOrCreateAttributeHandle(e.getKey());
-				Value v = DexUtils.translateValue(((PropertyTypeAux) e.getKey().getAux()).type, e.getValue(), temp);
-				graph.setAttribute(r, attr, v);
-				opsSinceCommit++;
-			}
-			
-			
-			// Listener callback
-			
-			if (listener != null && edgesLoaded % 10000 == 0) {
-				listener.graphProgress((int) verticesLoaded, (int) edgesLoaded);
-			}
+			if (batchCount >= batchSize) flush();
 		}
 
 		
@@ -399,6 +504,7 @@ public class DexFGFIncrementalLoader {
 		 */
 		@Override
 		public void edgeTypeEnd(EdgeType type, long count) {
+			flush();
 		}
 		
 		
@@ -418,5 +524,117 @@ public class DexFGFIncrementalLoader {
 				// Nothing to do
 			}
 		}
+		
+		
+		/**
+		 * The buffered values of a single attribute, stored in primitive arrays
+		 * according to the attribute's DEX data type
+		 */
+		private static class AttributeColumn {
+			
+			public final int attr;
+			public final DataType type;
+			public int size;
+			
+			private int[] positions;
+			private long[] longs;
+			private double[] doubles;
+			private String[] strings;
+			
+			
+			/**
+			 * Create an instance of type AttributeColumn
+			 * 
+			 * @param attr the attribute handle
+			 * @param type the attribute data type
+			 * @param capacity the maximum number of values
+			 */
+			public AttributeColumn(int attr, DataType type, int capacity) {
+				
+				this.attr = attr;
+				this.type = type;
+				this.size = 0;
+				this.positions = new int[capacity];
+				
+				switch (type) {
+				case Boolean:
+				case Integer:
+				case Long   : longs   = new long  [capacity]; break;
+				case Double : doubles = new double[capacity]; break;
+				case String : strings = new String[capacity]; break;
+				default     : throw new UnsupportedOperationException();
+				}
+			}
+			
+			
+			/**
+			 * Add a value
+			 * 
+			 * @param position the position of the object in the batch
+			 * @param value the value
+			 */
+			public void add(int position, Object value) {
+				
+				positions[size] = position;
+				
+				switch (type) {
+				case Boolean: longs  [size] = ((Boolean) value).booleanValue() ? 1 : 0; break;
+				case Integer:
+				case Long   : longs  [size] = ((Number) value).longValue(); break;
+				case Double : doubles[size] = ((Number) value).doubleValue(); break;
+				case String : strings[size] = (String) value; break;
+				default     : throw new UnsupportedOperationException();
+				}
+				
+				size++;
+			}
+			
+			
+			/**
+			 * Write all buffered values to the graph
+			 * 
+			 * @param graph the DEX graph
+			 * @param oids the object IDs of the batch
+			 * @param temp the Value object to reuse
+			 */
+			public void write(Graph graph, long[] oids, Value temp) {
+				
+				switch (type) {
+				case Boolean:
+					for (int i = 0; i < size; i++) {
+						temp.setBooleanVoid(longs[i] != 0);
+						graph.setAttribute(oids[positions[i]], attr, temp);
+					}
+					break;
+				case Integer:
+					for (int i = 0; i < size; i++) {
+						temp.setIntegerVoid((int) longs[i]);
+						graph.setAttribute(oids[positions[i]], attr, temp);
+					}
+					break;
+				case Long:
+					for (int i = 0; i < size; i++) {
+						temp.setLongVoid(longs[i]);
+						graph.setAttribute(oids[positions[i]], attr, temp);
+					}
+					break;
+				case Double:
+					for (int i = 0; i < size; i++) {
+						temp.setDoubleVoid(doubles[i]);
+						graph.setAttribute(oids[positions[i]], attr, temp);
+					}
+					break;
+				case String:
+					for (int i = 0; i < size; i++) {
+						temp.setStringVoid(strings[i]);
+						graph.setAttribute(oids[positions[i]], attr, temp);
+						strings[i] = null;
+					}
+					break;
+				default:
+					throw new UnsupportedOperationException();
+				}
+			}
+		}
 	}
 }
@@ -2,7 +2,9 @@ package com.tinkerpop.blueprints.extensions.impls.neo4j;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,6 +25,7 @@ import com.tinkerpop.blueprints.extensions.io.fgf.FGFFileReader.PropertyType;
 import com.tinkerpop.blueprints.extensions.io.fgf.FGFFileReader;
 import com.tinkerpop.blueprints.extensions.io.fgf.FGFFileReader.VertexType;
 import com.tinkerpop.blueprints.extensions.io.fgf.FGFFileReaderHandler;
+import com.tinkerpop.blueprints.extensions.util.LongLongLRUCache;
 import com.tinkerpop.blueprints.impls.neo4j.Neo4jGraph;
 import com.tinkerpop.blueprints.util.StringFactory;
 
@@ -34,6 +37,23 @@ import com.tinkerpop.blueprints.util.StringFactory;
  */
 public class Neo4jFGFIncrementalLoader {
 	
+	/**
+	 * The default number of edges with unresolved external endpoints to collect before
+	 * resolving them all at once
+	 */
+	public static final int DEFAULT_EXTERNAL_BATCH_SIZE = 10000;
+	
+	/**
+	 * The default maximum number of resolved external vertices to remember
+	 */
+	public static final int DEFAULT_EXTERNAL_CACHE_SIZE = 1000000;
+	
+	/**
+	 * The maximum number of IDs in a single index query (Lucene limits the number
+	 * of clauses in a boolean query to 1024 by default)
+	 */
+	private static final int MAX_IDS_PER_QUERY = 512;
+	
 	
 	/**
 	 * Load from a FGF file
@@ -61,10 +81,40 @@ public class Neo4jFGFIncrementalLoader {
 	public static void load(Neo4jGraph graph, File file,
 			int txBuffer, GraphProgressListener listener)
 			throws IOException, ClassNotFoundException {
+		load(graph, file, txBuffer, DEFAULT_EXTERNAL_BATCH_SIZE, DEFAULT_EXTERNAL_CACHE_SIZE, listener);
+	}
+	
+	
+	/**
+	 * Load from a FGF file and optionally index all properties
+	 * 
+	 * @param graph the batch graph
+	 * @param file the input file
+	 * @param txBuffer the number of operations before a commit
+	 * @param externalBatchSize the number of edges with unresolved external endpoints to collect
+	 *                          before looking up the endpoints in the index
+	 * @param externalCacheSize the maximum number of resolved external vertices to remember
+	 * @param listener the progress listener
+	 * @throws IOException on I/O or parse error
+	 * @throws ClassNotFoundException on property unmarshalling error due to a missing class
+	 */
+	public static void load(Neo4jGraph graph, File file,
+			int txBuffer, int externalBatchSize, int externalCacheSize,
+			GraphProgressListener listener)
+			throws IOException, ClassNotFoundException {
 		
 		FGFFileReader reader = new FGFFileReader(file);
+		
+		if (reader.isStreaming()) {
+			try {
+				reader.close();
+			}
+			catch (Exception e) {};
+			throw new IOException("The Neo4j incremental loader does not support streaming FGF");
+		}
 
-		Loader l = new Loader(graph, reader, txBuffer, false, listener);
+		Loader l = new Loader(graph, reader, txBuffer, externalBatchSize, externalCacheSize,
+				false, listener);
 		reader.read(l);
 		l.finish();
 		l = null;
@@ -88,8 +138,9 @@ public class Neo4jFGFIncrementalLoader {
 		private boolean indexAllProperties;
 		private GraphProgressListener listener;
 		
-		private long vertexIdUpperBound;
+		private long initialVertexId;
 		private Node[] vertices;
+		private LongLongLRUCache externalVertices;
 		private DynamicRelationshipType relationshipType;
 		private long verticesLoaded;
 		private long edgesLoaded;
@@ -98,6 +149,13 @@ public class Neo4jFGFIncrementalLoader {
 		private int opsSinceCommit;
 		private Transaction tx;
 		
+		private int externalBatchSize;
+		private int pendingEdges;
+		private long[] pendingTails;
+		private long[] pendingHeads;
+		private Map<?, ?>[] pendingProperties;
+		private long[] unresolvedIds;
+		
 		private boolean hasAdditionalVertexLabel;
 		private boolean additionalVertexLabelIndexCreated;
 		private boolean originalVertexIdIndexCreated;
@@ -111,10 +169,14 @@ public class Neo4jFGFIncrementalLoader {
 		 * @param graph the graph
 		 * @param reader the input file reader
 		 * @param txBuffer the number of operations before a commit
+		 * @param externalBatchSize the number of edges with unresolved external endpoints to collect
+		 * @param externalCacheSize the maximum number of resolved external vertices to remember
 		 * @param indexAllProperties whether to index all properties
 		 * @param listener the progress listener
 		 */
-		public Loader(Neo4jGraph graph, FGFFileReader reader, int txBuffer, boolean indexAllProperties, GraphProgressListener listener) {
+		public Loader(Neo4jGraph graph, FGFFileReader reader, int txBuffer,
+				int externalBatchSize, int externalCacheSize,
+				boolean indexAllProperties, GraphProgressListener listener) {
 			
 			this.blueprintsGraph = graph;
 			this.graph = this.blueprintsGraph.getRawGraph();
@@ -124,13 +186,21 @@ public class Neo4jFGFIncrementalLoader {
 			this.indexAllProperties = indexAllProperties;
 			this.listener = listener;
 			
-			this.vertexIdUpperBound = this.reader.getInitialVertexId() + this.reader.getNumberOfVertices(); 
-			this.vertices = new Node[(int) this.vertexIdUpperBound];
+			this.initialVertexId = this.reader.getInitialVertexId(); 
+			this.vertices = new Node[(int) this.reader.getNumberOfVertices()];
+			this.externalVertices = new LongLongLRUCache(Math.max(1, externalCacheSize), -1);
 			this.relationshipType = null;
 			this.verticesLoaded = 0;
 			this.edgesLoaded = 0;
 			this.opsSinceCommit = 0;
 			
+			this.externalBatchSize = Math.max(1, externalBatchSize);
+			this.pendingEdges = 0;
+			this.pendingTails = new long[this.externalBatchSize];
+			this.pendingHeads = new long[this.externalBatchSize];
+			this.pendingProperties = new Map<?, ?>[this.externalBatchSize];
+			this.unresolvedIds = new long[2 * this.externalBatchSize];
+			
 			this.hasAdditionalVertexLabel = false;
 			this.additionalVertexLabelIndexCreated = false;
 			this.originalVertexIdIndexCreated = false;
@@ -158,6 +228,7 @@ public class Neo4jFGFIncrementalLoader {
 		 * Finish the loading process
 		 */
 		public void finish() {
+			resolvePendingEdges();
 			tx.success();
 			tx.finish();
 			tx = null;
@@ -199,7 +270,7 @@ public class Neo4jFGFIncrementalLoader {
 		public void vertex(long id, VertexType type, Map<PropertyType, Object> properties) {
 			
 			Node n = graph.createNode();
-			vertices[(int) id] = n;
+			vertices[(int) (id - initialVertexId)] = n;
 			verticesLoaded++;
 			opsSinceCommit++;
 			
@@ -326,37 +397,177 @@ public class Neo4jFGFIncrementalLoader {
 		@Override
 		public void edge(long id, long tail, long head, EdgeType type, Map<PropertyType, Object> properties) {
 			
-			// Look up the head and tail vertices; attempt to use the key indexes if the corresponding
-			// Node objects are not readily available
+			// Look up the head and tail vertices; if either of them is outside of the file's ID range
+			// and it was not resolved before, defer the edge until we collect a batch of them
 		
-			Node t = vertices[(int) tail];
-			Node h = vertices[(int) head];
+			Node t = findLoadedVertex(tail);
+			Node h = findLoadedVertex(head);
 			
 			if (t == null || h == null) {
-				if (t == null) {
-					Iterable<Node> i = nodeIndexer.getAutoIndex().get(FGFConstants.KEY_ORIGINAL_ID, (int) tail);
-					Iterator<Node> itr = i.iterator();
-					if (itr.hasNext()) t = itr.next();
-					boolean b = itr.hasNext();
-					if (i instanceof IndexHits) ((IndexHits<?>) i).close();
-					if (t == null) throw new RuntimeException("Cannot find vertex with " + FGFConstants.KEY_ORIGINAL_ID + " " + tail);
-					if (b) throw new RuntimeException("There is more than one vertex with " + FGFConstants.KEY_ORIGINAL_ID + " " + tail);
-					vertices[(int) tail] = t;
+				pendingTails[pendingEdges] = tail;
+				pendingHeads[pendingEdges] = head;
+				pendingProperties[pendingEdges] = properties.isEmpty() ? null
+						: new HashMap<PropertyType, Object>(properties);
+				pendingEdges++;
+				
+				if (pendingEdges >= externalBatchSize) resolvePendingEdges();
+				return;
+			}
+			
+			createEdge(t, h, tail, head, properties);
+		}
+		
+		
+		/**
+		 * Find a vertex that was either loaded from this file or that was already resolved
+		 * 
+		 * @param id the original vertex ID
+		 * @return the node, or null if it needs to be looked up in the index
+		 */
+		private Node findLoadedVertex(long id) {
+			
+			long i = id - initialVertexId;
+			if (i >= 0 && i < vertices.length) {
+				Node n = vertices[(int) i];
+				if (n == null) throw new RuntimeException("Cannot find vertex with " + FGFConstants.KEY_ORIGINAL_ID + " " + id);
+				return n;
+			}
+			
+			long nodeId = externalVertices.get(id);
+			return nodeId < 0 ? null : graph.getNodeById(nodeId);
+		}
+		
+		
+		/**
+		 * Resolve the external endpoints of all pending edges using as few index
+		 * queries as possible, and then create the edges
+		 */
+		@SuppressWarnings("unchecked")
+		private void resolvePendingEdges() {
+			
+			if (pendingEdges == 0) return;
+			
+			
+			// Collect the unique unresolved IDs in the sorted order. The external vertices
+			// that are already in the cache go to the batch-local map right away, since
+			// the lookups below might evict them if the cache is smaller than the batch
+			
+			Map<Long, Node> resolved = new HashMap<Long, Node>();
+			int n = 0;
+			for (int i = 0; i < pendingEdges; i++) {
+				n = collectExternal(pendingTails[i], resolved, n);
+				n = collectExternal(pendingHeads[i], resolved, n);
+			}
+			Arrays.sort(unresolvedIds, 0, n);
+			
+			int unique = 0;
+			for (int i = 0; i < n; i++) {
+				if (unique == 0 || unresolvedIds[unique - 1] != unresolvedIds[i]) {
+					unresolvedIds[unique++] = unresolvedIds[i];
+				}
+			}
+			
+			
+			// Look them up in the index, a chunk at a time
+			
+			for (int start = 0; start < unique; start += MAX_IDS_PER_QUERY) {
+				int end = Math.min(unique, start + MAX_IDS_PER_QUERY);
+				
+				StringBuilder query = new StringBuilder();
+				for (int i = start; i < end; i++) {
+					if (i > start) query.append(" OR ");
+					query.append(unresolvedIds[i]);
+				}
+				
+				IndexHits<Node> hits = nodeIndexer.getAutoIndex().query(FGFConstants.KEY_ORIGINAL_ID, query.toString());
+				try {
+					for (Node node : hits) {
+						long originalId = ((Number) node.getProperty(FGFConstants.KEY_ORIGINAL_ID)).longValue();
+						if (resolved.put(originalId, node) != null) {
+							throw new RuntimeException("There is more than one vertex with " + FGFConstants.KEY_ORIGINAL_ID + " " + originalId);
+						}
+						externalVertices.put(originalId, node.getId());
+					}
+				}
+				finally {
+					hits.close();
 				}
 				
-				if (h == null) {
-					Iterable<Node> i = nodeIndexer.getAutoIndex().get(FGFConstants.KEY_ORIGINAL_ID, (int) head);
-					Iterator<Node> itr = i.iterator();
-					if (itr.hasNext()) h = itr.next();
-					boolean b = itr.hasNext();
-					if (i instanceof IndexHits) ((IndexHits<?>) i).close();
-					if (h == null) throw new RuntimeException("Cannot find vertex with " + FGFConstants.KEY_ORIGINAL_ID + " " + head);
-					if (b) throw new RuntimeException("There is more than one vertex with " + FGFConstants.KEY_ORIGINAL_ID + " " + head);
-					vertices[(int) head] = h;
+				for (int i = start; i < end; i++) {
+					if (!resolved.containsKey(unresolvedIds[i])) {
+						throw new RuntimeException("Cannot find vertex with " + FGFConstants.KEY_ORIGINAL_ID + " " + unresolvedIds[i]);
+					}
 				}
 			}
 			
 			
+			// Create the edges using the nodes from this batch rather than from the cache
+			
+			for (int i = 0; i < pendingEdges; i++) {
+				long tail = pendingTails[i];
+				long head = pendingHeads[i];
+				
+				Node t = isExternal(tail) ? resolved.get(tail) : findLoadedVertex(tail);
+				Node h = isExternal(head) ? resolved.get(head) : findLoadedVertex(head);
+				
+				Map<PropertyType, Object> properties = (Map<PropertyType, Object>) pendingProperties[i];
+				if (properties == null) properties = Collections.emptyMap();
+				
+				createEdge(t, h, tail, head, properties);
+				pendingProperties[i] = null;
+			}
+			
+			pendingEdges = 0;
+		}
+		
+		
+		/**
+		 * Add an endpoint of a pending edge either to the map of the resolved vertices
+		 * if it is already in the cache, or to the array of the unresolved IDs
+		 * 
+		 * @param id the original vertex ID
+		 * @param resolved the map of the vertices resolved for the current batch
+		 * @param n the number of the unresolved IDs so far
+		 * @return the new number of the unresolved IDs
+		 */
+		private int collectExternal(long id, Map<Long, Node> resolved, int n) {
+			
+			if (!isExternal(id) || resolved.containsKey(id)) return n;
+			
+			long nodeId = externalVertices.get(id);
+			if (nodeId < 0) {
+				unresolvedIds[n++] = id;
+			}
+			else {
+				resolved.put(id, graph.getNodeById(nodeId));
+			}
+			return n;
+		}
+		
+		
+		/**
+		 * Determine whether the given vertex ID is outside of this file's ID range
+		 * 
+		 * @param id the original vertex ID
+		 * @return true if the vertex needs to be resolved using the index
+		 */
+		private boolean isExternal(long id) {
+			long i = id - initialVertexId;
+			return i < 0 || i >= vertices.length;
+		}
+		
+		
+		/**
+		 * Create an edge between two resolved vertices
+		 * 
+		 * @param t the tail node
+		 * @param h the head node
+		 * @param tail the tail vertex id
+		 * @param head the head vertex id
+		 * @param properties the map of properties
+		 */
+		private void createEdge(Node t, Node h, long tail, long head, Map<PropertyType, Object> properties) {
+			
 			// Create the relationship
 			
 			Relationship r;
@@ -410,6 +621,8 @@ public class Neo4jFGFIncrementalLoader {
 		@Override
 		public void edgeTypeEnd(EdgeType type, long count) {
 			
+			resolvePendingEdges();
+			
 			if (indexAllProperties) {
 				for (PropertyType t : reader.getPropertyTypes()) {
 					PropertyTypeAux x = (PropertyTypeAux) t.getAux();
@@ -56,6 +56,14 @@ public class Neo4jFGFLoader {
 		
 		FGFFileReader reader = new FGFFileReader(file);
 		
+		if (reader.isStreaming()) {
+			try {
+				reader.close();
+			}
+			catch (Exception e) {};
+			throw new IOException("The Neo4j bulk loader does not support streaming FGF");
+		}
+		
 		if (reader.getInitialVertexId() != 0) {
 			try {
 				reader.close();
@@ -0,0 +1,75 @@
+package com.tinkerpop.blueprints.extensions.impls.dex;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import com.tinkerpop.blueprints.BaseTest;
+import com.tinkerpop.blueprints.impls.dex.DexGraph;
+
+/**
+ * Tests for the DEX CSV loader.
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public class DexCSVLoaderTest extends BaseTest {
+
+    public void testMissingVertexFails() throws Exception {
+        final File directory = new File(System.getProperty("java.io.tmpdir"), "dex_csv_test");
+        deleteDirectory(directory);
+        directory.mkdirs();
+
+        // Two node types, so that the edges go through the parallel edge loader
+
+        writeFile(new File(directory, "test-nodesA.csv"), "_id", 0, 1);
+        writeFile(new File(directory, "test-nodesA-meta.csv"), "property,type,count", 0, 0);
+        writeFile(new File(directory, "test-nodesB.csv"), "_id", 1, 2);
+        writeFile(new File(directory, "test-nodesB-meta.csv"), "property,type,count", 0, 0);
+        writeFile(new File(directory, "test-edgesnext-meta.csv"), "property,type,count", 0, 0);
+
+        // The first edge refers to a missing vertex, and there are enough edges
+        // after it to fill the queue, so the parser is blocked when the loader fails
+
+        PrintWriter out = new PrintWriter(new FileWriter(new File(directory, "test-edgesnext.csv")));
+        out.println("_head,_tail");
+        out.println("99,0");
+        for (int i = 0; i < 100000; i++) out.println((i % 2) + "," + ((i + 1) % 2));
+        out.close();
+
+        // Load in a separate thread, so that a hang fails the test instead of blocking it
+
+        final Throwable[] result = new Throwable[1];
+
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DexGraph graph = new DexGraph(new File(directory, "graph.dex").getAbsolutePath());
+                try {
+                    DexCSVLoader.load(graph.getRawGraph(), directory, "test");
+                }
+                catch (Throwable e) {
+                    result[0] = e;
+                }
+                finally {
+                    graph.shutdown();
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        t.join(60000);
+
+        assertFalse("The loader hung", t.isAlive());
+        assertTrue(result[0] instanceof IOException);
+
+        deleteDirectory(directory);
+    }
+
+    private static void writeFile(File file, String header, int from, int to) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        out.println(header);
+        for (int i = from; i < to; i++) out.println(i);
+        out.close();
+    }
+}
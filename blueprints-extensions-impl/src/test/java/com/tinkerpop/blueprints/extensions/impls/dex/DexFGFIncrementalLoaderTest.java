@@ -0,0 +1,74 @@
+package com.tinkerpop.blueprints.extensions.impls.dex;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.tinkerpop.blueprints.BaseTest;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.io.fgf.FGFConstants;
+import com.tinkerpop.blueprints.extensions.io.fgf.FGFFileWriter;
+import com.tinkerpop.blueprints.impls.dex.DexGraph;
+
+/**
+ * Tests for the DEX FGF incremental loader.
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public class DexFGFIncrementalLoaderTest extends BaseTest {
+
+    private static Map<String, Object> properties(int i) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        if (i % 2 == 0) properties.put("even", i);
+        if (i % 3 == 0) properties.put("name", "v" + i);
+        properties.put("weight", i / 2.0);
+        properties.put("odd", i % 2 == 1);
+        return properties;
+    }
+
+    public void testBatchesWithNonConsecutiveIds() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "dex_fgf_test");
+        deleteDirectory(directory);
+        directory.mkdirs();
+
+        // The second file starts at vertex ID 10, so its IDs do not start at 0
+        // and continue where the first file ended, and the batches of 3 objects
+        // do not line up with the files or with the sparse attributes
+
+        File first = new File(directory, "first.fgf");
+        FGFFileWriter w = new FGFFileWriter(first);
+        for (int i = 0; i < 10; i++) w.writeVertex(properties(i));
+        w.writeEdge(0, 9, "next", null);
+        w.close();
+
+        File second = new File(directory, "second.fgf");
+        w = new FGFFileWriter(second, 10, 1);
+        for (int i = 10; i < 17; i++) w.writeVertex(properties(i));
+        for (int i = 10; i < 16; i++) w.writeEdge(i, i + 1, "next", null);
+        w.writeEdge(16, 0, "next", null);
+        w.close();
+
+        DexGraph graph = new DexGraph(new File(directory, "graph.dex").getAbsolutePath());
+        DexFGFIncrementalLoader.load(graph, first, 3, null);
+        DexFGFIncrementalLoader.load(graph, second, 3, null);
+
+        Map<Integer, Vertex> vertices = new HashMap<Integer, Vertex>();
+        for (Vertex v : graph.getVertices()) {
+            Object id = v.getProperty(FGFConstants.KEY_ORIGINAL_ID);
+            assertNull(vertices.put((Integer) id, v));
+        }
+        assertEquals(17, vertices.size());
+
+        for (int i = 0; i < 17; i++) {
+            Vertex v = vertices.get(i);
+            assertNotNull(v);
+            assertEquals(i % 2 == 0 ? Integer.valueOf(i) : null, v.getProperty("even"));
+            assertEquals(i % 3 == 0 ? "v" + i : null, v.getProperty("name"));
+            assertEquals(i / 2.0, v.getProperty("weight"));
+            assertEquals(i % 2 == 1, v.getProperty("odd"));
+        }
+
+        graph.shutdown();
+        deleteDirectory(directory);
+    }
+}
@@ -0,0 +1,106 @@
+package com.tinkerpop.blueprints.extensions.impls.neo4j;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.tinkerpop.blueprints.BaseTest;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.extensions.io.fgf.FGFConstants;
+import com.tinkerpop.blueprints.extensions.io.fgf.FGFFileWriter;
+import com.tinkerpop.blueprints.impls.neo4j.Neo4jGraph;
+
+/**
+ * Tests for the Neo4j FGF incremental loader.
+ *
+ * @author Peter Macko (http://eecs.harvard.edu/~pmacko)
+ */
+public class Neo4jFGFIncrementalLoaderTest extends BaseTest {
+
+    public void testExternalBatchLargerThanCache() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "neo4j_fgf_test");
+        deleteDirectory(directory);
+        directory.mkdirs();
+
+        // The first file has the vertices, the second only edges between them,
+        // so that all of their endpoints are external to the second file
+
+        File first = new File(directory, "first.fgf");
+        FGFFileWriter w = new FGFFileWriter(first);
+        for (int i = 0; i < 20; i++) w.writeVertex(null);
+        w.close();
+
+        File second = new File(directory, "second.fgf");
+        w = new FGFFileWriter(second, 20, 0);
+        w.writeVertex(null);
+        for (int i = 0; i < 20; i++) {
+            Map<String, Object> properties = new HashMap<String, Object>();
+            properties.put("i", i);
+            w.writeEdge(i, (i + 1) % 20, "next", properties);
+        }
+        w.close();
+
+        // Batches of 4 edges with a cache of 2 vertices: the second batch starts
+        // with a vertex that is cached, but that is evicted by the lookups
+
+        Neo4jGraph graph = new Neo4jGraph(new File(directory, "graph").getAbsolutePath());
+        graph.createKeyIndex(FGFConstants.KEY_ORIGINAL_ID, Vertex.class);
+        Neo4jFGFIncrementalLoader.load(graph, first, 1000, 4, 2, null);
+        Neo4jFGFIncrementalLoader.load(graph, second, 1000, 4, 2, null);
+
+        Map<Integer, Vertex> vertices = new HashMap<Integer, Vertex>();
+        for (Vertex v : graph.getVertices()) {
+            Object id = v.getProperty(FGFConstants.KEY_ORIGINAL_ID);
+            if (id != null) vertices.put((Integer) id, v);
+        }
+        assertEquals(21, vertices.size());
+
+        for (int i = 0; i < 20; i++) {
+            int n = 0;
+            for (Edge e : vertices.get(i).getEdges(Direction.OUT, "next")) {
+                assertEquals(i, e.getProperty("i"));
+                assertEquals(vertices.get((i + 1) % 20), e.getVertex(Direction.IN));
+                n++;
+            }
+            assertEquals(1, n);
+        }
+
+        graph.shutdown();
+        deleteDirectory(directory);
+    }
+
+    public void testStreamingFGFIsRejected() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "neo4j_fgf_test");
+        deleteDirectory(directory);
+        directory.mkdirs();
+
+        // The streaming FGF does not have the vertex count that the loader
+        // needs to size its arrays up front
+
+        File file = new File(directory, "stream.fgfs");
+        FileOutputStream out = new FileOutputStream(file);
+        FGFFileWriter w = new FGFFileWriter(out);
+        for (int i = 0; i < 10; i++) w.writeVertex(null);
+        w.writeEdge(0, 1, "next", null);
+        w.close();
+        out.close();
+
+        Neo4jGraph graph = new Neo4jGraph(new File(directory, "graph").getAbsolutePath());
+        graph.createKeyIndex(FGFConstants.KEY_ORIGINAL_ID, Vertex.class);
+        try {
+            Neo4jFGFIncrementalLoader.load(graph, file);
+            fail();
+        }
+        catch (IOException e) {
+            // Expected
+        }
+        assertFalse(graph.getVertices(FGFConstants.KEY_ORIGINAL_ID, 0).iterator().hasNext());
+
+        graph.shutdown();
+        deleteDirectory(directory);
+    }
+}
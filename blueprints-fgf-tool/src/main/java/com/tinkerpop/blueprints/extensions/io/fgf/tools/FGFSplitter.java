@@ -152,6 +152,10 @@ public class FGFSplitter {
 
 		try {
 			FGFFileReader reader = new FGFFileReader(inputFile);
+			if (reader.isStreaming()) {
+				reader.close();
+				throw new IOException("Error: The splitter does not support streaming FGF");
+			}
 			
 			FGFFileReader.VertexType[] vertexTypes = reader.getVertexTypes();
 			FGFFileReader.EdgeType[] edgeTypes = reader.getEdgeTypes();
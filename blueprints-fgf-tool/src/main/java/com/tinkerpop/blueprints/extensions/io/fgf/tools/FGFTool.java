@@ -501,6 +501,11 @@ public class FGFTool {
     	// Tool
     	
      	FGFFileReader r = new FGFFileReader(new File(inputFile));
+     	if (r.isStreaming()) {
+     		try { r.close(); } catch (Exception e) {};
+     		System.err.println("Error: The stat tool does not support streaming FGF");
+     		return 1;
+     	}
      	
     	final long[] totalEdges = new long[] { 0 };
     	final long[] totalNodes = new long[] { 0 };